@@ -1,5 +1,6 @@
 package com.scalior.android.schedulealarmmanager.sampleapp;
 
+import android.app.Activity;
 import android.app.TimePickerDialog;
 import android.net.Uri;
 import android.os.Bundle;
@@ -16,10 +17,14 @@ import android.widget.TextView;
 import android.widget.TimePicker;
 
 import com.scalior.schedulealarmmanager.SAMCallback;
+import com.scalior.schedulealarmmanager.SAMResultCallback;
 import com.scalior.schedulealarmmanager.SAManager;
+import com.scalior.schedulealarmmanager.ScheduleSpec;
 import com.scalior.schedulealarmmanager.ScheduleState;
+import com.scalior.schedulealarmmanager.UpcomingAlarm;
 
 import java.text.DateFormatSymbols;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
@@ -99,15 +104,25 @@ public class WeeklyScheduleFragment extends Fragment {
 		m_suspendAllSchedulesCB = (CheckBox)rootView.findViewById(R.id.sch_group_suspend);
 		m_suspendAllSchedulesCB.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
 			@Override
-			public void onCheckedChanged(CompoundButton compoundButton, boolean checked) {
-				boolean success = false;
+			public void onCheckedChanged(CompoundButton compoundButton, final boolean checked) {
+				// Run the group change in the background. The result is delivered on the UI thread.
+				SAMResultCallback<Boolean> callback = new SAMResultCallback<Boolean>() {
+					@Override
+					public void onComplete(Boolean success) {
+						if (success) {
+							setViewsForScheduleGroupState(!checked);
+						}
+					}
+
+					@Override
+					public void onError(Exception error) {
+					}
+				};
+
 				if (checked) {
-					success = m_scheduleMgr.disableScheduleGroup(SCHEDULE_GROUP);
+					m_scheduleMgr.disableScheduleGroupAsync(SCHEDULE_GROUP, callback);
 				} else {
-					success = m_scheduleMgr.enableScheduleGroup(SCHEDULE_GROUP);
-				}
-				if (success) {
-					setViewsForScheduleGroupState(!checked);
+					m_scheduleMgr.enableScheduleGroupAsync(SCHEDULE_GROUP, callback);
 				}
 			}
 		});
@@ -290,9 +305,10 @@ public class WeeklyScheduleFragment extends Fragment {
 			}
 
 			// Next alarm details
-			if (m_scheduleMgr.getTimeForNextAlarm() != null) {
-				Date alarmDate = m_scheduleMgr.getTimeForNextAlarm().getTime();
-				m_nextAlarmInfo.setText(m_scheduleMgr.getScheduleForNextAlarm().getTag() + " - " +
+			UpcomingAlarm nextAlarm = m_scheduleMgr.getNextAlarmSnapshot().getNextAlarm();
+			if (nextAlarm != null) {
+				Date alarmDate = new Date(nextAlarm.getAlarmTimeMillis());
+				m_nextAlarmInfo.setText(nextAlarm.getSchedule().getTag() + " - " +
 						DateFormat.getDateFormat(getActivity()).format(alarmDate) + " " +
 						DateFormat.getTimeFormat(getActivity()).format(alarmDate));
 			} else {
@@ -353,13 +369,15 @@ public class WeeklyScheduleFragment extends Fragment {
 		startTime.set(Calendar.AM_PM, Calendar.AM);
 		int duration = 8 * 60;  // 8 hours in minutes
 
-		m_scheduleMgr.suspendCallbacks();
-
+		List<ScheduleSpec> scheduleSpecs = new ArrayList<ScheduleSpec>();
 		for (int i = 0; i < 7; i++) {
-			m_scheduleMgr.addSchedule(startTime, duration, SAManager.REPEAT_TYPE_WEEKLY,
-					getDayTag(startTime.get(Calendar.DAY_OF_WEEK)), "ScheduleSet1");
+			scheduleSpecs.add(new ScheduleSpec(startTime, duration, SAManager.REPEAT_TYPE_WEEKLY,
+					getDayTag(startTime.get(Calendar.DAY_OF_WEEK)), "ScheduleSet1"));
 			startTime.add(Calendar.DAY_OF_MONTH, 1);
 		}
+
+		m_scheduleMgr.suspendCallbacks();
+		m_scheduleMgr.addSchedules(scheduleSpecs);
 		m_scheduleMgr.resumeCallbacks();
 	}
 
@@ -505,7 +523,22 @@ public class WeeklyScheduleFragment extends Fragment {
 	private class MySAMCallback implements SAMCallback {
 
 		@Override
-		public void onScheduleStateChange(SparseArray<ScheduleState> changedSchedules) {
+		public void onScheduleStateChange(final SparseArray<ScheduleState> changedSchedules) {
+			// Alarms are processed on a background thread, so move to the UI thread
+			Activity activity = getActivity();
+			if (activity == null) {
+				return;
+			}
+
+			activity.runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					updateViews(changedSchedules);
+				}
+			});
+		}
+
+		private void updateViews(SparseArray<ScheduleState> changedSchedules) {
 			if (changedSchedules != null) {
 				for (int i = 0; i < changedSchedules.size(); i++) {
 					ScheduleState schedule = changedSchedules.valueAt(i);
@@ -529,9 +562,10 @@ public class WeeklyScheduleFragment extends Fragment {
 			}
 
 			// Next alarm details
-			if (m_scheduleMgr.getTimeForNextAlarm() != null) {
-				Date alarmDate = m_scheduleMgr.getTimeForNextAlarm().getTime();
-				m_nextAlarmInfo.setText(m_scheduleMgr.getScheduleForNextAlarm().getTag() + " - " +
+			UpcomingAlarm nextAlarm = m_scheduleMgr.getNextAlarmSnapshot().getNextAlarm();
+			if (nextAlarm != null) {
+				Date alarmDate = new Date(nextAlarm.getAlarmTimeMillis());
+				m_nextAlarmInfo.setText(nextAlarm.getSchedule().getTag() + " - " +
 						DateFormat.getDateFormat(getActivity()).format(alarmDate) + " " +
 						DateFormat.getTimeFormat(getActivity()).format(alarmDate));
 			} else {
@@ -0,0 +1,293 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.android.schedulealarmmanager;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.scalior.schedulealarmmanager.database.SAMSQLiteHelper;
+import com.scalior.schedulealarmmanager.model.StateCode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.scalior.schedulealarmmanager.database.SAMSchema.*;
+
+/**
+ * Tests of the database created and upgraded by SAMSQLiteHelper.
+ * Every test runs on an in-memory database, so the database of the app is left alone.
+ */
+public class SAMSQLiteHelperTest extends AndroidTestCase {
+
+    // Tables of database version 6, which stored states as SAManager.STATE_ON and STATE_OFF.
+    // Version 7 only added the indexes.
+    private static final String V6_SCHEDULEGROUP_CREATE = "create table " +
+            TABLE_SCHEDULEGROUP + " (" +
+            SCHEDULEGROUP_ID + " integer primary key autoincrement, " +
+            SCHEDULEGROUP_TAG + " text not null, " +
+            SCHEDULEGROUP_ENABLED_FL + " boolean not null, " +
+            SCHEDULEGROUP_OVERALL_STATE + " text );";
+    private static final String V6_SCHEDULE_CREATE = "create table " +
+            TABLE_SCHEDULE + " (" +
+            SCHEDULE_ID + " integer primary key autoincrement, " +
+            SCHEDULE_START_TIME + " datetime not null, " +
+            SCHEDULE_REPEAT_TYPE + " integer not null, " +
+            SCHEDULE_DURATION + " integer not null, " +
+            SCHEDULE_TAG + " text not null, " +
+            SCHEDULE_STATE + " text, " +
+            SCHEDULE_DISABLE_FL + " boolean, " +
+            SCHEDULE_GROUP_ID + " integer);";
+    private static final String V6_EVENT_CREATE = "create table " +
+            TABLE_EVENT + " (" +
+            EVENT_ID + " integer primary key autoincrement, " +
+            EVENT_SCHEDULE_ID + " integer references " + TABLE_SCHEDULE + " on delete cascade, " +
+            EVENT_ALARM_TIME + " datetime not null, " +
+            EVENT_STATE + " text not null);";
+
+    private static final String[] TABLES = {TABLE_SCHEDULEGROUP, TABLE_SCHEDULE, TABLE_EVENT};
+
+    // 2015-03-15 12:00 UTC, in seconds
+    private static final long START_TIME = 1426420800L;
+
+    private SAMSQLiteHelper m_helper;
+    private SQLiteDatabase m_database;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        m_helper = SAMSQLiteHelper.getInstance(getContext());
+        m_database = SQLiteDatabase.create(null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        m_database.close();
+        super.tearDown();
+    }
+
+    public void testQueriesOfNewDatabaseUseIndexes() {
+        m_helper.onCreate(m_database);
+
+        assertQueriesUseIndexes();
+    }
+
+    public void testUpgradeFromVersion6KeepsRowsAndIds() {
+        createVersion6();
+
+        assertUpgradeKeepsRowsAndIds(6);
+    }
+
+    public void testUpgradeFromVersion7KeepsRowsAndIds() {
+        createVersion6();
+        m_database.execSQL(INDEX_EVENT_ALARM_TIME_CREATE);
+        m_database.execSQL(INDEX_EVENT_SCHEDULE_ID_CREATE);
+        m_database.execSQL(INDEX_SCHEDULE_GROUP_ID_CREATE);
+        m_database.execSQL(INDEX_SCHEDULE_TAG_CREATE);
+        m_database.execSQL(INDEX_SCHEDULEGROUP_TAG_CREATE);
+
+        assertUpgradeKeepsRowsAndIds(7);
+    }
+
+
+    /*
+     * Fills the tables, upgrades them to the current version, then checks that the rows,
+     * their converted states and the autoincrement counters are kept
+     */
+    private void assertUpgradeKeepsRowsAndIds(int oldVersion) {
+        insertGroup("porch", StateCode.ON_NAME);
+        insertGroup("hall", null);
+        long deletedGroupId = insertGroup("spare", StateCode.OFF_NAME);
+        long onScheduleId = insertSchedule("light", StateCode.ON_NAME, false, 1);
+        long offScheduleId = insertSchedule("fan", StateCode.OFF_NAME, true, 1);
+        long deletedScheduleId = insertSchedule("spare", null, false, 2);
+        insertEvent(onScheduleId, StateCode.ON_NAME);
+        insertEvent(onScheduleId, StateCode.OFF_NAME);
+        insertEvent(offScheduleId, StateCode.ON_NAME);
+        insertEvent(offScheduleId, StateCode.OFF_NAME);
+        insertEvent(deletedScheduleId, StateCode.ON_NAME);
+        insertEvent(deletedScheduleId, StateCode.OFF_NAME);
+
+        // The last rows are deleted, so the counters are ahead of the largest ids
+        m_database.execSQL("DELETE FROM " + TABLE_EVENT + " WHERE " + EVENT_SCHEDULE_ID + " = ?",
+                new Object[]{deletedScheduleId});
+        m_database.execSQL("DELETE FROM " + TABLE_SCHEDULE + " WHERE " + SCHEDULE_ID + " = ?",
+                new Object[]{deletedScheduleId});
+        m_database.execSQL("DELETE FROM " + TABLE_SCHEDULEGROUP + " WHERE " +
+                SCHEDULEGROUP_ID + " = ?", new Object[]{deletedGroupId});
+
+        List<Long> sequences = new ArrayList<Long>();
+        for (String table : TABLES) {
+            sequences.add(querySequence(table));
+        }
+
+        // SQLiteOpenHelper runs onUpgrade in a transaction
+        m_database.beginTransaction();
+        try {
+            m_helper.onUpgrade(m_database, oldVersion, 8);
+            m_database.setTransactionSuccessful();
+        } finally {
+            m_database.endTransaction();
+        }
+
+        assertEquals(listOf(1L, null), queryLongs("SELECT " + SCHEDULEGROUP_OVERALL_STATE +
+                " FROM " + TABLE_SCHEDULEGROUP + " ORDER BY " + SCHEDULEGROUP_ID));
+        assertEquals(listOf(1L, 0L), queryLongs("SELECT " + SCHEDULE_STATE +
+                " FROM " + TABLE_SCHEDULE + " ORDER BY " + SCHEDULE_ID));
+        assertEquals(listOf(0L, 1L), queryLongs("SELECT " + SCHEDULE_DISABLE_FL +
+                " FROM " + TABLE_SCHEDULE + " ORDER BY " + SCHEDULE_ID));
+        assertEquals(listOf(1L, 0L, 1L, 0L), queryLongs("SELECT " + EVENT_STATE +
+                " FROM " + TABLE_EVENT + " ORDER BY " + EVENT_ID));
+        assertEquals(listOf(onScheduleId, onScheduleId, offScheduleId, offScheduleId),
+                queryLongs("SELECT " + EVENT_SCHEDULE_ID + " FROM " + TABLE_EVENT +
+                        " ORDER BY " + EVENT_ID));
+
+        for (int i = 0; i < TABLES.length; i++) {
+            assertEquals(TABLES[i], sequences.get(i), querySequence(TABLES[i]));
+        }
+        assertEquals(listOf(0L), queryLongs("SELECT COUNT(*) FROM sqlite_sequence WHERE name " +
+                "NOT IN ('" + TABLE_SCHEDULEGROUP + "', '" + TABLE_SCHEDULE + "', '" +
+                TABLE_EVENT + "')"));
+
+        // Deleted ids are not reused
+        long newScheduleId = insertSchedule("heater", null, false, 1);
+        assertEquals(deletedScheduleId + 1, newScheduleId);
+
+        // The events still belong to their schedule
+        m_database.execSQL("PRAGMA foreign_keys=ON;");
+        m_database.execSQL("DELETE FROM " + TABLE_SCHEDULE + " WHERE " + SCHEDULE_ID + " = ?",
+                new Object[]{onScheduleId});
+        assertEquals(listOf(2L), queryLongs("SELECT COUNT(*) FROM " + TABLE_EVENT));
+
+        assertQueriesUseIndexes();
+    }
+
+    /*
+     * Asserts that the queries run by the alarm processing and the deletes by tag and group
+     * look rows up through the indexes instead of scanning a table
+     */
+    private void assertQueriesUseIndexes() {
+        assertUsesIndexes(QUERY_EXPIRED_EVENTS, "event_alarmtime_idx");
+        assertUsesIndexes(QUERY_NEXT_EVENT, "event_alarmtime_idx");
+        assertUsesIndexes(QUERY_EVENTS_BY_SCHEDULE_IDS, "event_scheduleid_idx");
+        assertUsesIndexes(QUERY_SCHEDULES_BY_GROUP_ID, "schedule_groupid_idx");
+        assertUsesIndexes(QUERY_SCHEDULEGROUP_BY_TAG, "schedulegroup_tag_idx");
+        assertUsesIndexes(DELETE_EVENTS_BY_SCHEDULE_ID, "event_scheduleid_idx");
+        assertUsesIndexes(DELETE_EVENTS_BY_GROUP_ID, "event_scheduleid_idx",
+                "schedule_groupid_idx");
+        assertUsesIndexes(DELETE_SCHEDULES_BY_TAG, "schedule_tag_idx");
+        assertUsesIndexes(DELETE_SCHEDULES_BY_GROUP_TAG, "schedule_groupid_idx",
+                "schedulegroup_tag_idx");
+    }
+
+    private void assertUsesIndexes(String sql, String... indexes) {
+        List<String> plan = explainQueryPlan(sql);
+        for (String index : indexes) {
+            assertTrue(sql + " doesn't use " + index + ": " + plan,
+                    plan.toString().contains(index));
+        }
+        for (String step : plan) {
+            assertFalse(sql + " scans a table: " + plan, step.startsWith("SCAN "));
+        }
+    }
+
+    /*
+     * Returns the steps of the query plan of a statement, with every parameter bound
+     */
+    private List<String> explainQueryPlan(String sql) {
+        String[] args = new String[sql.length() - sql.replace("?", "").length()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = "1";
+        }
+
+        List<String> plan = new ArrayList<String>();
+        Cursor cursor = m_database.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detailColumn = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    private void createVersion6() {
+        m_database.execSQL(TABLE_DBCREATION_CREATE);
+        m_database.execSQL(V6_SCHEDULEGROUP_CREATE);
+        m_database.execSQL(V6_SCHEDULE_CREATE);
+        m_database.execSQL(V6_EVENT_CREATE);
+    }
+
+    private long insertGroup(String tag, String overallState) {
+        m_database.execSQL("INSERT INTO " + TABLE_SCHEDULEGROUP + " (" + SCHEDULEGROUP_TAG + ", " +
+                SCHEDULEGROUP_ENABLED_FL + ", " + SCHEDULEGROUP_OVERALL_STATE + ") VALUES (?, ?, ?)",
+                new Object[]{tag, 1, overallState});
+        return queryLastId();
+    }
+
+    private long insertSchedule(String tag, String state, boolean disabled, long groupId) {
+        m_database.execSQL(INSERT_SCHEDULE, new Object[]{START_TIME, 60, 2, tag, state,
+                disabled ? 1 : 0, groupId});
+        return queryLastId();
+    }
+
+    private void insertEvent(long scheduleId, String state) {
+        m_database.execSQL(INSERT_EVENT, new Object[]{scheduleId, START_TIME, state});
+    }
+
+    private long queryLastId() {
+        return queryLongs("SELECT last_insert_rowid()").get(0);
+    }
+
+    private Long querySequence(String table) {
+        List<Long> sequences = queryLongs("SELECT seq FROM sqlite_sequence WHERE name = '" +
+                table + "'");
+        return sequences.isEmpty() ? null : sequences.get(0);
+    }
+
+    /*
+     * Returns the first column of every row of a query. NULL values are returned as null.
+     */
+    private List<Long> queryLongs(String sql) {
+        List<Long> values = new ArrayList<Long>();
+        Cursor cursor = m_database.rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                values.add(cursor.isNull(0) ? null : cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return values;
+    }
+
+    private static List<Long> listOf(Long... values) {
+        List<Long> list = new ArrayList<Long>();
+        for (Long value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,305 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.android.schedulealarmmanager;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import com.scalior.schedulealarmmanager.AlarmProcessingUtil;
+import com.scalior.schedulealarmmanager.NextAlarmSnapshot;
+import com.scalior.schedulealarmmanager.SAMBatchCallback;
+import com.scalior.schedulealarmmanager.SAMResultCallback;
+import com.scalior.schedulealarmmanager.SAManager;
+import com.scalior.schedulealarmmanager.ScheduleState;
+import com.scalior.schedulealarmmanager.ScheduleStateBatch;
+import com.scalior.schedulealarmmanager.UpcomingAlarm;
+import com.scalior.schedulealarmmanager.database.SAMSQLiteHelper;
+import com.scalior.schedulealarmmanager.modelholder.ScheduleEvent;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests of SAManager called from several threads at once, with the state updates coalesced
+ * on the background thread. All the schedules are added to GROUP_TAG, which is deleted when
+ * a test ends.
+ */
+public class SAManagerConcurrencyTest extends AndroidTestCase {
+
+    private static final String GROUP_TAG = "samConcurrencyTest";
+    private static final int THREADS = 4;
+    private static final int SCHEDULES_PER_THREAD = 20;
+    private static final long COALESCING_DELAY_MS = 50;
+    private static final long TIMEOUT_S = 60;
+
+    // What each thread does to the schedules it adds, in turn
+    private static final int UPDATE = 0;
+    private static final int DISABLE = 1;
+    private static final int CANCEL = 2;
+    private static final int KEEP = 3;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private Context m_context;
+    private SAManager m_manager;
+    private final AtomicReference<Throwable> m_failure = new AtomicReference<Throwable>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        m_context = getContext().getApplicationContext();
+        m_manager = SAManager.getInstance(m_context);
+        m_manager.init();
+        m_manager.deleteSchedulesByGroupTag(GROUP_TAG);
+        m_manager.setCallbackExecutor(DIRECT_EXECUTOR);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        m_manager.setCoalescingDelay(0);
+        m_manager.setBatchCallback(null, true);
+        m_manager.setCallbackExecutor(null);
+        m_manager.deleteSchedulesByGroupTag(GROUP_TAG);
+        super.tearDown();
+    }
+
+    public void testGetInstanceReturnsOneInstanceToAllThreads() throws Throwable {
+        final Object[][] instances = new Object[THREADS][];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        instances[thread] = new Object[] {
+                                SAManager.getInstance(m_context),
+                                AlarmProcessingUtil.getInstance(m_context),
+                                SAMSQLiteHelper.getInstance(m_context)};
+                    } catch (Throwable t) {
+                        m_failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        joinAll(threads);
+
+        for (Object[] threadInstances : instances) {
+            assertSame(m_manager, threadInstances[0]);
+            assertSame(AlarmProcessingUtil.getInstance(m_context), threadInstances[1]);
+            assertSame(SAMSQLiteHelper.getInstance(m_context), threadInstances[2]);
+        }
+    }
+
+    public void testConcurrentChangesLeaveConsistentStates() throws Throwable {
+        final Object writerLock = AlarmProcessingUtil.getInstance(m_context);
+        m_manager.setBatchCallback(new SAMBatchCallback() {
+            @Override
+            public void onScheduleStatesChange(ScheduleStateBatch changedSchedules) {
+                if (Thread.holdsLock(writerLock)) {
+                    m_failure.compareAndSet(null,
+                            new AssertionError("Callback called under the writer lock"));
+                }
+            }
+        }, true);
+        m_manager.setCoalescingDelay(COALESCING_DELAY_MS);
+
+        // The outcome expected for each schedule added: true if it is disabled, false if it is
+        // enabled. Cancelled schedules are not kept.
+        final Map<Long, Boolean> expectedSchedules = new ConcurrentHashMap<Long, Boolean>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            // Every other thread uses the asynchronous calls
+            final boolean async = i % 2 == 1;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < SCHEDULES_PER_THREAD; j++) {
+                            runScheduleOperations(j % 4, async, expectedSchedules);
+                            NextAlarmSnapshot snapshot = m_manager.getNextAlarmSnapshot();
+                            snapshot.getNextAlarmTimeMillis(GROUP_TAG);
+                        }
+                    } catch (Throwable t) {
+                        m_failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        joinAll(threads);
+
+        m_manager.flushScheduleStates();
+        if (m_failure.get() != null) {
+            throw m_failure.get();
+        }
+
+        assertScheduleStates(expectedSchedules);
+    }
+
+
+    /*
+     * Adds a schedule, then updates, disables, cancels or keeps it, and records the outcome
+     */
+    private void runScheduleOperations(int operation, boolean async,
+                                       Map<Long, Boolean> expectedSchedules) throws Exception {
+        Calendar startTime = Calendar.getInstance();
+        startTime.add(Calendar.HOUR_OF_DAY, 1);
+        startTime.add(Calendar.MINUTE, operation);
+
+        long scheduleId;
+        if (async) {
+            scheduleId = m_manager.addScheduleAsync(startTime, 30, SAManager.REPEAT_TYPE_DAILY,
+                    "schedule", GROUP_TAG, new ResultCallback<Long>())
+                    .get(TIMEOUT_S, TimeUnit.SECONDS);
+        } else {
+            scheduleId = m_manager.addSchedule(startTime, 30, SAManager.REPEAT_TYPE_DAILY,
+                    "schedule", GROUP_TAG);
+        }
+        assertTrue(scheduleId > 0);
+
+        switch (operation) {
+            case UPDATE:
+                startTime.add(Calendar.MINUTE, 10);
+                long updatedScheduleId = async ?
+                        m_manager.updateScheduleAsync(scheduleId, startTime, 45,
+                                new ResultCallback<Long>()).get(TIMEOUT_S, TimeUnit.SECONDS) :
+                        m_manager.updateSchedule(scheduleId, startTime, 45);
+                assertEquals(scheduleId, updatedScheduleId);
+                expectedSchedules.put(scheduleId, false);
+                break;
+            case DISABLE:
+                assertTrue(async ?
+                        m_manager.disableScheduleAsync(scheduleId, new ResultCallback<Boolean>())
+                                .get(TIMEOUT_S, TimeUnit.SECONDS) :
+                        m_manager.disableSchedule(scheduleId));
+                expectedSchedules.put(scheduleId, true);
+                break;
+            case CANCEL:
+                assertTrue(async ?
+                        m_manager.cancelScheduleByIdAsync(scheduleId, new ResultCallback<Boolean>())
+                                .get(TIMEOUT_S, TimeUnit.SECONDS) :
+                        m_manager.cancelScheduleById(scheduleId));
+                break;
+            case KEEP:
+                expectedSchedules.put(scheduleId, false);
+                break;
+        }
+    }
+
+    /*
+     * Asserts that the group holds the schedules expected, that the enabled ones have their
+     * start and stop events and the disabled ones none, and that the next alarm of the group
+     * is the earliest of those events
+     */
+    private void assertScheduleStates(Map<Long, Boolean> expectedSchedules) {
+        List<ScheduleState> scheduleStates = m_manager.getScheduleStatesByGroupTag(GROUP_TAG);
+        assertNotNull(scheduleStates);
+
+        Map<Long, ScheduleState> scheduleStatesById = new HashMap<Long, ScheduleState>();
+        for (ScheduleState scheduleState : scheduleStates) {
+            scheduleStatesById.put(scheduleState.getScheduleId(), scheduleState);
+        }
+        assertEquals(expectedSchedules.keySet(), scheduleStatesById.keySet());
+
+        SAMSQLiteHelper dbHelper = SAMSQLiteHelper.getInstance(m_context);
+        Set<Long> enabledScheduleIds = new HashSet<Long>();
+        long nextAlarmTimeMillis = NextAlarmSnapshot.NO_ALARM;
+        for (Map.Entry<Long, Boolean> expectedSchedule : expectedSchedules.entrySet()) {
+            long scheduleId = expectedSchedule.getKey();
+            boolean disabled = expectedSchedule.getValue();
+            ScheduleState scheduleState = scheduleStatesById.get(scheduleId);
+            assertEquals(disabled, scheduleState.isDisabled());
+            // All schedules start in the future, so none of them is on yet
+            assertEquals(SAManager.STATE_OFF, scheduleState.getState());
+
+            List<ScheduleEvent> scheduleEvents =
+                    dbHelper.getScheduleEventsByScheduleIds(new long[] {scheduleId});
+            if (disabled) {
+                assertTrue(scheduleEvents == null || scheduleEvents.isEmpty());
+                continue;
+            }
+            assertNotNull(scheduleEvents);
+            assertEquals(2, scheduleEvents.size());
+            enabledScheduleIds.add(scheduleId);
+            for (ScheduleEvent scheduleEvent : scheduleEvents) {
+                long alarmTimeMillis = scheduleEvent.getEvent().getAlarmTimeMillis();
+                if (nextAlarmTimeMillis == NextAlarmSnapshot.NO_ALARM ||
+                        alarmTimeMillis < nextAlarmTimeMillis) {
+                    nextAlarmTimeMillis = alarmTimeMillis;
+                }
+            }
+        }
+
+        NextAlarmSnapshot snapshot = m_manager.getNextAlarmSnapshot();
+        assertEquals(nextAlarmTimeMillis, snapshot.getNextAlarmTimeMillis(GROUP_TAG));
+        UpcomingAlarm nextAlarm = snapshot.getNextAlarm(GROUP_TAG);
+        assertNotNull(nextAlarm);
+        assertTrue(enabledScheduleIds.contains(nextAlarm.getSchedule().getScheduleId()));
+    }
+
+    private void joinAll(Thread[] threads) throws Throwable {
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_S));
+            assertFalse("Thread didn't finish", thread.isAlive());
+        }
+        if (m_failure.get() != null) {
+            throw m_failure.get();
+        }
+    }
+
+    /*
+     * Records the error of an asynchronous call as the failure of the test
+     */
+    private class ResultCallback<T> implements SAMResultCallback<T> {
+        @Override
+        public void onComplete(T result) {
+        }
+
+        @Override
+        public void onError(Exception error) {
+            m_failure.compareAndSet(null, error);
+        }
+    }
+}
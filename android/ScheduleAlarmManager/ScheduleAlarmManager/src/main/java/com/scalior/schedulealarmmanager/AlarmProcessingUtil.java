@@ -29,43 +29,84 @@ import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Process;
 import android.util.SparseArray;
 
 import com.scalior.schedulealarmmanager.database.SAMSQLiteHelper;
 import com.scalior.schedulealarmmanager.model.Event;
-import com.scalior.schedulealarmmanager.model.Schedule;
-import com.scalior.schedulealarmmanager.model.ScheduleGroup;
-import com.scalior.schedulealarmmanager.modelholder.ScheduleEvent;
+import com.scalior.schedulealarmmanager.model.StateCode;
+import com.scalior.schedulealarmmanager.util.LongHashSet;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.Calendar;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is a utility singleton that processes the schedules to update events and schedule alarms.
+ * It adapts the ReconciliationEngine of the core module to Android: the engine reads and writes
+ * through SAMSQLiteHelper and arms the system AlarmManager.
+ * Alarm triggers are processed on a dedicated worker thread. Passes are serialized, so a pass
+ * started by an alarm and one started by an SAManager call never overlap.
+ *
+ * Concurrency model:
+ *  The monitor of this object is the single writer lock of the library. Every pass, every
+ *  change to the pass state and every SAManager call that changes schedules holds it, so
+ *  changes and passes are applied one at a time. A pass captures the schedules it changed
+ *  under the lock, and the callbacks are called with them once the lock is released, in the
+ *  order of the passes. A callback may call back into SAManager. It runs on the thread that
+ *  ran the pass, which is the worker for alarms and coalesced updates, so it must not wait
+ *  for a Future of an SAManager async call: that call would run on the same worker.
+ *  Reads don't take the lock. Each pass ends by publishing an immutable NextAlarmSnapshot
+ *  through an atomic reference. Schedule reads are served by copies from the schedule cache
+ *  of SAMSQLiteHelper.
  */
 public class AlarmProcessingUtil {
 
     // Define time constants in milliseconds
-    public static final int SECOND_MS       = 1000;
-    public static final int MINUTE_MS       = 60 * SECOND_MS;
-    public static final int HOUR_MS         = 60 * MINUTE_MS;
-    public static final int DAY_MS          = 24 * HOUR_MS;
-    public static final int WEEK_MS         =  7 * DAY_MS;
+    public static final int SECOND_MS       = RecurrenceUtil.SECOND_MS;
+    public static final int MINUTE_MS       = RecurrenceUtil.MINUTE_MS;
+    public static final int HOUR_MS         = RecurrenceUtil.HOUR_MS;
+    public static final int DAY_MS          = RecurrenceUtil.DAY_MS;
+    public static final int WEEK_MS         = RecurrenceUtil.WEEK_MS;
 
     private static AlarmProcessingUtil m_instance;
     private static final String ACTION_ALARM_TRIGGER     = "com.scalior.schedulealarmmanager.ALARM_TRIGGER";
+    private static final String WORKER_THREAD_NAME       = "SAM-Worker";
+    private static final long WORKER_KEEP_ALIVE_MS       = 30 * SECOND_MS;
+
+    private final Context m_context;
+    private volatile SAMCallback m_samCallback;
+    private volatile SAMBatchCallback m_samBatchCallback;
+    private final SAMSQLiteHelper m_dbHelper;
 
-    private Context m_context;
-    private SAMCallback m_samCallback;
-    private SAMSQLiteHelper m_dbHelper;
+	// Guarded by this
 	private boolean m_invokeCallback;
 	private int m_suspendCallbackCount;
 
-	private ScheduleEvent m_nextScheduleEvent;
+	// Changed schedules of the passes whose callbacks were not called yet, guarded by this.
+	// Only one thread calls the callbacks at a time.
+	private final ArrayDeque<ScheduleStateBatch> m_undeliveredBatches;
+	private boolean m_deliveringCallbacks;
+
+	private final ScheduledThreadPoolExecutor m_worker;
+
+	// Guarded by this, except for the next alarm snapshot it publishes
+	private final ReconciliationEngine m_engine;
+
+	// Coalesced state updates, guarded by this. With a delay of 0, every update runs right away.
+	private long m_coalescingDelayMs;
+	private boolean m_updatePending;
+	private boolean m_pendingNotify;
+	private LongHashSet m_pendingChanges;
+	private ScheduledFuture<?> m_pendingUpdate;
 
-    public static AlarmProcessingUtil getInstance(Context context) {
+    public static synchronized AlarmProcessingUtil getInstance(Context context) {
         if (m_instance == null) {
             m_instance = new AlarmProcessingUtil(context);
         }
@@ -79,9 +120,30 @@ public class AlarmProcessingUtil {
     private AlarmProcessingUtil(Context context) {
         m_context = context;
         m_samCallback = null;
+        m_samBatchCallback = null;
         m_dbHelper = SAMSQLiteHelper.getInstance(m_context);
 	    m_invokeCallback = true;
-	    m_nextScheduleEvent = null;
+	    m_engine = new ReconciliationEngine(m_dbHelper, new AlarmManagerSink(m_context));
+
+	    // A single background thread processes alarms one at a time. It is let go when idle.
+	    m_worker = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		    @Override
+		    public Thread newThread(final Runnable runnable) {
+			    return new Thread(new Runnable() {
+				    @Override
+				    public void run() {
+					    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					    runnable.run();
+				    }
+			    }, WORKER_THREAD_NAME);
+		    }
+	    });
+	    m_worker.setKeepAliveTime(WORKER_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+	    m_worker.allowCoreThreadTimeOut(true);
+
+	    m_coalescingDelayMs = 0;
+	    m_pendingChanges = new LongHashSet();
+	    m_undeliveredBatches = new ArrayDeque<ScheduleStateBatch>();
     }
 
 
@@ -94,7 +156,7 @@ public class AlarmProcessingUtil {
 	 *                   If false and a callback is already set, the new callback will
 	 *                   be ignored.
 	 */
-    public void setSamCallback(SAMCallback samCallback, boolean replace) {
+    public synchronized void setSamCallback(SAMCallback samCallback, boolean replace) {
 	    if (replace || m_samCallback == null) {
 		    m_samCallback = samCallback;
 	    } else {
@@ -111,91 +173,350 @@ public class AlarmProcessingUtil {
 		return m_samCallback;
 	}
 
+	/**
+	 * Description:
+	 *  This method sets the batch callback. It is called alongside the callback set with
+	 *  setSamCallback, if there is one.
+	 *
+	 *  @param samBatchCallback - The batch callback instance
+	 *  @param replace - If true, a current batch callback will be replaced with this one
+	 *                   If false and a batch callback is already set, the new one will
+	 *                   be ignored.
+	 */
+	public synchronized void setSamBatchCallback(SAMBatchCallback samBatchCallback, boolean replace) {
+		if (replace || m_samBatchCallback == null) {
+			m_samBatchCallback = samBatchCallback;
+		} else {
+			throw new UnsupportedOperationException("The batch callback has already been set");
+		}
+	}
+
+	/**
+	 * Description:
+	 *  Retrieves the batch callback instance.
+	 */
+	public SAMBatchCallback getSamBatchCallback() {
+		return m_samBatchCallback;
+	}
+
+	/**
+	 * Description:
+	 *  Method to update the states of schedules.
+	 *  This is an incremental pass: only events that are due and the events of the schedules
+	 *  passed in are loaded, and only the schedules they belong to are recomputed. A schedule
+	 *  only changes state when one of its events is due, so no other schedule is affected.
+	 *  The first call after a cold start falls back to a full pass.
+	 *  If the m_samCallback has been provided, it shall be called with a list of all
+	 *  schedules that have changed.
+	 *  @param changedSchedules - If there are any schedules that changed outside of expired
+	 *                            events, pass their ids here.
+	 */
+    public void updateScheduleStates(LongHashSet changedSchedules) {
+	    synchronized (this) {
+		    reconcile(changedSchedules, !m_engine.isEventQueueLoaded());
+	    }
+	    deliverCallbacks();
+    }
+
+	/**
+	 * Description:
+	 *  Requests an update of the schedule states after schedules have changed.
+	 *  Without a coalescing delay, this is the same as updateScheduleStates. With a delay,
+	 *  the changed schedule ids are merged into a pending set, and a single incremental pass
+	 *  runs on the worker once no other request has come in for the delay, or at the next
+	 *  call to flushScheduleStates or updateScheduleStates, whichever comes first.
+	 *  Either way, every schedule id passed in is reported to the callback once.
+	 *  @param changedSchedules - If there are any schedules that changed outside of expired
+	 *                            events, pass their ids here.
+	 */
+	public void requestScheduleStatesUpdate(LongHashSet changedSchedules) {
+		synchronized (this) {
+			if (m_coalescingDelayMs <= 0) {
+				reconcile(changedSchedules, !m_engine.isEventQueueLoaded());
+			} else {
+				if (changedSchedules != null) {
+					m_pendingChanges.addAll(changedSchedules);
+				}
+				m_updatePending = true;
+				// The callback is owed if any of the merged requests was made while it was enabled
+				m_pendingNotify |= m_invokeCallback;
+
+				// Restart the quiet period
+				if (m_pendingUpdate != null) {
+					m_pendingUpdate.cancel(false);
+				}
+				m_pendingUpdate = m_worker.schedule(new Runnable() {
+					@Override
+					public void run() {
+						flushScheduleStates();
+					}
+				}, m_coalescingDelayMs, TimeUnit.MILLISECONDS);
+			}
+		}
+		deliverCallbacks();
+	}
+
+	/**
+	 * Description:
+	 *  Runs the pending update right away, if there is one.
+	 */
+	public void flushScheduleStates() {
+		synchronized (this) {
+			if (m_updatePending) {
+				reconcile(null, !m_engine.isEventQueueLoaded());
+			}
+		}
+		deliverCallbacks();
+	}
+
+	/**
+	 * Description:
+	 *  Sets how long requestScheduleStatesUpdate waits for more requests before it runs
+	 *  a pass. A delay of 0, the default, runs every update right away. Turning coalescing
+	 *  off runs any pending update.
+	 *  @param delayMillis - The quiet period in milliseconds
+	 */
+	public void setCoalescingDelay(long delayMillis) {
+		synchronized (this) {
+			m_coalescingDelayMs = Math.max(0, delayMillis);
+			if (m_coalescingDelayMs == 0 && m_updatePending) {
+				reconcile(null, !m_engine.isEventQueueLoaded());
+			}
+		}
+		deliverCallbacks();
+	}
+
 	/**
 	 * Description:
 	 *  Method to update the states of all schedules.
+	 *  This is a full pass that visits every event and rebuilds the queue of upcoming events.
 	 *  If the m_samCallback has been provided, it shall be called with a list of all
 	 *  schedules that have changed.
 	 *  @param changedSchedules - If there are any schedules that changed outside of expired
 	 *                            events, pass their ids here.
 	 */
-    public void updateScheduleStates(SparseArray<Long> changedSchedules) {
-        SparseArray<ScheduleState> scheduleChangedMap = new SparseArray<ScheduleState>();
-	    SparseArray<ScheduleState> scheduleNotChangedMap = new SparseArray<ScheduleState>();
-
-	    long currTimeMillis = Calendar.getInstance().getTimeInMillis();
-
-        List<ScheduleEvent> scheduleEvents = m_dbHelper.getScheduleEvents();
-        if (scheduleEvents != null) {
-            for (ScheduleEvent scheduleEvent : scheduleEvents) {
-	            // If we have previously visited this schedule and its state
-	            // wasn't changed, skip it
-	            long scheduleId = scheduleEvent.getScheduleId();
-	            if (scheduleNotChangedMap.get((int)scheduleId) != null) {
-		            continue;
-	            }
-
-	            // Update any expired events
-                Event event = scheduleEvent.getEvent();
-	            if (event.getAlarmTime().getTimeInMillis() <= currTimeMillis) {
-		            event.setAlarmTime(getNextAlarmTime(event.getAlarmTime(), scheduleEvent.getRepeatType()));
-		            m_dbHelper.addOrUpdateEvent(event);
-	            }
-
-                if (scheduleChangedMap.get((int)scheduleId) == null) {
-	                String prevState = scheduleEvent.getScheduleState();
-	                String currState = getCurrentState(event,
-										                scheduleEvent.getRepeatType(),
-										                scheduleEvent.getDuration());
-
-	                boolean forceNotify = (changedSchedules != null &&
-			                changedSchedules.get((int)scheduleId) != null);
-
-	                if (!forceNotify && currState.equals(prevState)) {
-			                scheduleNotChangedMap.put((int)scheduleId, scheduleEvent.getSchedule());
-	                } else {
-		                scheduleEvent.getSchedule().setState(currState);
-		                m_dbHelper.addOrUpdateSchedule(scheduleEvent.getSchedule());
-		                scheduleChangedMap.put((int)scheduleId, scheduleEvent.getSchedule());
-	                }
-                }
-            }
-        }
+	public void updateAllScheduleStates(LongHashSet changedSchedules) {
+		synchronized (this) {
+			reconcile(changedSchedules, true);
+		}
+		deliverCallbacks();
+	}
 
-	    // Final check that all the schedules marked as changed into this method are also included
-	    // in the scheduleChangeMap being passed in the callback
-	    if (changedSchedules != null) {
-		    for (int i = 0; i < changedSchedules.size(); i++) {
-			    long scheduleId = changedSchedules.valueAt(i);
-			    if (scheduleChangedMap.get((int)scheduleId) == null) {
-					scheduleChangedMap.put((int)scheduleId, m_dbHelper.getScheduleById(scheduleId));
-			    }
-		    }
-	    }
+	/**
+	 * Description:
+	 *  Calls the callbacks with the schedules changed by the passes that ran since the last
+	 *  call, in the order of the passes. Every method that runs a pass calls this once it has
+	 *  released the lock. A caller that holds the lock around a pass, as SAManager does, must
+	 *  call it after releasing the lock. If the calling thread holds the lock, or another
+	 *  thread is calling the callbacks, this returns right away and the batches are left for
+	 *  that caller.
+	 */
+	void deliverCallbacks() {
+		if (Thread.holdsLock(this)) {
+			return;
+		}
 
-        // Update groups with their current schedule state
-        updateGroupState();
+		while (true) {
+			ScheduleStateBatch changedBatch;
+			synchronized (this) {
+				if (m_deliveringCallbacks || m_undeliveredBatches.isEmpty()) {
+					return;
+				}
+				changedBatch = m_undeliveredBatches.poll();
+				m_deliveringCallbacks = true;
+			}
+
+			try {
+				invokeCallbacks(changedBatch);
+			} finally {
+				synchronized (this) {
+					m_deliveringCallbacks = false;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Helper method that runs a reconciliation pass, either over all events or incrementally
+	 * over the events that are due and the events of the changed schedules. The changed
+	 * schedules are left for deliverCallbacks. Called with the lock held.
+	 */
+    private void reconcile(LongHashSet changedSchedules, boolean fullPass) {
+	    boolean invokeCallback = m_invokeCallback;
+
+	    // Any pass takes over a pending coalesced update, so its ids are reported only once
+	    if (m_updatePending) {
+		    changedSchedules = takePendingChanges(changedSchedules);
+		    invokeCallback |= m_pendingNotify;
+	    }
 
-	    m_nextScheduleEvent = m_dbHelper.getNextEvent();
-        setAlarmForEvent(m_nextScheduleEvent);
+	    m_engine.reconcile(changedSchedules, fullPass, System.currentTimeMillis());
 
-        // Return a list of schedules that changed
-        if (m_invokeCallback && m_samCallback != null) {
-            m_samCallback.onScheduleStateChange(scheduleChangedMap);
+        // Keep the schedules that changed for the callbacks
+        if (invokeCallback && (m_samBatchCallback != null || m_samCallback != null)) {
+	        m_undeliveredBatches.add(m_engine.getChangedSchedules());
         }
     }
 
+	/*
+	 * Helper method to call the callbacks with the schedules changed by one pass.
+	 * Called without the lock held.
+	 */
+	private void invokeCallbacks(ScheduleStateBatch changedBatch) {
+		SAMBatchCallback samBatchCallback = m_samBatchCallback;
+		SAMCallback samCallback = m_samCallback;
+		SparseArray<ScheduleState> scheduleStates = samCallback != null ?
+				toSparseArray(changedBatch) : null;
+
+		// Only the time spent in the callbacks is measured
+		SAMMetrics metrics = m_engine.getMetrics();
+		long startNanos = metrics != SAMMetrics.NONE ? System.nanoTime() : 0;
+		if (samBatchCallback != null) {
+			samBatchCallback.onScheduleStatesChange(changedBatch);
+		}
+		if (samCallback != null) {
+			samCallback.onScheduleStateChange(scheduleStates);
+		}
+		if (metrics != SAMMetrics.NONE) {
+			metrics.onCallback(System.nanoTime() - startNanos, changedBatch.size());
+		}
+	}
+
+	/*
+	 * Helper method to build the payload of SAMCallback, which is keyed by the schedule id
+	 * cast to an int
+	 */
+	private static SparseArray<ScheduleState> toSparseArray(ScheduleStateBatch changedBatch) {
+		SparseArray<ScheduleState> scheduleStates = new SparseArray<ScheduleState>(changedBatch.size());
+		for (int i = 0; i < changedBatch.size(); i++) {
+			scheduleStates.put((int)changedBatch.getScheduleId(i), changedBatch.getScheduleState(i));
+		}
+		return scheduleStates;
+	}
+
+	/*
+	 * Helper method to merge the pending changed schedule ids with the ones passed to a pass,
+	 * and clear the pending update.
+	 */
+	private LongHashSet takePendingChanges(LongHashSet changedSchedules) {
+		LongHashSet mergedChanges = m_pendingChanges;
+		if (changedSchedules != null) {
+			mergedChanges.addAll(changedSchedules);
+		}
+
+		if (m_pendingUpdate != null) {
+			m_pendingUpdate.cancel(false);
+			m_pendingUpdate = null;
+		}
+		m_pendingChanges = new LongHashSet();
+		m_updatePending = false;
+		m_pendingNotify = false;
+
+		return mergedChanges;
+	}
+
+	/**
+	 * Description:
+	 *  Queues a task on the alarm processing worker. Tasks run one at a time, in the order
+	 *  they were queued, on a background thread.
+	 *  @param task - The task to run
+	 */
+	void execute(Runnable task) {
+		m_worker.execute(task);
+	}
+
+	/**
+	 * Description:
+	 *  Queues a task that produces a result on the alarm processing worker.
+	 *  @param task - The task to run
+	 *  @return A Future that completes with the result of the task
+	 */
+	<T> Future<T> submit(Callable<T> task) {
+		return m_worker.submit(task);
+	}
+
+	/**
+	 * Description:
+	 *  Sets the listener told about passes, database statements, callbacks and alarms
+	 *  @param metrics - The listener, or null for SAMMetrics.NONE
+	 */
+	public void setMetrics(SAMMetrics metrics) {
+		m_engine.setMetrics(metrics);
+		m_dbHelper.setMetrics(metrics);
+	}
+
+	public SAMMetrics getMetrics() {
+		return m_engine.getMetrics();
+	}
+
+	/**
+	 * Description:
+	 *  Returns the number of event, schedule and group rows written back by the last
+	 *  reconciliation pass.
+	 */
+	public int getLastPassRowsWritten() {
+		return m_engine.getLastPassRowsWritten();
+	}
+
+	/**
+	 * Description:
+	 *  Drops the queued events of a schedule whose events have been deleted.
+	 *  Call this before the next call to updateScheduleStates.
+	 *  @param scheduleId - The id of the schedule
+	 */
+	synchronized void discardScheduleEvents(long scheduleId) {
+		m_engine.discardScheduleEvents(scheduleId);
+	}
+
+	/**
+	 * Description:
+	 *  Drops the queued events of all schedules in a group whose events have been deleted.
+	 *  Call this before the next call to updateScheduleStates.
+	 *  @param groupId - The id of the group
+	 */
+	synchronized void discardGroupEvents(long groupId) {
+		m_engine.discardGroupEvents(groupId);
+	}
+
+	/**
+	 * Description:
+	 *  Returns the next alarm overall and for each group, as of the end of the last pass.
+	 *  This never blocks and never accesses the database.
+	 */
+	public NextAlarmSnapshot getNextAlarmSnapshot() {
+		return m_engine.getNextAlarmSnapshot();
+	}
+
+	/**
+	 * Description:
+	 *  Returns the next alarms of a group in order, as of the end of the last pass.
+	 *  This never accesses the database. With a count of 1, the alarm is read from the next
+	 *  alarm snapshot, so it never blocks.
+	 *  A larger count waits for a pass that is running, and for its callback. The alarms after
+	 *  the first are read from the upcoming events of the group, which the pass changes in
+	 *  place. Publishing them in the snapshot would copy every upcoming event on every pass.
+	 *  @param groupTag - The tag of the group
+	 *  @param count - The maximum number of alarms to return
+	 *  @return The alarms. The list is empty if the group has no upcoming alarm.
+	 */
+	public List<UpcomingAlarm> getNextAlarmsForGroup(String groupTag, int count) {
+		if (count <= 1) {
+			return m_engine.getNextAlarmsForGroup(groupTag, count);
+		}
+
+		synchronized (this) {
+			return m_engine.getNextAlarmsForGroup(groupTag, count);
+		}
+	}
+
 	/**
 	 * Description:
 	 *  Method to get the schedule for the next alarm
 	 *
-\	 */
+	 */
 	public ScheduleState getScheduleForNextAlarm() {
-		if (m_nextScheduleEvent != null) {
-			return m_nextScheduleEvent.getSchedule();
-		} else {
-			return null;
-		}
+		UpcomingAlarm nextAlarm = m_engine.getNextAlarmSnapshot().getNextAlarm();
+		return nextAlarm != null ? nextAlarm.getSchedule() : null;
 	}
 
 	/**
@@ -204,119 +525,33 @@ public class AlarmProcessingUtil {
 	 *
 	 */
 	public Calendar getTimeForNextAlarm() {
-		if (m_nextScheduleEvent != null) {
-			return m_nextScheduleEvent.getEvent().getAlarmTime();
-		} else {
-			return null;
-		}
+		UpcomingAlarm nextAlarm = m_engine.getNextAlarmSnapshot().getNextAlarm();
+		return nextAlarm != null ? nextAlarm.getAlarmTime() : null;
 	}
 
 
-    /*
-     * Helper method to determine the next time this event should be triggered
-     * given the current time
-     */
-    private Calendar getNextAlarmTime(Calendar startTime, int repeatType) {
-        Calendar currTime = Calendar.getInstance();
-        Calendar nextAlarmTime = Calendar.getInstance();
-        nextAlarmTime.setTime(startTime.getTime());
-
-        while (nextAlarmTime.getTimeInMillis() < currTime.getTimeInMillis()) {
-            switch (repeatType) {
-                case SAManager.REPEAT_TYPE_HOURLY:
-                    nextAlarmTime.add(Calendar.HOUR, 1);
-                    break;
-                case SAManager.REPEAT_TYPE_DAILY:
-                    nextAlarmTime.add(Calendar.DAY_OF_MONTH, 1);
-                    break;
-                case SAManager.REPEAT_TYPE_WEEKLY:
-                    nextAlarmTime.add(Calendar.WEEK_OF_YEAR, 1);
-                    break;
-                case SAManager.REPEAT_TYPE_MONTHLY:
-                    nextAlarmTime.add(Calendar.MONTH, 1);
-                    break;
-                case SAManager.REPEAT_TYPE_YEARLY:
-                    nextAlarmTime.add(Calendar.YEAR, 1);
-                    break;
-            }
-        }
-
-        return nextAlarmTime;
-    }
-
-
     /*
      * Get the current state of an event given the schedule's repeat type and duration
      */
     public String getCurrentState(Event event, int repeatType, int duration) {
-        String currState = SAManager.STATE_ON; // Assume on
-
-        long currTimeMillis = Calendar.getInstance().getTimeInMillis();
-        if (event.getState().equals(SAManager.STATE_OFF)) {
-	        long diff = event.getAlarmTime().getTimeInMillis() - currTimeMillis;
-
-            if (diff <= 0 || diff > duration * MINUTE_MS) {
-                currState = SAManager.STATE_OFF;
-            }
-        } else if (event.getState().equals(SAManager.STATE_ON)) {
-            // Subtract a repeat interval to get the previous start time,
-            // then compare with duration
-            Calendar prevStartTime = Calendar.getInstance();
-            prevStartTime.setTime(event.getAlarmTime().getTime());
-
-            switch (repeatType) {
-                case SAManager.REPEAT_TYPE_HOURLY:
-                    prevStartTime.add(Calendar.HOUR, -1);
-                    break;
-                case SAManager.REPEAT_TYPE_DAILY:
-                    prevStartTime.add(Calendar.DAY_OF_MONTH, -1);
-                    break;
-                case SAManager.REPEAT_TYPE_WEEKLY:
-                    prevStartTime.add(Calendar.WEEK_OF_YEAR, -1);
-                    break;
-                case SAManager.REPEAT_TYPE_MONTHLY:
-                    prevStartTime.add(Calendar.MONTH, -1);
-                    break;
-                case SAManager.REPEAT_TYPE_YEARLY:
-                    prevStartTime.add(Calendar.YEAR, -1);
-                    break;
-            }
-
-	        if ((currTimeMillis - prevStartTime.getTimeInMillis()) >= duration * MINUTE_MS) {
-                currState = SAManager.STATE_OFF;
-            }
-        }
-
-        return currState;
+        return StateCode.toString(getCurrentStateCode(event, repeatType, duration));
     }
 
-
     /*
-     * Helper method to schedule an alarm for an event.
-     * This uses the Android system's AlarmManager
+     * Get the current state of an event as a StateCode, given the schedule's repeat type
+     * and duration
      */
-    private void setAlarmForEvent(ScheduleEvent scheduleEvent) {
-	    AlarmManager alarmMan = (AlarmManager) m_context.getSystemService(Context.ALARM_SERVICE);
-	    PendingIntent alarmTriggerPendingIntent =
-			    PendingIntent.getBroadcast(m_context, 0, new Intent(ACTION_ALARM_TRIGGER), 0);
-
-	    if (scheduleEvent != null) {
-		    // Set the alarm here
-		    alarmMan.set(AlarmManager.RTC_WAKEUP,
-				    scheduleEvent.getEvent().getAlarmTime().getTimeInMillis(),
-				    alarmTriggerPendingIntent);
-	    } else {
-	        // Cancel the alarm.
-	        // DEBUG: Test that there is no harm in canceling an alarm that hasn't been set
-	        alarmMan.cancel(alarmTriggerPendingIntent);
-        }
+    public int getCurrentStateCode(Event event, int repeatType, int duration) {
+        return ReconciliationEngine.getCurrentStateCode(event, repeatType, duration,
+                System.currentTimeMillis());
     }
 
+
 	/**
 	 * Description:
 	 * 		Suspend callbacks. This is useful when adding multiple schedules
 	 */
-	public void suspendCallbacks() {
+	public synchronized void suspendCallbacks() {
 		if (m_suspendCallbackCount <= 0) {
 			m_invokeCallback = false;
 			m_suspendCallbackCount = 1;
@@ -329,7 +564,7 @@ public class AlarmProcessingUtil {
 	 * Description:
 	 * 		Resume callbacks. Undo the suspension of callbacks
 	 */
-	public void resumeCallbacks() {
+	public synchronized void resumeCallbacks() {
 		if (m_suspendCallbackCount > 0) {
 			m_suspendCallbackCount--;
 		}
@@ -339,32 +574,34 @@ public class AlarmProcessingUtil {
 	}
 
 
-    /**
-     * Helper method to compute the overall schedule state for a group.
-     * Schedules that are not in a group don't factor here.
-     */
-    private void updateGroupState() {
-        List<ScheduleGroup> groups = m_dbHelper.getAllScheduleGroups();
+	/*
+	 * Alarm sink that arms the system AlarmManager. All alarms share one PendingIntent, so
+	 * arming one replaces the previous one.
+	 */
+	private static class AlarmManagerSink implements AlarmSink {
+		private final Context m_context;
 
-        if (groups == null) {
-            return;
-        }
+		AlarmManagerSink(Context context) {
+			m_context = context;
+		}
 
-        for (ScheduleGroup group : groups) {
-            String groupState = SAManager.STATE_OFF;
-            List<Schedule> schedules = m_dbHelper.getSchedulesByGroupId(group.getId());
-            if (schedules == null) {
-                continue;
-            }
-
-            for (Schedule schedule : schedules) {
-                if (schedule.getState().equals(SAManager.STATE_ON)) {
-                    groupState = SAManager.STATE_ON;
-                    break;
-                }
-            }
-            group.setOverallState(groupState);
-            m_dbHelper.addOrUpdateScheduleGroup(group);
-        }
-    }
+		@Override
+		public void setAlarm(long alarmTimeMillis) {
+			getAlarmManager().set(AlarmManager.RTC_WAKEUP, alarmTimeMillis, getAlarmTriggerIntent());
+		}
+
+		@Override
+		public void cancelAlarm() {
+			// DEBUG: Test that there is no harm in canceling an alarm that hasn't been set
+			getAlarmManager().cancel(getAlarmTriggerIntent());
+		}
+
+		private AlarmManager getAlarmManager() {
+			return (AlarmManager) m_context.getSystemService(Context.ALARM_SERVICE);
+		}
+
+		private PendingIntent getAlarmTriggerIntent() {
+			return PendingIntent.getBroadcast(m_context, 0, new Intent(ACTION_ALARM_TRIGGER), 0);
+		}
+	}
 }
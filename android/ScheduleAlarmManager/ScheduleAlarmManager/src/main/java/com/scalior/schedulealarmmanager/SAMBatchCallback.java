@@ -0,0 +1,42 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+/**
+ * Callback interface to receive schedule state changes as a compact batch.
+ * This is the allocation-light alternative to SAMCallback. It can be set alongside it, in
+ * which case both are called after each update.
+ */
+public interface SAMBatchCallback {
+    /**
+     * Description:
+     * 		This is called after the schedule states have been updated.
+     * @param changedSchedules: The schedules that have changed in this update. The batch is
+     *                        immutable and can be kept after the call returns.
+     *
+     * Note: This method is not guaranteed to be called in the UI thread, so call runOnUIThread()
+     *       if you need to update the UI
+     *       The same threading rules as for SAMCallback apply.
+     */
+    public void onScheduleStatesChange(ScheduleStateBatch changedSchedules);
+}
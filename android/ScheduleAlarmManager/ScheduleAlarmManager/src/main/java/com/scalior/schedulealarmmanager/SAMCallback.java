@@ -39,9 +39,14 @@ public interface SAMCallback {
      * 		This is called when an alarm is triggered.
      * 	    onTrigger is not
      * @param changedSchedules: A collection of schedules that have changed based on this trigger
+     *                          keyed by schedule id cast to an int. SAMBatchCallback receives
+     *                          the same schedules keyed by their full ids, with less allocation.
      *
      * Note: This method is not guaranteed to be called in the UI thread, so call runOnUIThread()
      *       if you need to update the UI
+     *       It is called once the library lock is released, so it may call SAManager. It may
+     *       run on the worker of the library, so it must not wait for the Future of an
+     *       SAManager async call, which would be queued behind it on the same worker.
      */
     public void onScheduleStateChange(SparseArray<ScheduleState> changedSchedules);
 }
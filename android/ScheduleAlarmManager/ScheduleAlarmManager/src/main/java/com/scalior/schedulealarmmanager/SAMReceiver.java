@@ -27,19 +27,48 @@ package com.scalior.schedulealarmmanager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.PowerManager;
 
 /**
  * Broadcast receiver to process alarms.
- *
+ * The alarm is processed on the AlarmProcessingUtil worker thread. The broadcast is kept
+ * open with goAsync() and a partial wake lock keeps the device awake until the pass is done.
  */
 public class SAMReceiver extends BroadcastReceiver {
+    private static final String WAKE_LOCK_TAG = "SAMReceiver";
+
+    // Upper bound on how long the wake lock is held, in case a pass never completes
+    private static final long WAKE_LOCK_TIMEOUT_MS = 60 * AlarmProcessingUtil.SECOND_MS;
+
     public SAMReceiver() {
     }
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        // The updateScheduleStates method takes care of scheduling the next event
-        // as well as notifying the application of the event that occurred.
-        AlarmProcessingUtil.getInstance(context).updateScheduleStates(null);
+        final PendingResult pendingResult = goAsync();
+
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        final PowerManager.WakeLock wakeLock =
+                powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_TAG);
+        wakeLock.setReferenceCounted(false);
+        wakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
+
+        final AlarmProcessingUtil alarmProcessingUtil =
+                AlarmProcessingUtil.getInstance(context.getApplicationContext());
+        alarmProcessingUtil.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // The updateScheduleStates method takes care of scheduling the next event
+                    // as well as notifying the application of the event that occurred.
+                    alarmProcessingUtil.updateScheduleStates(null);
+                } finally {
+                    if (wakeLock.isHeld()) {
+                        wakeLock.release();
+                    }
+                    pendingResult.finish();
+                }
+            }
+        });
     }
 }
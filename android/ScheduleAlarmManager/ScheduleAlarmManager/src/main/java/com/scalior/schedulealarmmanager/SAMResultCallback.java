@@ -0,0 +1,46 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+/**
+ * Callback interface to receive the outcome of an asynchronous SAManager call.
+ * Methods are called on the executor set with SAManager.setCallbackExecutor(), which is the
+ * main thread by default. If that executor runs them on the thread that made the call, which
+ * is the worker of the library, they must not wait for the Future of another async call: it
+ * would be queued behind them on the same worker.
+ */
+public interface SAMResultCallback<T> {
+    /**
+     * Description:
+     * 		This is called when the call completes.
+     * @param result: The value the synchronous variant of the call would have returned
+     */
+    public void onComplete(T result);
+
+    /**
+     * Description:
+     * 		This is called when the call fails.
+     * @param error: The exception the synchronous variant of the call would have thrown
+     */
+    public void onError(Exception error);
+}
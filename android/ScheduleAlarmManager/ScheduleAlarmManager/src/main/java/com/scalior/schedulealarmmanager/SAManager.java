@@ -27,18 +27,26 @@ package com.scalior.schedulealarmmanager;
 import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.util.SparseArray;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.scalior.schedulealarmmanager.database.SAMSQLiteHelper;
 import com.scalior.schedulealarmmanager.model.Event;
 import com.scalior.schedulealarmmanager.model.Schedule;
 import com.scalior.schedulealarmmanager.model.ScheduleGroup;
+import com.scalior.schedulealarmmanager.model.StateCode;
 import com.scalior.schedulealarmmanager.modelholder.ScheduleAndEventsToAdd;
-import com.scalior.schedulealarmmanager.modelholder.ScheduleEvent;
+import com.scalior.schedulealarmmanager.util.LongHashSet;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 //import android.content.pm.PackageInfo;
 //import android.content.pm.PackageManager.NameNotFoundException;
@@ -46,26 +54,35 @@ import java.util.List;
 /**
  * This class serves as an interface to manage schedule alarms.
  *
+ * All methods can be called from any thread. Calls that change schedules or groups run one at a
+ * time under the writer lock of AlarmProcessingUtil, together with the state update that
+ * follows them, so they never interleave with each other or with an alarm pass. Calls that only
+ * read don't take the lock.
  */
 public class SAManager {
-    public static final int REPEAT_TYPE_HOURLY      = 1;
-    public static final int REPEAT_TYPE_DAILY       = 2;
-    public static final int REPEAT_TYPE_WEEKLY      = 3;
-    public static final int REPEAT_TYPE_MONTHLY     = 4;
-    public static final int REPEAT_TYPE_YEARLY      = 5;
-    public static final int REPEAT_TYPE_NONE        = 6;
+    public static final int REPEAT_TYPE_HOURLY      = RecurrenceUtil.REPEAT_TYPE_HOURLY;
+    public static final int REPEAT_TYPE_DAILY       = RecurrenceUtil.REPEAT_TYPE_DAILY;
+    public static final int REPEAT_TYPE_WEEKLY      = RecurrenceUtil.REPEAT_TYPE_WEEKLY;
+    public static final int REPEAT_TYPE_MONTHLY     = RecurrenceUtil.REPEAT_TYPE_MONTHLY;
+    public static final int REPEAT_TYPE_YEARLY      = RecurrenceUtil.REPEAT_TYPE_YEARLY;
+    public static final int REPEAT_TYPE_NONE        = RecurrenceUtil.REPEAT_TYPE_NONE;
 
-    public static final String STATE_ON             = "ON";
-    public static final String STATE_OFF            = "OFF";
+    // States are handled as StateCode values internally. These strings are the public view.
+    public static final String STATE_ON             = StateCode.ON_NAME;
+    public static final String STATE_OFF            = StateCode.OFF_NAME;
+
+    public static final int DURABILITY_FULL         = 1;
+    public static final int DURABILITY_NORMAL       = 2;
 
 
     private static SAManager m_instance;
 
-    private Context m_context;
-    private boolean m_initialized;
-    private SAMSQLiteHelper m_dbHelper;
-    private AlarmProcessingUtil m_alarmProcessor;
-	private String m_versionName;
+    private final Context m_context;
+    private volatile boolean m_initialized;
+    private final SAMSQLiteHelper m_dbHelper;
+    private final AlarmProcessingUtil m_alarmProcessor;
+	private volatile String m_versionName;
+	private volatile Executor m_callbackExecutor;
 
     /**
      * Description:
@@ -74,7 +91,7 @@ public class SAManager {
      * @param p_context: The application context
      * @return The singleton instance
      */
-    public static SAManager getInstance(Context p_context) {
+    public static synchronized SAManager getInstance(Context p_context) {
         if (m_instance == null ) {
             m_instance = new SAManager(p_context);
         }
@@ -86,6 +103,7 @@ public class SAManager {
         m_dbHelper = SAMSQLiteHelper.getInstance(m_context);
         m_alarmProcessor = AlarmProcessingUtil.getInstance(m_context);
         m_initialized = false;
+        m_callbackExecutor = new MainThreadExecutor();
     }
 
 
@@ -95,8 +113,15 @@ public class SAManager {
      * @return boolean - true if successful, false other wise
      */
     public boolean init() {
-        m_alarmProcessor.updateScheduleStates(null);
-        m_initialized = true;
+        try {
+            synchronized (m_alarmProcessor) {
+                m_dbHelper.loadScheduleCache();
+                m_alarmProcessor.updateAllScheduleStates(null);
+                m_initialized = true;
+            }
+        } finally {
+            m_alarmProcessor.deliverCallbacks();
+        }
         return true;
     }
 
@@ -121,6 +146,28 @@ public class SAManager {
        m_alarmProcessor.setSamCallback(callback, replace);
     }
 
+	/**
+	 * Batch callback accessor
+	 */
+	public SAMBatchCallback getBatchCallback() {
+		return m_alarmProcessor.getSamBatchCallback();
+	}
+
+	/**
+	 * Description:
+	 *  This method sets the batch callback. It receives the changed schedules as a
+	 *  ScheduleStateBatch, keyed by their full 64-bit ids, and can be set alongside the
+	 *  callback set with setCallback.
+	 *
+	 *  @param callback - The batch callback instance
+	 *  @param replace - If true, a current batch callback will be replaced with this one
+	 *                   If false and a batch callback is already set, the new callback will
+	 *                   be ignored.
+	 */
+	public void setBatchCallback(SAMBatchCallback callback, boolean replace) {
+		m_alarmProcessor.setSamBatchCallback(callback, replace);
+	}
+
 
     /**
      * Description:
@@ -142,79 +189,157 @@ public class SAManager {
             throw new IllegalStateException("SAManager not initialized");
         }
 
-        Calendar currTime = Calendar.getInstance();
+        try {
+            synchronized (m_alarmProcessor) {
+                // Check for validity of parameters
+                if (!isScheduleValid(startTime.getTimeInMillis(), duration, repeatType, tag,
+                        System.currentTimeMillis())) {
+                    throw new IllegalArgumentException();
+                }
+
+    		    ScheduleGroup group = getOrAddScheduleGroup(groupTag);
 
-        // Check for validity of parameters
-        if (duration <= 0 ||
-            ((currTime.getTimeInMillis() - startTime.getTimeInMillis())
-                    > AlarmProcessingUtil.DAY_MS) || // Start time shouldn't be more than 24 hours in the past
-            !isRepeatTypeValid(repeatType) ||
-            tag == null || tag.isEmpty()) {
-            throw new IllegalArgumentException();
+    		    // Only the time in milliseconds is kept, so the user can't modify the time under us
+    		    long startTimeMillis = startTime.getTimeInMillis();
+
+                Schedule schedule = new Schedule(startTimeMillis, duration, repeatType, tag);
+    		    schedule.setGroupId(group != null ? group.getId() : null);
+    		    List<Event> startAndStopEvents = createStartAndStopEvents(startTimeMillis, duration, repeatType);
+    		    schedule.setStateCode(m_alarmProcessor.getCurrentStateCode(startAndStopEvents.get(0), repeatType, duration));
+
+    		    long scheduleId = m_dbHelper.addScheduleAndEvents(schedule, startAndStopEvents, true);
+    		    if (scheduleId > 0) {
+    			    LongHashSet changedSchedules = new LongHashSet();
+    			    changedSchedules.add(scheduleId);
+    			    m_alarmProcessor.requestScheduleStatesUpdate(changedSchedules);
+    		    }
+
+    		    return scheduleId;
+            }
+        } finally {
+            m_alarmProcessor.deliverCallbacks();
         }
+    }
 
-	    ScheduleGroup group = null;
-	    if (groupTag != null && !groupTag.isEmpty()) {
-		    group = m_dbHelper.getScheduleGroupByTag(groupTag);
-		    if (group == null) {
-			    group = new ScheduleGroup(groupTag, true);
-			    long groupId = m_dbHelper.addOrUpdateScheduleGroup(group);
-			    if (groupId <= 0) {
-				    // We should return an error here because the user expects that this
-				    // schedule belong to a group
-				    group = null;
-			    }
-		    }
-	    }
 
-	    // In order to prevent the user from modifying the time under us, we should make a copy
-	    Calendar myStartTime = Calendar.getInstance();
-	    myStartTime.setTime(startTime.getTime());
+	/**
+	 * Description:
+	 * 		Adds several schedules at once.
+	 * 		All the specs are validated before anything is added. The schedules and their
+	 * 		events are added in one transaction and the schedule states are computed in one pass,
+	 * 		so this is much faster than calling addSchedule for each schedule.
+	 * @param scheduleSpecs - The schedules to add
+	 * @return long[] - the added schedules' ids, in the order of the specs. If the add fails,
+	 *                  no schedule is added and all ids are -1.
+	 * @throws IllegalArgumentException if any of the specs is invalid
+	 */
+	public long[] addSchedules(List<ScheduleSpec> scheduleSpecs)
+			throws IllegalArgumentException, IllegalStateException {
+		if (!m_initialized) {
+			throw new IllegalStateException("SAManager not initialized");
+		}
 
-        Schedule schedule = new Schedule(myStartTime, duration, repeatType, tag);
-	    schedule.setGroupId(group.getId());
-	    List<Event> startAndStopEvents = createStartAndStopEvents(myStartTime, duration, repeatType);
-	    schedule.setState(m_alarmProcessor.getCurrentState(startAndStopEvents.get(0), repeatType, duration));
+		try {
+			synchronized (m_alarmProcessor) {
+				if (scheduleSpecs == null) {
+					throw new IllegalArgumentException();
+				}
 
-	    long scheduleId = m_dbHelper.addScheduleAndEvents(schedule, startAndStopEvents, true);
-	    if (scheduleId > 0) {
-		    SparseArray<Long> changedSchedules = new SparseArray<Long>();
-		    changedSchedules.put((int)scheduleId, scheduleId);
-		    m_alarmProcessor.updateScheduleStates(changedSchedules);
-	    }
+				long currTimeMillis = System.currentTimeMillis();
+				for (int i = 0; i < scheduleSpecs.size(); i++) {
+					ScheduleSpec spec = scheduleSpecs.get(i);
+					if (spec == null || !isScheduleValid(spec.getStartTimeMillis(), spec.getDuration(),
+							spec.getRepeatType(), spec.getTag(), currTimeMillis)) {
+						throw new IllegalArgumentException("Invalid schedule spec at index " + i);
+					}
+				}
 
-	    return scheduleId;
-    }
+				long[] scheduleIds = new long[scheduleSpecs.size()];
+				Arrays.fill(scheduleIds, -1);
+				if (scheduleIds.length == 0) {
+					return scheduleIds;
+				}
+
+				// Each group is looked up or added once
+				Map<String, ScheduleGroup> groupsByTag = new HashMap<String, ScheduleGroup>();
+
+				List<ScheduleAndEventsToAdd> scheduleAndEventsToAdd =
+						new ArrayList<ScheduleAndEventsToAdd>(scheduleSpecs.size());
+				for (ScheduleSpec spec : scheduleSpecs) {
+					ScheduleGroup group = null;
+					String groupTag = spec.getGroupTag();
+					if (groupTag != null && !groupTag.isEmpty()) {
+						if (groupsByTag.containsKey(groupTag)) {
+							group = groupsByTag.get(groupTag);
+						} else {
+							group = getOrAddScheduleGroup(groupTag);
+							groupsByTag.put(groupTag, group);
+						}
+					}
+
+					Schedule schedule = new Schedule(spec.getStartTimeMillis(), spec.getDuration(),
+							spec.getRepeatType(), spec.getTag());
+					schedule.setGroupId(group != null ? group.getId() : null);
+					List<Event> startAndStopEvents = createStartAndStopEvents(spec.getStartTimeMillis(),
+							spec.getDuration(), spec.getRepeatType());
+					schedule.setStateCode(m_alarmProcessor.getCurrentStateCode(startAndStopEvents.get(0),
+							spec.getRepeatType(), spec.getDuration()));
+
+					scheduleAndEventsToAdd.add(new ScheduleAndEventsToAdd(schedule, startAndStopEvents, true));
+				}
+
+				if (m_dbHelper.addMultipleScheduleAndEvents(scheduleAndEventsToAdd)) {
+					LongHashSet changedSchedules = new LongHashSet();
+					for (int i = 0; i < scheduleIds.length; i++) {
+						long scheduleId = scheduleAndEventsToAdd.get(i).m_addedScheduleId;
+						scheduleIds[i] = scheduleId;
+						changedSchedules.add(scheduleId);
+					}
+					m_alarmProcessor.requestScheduleStatesUpdate(changedSchedules);
+				}
 
+				return scheduleIds;
+			}
+		} finally {
+			m_alarmProcessor.deliverCallbacks();
+		}
+	}
 
 	public long updateSchedule(long id, Calendar startTime, int duration) {
         if (!m_initialized) {
             throw new IllegalStateException("SAManager not initialized");
         }
 
-		Schedule schedule = m_dbHelper.getScheduleById(id);
-		if (schedule == null) {
-			return -1;
-		}
+        try {
+            synchronized (m_alarmProcessor) {
+    			Schedule schedule = m_dbHelper.getScheduleById(id);
+    			if (schedule == null) {
+    				return -1;
+    			}
 
-		schedule.setStartTime(startTime);
-		schedule.setDuration(duration);
+    			schedule.setStartTimeMillis(startTime.getTimeInMillis());
+    			schedule.setDuration(duration);
 
-        // Delete existing events
-        m_dbHelper.deleteEventByScheduleId(id);
+                // Delete existing events
+                m_dbHelper.deleteEventByScheduleId(id);
 
 
-		List<Event> startAndStopEvents = createStartAndStopEvents(startTime, duration, schedule.getRepeatType());
-		schedule.setState(m_alarmProcessor.getCurrentState(startAndStopEvents.get(0), schedule.getRepeatType(), duration));
+    			List<Event> startAndStopEvents = createStartAndStopEvents(startTime.getTimeInMillis(),
+    					duration, schedule.getRepeatType());
+    			schedule.setStateCode(m_alarmProcessor.getCurrentStateCode(startAndStopEvents.get(0), schedule.getRepeatType(), duration));
 
-		long scheduleId = m_dbHelper.addScheduleAndEvents(schedule, startAndStopEvents, false);
-		if (scheduleId > 0) {
-			SparseArray<Long> changedSchedules = new SparseArray<Long>();
-			changedSchedules.put((int)scheduleId, scheduleId);
-			m_alarmProcessor.updateScheduleStates(changedSchedules);
-		}
+    			long scheduleId = m_dbHelper.addScheduleAndEvents(schedule, startAndStopEvents, false);
+    			if (scheduleId > 0) {
+    				LongHashSet changedSchedules = new LongHashSet();
+    				changedSchedules.add(scheduleId);
+    				m_alarmProcessor.requestScheduleStatesUpdate(changedSchedules);
+    			}
 
-		return scheduleId;
+    			return scheduleId;
+            }
+        } finally {
+            m_alarmProcessor.deliverCallbacks();
+        }
     }
 
     /**
@@ -291,9 +416,16 @@ public class SAManager {
 			throw new IllegalStateException("SAManager not initialized");
 		}
 
-		boolean deleted = m_dbHelper.deleteSchedule(scheduleId);
-		m_alarmProcessor.updateScheduleStates(null);
-		return deleted;
+		try {
+			synchronized (m_alarmProcessor) {
+				boolean deleted = m_dbHelper.deleteSchedule(scheduleId);
+				m_alarmProcessor.discardScheduleEvents(scheduleId);
+				m_alarmProcessor.requestScheduleStatesUpdate(null);
+				return deleted;
+			}
+		} finally {
+			m_alarmProcessor.deliverCallbacks();
+		}
 	}
 
 	/**
@@ -321,10 +453,20 @@ public class SAManager {
 			throw new IllegalStateException("SAManager not initialized");
 		}
 
-		boolean deleted = m_dbHelper.deleteSchedulesByGroup(groupTag);
-		m_alarmProcessor.updateScheduleStates(null);
+		try {
+			synchronized (m_alarmProcessor) {
+				ScheduleGroup group = m_dbHelper.getScheduleGroupByTag(groupTag);
+				boolean deleted = m_dbHelper.deleteSchedulesByGroup(groupTag);
+				if (group != null) {
+					m_alarmProcessor.discardGroupEvents(group.getId());
+				}
+				m_alarmProcessor.requestScheduleStatesUpdate(null);
 
-		return deleted;
+				return deleted;
+			}
+		} finally {
+			m_alarmProcessor.deliverCallbacks();
+		}
 	}
 
 
@@ -339,27 +481,33 @@ public class SAManager {
 			throw new IllegalStateException("SAManager not initialized");
 		}
 
-		// Ensure that existing events for the schedule are deleted
-		m_alarmProcessor.suspendCallbacks();
-		disableSchedule(scheduleId);
-		m_alarmProcessor.resumeCallbacks();
-
-		Schedule schedule = m_dbHelper.getScheduleById(scheduleId);
-
-		List<Event> startAndStopEvents = createStartAndStopEvents(schedule.getStartTime(),
-				schedule.getDuration(), schedule.getRepeatType());
-		schedule.setState(m_alarmProcessor.getCurrentState(startAndStopEvents.get(0),
-				schedule.getRepeatType(), schedule.getDuration()));
+		try {
+			synchronized (m_alarmProcessor) {
+				// Ensure that existing events for the schedule are deleted
+				m_alarmProcessor.suspendCallbacks();
+				disableSchedule(scheduleId);
+				m_alarmProcessor.resumeCallbacks();
+
+				Schedule schedule = m_dbHelper.getScheduleById(scheduleId);
+
+				List<Event> startAndStopEvents = createStartAndStopEvents(schedule.getStartTimeMillis(),
+						schedule.getDuration(), schedule.getRepeatType());
+				schedule.setStateCode(m_alarmProcessor.getCurrentStateCode(startAndStopEvents.get(0),
+						schedule.getRepeatType(), schedule.getDuration()));
+
+				long updatedScheduleId = m_dbHelper.addScheduleAndEvents(schedule, startAndStopEvents, false);
+				if (updatedScheduleId > 0) {
+					LongHashSet changedSchedules = new LongHashSet();
+					changedSchedules.add(updatedScheduleId);
+					m_alarmProcessor.requestScheduleStatesUpdate(changedSchedules);
+					return true;
+				}
 
-		long updatedScheduleId = m_dbHelper.addScheduleAndEvents(schedule, startAndStopEvents, false);
-		if (updatedScheduleId > 0) {
-			SparseArray<Long> changedSchedules = new SparseArray<Long>();
-			changedSchedules.put((int)updatedScheduleId, updatedScheduleId);
-			m_alarmProcessor.updateScheduleStates(changedSchedules);
-			return true;
+				return false;
+			}
+		} finally {
+			m_alarmProcessor.deliverCallbacks();
 		}
-
-		return false;
 	}
 
 	/**
@@ -373,18 +521,24 @@ public class SAManager {
 			throw new IllegalStateException("SAManager not initialized");
 		}
 
-		// Delete existing events
-		m_dbHelper.deleteEventByScheduleId(scheduleId);
+		try {
+			synchronized (m_alarmProcessor) {
+				// Delete existing events
+				m_dbHelper.deleteEventByScheduleId(scheduleId);
 
-		Schedule schedule = m_dbHelper.getScheduleById(scheduleId);
-		schedule.setState(STATE_OFF);
-		schedule.setDisabled(true);
-		m_dbHelper.addOrUpdateSchedule(schedule);
+				Schedule schedule = m_dbHelper.getScheduleById(scheduleId);
+				schedule.setStateCode(StateCode.OFF);
+				schedule.setDisabled(true);
+				m_dbHelper.addOrUpdateSchedule(schedule);
 
-		SparseArray<Long> changedSchedules = new SparseArray<Long>();
-		changedSchedules.put((int)scheduleId, scheduleId);
-		m_alarmProcessor.updateScheduleStates(changedSchedules);
-		return true;
+				LongHashSet changedSchedules = new LongHashSet();
+				changedSchedules.add(scheduleId);
+				m_alarmProcessor.requestScheduleStatesUpdate(changedSchedules);
+				return true;
+			}
+		} finally {
+			m_alarmProcessor.deliverCallbacks();
+		}
 	}
 
 	/**
@@ -410,7 +564,75 @@ public class SAManager {
 	 * 		Force the computation of the schedule states
 	 */
 	public void refreshScheduleStates() {
-		m_alarmProcessor.updateScheduleStates(null);
+		m_alarmProcessor.updateAllScheduleStates(null);
+	}
+
+	/**
+	 * Description:
+	 * 		Coalesce the state updates that follow changes to schedules.
+	 * 		By default, every change runs a pass that updates the schedule states, sets the next
+	 * 		alarm and calls the callback. With a delay, changes made in quick succession are
+	 * 		handled by a single pass that runs on a background thread once no change has been
+	 * 		made for the delay. The callback still reports every changed schedule.
+	 * 		Until that pass runs, the next alarm information may not reflect the latest changes.
+	 * @param delayMillis - The quiet period in milliseconds. 0 turns coalescing off.
+	 */
+	public void setCoalescingDelay(long delayMillis) {
+		m_alarmProcessor.setCoalescingDelay(delayMillis);
+	}
+
+	/**
+	 * Description:
+	 * 		Run the pending coalesced state update right away, if there is one.
+	 */
+	public void flushScheduleStates() {
+		m_alarmProcessor.flushScheduleStates();
+	}
+
+	/**
+	 * Description:
+	 * 		Choose how hard the database works to make each change durable.
+	 * 		DURABILITY_FULL, the default, makes every change durable before it returns, at the
+	 * 		cost of a sync to storage for each write.
+	 * 		DURABILITY_NORMAL saves most of those syncs. It keeps the database consistent if the
+	 * 		app crashes, but the last changes may be rolled back if the device loses power.
+	 * @param durabilityMode - DURABILITY_FULL or DURABILITY_NORMAL
+	 * @return boolean - true if successful, false if the mode is not recognized
+	 */
+	public boolean setDurabilityMode(int durabilityMode) {
+		return m_dbHelper.setDurabilityMode(durabilityMode);
+	}
+
+	/**
+	 * Description:
+	 * 		Set a listener for the cost of the work done by the library: the duration and size
+	 * 		of each update of the schedule states, the database statements, the time spent in
+	 * 		the callbacks and the alarms armed. InMemorySAMMetrics keeps them in memory so they
+	 * 		can be dumped. By default, nothing is recorded.
+	 * @param metrics - The listener, or null to stop recording
+	 */
+	public void setMetrics(SAMMetrics metrics) {
+		m_alarmProcessor.setMetrics(metrics);
+	}
+
+	/**
+	 * Metrics accessor
+	 */
+	public SAMMetrics getMetrics() {
+		return m_alarmProcessor.getMetrics();
+	}
+
+	/**
+	 * Description:
+	 *  Returns the next alarm overall and for each group, as of the end of the last update of
+	 *  the schedule states. All values read from one snapshot are consistent with each other.
+	 *  This never blocks and never accesses the database.
+	 */
+	public NextAlarmSnapshot getNextAlarmSnapshot() {
+		if (!m_initialized) {
+			throw new IllegalStateException("SAManager not initialized");
+		}
+		return m_alarmProcessor.getNextAlarmSnapshot();
 	}
 
 	/**
@@ -450,18 +672,43 @@ public class SAManager {
 			throw new IllegalStateException("SAManager not initialized");
 		}
 
-		Calendar nextAlarm = null;
+		// A null group tag gives the system-wide next alarm
+		UpcomingAlarm nextAlarm = m_alarmProcessor.getNextAlarmSnapshot().getNextAlarm(groupTag);
+		return nextAlarm != null ? nextAlarm.getAlarmTime() : null;
+	}
 
-		if (groupTag == null) {
-			// System-wide next alarm.
-			nextAlarm = m_alarmProcessor.getTimeForNextAlarm();
-		} else {
-			ScheduleEvent scheduleEvent = m_dbHelper.getNextEventForGroup(groupTag);
-			if (scheduleEvent != null) {
-				nextAlarm = scheduleEvent.getEvent().getAlarmTime();
-			}
+	/**
+	 * Description:
+	 *  Returns the next alarms of a group, earliest first.
+	 *  This never accesses the database, but it waits for an update of the schedule states
+	 *  that is in progress.
+	 * @param groupTag - The group tag
+	 * @param count - The maximum number of alarms to return
+	 * @return The alarms. The list is empty if the group has no upcoming alarm.
+	 */
+	public List<UpcomingAlarm> getNextAlarmsForGroup(String groupTag, int count) {
+		if (!m_initialized) {
+			throw new IllegalStateException("SAManager not initialized");
+		}
+
+		if (groupTag == null || groupTag.isEmpty() || count <= 0) {
+			return new ArrayList<UpcomingAlarm>(0);
 		}
-		return nextAlarm;
+		return m_alarmProcessor.getNextAlarmsForGroup(groupTag, count);
+	}
+
+	/**
+	 * Description:
+	 *  Returns the earliest next alarm across several groups.
+	 *  This reads the last published snapshot, so it never blocks and never accesses the database.
+	 * @param groupTags - The group tags
+	 * @return The alarm, or null if none of the groups has an upcoming alarm
+	 */
+	public UpcomingAlarm getNextAlarmForGroups(String... groupTags) {
+		if (!m_initialized) {
+			throw new IllegalStateException("SAManager not initialized");
+		}
+		return m_alarmProcessor.getNextAlarmSnapshot().getNextAlarmForGroups(groupTags);
 	}
 
 	/**
@@ -474,30 +721,36 @@ public class SAManager {
 			throw new IllegalStateException("SAManager not initialized");
 		}
 
-		if (groupTag == null || groupTag.isEmpty()) {
-			return false;
-		}
+		try {
+			synchronized (m_alarmProcessor) {
+				if (groupTag == null || groupTag.isEmpty()) {
+					return false;
+				}
 
-		SparseArray<Long> changedSchedules = new SparseArray<Long>();
-		boolean retVal =  m_dbHelper.deleteEventsByGroupTag(groupTag);
-		if (retVal) {
-			ScheduleGroup group = m_dbHelper.getScheduleGroupByTag(groupTag);
-			group.setEnabled(false);
-			m_dbHelper.addOrUpdateScheduleGroup(group);
-
-			// Get all schedules that belong to this group and pass their ids to the alarm processor
-			// for notification.
-			List<Schedule> schedules = m_dbHelper.getSchedulesByGroupId(group.getId());
-			if (schedules != null && schedules.size() > 0) {
-				for (Schedule schedule : schedules) {
-					changedSchedules.put((int)schedule.getId(), schedule.getId());
+				LongHashSet changedSchedules = new LongHashSet();
+				boolean retVal =  m_dbHelper.deleteEventsByGroupTag(groupTag);
+				if (retVal) {
+					ScheduleGroup group = m_dbHelper.getScheduleGroupByTag(groupTag);
+					group.setEnabled(false);
+					m_dbHelper.addOrUpdateScheduleGroup(group);
+
+					// Get all schedules that belong to this group and pass their ids to the alarm processor
+					// for notification.
+					List<Schedule> schedules = m_dbHelper.getSchedulesByGroupId(group.getId());
+					if (schedules != null && schedules.size() > 0) {
+						for (Schedule schedule : schedules) {
+							changedSchedules.add(schedule.getId());
+						}
+					}
 				}
-			}
-		}
 
-		m_alarmProcessor.updateScheduleStates(changedSchedules);
+				m_alarmProcessor.requestScheduleStatesUpdate(changedSchedules);
 
-		return retVal;
+				return retVal;
+			}
+		} finally {
+			m_alarmProcessor.deliverCallbacks();
+		}
 	}
 
 	/**
@@ -511,43 +764,49 @@ public class SAManager {
 			throw new IllegalStateException("SAManager not initialized");
 		}
 
-		if (groupTag == null || groupTag.isEmpty()) {
-			return false;
-		}
-
-		boolean retVal = true;
-
-		SparseArray<Long> changedSchedules = new SparseArray<Long>();
-		List<ScheduleAndEventsToAdd> scheduleAndEventsToAdd = new ArrayList<ScheduleAndEventsToAdd>();
-		ScheduleGroup group = m_dbHelper.getScheduleGroupByTag(groupTag);
-		if (group != null) {
-			List<Schedule> schedules = m_dbHelper.getSchedulesByGroupId(group.getId());
+		try {
+			synchronized (m_alarmProcessor) {
+				if (groupTag == null || groupTag.isEmpty()) {
+					return false;
+				}
 
-			if (schedules != null && schedules.size() > 0) {
-				for (Schedule schedule : schedules) {
-					if (!schedule.isDisabled()) {
-						List<Event> startAndStopEvents = createStartAndStopEvents(schedule.getStartTime(),
-								schedule.getDuration(), schedule.getRepeatType());
-						scheduleAndEventsToAdd.add(
-								new ScheduleAndEventsToAdd(schedule, startAndStopEvents, false));
+				boolean retVal = true;
+
+				LongHashSet changedSchedules = new LongHashSet();
+				List<ScheduleAndEventsToAdd> scheduleAndEventsToAdd = new ArrayList<ScheduleAndEventsToAdd>();
+				ScheduleGroup group = m_dbHelper.getScheduleGroupByTag(groupTag);
+				if (group != null) {
+					List<Schedule> schedules = m_dbHelper.getSchedulesByGroupId(group.getId());
+
+					if (schedules != null && schedules.size() > 0) {
+						for (Schedule schedule : schedules) {
+							if (!schedule.isDisabled()) {
+								List<Event> startAndStopEvents = createStartAndStopEvents(schedule.getStartTimeMillis(),
+										schedule.getDuration(), schedule.getRepeatType());
+								scheduleAndEventsToAdd.add(
+										new ScheduleAndEventsToAdd(schedule, startAndStopEvents, false));
+
+								changedSchedules.add(schedule.getId());
+							}
+						}
+					}
+				}
 
-						changedSchedules.put((int)schedule.getId(), schedule.getId());
+				if (scheduleAndEventsToAdd.size() > 0) {
+					retVal = m_dbHelper.addMultipleScheduleAndEvents(scheduleAndEventsToAdd);
+					if (retVal) {
+						group.setEnabled(true);
+						m_dbHelper.addOrUpdateScheduleGroup(group);
 					}
+					m_alarmProcessor.requestScheduleStatesUpdate(changedSchedules);
 				}
-			}
-		}
 
-		if (scheduleAndEventsToAdd.size() > 0) {
-			retVal = m_dbHelper.addMultipleScheduleAndEvents(scheduleAndEventsToAdd);
-			if (retVal) {
-				group.setEnabled(true);
-				m_dbHelper.addOrUpdateScheduleGroup(group);
+				// If there was nothing to add given the tag, return true
+				return retVal;
 			}
-			m_alarmProcessor.updateScheduleStates(changedSchedules);
+		} finally {
+			m_alarmProcessor.deliverCallbacks();
 		}
-
-		// If there was nothing to add given the tag, return true
-		return retVal;
 	}
 
 	/**
@@ -586,6 +845,209 @@ public class SAManager {
 		return m_versionName;
 	}
 
+	/**
+	 * Description:
+	 * 		Sets the executor on which the results of asynchronous calls are delivered.
+	 * 		By default, results are delivered on the main thread.
+	 * @param callbackExecutor - The executor. If null, the main thread is used.
+	 */
+	public void setCallbackExecutor(Executor callbackExecutor) {
+		m_callbackExecutor = callbackExecutor != null ? callbackExecutor : new MainThreadExecutor();
+	}
+
+	// Asynchronous API:
+	//		Each call below runs its synchronous counterpart on the background thread that also
+	//		processes alarms. Calls run one at a time, in the order they are made, so a call sees
+	//		the result of all the calls made before it. The callback can be null, in which
+	//		case the result is only available through the returned Future.
+
+	/**
+	 * Description:
+	 * 		Asynchronous variant of addSchedule
+	 * @see #addSchedule(Calendar, int, int, String, String)
+	 */
+	public Future<Long> addScheduleAsync(Calendar startTime, final int duration,
+	                                     final int repeatType, final String tag,
+	                                     final String groupTag, SAMResultCallback<Long> callback) {
+		// Copy the start time so the caller can't modify it before the call runs
+		final Calendar startTimeCopy = (Calendar)startTime.clone();
+		return submit(new Callable<Long>() {
+			@Override
+			public Long call() {
+				return addSchedule(startTimeCopy, duration, repeatType, tag, groupTag);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Description:
+	 * 		Asynchronous variant of addSchedules
+	 * @see #addSchedules(List)
+	 */
+	public Future<long[]> addSchedulesAsync(List<ScheduleSpec> scheduleSpecs,
+	                                        SAMResultCallback<long[]> callback) {
+		// Copy the list so the caller can't modify it before the call runs
+		final List<ScheduleSpec> scheduleSpecsCopy = scheduleSpecs != null ?
+				new ArrayList<ScheduleSpec>(scheduleSpecs) : null;
+		return submit(new Callable<long[]>() {
+			@Override
+			public long[] call() {
+				return addSchedules(scheduleSpecsCopy);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Description:
+	 * 		Asynchronous variant of updateSchedule
+	 * @see #updateSchedule(long, Calendar, int)
+	 */
+	public Future<Long> updateScheduleAsync(final long id, Calendar startTime, final int duration,
+	                                        SAMResultCallback<Long> callback) {
+		final Calendar startTimeCopy = (Calendar)startTime.clone();
+		return submit(new Callable<Long>() {
+			@Override
+			public Long call() {
+				return updateSchedule(id, startTimeCopy, duration);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Description:
+	 * 		Asynchronous variant of cancelScheduleById
+	 * @see #cancelScheduleById(long)
+	 */
+	public Future<Boolean> cancelScheduleByIdAsync(final long scheduleId,
+	                                               SAMResultCallback<Boolean> callback) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return cancelScheduleById(scheduleId);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Description:
+	 * 		Asynchronous variant of deleteSchedulesByGroupTag
+	 * @see #deleteSchedulesByGroupTag(String)
+	 */
+	public Future<Boolean> deleteSchedulesByGroupTagAsync(final String groupTag,
+	                                                      SAMResultCallback<Boolean> callback) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return deleteSchedulesByGroupTag(groupTag);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Description:
+	 * 		Asynchronous variant of enableSchedule
+	 * @see #enableSchedule(long)
+	 */
+	public Future<Boolean> enableScheduleAsync(final long scheduleId,
+	                                           SAMResultCallback<Boolean> callback) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return enableSchedule(scheduleId);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Description:
+	 * 		Asynchronous variant of disableSchedule
+	 * @see #disableSchedule(long)
+	 */
+	public Future<Boolean> disableScheduleAsync(final long scheduleId,
+	                                            SAMResultCallback<Boolean> callback) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return disableSchedule(scheduleId);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Description:
+	 * 		Asynchronous variant of disableScheduleGroup
+	 * @see #disableScheduleGroup(String)
+	 */
+	public Future<Boolean> disableScheduleGroupAsync(final String groupTag,
+	                                                 SAMResultCallback<Boolean> callback) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return disableScheduleGroup(groupTag);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Description:
+	 * 		Asynchronous variant of enableScheduleGroup
+	 * @see #enableScheduleGroup(String)
+	 */
+	public Future<Boolean> enableScheduleGroupAsync(final String groupTag,
+	                                                SAMResultCallback<Boolean> callback) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return enableScheduleGroup(groupTag);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Description:
+	 * 		Asynchronous variant of refreshScheduleStates
+	 * @see #refreshScheduleStates()
+	 */
+	public Future<Void> refreshScheduleStatesAsync(SAMResultCallback<Void> callback) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				refreshScheduleStates();
+				return null;
+			}
+		}, callback);
+	}
+
+	/**
+	 * Description:
+	 * 		Asynchronous variant of getScheduleStates
+	 * @see #getScheduleStates(String)
+	 */
+	public Future<List<ScheduleState>> getScheduleStatesAsync(final String scheduleTag,
+	                                      SAMResultCallback<List<ScheduleState>> callback) {
+		return submit(new Callable<List<ScheduleState>>() {
+			@Override
+			public List<ScheduleState> call() {
+				return getScheduleStates(scheduleTag);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Description:
+	 * 		Asynchronous variant of getScheduleStatesByGroupTag
+	 * @see #getScheduleStatesByGroupTag(String)
+	 */
+	public Future<List<ScheduleState>> getScheduleStatesByGroupTagAsync(final String groupTag,
+	                                      SAMResultCallback<List<ScheduleState>> callback) {
+		return submit(new Callable<List<ScheduleState>>() {
+			@Override
+			public List<ScheduleState> call() {
+				return getScheduleStatesByGroupTag(groupTag);
+			}
+		}, callback);
+	}
+
 	/**
      * Utility method to compute the duration of a schedule given the start
      * and end times. This is provided because when updating a schedule, it
@@ -600,137 +1062,102 @@ public class SAManager {
      *                   rely on this helper method to get the duration.
      */
     public int getDuration(Calendar startTime, Calendar endTime, int repeatType) {
-
-        int repeatTypeDuration = 0;
-        switch (repeatType) {
-            case REPEAT_TYPE_HOURLY:
-                repeatTypeDuration = AlarmProcessingUtil.HOUR_MS;
-                break;
-            case REPEAT_TYPE_DAILY:
-                repeatTypeDuration = AlarmProcessingUtil.DAY_MS;
-                break;
-            case REPEAT_TYPE_WEEKLY:
-                repeatTypeDuration = AlarmProcessingUtil.WEEK_MS;
-                break;
-
-            case REPEAT_TYPE_MONTHLY:
-                repeatTypeDuration = 30 * AlarmProcessingUtil.DAY_MS;
-                break;
-            case REPEAT_TYPE_YEARLY:
-                repeatTypeDuration = 365 * AlarmProcessingUtil.DAY_MS;
-                break;
-            default:
-                // Unrecognized repeat type. Return zero
-                return 0;
-        }
-
-        long duration = endTime.getTimeInMillis() - startTime.getTimeInMillis();
-
-        // Scenario 1: Duration is greater than repeatType
-        while (duration > repeatTypeDuration) {
-            duration -= repeatTypeDuration;
-        }
-        // Scenario 2: Duration is negative
-        while (duration < 0) {
-            duration += repeatTypeDuration;
-        }
-
-        return (int)duration / AlarmProcessingUtil.MINUTE_MS;
+        // An unrecognized repeat type gives zero
+        return RecurrenceUtil.getDurationMinutes(startTime.getTimeInMillis(),
+                endTime.getTimeInMillis(), repeatType);
     }
 
     /**
-     * Helper method to determine if a repeat type is valid
+     * Helper method to determine if the parameters of a new schedule are valid
      */
-    private boolean isRepeatTypeValid(int repeatType) {
-        switch (repeatType) {
-            case REPEAT_TYPE_HOURLY:
-            case REPEAT_TYPE_DAILY:
-            case REPEAT_TYPE_WEEKLY:
-            case REPEAT_TYPE_MONTHLY:
-            case REPEAT_TYPE_YEARLY:
-                return true;
-            case REPEAT_TYPE_NONE:
-                // This has not yet been implemented
-            default:
-                return false;
-        }
+    private boolean isScheduleValid(long startTimeMillis, int duration, int repeatType,
+                                    String tag, long currTimeMillis) {
+        return duration > 0 &&
+                // Start time shouldn't be more than 24 hours in the past
+                (currTimeMillis - startTimeMillis) <= AlarmProcessingUtil.DAY_MS &&
+                isRepeatTypeValid(repeatType) &&
+                tag != null && !tag.isEmpty();
     }
 
+	/*
+	 * Helper method to get the group with the given tag, adding it if it doesn't exist.
+	 * Returns null if the tag is null or empty, or if the group couldn't be added.
+	 */
+	private ScheduleGroup getOrAddScheduleGroup(String groupTag) {
+		ScheduleGroup group = null;
+		if (groupTag != null && !groupTag.isEmpty()) {
+			group = m_dbHelper.getScheduleGroupByTag(groupTag);
+			if (group == null) {
+				group = new ScheduleGroup(groupTag, true);
+				long groupId = m_dbHelper.addOrUpdateScheduleGroup(group);
+				if (groupId <= 0) {
+					// We should return an error here because the user expects that this
+					// schedule belong to a group
+					group = null;
+				}
+			}
+		}
+		return group;
+	}
 
     /**
-     * Helper method which takes an input time and moves it forward to the very
-     * next time that an event occurs given the current time and the repeat type
+     * Helper method to determine if a repeat type is valid
      */
-    private void adjustToNextAlarmTime(Calendar timeToAdjust, int repeatType) {
-        Calendar currTime = Calendar.getInstance();
-        while (timeToAdjust.getTimeInMillis() < currTime.getTimeInMillis()) {
-            switch (repeatType) {
-                case SAManager.REPEAT_TYPE_HOURLY:
-                    timeToAdjust.add(Calendar.HOUR, 1);
-                    break;
-                case SAManager.REPEAT_TYPE_DAILY:
-                    timeToAdjust.add(Calendar.DAY_OF_MONTH, 1);
-                    break;
-                case SAManager.REPEAT_TYPE_WEEKLY:
-                    timeToAdjust.add(Calendar.WEEK_OF_YEAR, 1);
-                    break;
-                case SAManager.REPEAT_TYPE_MONTHLY:
-                    timeToAdjust.add(Calendar.MONTH, 1);
-                    break;
-                case SAManager.REPEAT_TYPE_YEARLY:
-                    timeToAdjust.add(Calendar.YEAR, 1);
-                    break;
-            }
-        }
-
+    private boolean isRepeatTypeValid(int repeatType) {
+        return RecurrenceUtil.isRepeatTypeValid(repeatType);
     }
 
-    private boolean addEventsForSchedule(long scheduleId, Calendar startTime, int duration, int repeatType) {
-        long eventId = 0;
-
-        if (scheduleId > 0) {
-            // Successfully added the event to the schedule, now add two events to
-            // represent the start and stop times
-
-            // TODO: This all needs to be done in a transaction
+	/*
+	 * Helper method to run a call on the alarm processing worker and deliver its outcome
+	 * to the callback on the callback executor.
+	 */
+	private <T> Future<T> submit(final Callable<T> task, final SAMResultCallback<T> callback) {
+		final Executor callbackExecutor = m_callbackExecutor;
+		return m_alarmProcessor.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				final T result;
+				try {
+					result = task.call();
+				} catch (final Exception e) {
+					if (callback != null) {
+						callbackExecutor.execute(new Runnable() {
+							@Override
+							public void run() {
+								callback.onError(e);
+							}
+						});
+					}
+					throw e;
+				}
 
-            // Adjust startTime to the next occurrence if it happens in the past
-            Calendar tempTime = Calendar.getInstance();
-            tempTime.setTime(startTime.getTime());
-            adjustToNextAlarmTime(tempTime, repeatType);
+				if (callback != null) {
+					callbackExecutor.execute(new Runnable() {
+						@Override
+						public void run() {
+							callback.onComplete(result);
+						}
+					});
+				}
+				return result;
+			}
+		});
+	}
 
-            eventId = m_dbHelper.addOrUpdateEvent(new Event(scheduleId, tempTime, STATE_ON));
-            if (eventId > 0) {
-                tempTime.add(Calendar.MINUTE, duration);
-                eventId = m_dbHelper.addOrUpdateEvent(new Event(scheduleId, tempTime, STATE_OFF));
-                if (eventId > 0) {
-                    // TODO: This is where we commit the transaction
-                }
-            }
-        }
+	private List<Event> createStartAndStopEvents(long startTimeMillis, int duration, int repeatType) {
+		return RecurrenceUtil.createStartAndStopEvents(startTimeMillis, duration, repeatType,
+				System.currentTimeMillis());
+	}
 
-        return eventId > 0;
-    }
+	/*
+	 * Executor that runs tasks on the main thread
+	 */
+	private static class MainThreadExecutor implements Executor {
+		private final Handler m_handler = new Handler(Looper.getMainLooper());
 
-	private List<Event> createStartAndStopEvents(Calendar startTime, int duration, int repeatType) {
-		// Start event
-		// Adjust startTime to the next occurrence if it happens in the past
-		Calendar adjustedStartTime = Calendar.getInstance();
-		adjustedStartTime.setTime(startTime.getTime());
-		adjustToNextAlarmTime(adjustedStartTime, repeatType);
-		Event startEvent = new Event(0, adjustedStartTime, STATE_ON);
-
-		// Stop event
-		Calendar adjustedStopTime = Calendar.getInstance();
-		adjustedStopTime.setTime(startTime.getTime());
-		adjustedStopTime.add(Calendar.MINUTE, duration);
-		adjustToNextAlarmTime(adjustedStopTime, repeatType);
-		Event stopEvent = new Event(0, adjustedStopTime, STATE_OFF);
-
-		List<Event> events = new ArrayList<Event>();
-		events.add(startEvent);
-		events.add(stopEvent);
-
-		return events;
+		@Override
+		public void execute(Runnable runnable) {
+			m_handler.post(runnable);
+		}
 	}
 }
@@ -28,29 +28,46 @@ package com.scalior.schedulealarmmanager.database;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 
+import com.scalior.schedulealarmmanager.SAMMetrics;
+import com.scalior.schedulealarmmanager.SAManager;
+import com.scalior.schedulealarmmanager.ScheduleStore;
 import com.scalior.schedulealarmmanager.model.Event;
 import com.scalior.schedulealarmmanager.modelholder.ScheduleAndEventsToAdd;
 import com.scalior.schedulealarmmanager.modelholder.ScheduleEvent;
 import com.scalior.schedulealarmmanager.model.Schedule;
 import com.scalior.schedulealarmmanager.model.ScheduleGroup;
+import com.scalior.schedulealarmmanager.model.ScheduleGroupInfo;
+import com.scalior.schedulealarmmanager.model.StateCode;
 
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.List;
 import java.util.UUID;
 
+import static com.scalior.schedulealarmmanager.database.SAMSchema.*;
+
 /**
  * Created by eyong on 9/22/14.
  */
-public class SAMSQLiteHelper extends SQLiteOpenHelper {
+public class SAMSQLiteHelper extends SQLiteOpenHelper implements ScheduleStore {
 
     // Singleton
     private static SAMSQLiteHelper m_instance;
 
-    public static SAMSQLiteHelper getInstance(Context context) {
+    private final ScheduleCache m_scheduleCache = new ScheduleCache();
+
+    // Compiled write statements. Every write holds the lock of this object.
+    private final StatementCache m_statementCache = new StatementCache();
+
+    private volatile int m_durabilityMode = SAManager.DURABILITY_FULL;
+    private volatile SAMMetrics m_metrics = SAMMetrics.NONE;
+
+    public static synchronized SAMSQLiteHelper getInstance(Context context) {
         if (m_instance == null) {
             m_instance = new SAMSQLiteHelper(context);
         }
@@ -60,68 +77,43 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
 
     // Database information
     private static final String DATABASE_NAME = "scheduleeventmanager.db";
-    private static final int DATABASE_VERSION = 6;
-
-    // Tables:
-    //		Database Creation ID:
-    //			This serves as a unique device id for the client. It is based on the database
-    //			such that the database re-creation represents a new client configuration
-    public static final String TABLE_DBCREATION = "dbcreation";
-    public static final String DBCREATION_UUID = "uuid";
-    private static final String TABLE_DBCREATION_CREATE = "create table " +
-            TABLE_DBCREATION + " (" +
-            DBCREATION_UUID + " text not null);";
-
-    //		Schedule group
-    public static final String TABLE_SCHEDULEGROUP = "schedulegroup";
-    public static final String SCHEDULEGROUP_ID = "_id";
-    public static final String SCHEDULEGROUP_TAG = "tag";
-    public static final String SCHEDULEGROUP_ENABLED_FL = "enabled";
-    public static final String SCHEDULEGROUP_OVERALL_STATE = "overallstate";
-    private static final String TABLE_SCHEDULEGROUP_CREATE = "create table " +
-            TABLE_SCHEDULEGROUP + " (" +
-            SCHEDULEGROUP_ID + " integer primary key autoincrement, " +
-            SCHEDULEGROUP_TAG + " text not null, " +
-            SCHEDULEGROUP_ENABLED_FL + " boolean not null, " +
-            SCHEDULEGROUP_OVERALL_STATE + " text );";
-
-    //		Schedule
-    public static final String TABLE_SCHEDULE = "schedule";
-    public static final String SCHEDULE_ID = "_id";
-    public static final String SCHEDULE_START_TIME = "starttime";
-    public static final String SCHEDULE_REPEAT_TYPE = "repeattype";
-    public static final String SCHEDULE_DURATION = "duration";
-    public static final String SCHEDULE_TAG = "tag";
-    public static final String SCHEDULE_STATE = "schedule_state";
-    public static final String SCHEDULE_DISABLE_FL = "disabled";
-    public static final String SCHEDULE_GROUP_ID = "groupid";
-    private static final String TABLE_SCHEDULE_CREATE = "create table " +
-            TABLE_SCHEDULE + " (" +
-            SCHEDULE_ID + " integer primary key autoincrement, " +
-            SCHEDULE_START_TIME + " datetime not null, " +
-            SCHEDULE_REPEAT_TYPE + " integer not null, " +
-            SCHEDULE_DURATION + " integer not null, " +
-            SCHEDULE_TAG + " text not null, " +
-            SCHEDULE_STATE + " text, " +
-            SCHEDULE_DISABLE_FL + " boolean, " +
-            SCHEDULE_GROUP_ID + " integer);";
-
-    //		Event
-    public static final String TABLE_EVENT = "event";
-    public static final String EVENT_ID = "_id";
-    public static final String EVENT_SCHEDULE_ID = "scheduleid";
-    public static final String EVENT_ALARM_TIME = "alarmtime";
-    public static final String EVENT_STATE = "state";
-    private static final String TABLE_EVENT_CREATE = "create table " +
-            TABLE_EVENT + " (" +
-            EVENT_ID + " integer primary key autoincrement, " +
-            EVENT_SCHEDULE_ID + " integer references " + TABLE_SCHEDULE + " on delete cascade, " +
-            EVENT_ALARM_TIME + " datetime not null, " +
-            EVENT_STATE + " text not null);";
+    private static final int DATABASE_VERSION = 8;
+
+    // Oldest database version that is migrated in place. Databases older than this are
+    // dropped and re-created.
+    private static final int DATABASE_VERSION_MIGRATABLE = 6;
+
+    // The tables, indexes and statements are defined in SAMSchema.
+    //		States are stored as StateCode values since database version 8. Before that, they
+    //		were stored as the strings SAManager.STATE_ON and SAManager.STATE_OFF.
+    private static final String STATE_NAME_TO_CODE = " WHEN '" + StateCode.ON_NAME + "' THEN " +
+            StateCode.ON + " WHEN '" + StateCode.OFF_NAME + "' THEN " + StateCode.OFF + " END";
+    private static final String SCHEDULEGROUP_COLUMNS = SCHEDULEGROUP_ID + ", " + SCHEDULEGROUP_TAG +
+            ", " + SCHEDULEGROUP_ENABLED_FL + ", " + SCHEDULEGROUP_OVERALL_STATE;
+    private static final String SCHEDULEGROUP_COLUMNS_V7 = SCHEDULEGROUP_ID + ", " + SCHEDULEGROUP_TAG +
+            ", " + SCHEDULEGROUP_ENABLED_FL + ", CASE " + SCHEDULEGROUP_OVERALL_STATE + STATE_NAME_TO_CODE;
+    private static final String SCHEDULE_COLUMNS = SCHEDULE_ID + ", " + SCHEDULE_START_TIME + ", " +
+            SCHEDULE_REPEAT_TYPE + ", " + SCHEDULE_DURATION + ", " + SCHEDULE_TAG + ", " +
+            SCHEDULE_STATE + ", " + SCHEDULE_DISABLE_FL + ", " + SCHEDULE_GROUP_ID;
+    private static final String SCHEDULE_COLUMNS_V7 = SCHEDULE_ID + ", " + SCHEDULE_START_TIME + ", " +
+            SCHEDULE_REPEAT_TYPE + ", " + SCHEDULE_DURATION + ", " + SCHEDULE_TAG + ", CASE " +
+            SCHEDULE_STATE + STATE_NAME_TO_CODE + ", " + SCHEDULE_DISABLE_FL + ", " + SCHEDULE_GROUP_ID;
+    private static final String EVENT_COLUMNS = EVENT_ID + ", " + EVENT_SCHEDULE_ID + ", " +
+            EVENT_ALARM_TIME + ", " + EVENT_STATE;
+    // The state of an event is never null. Anything else than on is off.
+    private static final String EVENT_COLUMNS_V7 = EVENT_ID + ", " + EVENT_SCHEDULE_ID + ", " +
+            EVENT_ALARM_TIME + ", CASE " + EVENT_STATE + " WHEN '" + StateCode.ON_NAME + "' THEN " +
+            StateCode.ON + " ELSE " + StateCode.OFF + " END";
 
     // Constructor
     private SAMSQLiteHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+        // With write-ahead logging, queries run on a pool of read connections and don't wait
+        // for the writer. Older versions enable it when the database is opened.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
     }
 
     @Override
@@ -130,6 +122,7 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
         database.execSQL(TABLE_SCHEDULEGROUP_CREATE);
         database.execSQL(TABLE_SCHEDULE_CREATE);
         database.execSQL(TABLE_EVENT_CREATE);
+        createIndexes(database);
 
         // Get the unique database creation id.
         // This id should factor in the device id.
@@ -141,12 +134,65 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldversion, int newversion) {
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_EVENT);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_SCHEDULE);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_SCHEDULEGROUP);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_DBCREATION);
+        if (oldversion < DATABASE_VERSION_MIGRATABLE) {
+            // There is no migration path from these versions
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_EVENT);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_SCHEDULE);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_SCHEDULEGROUP);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_DBCREATION);
+
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        // Each step migrates from one version to the next and preserves existing data.
+        // onUpgrade runs in a transaction, so a failed step leaves the database untouched.
+        if (oldversion < 7) {
+            createIndexes(sqLiteDatabase);
+        }
+        if (oldversion < 8) {
+            // The state columns change from text to integer. Rebuilding a table drops its
+            // indexes, so they are created again afterwards.
+            rebuildTable(sqLiteDatabase, TABLE_SCHEDULEGROUP, TABLE_SCHEDULEGROUP_CREATE,
+                    SCHEDULEGROUP_COLUMNS, SCHEDULEGROUP_COLUMNS_V7);
+            rebuildTable(sqLiteDatabase, TABLE_SCHEDULE, TABLE_SCHEDULE_CREATE,
+                    SCHEDULE_COLUMNS, SCHEDULE_COLUMNS_V7);
+            rebuildTable(sqLiteDatabase, TABLE_EVENT, TABLE_EVENT_CREATE,
+                    EVENT_COLUMNS, EVENT_COLUMNS_V7);
+            createIndexes(sqLiteDatabase);
+        }
+    }
 
-        onCreate(sqLiteDatabase);
+    /*
+     * Helper method to rebuild a table with its current definition.
+     * SQLite can't change the type of a column in place, so the rows are copied into a new
+     * table, converted by the select list, and the new table takes the name of the old one.
+     * The autoincrement counter is carried over, so deleted ids are not reused. Foreign keys
+     * are only enabled in onOpen, so they are not checked while the tables are swapped.
+     */
+    private static void rebuildTable(SQLiteDatabase database, String table, String createSql,
+                                     String columns, String selectColumns) {
+        String newTable = table + "_new";
+        database.execSQL(createSql.replace("create table " + table + " (",
+                "create table " + newTable + " ("));
+        database.execSQL("INSERT INTO " + newTable + " (" + columns + ") SELECT " +
+                selectColumns + " FROM " + table);
+        database.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + newTable + "'");
+        database.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT '" + newTable +
+                "', seq FROM sqlite_sequence WHERE name = '" + table + "'");
+        database.execSQL("DROP TABLE " + table);
+        database.execSQL("ALTER TABLE " + newTable + " RENAME TO " + table);
+    }
+
+    /*
+     * Helper method to create the secondary indexes used by the alarm processing queries
+     */
+    private void createIndexes(SQLiteDatabase database) {
+        database.execSQL(INDEX_EVENT_ALARM_TIME_CREATE);
+        database.execSQL(INDEX_EVENT_SCHEDULE_ID_CREATE);
+        database.execSQL(INDEX_SCHEDULE_GROUP_ID_CREATE);
+        database.execSQL(INDEX_SCHEDULE_TAG_CREATE);
+        database.execSQL(INDEX_SCHEDULEGROUP_TAG_CREATE);
     }
 
     @Override
@@ -155,7 +201,69 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
         if (!db.isReadOnly()) {
             // Enable foreign key constraints
             db.execSQL("PRAGMA foreign_keys=ON;");
+
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+                db.enableWriteAheadLogging();
+            }
+        }
+
+        // The statements above don't fit in the default prepared statement cache
+        db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+
+        if (!db.isReadOnly()) {
+            applyDurabilityMode(db);
+        }
+    }
+
+    /**
+     * Description:
+     * Set the synchronous level used by the writer connection.
+     * DURABILITY_FULL, the default, syncs at every commit. With write-ahead logging,
+     * DURABILITY_NORMAL only syncs at checkpoints. The database stays consistent, but the last
+     * transactions may be lost on power failure.
+     *
+     * @param durabilityMode - SAManager.DURABILITY_FULL or SAManager.DURABILITY_NORMAL
+     * @return boolean - true if successful, false if the mode is not recognized
+     */
+    public boolean setDurabilityMode(int durabilityMode) {
+        if (durabilityMode != SAManager.DURABILITY_FULL &&
+                durabilityMode != SAManager.DURABILITY_NORMAL) {
+            return false;
+        }
+
+        // The level can't change inside a transaction, and writes hold this lock for the
+        // whole duration of theirs
+        synchronized (m_statementCache) {
+            m_durabilityMode = durabilityMode;
+            applyDurabilityMode(getWritableDatabase());
+        }
+        return true;
+    }
+
+    /**
+     * Description:
+     * Set the listener told about every statement run against the database
+     *
+     * @param metrics - The listener, or null for SAMMetrics.NONE
+     */
+    public void setMetrics(SAMMetrics metrics) {
+        m_metrics = metrics != null ? metrics : SAMMetrics.NONE;
+    }
+
+    private void applyDurabilityMode(SQLiteDatabase db) {
+        if (m_durabilityMode == SAManager.DURABILITY_FULL) {
+            db.execSQL("PRAGMA synchronous=FULL;");
+        } else {
+            db.execSQL("PRAGMA synchronous=NORMAL;");
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (m_statementCache) {
+            m_statementCache.clear();
         }
+        super.close();
     }
 
 
@@ -163,58 +271,21 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
      * Description:
      * Method to get the list of events that are due
      *
-     * @param cutoffTime All events that happen at or before this time will be returned
+     * @param cutoffTimeMillis All events that happen at or before this time will be returned
      * @return The list of events that have are due, or null if none is due
      */
-    public List<ScheduleEvent> getExpiredEvents(Calendar cutoffTime) {
-
-        String rawSQL = "SELECT " + TABLE_EVENT + "." + EVENT_ID + " , " + EVENT_SCHEDULE_ID +
-                ", " + EVENT_ALARM_TIME + ", " + EVENT_STATE + ", " + SCHEDULE_START_TIME +
-                ", " + SCHEDULE_DURATION + ", " + SCHEDULE_REPEAT_TYPE + ", " + SCHEDULE_TAG +
-                ", " + SCHEDULE_STATE + ", " + SCHEDULE_DISABLE_FL + ", " + SCHEDULE_GROUP_ID +
-                " FROM " + TABLE_EVENT + " INNER JOIN " + TABLE_SCHEDULE +
-                " ON " + EVENT_SCHEDULE_ID + " = " + TABLE_SCHEDULE + "." + SCHEDULE_ID +
-                " WHERE " + EVENT_ALARM_TIME + " <= " + (cutoffTime.getTimeInMillis() / 1000);
+    @Override
+    public List<ScheduleEvent> getExpiredEvents(long cutoffTimeMillis) {
 
         // Note on the where clause:
         // Given that the Android adjusts alarm triggers so that they are more efficient
         // alarms are not going to be exact. We need to account for drifts.
+        String[] selectionArgs = {String.valueOf(cutoffTimeMillis / 1000)};
 
         SQLiteDatabase database = getReadableDatabase();
-        Cursor cursor = database.rawQuery(rawSQL, null);
-
-        ArrayList<ScheduleEvent> expiredEvents = null;
-
-        if (cursor.getCount() > 0) {
-            cursor.moveToFirst();
-
-            expiredEvents = new ArrayList<ScheduleEvent>();
-
-            while (!cursor.isAfterLast()) {
-                // Create the event
-                Calendar alarmTime = Calendar.getInstance();
-                alarmTime.setTimeInMillis(cursor.getLong(cursor.getColumnIndex(EVENT_ALARM_TIME)) * 1000);
-                Event event = new Event(cursor.getLong(cursor.getColumnIndex(EVENT_SCHEDULE_ID)),
-                        alarmTime,
-                        cursor.getString(cursor.getColumnIndex(EVENT_STATE)));
-                event.setId(cursor.getLong(cursor.getColumnIndex(EVENT_ID)));
-
-                // Create the schedule
-                Calendar startTime = Calendar.getInstance();
-                startTime.setTimeInMillis(cursor.getLong(cursor.getColumnIndex(SCHEDULE_START_TIME)) * 1000);
-                Schedule schedule = new Schedule(startTime,
-                        cursor.getInt(cursor.getColumnIndex(SCHEDULE_DURATION)),
-                        cursor.getInt(cursor.getColumnIndex(SCHEDULE_REPEAT_TYPE)),
-                        cursor.getString(cursor.getColumnIndex(SCHEDULE_TAG)));
-                schedule.setId(cursor.getLong(cursor.getColumnIndex(EVENT_SCHEDULE_ID)));
-                schedule.setState(cursor.getString(cursor.getColumnIndex(SCHEDULE_STATE)));
-                schedule.setGroupId(cursor.getLong(cursor.getColumnIndex(SCHEDULE_GROUP_ID)));
-
-                expiredEvents.add(new ScheduleEvent(schedule, event));
-
-                cursor.moveToNext();
-            }
-        }
+        Cursor cursor = rawQuery(database, QUERY_EXPIRED_EVENTS, selectionArgs);
+
+        List<ScheduleEvent> expiredEvents = mapRows(cursor, new ScheduleEventRowMapper());
 
         cursor.close();
         return expiredEvents;
@@ -226,19 +297,13 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
      *
      * @return The list of events that have are due, or null if none is due
      */
+    @Override
     public List<ScheduleEvent> getScheduleEvents() {
 
-        String rawSQL = "SELECT " + TABLE_EVENT + "." + EVENT_ID + " , " + EVENT_SCHEDULE_ID +
-                ", " + EVENT_ALARM_TIME + ", " + EVENT_STATE + ", " + SCHEDULE_START_TIME +
-                ", " + SCHEDULE_DURATION + ", " + SCHEDULE_REPEAT_TYPE + ", " + SCHEDULE_TAG +
-                ", " + SCHEDULE_STATE + ", " + SCHEDULE_DISABLE_FL + ", " + SCHEDULE_GROUP_ID +
-                " FROM " + TABLE_EVENT + " INNER JOIN " + TABLE_SCHEDULE +
-                " ON " + EVENT_SCHEDULE_ID + " = " + TABLE_SCHEDULE + "." + SCHEDULE_ID;
-
         SQLiteDatabase database = getReadableDatabase();
-        Cursor cursor = database.rawQuery(rawSQL, null);
+        Cursor cursor = rawQuery(database, ScheduleEventRowMapper.SELECT_FROM, null);
 
-        List<ScheduleEvent> scheduleEvents = extractScheduleEventsFromCursor(cursor);
+        List<ScheduleEvent> scheduleEvents = mapRows(cursor, new ScheduleEventRowMapper());
 
         cursor.close();
         return scheduleEvents;
@@ -246,73 +311,60 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
 
     /**
      * Description:
-     * This returns the next event to be scheduled given the current time
+     * Method to get the list of schedule events that belong to a set of schedules
      *
-     * @return One ScheduleEvent, or null if no other event occurs in the future
+     * @param scheduleIds - The ids of the schedules
+     * @return The list of schedule events, or null if there is none
      */
-    public ScheduleEvent getNextEvent() {
-        ScheduleEvent scheduleEvent = null;
-
-        Calendar currTime = Calendar.getInstance();
+    @Override
+    public List<ScheduleEvent> getScheduleEventsByScheduleIds(long[] scheduleIds) {
+        if (scheduleIds == null || scheduleIds.length == 0) {
+            return null;
+        }
 
-        String rawSQL = "SELECT " + TABLE_EVENT + "." + EVENT_ID + " , " + EVENT_SCHEDULE_ID +
-                ", " + EVENT_ALARM_TIME + ", " + EVENT_STATE + ", " + SCHEDULE_START_TIME +
-                ", " + SCHEDULE_DURATION + ", " + SCHEDULE_REPEAT_TYPE + ", " + SCHEDULE_TAG +
-                ", " + SCHEDULE_STATE + ", " + SCHEDULE_DISABLE_FL + ", " + SCHEDULE_GROUP_ID +
-                " FROM " + TABLE_EVENT + " INNER JOIN " + TABLE_SCHEDULE +
-                " ON " + EVENT_SCHEDULE_ID + " = " + TABLE_SCHEDULE + "." + SCHEDULE_ID +
-                " WHERE " + EVENT_ALARM_TIME + " >= " + (currTime.getTimeInMillis() / 1000) +
-                " ORDER BY " + EVENT_ALARM_TIME +
-                " LIMIT 1;";
+        List<ScheduleEvent> scheduleEvents = null;
+        String[] selectionArgs = new String[SCHEDULE_ID_BATCH_SIZE];
+        ScheduleEventRowMapper mapper = new ScheduleEventRowMapper();
 
         SQLiteDatabase database = getReadableDatabase();
-        Cursor cursor = database.rawQuery(rawSQL, null);
-
-        List<ScheduleEvent> scheduleEvents = extractScheduleEventsFromCursor(cursor);
+        for (int start = 0; start < scheduleIds.length; start += SCHEDULE_ID_BATCH_SIZE) {
+            int last = Math.min(start + SCHEDULE_ID_BATCH_SIZE, scheduleIds.length) - 1;
+            for (int i = 0; i < SCHEDULE_ID_BATCH_SIZE; i++) {
+                selectionArgs[i] = String.valueOf(scheduleIds[Math.min(start + i, last)]);
+            }
 
+            Cursor cursor = rawQuery(database, QUERY_EVENTS_BY_SCHEDULE_IDS, selectionArgs);
+            List<ScheduleEvent> batch = mapRows(cursor, mapper);
+            cursor.close();
 
-        if (scheduleEvents != null && scheduleEvents.size() > 0) {
-            // There should only be one scheduleEvent
-            scheduleEvent = scheduleEvents.get(0);
+            if (batch != null) {
+                if (scheduleEvents == null) {
+                    scheduleEvents = batch;
+                } else {
+                    scheduleEvents.addAll(batch);
+                }
+            }
         }
 
-        cursor.close();
-        return scheduleEvent;
+        return scheduleEvents;
     }
 
     /**
      * Description:
-     * This returns the next event to be scheduled for the group with given tag,
-     * based on the current time
+     * This returns the next event to be scheduled given the current time
      *
      * @return One ScheduleEvent, or null if no other event occurs in the future
      */
-    public ScheduleEvent getNextEventForGroup(String groupTag) {
+    public ScheduleEvent getNextEvent() {
         ScheduleEvent scheduleEvent = null;
 
-        if (groupTag == null || groupTag.isEmpty()) {
-            return null;
-        }
-
-        Calendar currTime = Calendar.getInstance();
-
-        String rawSQL = "SELECT " + TABLE_EVENT + "." + EVENT_ID + " , " + EVENT_SCHEDULE_ID +
-                ", " + EVENT_ALARM_TIME + ", " + EVENT_STATE + ", " + SCHEDULE_START_TIME +
-                ", " + SCHEDULE_DURATION + ", " + SCHEDULE_REPEAT_TYPE + ", " + TABLE_SCHEDULE +
-                "." + SCHEDULE_TAG + ", " + SCHEDULE_STATE + ", " + SCHEDULE_DISABLE_FL + ", " + SCHEDULE_GROUP_ID +
-                " FROM " + TABLE_EVENT + " INNER JOIN " + TABLE_SCHEDULE +
-                " ON " + EVENT_SCHEDULE_ID + " = " + TABLE_SCHEDULE + "." + SCHEDULE_ID +
-                " INNER JOIN " + TABLE_SCHEDULEGROUP +
-                " ON " + SCHEDULE_GROUP_ID + " = " + TABLE_SCHEDULEGROUP + "." + SCHEDULEGROUP_ID +
-                " WHERE " + EVENT_ALARM_TIME + " >= " + (currTime.getTimeInMillis() / 1000) +
-                " AND " + TABLE_SCHEDULEGROUP + "." + SCHEDULEGROUP_TAG + " = '" + groupTag + "'" +
-                " ORDER BY " + EVENT_ALARM_TIME +
-                " LIMIT 1;";
+        long currTimeMillis = System.currentTimeMillis();
+        String[] selectionArgs = {String.valueOf(currTimeMillis / 1000)};
 
         SQLiteDatabase database = getReadableDatabase();
-        Cursor cursor = database.rawQuery(rawSQL, null);
+        Cursor cursor = rawQuery(database, QUERY_NEXT_EVENT, selectionArgs);
 
-        List<ScheduleEvent> scheduleEvents = extractScheduleEventsFromCursor(cursor);
+        List<ScheduleEvent> scheduleEvents = mapRows(cursor, new ScheduleEventRowMapper());
 
 
         if (scheduleEvents != null && scheduleEvents.size() > 0) {
@@ -335,38 +387,82 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
         long retVal = -1;
 
         if (event != null) {
+            synchronized (m_statementCache) {
+                SQLiteDatabase database = getWritableDatabase();
+
+                // Update fields that change. If the event doesn't exist yet, add it.
+                SQLiteStatement statement = m_statementCache.get(database, UPDATE_EVENT_ALARM_TIME);
+                statement.bindLong(1, event.getAlarmTimeMillis() / 1000);
+                statement.bindLong(2, event.getId());
+                if (executeUpdateDelete(statement) == 1) {
+                    retVal = event.getId();
+                } else {
+                    retVal = insertEvent(database, event);
+                    event.setId(retVal);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Description:
+     * Write back the outcome of a reconciliation pass in a single transaction.
+     * The alarm times of the events and the states of the schedules are updated through
+     * compiled statements that are reused for every row.
+     *
+     * @param events    - the events whose alarm times changed. This can be null.
+     * @param schedules - the schedules whose states changed. This can be null.
+     * @return int - the number of rows written
+     */
+    @Override
+    public int writeReconciliation(List<Event> events, List<Schedule> schedules) {
+        int eventCount = events != null ? events.size() : 0;
+        int scheduleCount = schedules != null ? schedules.size() : 0;
+        if (eventCount == 0 && scheduleCount == 0) {
+            return 0;
+        }
+
+        int rowsWritten = 0;
+
+        synchronized (m_statementCache) {
             SQLiteDatabase database = getWritableDatabase();
+            database.beginTransaction();
+            try {
+                if (eventCount > 0) {
+                    SQLiteStatement eventStatement =
+                            m_statementCache.get(database, UPDATE_EVENT_ALARM_TIME);
+                    for (int i = 0; i < eventCount; i++) {
+                        Event event = events.get(i);
+                        eventStatement.bindLong(1, event.getAlarmTimeMillis() / 1000);
+                        eventStatement.bindLong(2, event.getId());
+                        rowsWritten += executeUpdateDelete(eventStatement);
+                    }
+                }
 
-            // First check if this exists in the database.
-            String[] columns = {EVENT_ID};
-            StringBuilder selection = new StringBuilder(EVENT_ID);
-            selection.append(" = ").append(event.getId());
-
-            Cursor cursor = database.query(TABLE_EVENT,
-                    columns,
-                    selection.toString(),
-                    null, null, null, null);
-
-            if (cursor.getCount() == 1) {
-                cursor.moveToFirst();
-
-                // Update fields that change.
-                ContentValues values = new ContentValues();
-                values.put(EVENT_ALARM_TIME, event.getAlarmTime().getTimeInMillis() / 1000);
-                database.update(TABLE_EVENT, values, selection.toString(), null);
-                retVal = cursor.getLong(0);
-            } else if (cursor.getCount() == 0) {
-                ContentValues values = new ContentValues();
-                values.put(EVENT_SCHEDULE_ID, event.getScheduleID());
-                values.put(EVENT_ALARM_TIME, event.getAlarmTime().getTimeInMillis() / 1000);
-                values.put(EVENT_STATE, event.getState());
-                retVal = database.insert(TABLE_EVENT, null, values);
-                event.setId(retVal);
+                if (scheduleCount > 0) {
+                    SQLiteStatement scheduleStatement =
+                            m_statementCache.get(database, UPDATE_SCHEDULE_STATE);
+                    for (int i = 0; i < scheduleCount; i++) {
+                        Schedule schedule = schedules.get(i);
+                        bindStateCode(scheduleStatement, 1, schedule.getStateCode());
+                        scheduleStatement.bindLong(2, schedule.getId());
+                        rowsWritten += executeUpdateDelete(scheduleStatement);
+                    }
+                }
+
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
             }
 
-            cursor.close();
+            for (int i = 0; i < scheduleCount; i++) {
+                Schedule schedule = schedules.get(i);
+                m_scheduleCache.updateState(schedule.getId(), schedule.getStateCode());
+            }
         }
-        return retVal;
+
+        return rowsWritten;
     }
 
     /**
@@ -380,11 +476,7 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
         boolean bRet = false;
 
         if (event != null) {
-            SQLiteDatabase database = getWritableDatabase();
-
-            String selection = EVENT_ID + " = " + event.getId();
-
-            int count = database.delete(TABLE_EVENT, selection, null);
+            int count = executeUpdateDelete(DELETE_EVENT, event.getId());
 
             bRet = count >= 1;
         }
@@ -403,11 +495,7 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
         boolean bRet = false;
 
         if (scheduleId > 0) {
-            SQLiteDatabase database = getWritableDatabase();
-
-            String selection = EVENT_SCHEDULE_ID + " = " + scheduleId;
-
-            int count = database.delete(TABLE_EVENT, selection, null);
+            int count = executeUpdateDelete(DELETE_EVENTS_BY_SCHEDULE_ID, scheduleId);
 
             bRet = count >= 1;
         }
@@ -426,47 +514,30 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
         long retVal = -1;
 
         if (schedule != null) {
-            SQLiteDatabase database = getWritableDatabase();
+            synchronized (m_statementCache) {
+                SQLiteDatabase database = getWritableDatabase();
 
-            // First check if this exists in the database.
-            String[] columns = {SCHEDULE_ID, SCHEDULE_REPEAT_TYPE, SCHEDULE_TAG};
-            StringBuilder selection = new StringBuilder(SCHEDULE_ID);
-            selection.append(" = ").append(schedule.getId());
-
-            Cursor cursor = database.query(TABLE_SCHEDULE,
-                    columns,
-                    selection.toString(),
-                    null, null, null, null);
-
-            if (cursor.getCount() == 1) {
-                cursor.moveToFirst();
-
-                // Update fields that change.
-                ContentValues values = new ContentValues();
-                values.put(SCHEDULE_START_TIME, schedule.getStartTime().getTimeInMillis() / 1000);
-                values.put(SCHEDULE_DURATION, schedule.getDuration());
-                values.put(SCHEDULE_STATE, schedule.getState());
-                values.put(SCHEDULE_DISABLE_FL, schedule.isDisabled());
-                database.update(TABLE_SCHEDULE, values, selection.toString(), null);
-                retVal = cursor.getLong(cursor.getColumnIndex(SCHEDULE_ID));
-                if (retVal > 0) {
-                    schedule.setRepeatType(cursor.getInt(cursor.getColumnIndex(SCHEDULE_REPEAT_TYPE)));
-                    schedule.setTag(cursor.getString(cursor.getColumnIndex(SCHEDULE_TAG)));
+                // First check if this exists in the database.
+                String[] selectionArgs = {String.valueOf(schedule.getId())};
+                Cursor cursor = rawQuery(database, QUERY_SCHEDULE_FOR_UPDATE, selectionArgs);
+
+                if (cursor.moveToFirst()) {
+                    // Update fields that change.
+                    if (updateSchedule(database, schedule) == 1) {
+                        retVal = schedule.getId();
+                        // Columns are read by position, in the order of the query
+                        schedule.setRepeatType(cursor.getInt(0));
+                        schedule.setTag(cursor.getString(1));
+                        m_scheduleCache.update(schedule);
+                    }
+                } else {
+                    retVal = insertSchedule(database, schedule);
+                    schedule.setId(retVal);
+                    m_scheduleCache.put(schedule);
                 }
-            } else if (cursor.getCount() == 0) {
-                ContentValues values = new ContentValues();
-                values.put(SCHEDULE_START_TIME, schedule.getStartTime().getTimeInMillis() / 1000);
-                values.put(SCHEDULE_DURATION, schedule.getDuration());
-                values.put(SCHEDULE_REPEAT_TYPE, schedule.getRepeatType());
-                values.put(SCHEDULE_TAG, schedule.getTag());
-                values.put(SCHEDULE_STATE, schedule.getState());
-                values.put(SCHEDULE_DISABLE_FL, schedule.isDisabled());
-                values.put(SCHEDULE_GROUP_ID, schedule.getGroupId());
-                retVal = database.insert(TABLE_SCHEDULE, null, values);
-                schedule.setId(retVal);
-            }
 
-            cursor.close();
+                cursor.close();
+            }
         }
         return retVal;
     }
@@ -493,15 +564,16 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
         boolean bRet = false;
 
         if (scheduleId > 0) {
-            SQLiteDatabase database = getWritableDatabase();
-
-            String selection = SCHEDULE_ID + " = " + scheduleId;
-
-            int count = database.delete(TABLE_SCHEDULE, selection, null);
-
-            // There is a cascade to the event table, so deleting a schedule will
-            // delete all associated events
-            bRet = count >= 1;
+            synchronized (m_statementCache) {
+                int count = executeUpdateDelete(DELETE_SCHEDULE, scheduleId);
+
+                // There is a cascade to the event table, so deleting a schedule will
+                // delete all associated events
+                bRet = count >= 1;
+                if (bRet) {
+                    m_scheduleCache.remove(scheduleId);
+                }
+            }
         }
 
         return bRet;
@@ -519,13 +591,15 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
             return 0;
         }
 
-        SQLiteDatabase database = getWritableDatabase();
-
-        String selection = SCHEDULE_TAG + " = ?";
-        String[] selectionArgs = {scheduleTag};
+        synchronized (m_statementCache) {
+            SQLiteStatement statement = m_statementCache.get(getWritableDatabase(),
+                    DELETE_SCHEDULES_BY_TAG);
+            statement.bindString(1, scheduleTag);
 
-        int count = database.delete(TABLE_SCHEDULE, selection, selectionArgs);
-        return count;
+            int count = executeUpdateDelete(statement);
+            m_scheduleCache.removeByTag(scheduleTag);
+            return count;
+        }
     }
 
     /**
@@ -535,18 +609,8 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
      * @return The list of schedules, or null if none is exists
      */
     public List<Schedule> getAllSchedules() {
-
-        String[] columns = {SCHEDULE_ID, SCHEDULE_START_TIME, SCHEDULE_DURATION,
-                SCHEDULE_REPEAT_TYPE, SCHEDULE_TAG, SCHEDULE_STATE,
-                SCHEDULE_DISABLE_FL, SCHEDULE_GROUP_ID};
-
-        SQLiteDatabase database = getReadableDatabase();
-        Cursor cursor = database.query(TABLE_SCHEDULE, columns, null, null, null, null, null);
-
-        List<Schedule> schedules = extractSchedulesFromCursor(cursor);
-
-        cursor.close();
-        return schedules;
+        ensureScheduleCacheLoaded();
+        return m_scheduleCache.getAll();
     }
 
 
@@ -563,21 +627,8 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
             return null;
         }
 
-
-        String[] columns = {SCHEDULE_ID, SCHEDULE_START_TIME, SCHEDULE_DURATION,
-                SCHEDULE_REPEAT_TYPE, SCHEDULE_TAG, SCHEDULE_STATE, SCHEDULE_DISABLE_FL,
-                SCHEDULE_GROUP_ID};
-
-        String selection = SCHEDULE_TAG + " = ?";
-        String[] selectionArgs = {tag};
-
-        SQLiteDatabase database = getReadableDatabase();
-        Cursor cursor = database.query(TABLE_SCHEDULE, columns, selection, selectionArgs, null, null, null);
-
-        List<Schedule> schedules = extractSchedulesFromCursor(cursor);
-
-        cursor.close();
-        return schedules;
+        ensureScheduleCacheLoaded();
+        return m_scheduleCache.getByTag(tag);
     }
 
     /**
@@ -593,17 +644,12 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
             return null;
         }
 
-
-        String[] columns = {SCHEDULE_ID, SCHEDULE_START_TIME, SCHEDULE_DURATION,
-                SCHEDULE_REPEAT_TYPE, SCHEDULE_TAG, SCHEDULE_STATE, SCHEDULE_DISABLE_FL,
-                SCHEDULE_GROUP_ID};
-
-        String selection = SCHEDULE_GROUP_ID + " = " + groupId;
+        String[] selectionArgs = {String.valueOf(groupId)};
 
         SQLiteDatabase database = getReadableDatabase();
-        Cursor cursor = database.query(TABLE_SCHEDULE, columns, selection, null, null, null, null);
+        Cursor cursor = rawQuery(database, QUERY_SCHEDULES_BY_GROUP_ID, selectionArgs);
 
-        List<Schedule> schedules = extractSchedulesFromCursor(cursor);
+        List<Schedule> schedules = mapRows(cursor, new ScheduleRowMapper());
 
         cursor.close();
         return schedules;
@@ -616,31 +662,14 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
      * @param scheduleId - the schedule id of the schedule to return
      * @return Schedule - the schedule object if found, null otherwise
      */
+    @Override
     public Schedule getScheduleById(long scheduleId) {
-        Schedule retSchedule = null;
-        if (scheduleId > 0) {
-            SQLiteDatabase database = getReadableDatabase();
-
-            String[] columns = {SCHEDULE_ID, SCHEDULE_START_TIME, SCHEDULE_DURATION,
-                    SCHEDULE_REPEAT_TYPE, SCHEDULE_TAG, SCHEDULE_STATE,
-                    SCHEDULE_DISABLE_FL, SCHEDULE_GROUP_ID};
-            String selection = SCHEDULE_ID + " = " + scheduleId;
-
-            Cursor cursor = database.query(TABLE_SCHEDULE,
-                    columns,
-                    selection,
-                    null, null, null, null);
-
-            List<Schedule> schedules = extractSchedulesFromCursor(cursor);
-
-            cursor.close();
-
-            if (schedules != null && schedules.size() > 0) {
-                retSchedule = schedules.get(0);
-            }
+        if (scheduleId <= 0) {
+            return null;
         }
 
-        return retSchedule;
+        ensureScheduleCacheLoaded();
+        return m_scheduleCache.get(scheduleId);
     }
 
 
@@ -655,33 +684,29 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
         long retVal = -1;
 
         if (group != null) {
-            SQLiteDatabase database = getWritableDatabase();
+            synchronized (m_statementCache) {
+                SQLiteDatabase database = getWritableDatabase();
+
+                // Update fields that change. If the group doesn't exist yet, add it.
+                SQLiteStatement statement = m_statementCache.get(database, UPDATE_SCHEDULEGROUP);
+                statement.bindLong(1, group.isEnabled() ? 1 : 0);
+                bindStateCode(statement, 2, group.getOverallStateCode());
+                statement.bindLong(3, group.getId());
+                if (executeUpdateDelete(statement) == 1) {
+                    retVal = group.getId();
+                } else {
+                    statement = m_statementCache.get(database, INSERT_SCHEDULEGROUP);
+                    bindStringOrNull(statement, 1, group.getTag());
+                    statement.bindLong(2, group.isEnabled() ? 1 : 0);
+                    bindStateCode(statement, 3, group.getOverallStateCode());
+                    retVal = executeInsert(statement);
+                    group.setId(retVal);
+                }
 
-            // First check if this exists in the database.
-            String[] columns = {SCHEDULEGROUP_ID};
-            String selection = SCHEDULEGROUP_ID + " = " + group.getId();
-
-            Cursor cursor = database.query(TABLE_SCHEDULEGROUP,
-                    columns,
-                    selection,
-                    null, null, null, null);
-
-            if (cursor.getCount() == 1) {
-                // Update fields that change.
-                ContentValues values = new ContentValues();
-                values.put(SCHEDULEGROUP_ENABLED_FL, group.isEnabled());
-                values.put(SCHEDULEGROUP_OVERALL_STATE, group.getOverallState());
-                database.update(TABLE_SCHEDULEGROUP, values, selection, null);
-                retVal = group.getId();
-            } else if (cursor.getCount() == 0) {
-                ContentValues values = new ContentValues();
-                values.put(SCHEDULEGROUP_TAG, group.getTag());
-                values.put(SCHEDULEGROUP_ENABLED_FL, group.isEnabled());
-                values.put(SCHEDULEGROUP_OVERALL_STATE, group.getOverallState());
-                retVal = database.insert(TABLE_SCHEDULEGROUP, null, values);
-                group.setId(retVal);
+                if (retVal > 0) {
+                    m_scheduleCache.putGroup(new ScheduleGroupInfo(group));
+                }
             }
-            cursor.close();
         }
 
         return retVal;
@@ -698,23 +723,13 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
     public ScheduleGroup getScheduleGroupById(long id) {
         ScheduleGroup group = null;
         if (id > 0) {
+            String[] selectionArgs = {String.valueOf(id)};
+
             SQLiteDatabase database = getReadableDatabase();
+            Cursor cursor = rawQuery(database, QUERY_SCHEDULEGROUP_BY_ID, selectionArgs);
 
-            String[] columns = {SCHEDULEGROUP_ID, SCHEDULEGROUP_TAG, SCHEDULEGROUP_ENABLED_FL,
-                    SCHEDULEGROUP_OVERALL_STATE};
-            String selection = SCHEDULEGROUP_ID + " = " + id;
-
-            Cursor cursor = database.query(TABLE_SCHEDULEGROUP,
-                    columns,
-                    selection,
-                    null, null, null, null);
-
-            if (cursor.getCount() > 0) {
-                cursor.moveToFirst();
-                group = new ScheduleGroup(cursor.getString(cursor.getColumnIndex(SCHEDULEGROUP_TAG)),
-                        cursor.getInt(cursor.getColumnIndex(SCHEDULEGROUP_ENABLED_FL)) == 1);
-                group.setId(id);
-                group.setOverallState(cursor.getString(cursor.getColumnIndex(SCHEDULEGROUP_OVERALL_STATE)));
+            if (cursor.moveToFirst()) {
+                group = ScheduleGroupRowMapper.INSTANCE.mapRow(cursor);
             }
             cursor.close();
         }
@@ -732,20 +747,13 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
     public ScheduleGroup getScheduleGroupByTag(String tag) {
         ScheduleGroup group = null;
         if (tag != null && !tag.isEmpty()) {
-            String[] columns = {SCHEDULEGROUP_ID, SCHEDULEGROUP_TAG, SCHEDULEGROUP_ENABLED_FL};
-            String selection = SCHEDULEGROUP_TAG + " = ?";
             String[] selectionArgs = {tag};
 
             SQLiteDatabase database = getReadableDatabase();
-            Cursor cursor = database.query(TABLE_SCHEDULEGROUP,
-                    columns, selection, selectionArgs,
-                    null, null, null, null);
-
-            if (cursor.getCount() > 0) {
-                cursor.moveToFirst();
-                group = new ScheduleGroup(cursor.getString(cursor.getColumnIndex(SCHEDULEGROUP_TAG)),
-                        cursor.getInt(cursor.getColumnIndex(SCHEDULEGROUP_ENABLED_FL)) == 1);
-                group.setId(cursor.getLong(cursor.getColumnIndex(SCHEDULEGROUP_ID)));
+            Cursor cursor = rawQuery(database, QUERY_SCHEDULEGROUP_BY_TAG, selectionArgs);
+
+            if (cursor.moveToFirst()) {
+                group = ScheduleGroupRowMapper.INSTANCE.mapRow(cursor);
             }
             cursor.close();
         }
@@ -764,13 +772,14 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
         boolean bRet = false;
 
         if (id > 0) {
-            SQLiteDatabase database = getWritableDatabase();
-
-            String selection = SCHEDULEGROUP_ID + " = " + id;
-
-            int count = database.delete(TABLE_SCHEDULEGROUP, selection, null);
+            synchronized (m_statementCache) {
+                int count = executeUpdateDelete(DELETE_SCHEDULEGROUP, id);
 
-            bRet = count >= 1;
+                bRet = count >= 1;
+                if (bRet) {
+                    m_scheduleCache.removeGroup(id);
+                }
+            }
         }
 
         return bRet;
@@ -788,64 +797,54 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
     public long addScheduleAndEvents(Schedule schedule, List<Event> startAndStopEvents, boolean newSchedule) {
         long scheduleId = -1;
 
-        SQLiteDatabase database = getWritableDatabase();
-        database.beginTransaction();
-        try {
-            if (newSchedule) {
-                // Add the schedule
-                ContentValues values = new ContentValues();
-                values.put(SCHEDULE_START_TIME, schedule.getStartTime().getTimeInMillis() / 1000);
-                values.put(SCHEDULE_DURATION, schedule.getDuration());
-                values.put(SCHEDULE_REPEAT_TYPE, schedule.getRepeatType());
-                values.put(SCHEDULE_TAG, schedule.getTag());
-                values.put(SCHEDULE_STATE, schedule.getState());
-                values.put(SCHEDULE_DISABLE_FL, schedule.isDisabled());
-                values.put(SCHEDULE_GROUP_ID, schedule.getGroupId());
-                scheduleId = database.insert(TABLE_SCHEDULE, null, values);
-                schedule.setId(scheduleId);
-            } else {
-                // Update fields that change.
-                String selection = SCHEDULE_ID + " = " + schedule.getId();
-
-                ContentValues values = new ContentValues();
-                values.put(SCHEDULE_START_TIME, schedule.getStartTime().getTimeInMillis() / 1000);
-                values.put(SCHEDULE_DURATION, schedule.getDuration());
-                values.put(SCHEDULE_STATE, schedule.getState());
-                values.put(SCHEDULE_DISABLE_FL, schedule.isDisabled());
-                int count = database.update(TABLE_SCHEDULE, values, selection, null);
-                if (count == 1) {
-                    scheduleId = schedule.getId();
+        synchronized (m_statementCache) {
+            SQLiteDatabase database = getWritableDatabase();
+            database.beginTransaction();
+            try {
+                if (newSchedule) {
+                    // Add the schedule
+                    scheduleId = insertSchedule(database, schedule);
+                    schedule.setId(scheduleId);
+                } else {
+                    // Update fields that change.
+                    if (updateSchedule(database, schedule) == 1) {
+                        scheduleId = schedule.getId();
+                    }
                 }
-            }
 
-            if (scheduleId <= 0) {
-                return scheduleId;
-            }
+                if (scheduleId <= 0) {
+                    return scheduleId;
+                }
+
+                // Add events
+                long eventId = -1;
+                for (int i = 0; i < 2; i++) {
+                    Event event = startAndStopEvents.get(i);
+                    event.setScheduleID(scheduleId);
+
+                    eventId = insertEvent(database, event);
+                    if (eventId <= 0) {
+                        break;
+                    }
+                    event.setId(eventId);
+                }
 
-            // Add events
-            long eventId = -1;
-            for (int i = 0; i < 2; i++) {
-                Event event = startAndStopEvents.get(i);
-                event.setScheduleID(scheduleId);
-
-                ContentValues values = new ContentValues();
-                values.put(EVENT_SCHEDULE_ID, event.getScheduleID());
-                values.put(EVENT_ALARM_TIME, event.getAlarmTime().getTimeInMillis() / 1000);
-                values.put(EVENT_STATE, event.getState());
-                eventId = database.insert(TABLE_EVENT, null, values);
-                if (eventId <= 0) {
-                    break;
+                if (eventId > 0) {
+                    database.setTransactionSuccessful();
+                } else {
+                    scheduleId = -1;
                 }
-                event.setId(eventId);
+            } finally {
+                database.endTransaction();
             }
 
-            if (eventId > 0) {
-                database.setTransactionSuccessful();
-            } else {
-                scheduleId = -1;
+            if (scheduleId > 0) {
+                if (newSchedule) {
+                    m_scheduleCache.put(schedule);
+                } else {
+                    m_scheduleCache.update(schedule);
+                }
             }
-        } finally {
-            database.endTransaction();
         }
 
         return scheduleId;
@@ -863,20 +862,8 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
 
         ScheduleGroup group = getScheduleGroupByTag(groupTag);
         if (group != null) {
-            String scheduleIdSQL = "SELECT " + SCHEDULE_ID +
-                    " FROM " + TABLE_SCHEDULE +
-                    " WHERE " + SCHEDULE_GROUP_ID + " = " + group.getId();
-
-            String selection = EVENT_SCHEDULE_ID + " IN (" + scheduleIdSQL + ")";
-
-            SQLiteDatabase database = getWritableDatabase();
-            database.delete(TABLE_EVENT, selection, null);
+            executeUpdateDelete(DELETE_EVENTS_BY_GROUP_ID, group.getId());
             bRet = true;
-
-            // If we need to use a raw SQL to perform the delete
-            // String rawSQL = "DELETE FROM " + TABLE_EVENT +
-            //		" WHERE " + selection + ";";
-            // database.execSQL(rawSQL);
         }
 
         return bRet;
@@ -900,76 +887,68 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
             return false;
         }
 
-        SQLiteDatabase database = getWritableDatabase();
-        database.beginTransaction();
-        try {
-            for (ScheduleAndEventsToAdd scheduleAndEvents : schedulesAndEventsToAdd) {
-                Schedule schedule = scheduleAndEvents.m_schedule;
-                if (scheduleAndEvents.m_newSchedule) {
-                    // Add the schedule
-                    ContentValues values = new ContentValues();
-                    values.put(SCHEDULE_START_TIME, schedule.getStartTime().getTimeInMillis() / 1000);
-                    values.put(SCHEDULE_DURATION, schedule.getDuration());
-                    values.put(SCHEDULE_REPEAT_TYPE, schedule.getRepeatType());
-                    values.put(SCHEDULE_TAG, schedule.getTag());
-                    values.put(SCHEDULE_STATE, schedule.getState());
-                    values.put(SCHEDULE_DISABLE_FL, schedule.isDisabled());
-                    values.put(SCHEDULE_GROUP_ID, schedule.getGroupId());
-                    long scheduleId = database.insert(TABLE_SCHEDULE, null, values);
-                    if (scheduleId > 0) {
-                        schedule.setId(scheduleId);
-                        scheduleAndEvents.m_addedScheduleId = scheduleId;
+        synchronized (m_statementCache) {
+            SQLiteDatabase database = getWritableDatabase();
+            database.beginTransaction();
+            try {
+                for (ScheduleAndEventsToAdd scheduleAndEvents : schedulesAndEventsToAdd) {
+                    Schedule schedule = scheduleAndEvents.m_schedule;
+                    if (scheduleAndEvents.m_newSchedule) {
+                        // Add the schedule
+                        long scheduleId = insertSchedule(database, schedule);
+                        if (scheduleId > 0) {
+                            schedule.setId(scheduleId);
+                            scheduleAndEvents.m_addedScheduleId = scheduleId;
+                        } else {
+                            bRet = false;
+                            break;
+                        }
                     } else {
-                        bRet = false;
-                        break;
+                        // Update fields that change.
+                        if (updateSchedule(database, schedule) == 1) {
+                            scheduleAndEvents.m_addedScheduleId = schedule.getId();
+                        } else {
+                            bRet = false;
+                            break;
+                        }
                     }
-                } else {
-                    // Update fields that change.
-                    String selection = SCHEDULE_ID + " = " + schedule.getId();
-
-                    ContentValues values = new ContentValues();
-                    values.put(SCHEDULE_START_TIME, schedule.getStartTime().getTimeInMillis() / 1000);
-                    values.put(SCHEDULE_DURATION, schedule.getDuration());
-                    values.put(SCHEDULE_STATE, schedule.getState());
-                    values.put(SCHEDULE_DISABLE_FL, schedule.isDisabled());
-                    int count = database.update(TABLE_SCHEDULE, values, selection, null);
-                    if (count == 1) {
-                        scheduleAndEvents.m_addedScheduleId = schedule.getId();
-                    } else {
-                        bRet = false;
-                        break;
+
+                    // Add events
+                    long eventId = -1;
+                    for (int i = 0; i < 2; i++) {
+                        Event event = scheduleAndEvents.m_events.get(i);
+                        event.setScheduleID(scheduleAndEvents.m_addedScheduleId);
+
+                        eventId = insertEvent(database, event);
+                        if (eventId <= 0) {
+                            bRet = false;
+                            break;
+                        }
+                        event.setId(eventId);
                     }
-                }
 
-                // Add events
-                long eventId = -1;
-                for (int i = 0; i < 2; i++) {
-                    Event event = scheduleAndEvents.m_events.get(i);
-                    event.setScheduleID(scheduleAndEvents.m_addedScheduleId);
-
-                    ContentValues values = new ContentValues();
-                    values.put(EVENT_SCHEDULE_ID, event.getScheduleID());
-                    values.put(EVENT_ALARM_TIME, event.getAlarmTime().getTimeInMillis() / 1000);
-                    values.put(EVENT_STATE, event.getState());
-                    eventId = database.insert(TABLE_EVENT, null, values);
-                    if (eventId <= 0) {
-                        bRet = false;
+                    if (!bRet) {
                         break;
                     }
-                    event.setId(eventId);
                 }
 
-                if (!bRet) {
-                    break;
+                // Commit the transaction
+                if (bRet) {
+                    database.setTransactionSuccessful();
                 }
+            } finally {
+                database.endTransaction();
             }
 
-            // Commit the transaction
             if (bRet) {
-                database.setTransactionSuccessful();
+                for (ScheduleAndEventsToAdd scheduleAndEvents : schedulesAndEventsToAdd) {
+                    if (scheduleAndEvents.m_newSchedule) {
+                        m_scheduleCache.put(scheduleAndEvents.m_schedule);
+                    } else {
+                        m_scheduleCache.update(scheduleAndEvents.m_schedule);
+                    }
+                }
             }
-        } finally {
-            database.endTransaction();
         }
         return bRet;
     }
@@ -985,30 +964,72 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
         boolean success = false;
 
         if (groupTag != null && !groupTag.isEmpty()) {
-            SQLiteDatabase database = getWritableDatabase();
-            database.beginTransaction();
-            try {
-                // 1 - delete all schedules in the group
-                String scheduleIdSQL = "SELECT " + TABLE_SCHEDULE + "." + SCHEDULE_ID +
-                        " FROM " + TABLE_SCHEDULE + " INNER JOIN " + TABLE_SCHEDULEGROUP +
-                        " ON " + SCHEDULE_GROUP_ID + " = " + TABLE_SCHEDULEGROUP + "." + SCHEDULEGROUP_ID +
-                        " WHERE " + TABLE_SCHEDULEGROUP + "." + SCHEDULEGROUP_TAG + " = ?";
-                String selection = TABLE_SCHEDULE + "." + SCHEDULE_ID + " IN (" + scheduleIdSQL + ")";
-                String[] selectionArgs = {groupTag};
-                database.delete(TABLE_SCHEDULE, selection, selectionArgs);
-
-                // 2 - delete the group
-                selection = SCHEDULEGROUP_TAG + " = ?";
-                database.delete(TABLE_SCHEDULEGROUP, selection, selectionArgs);
-                database.setTransactionSuccessful();
-                success = true;
-            } finally {
-                database.endTransaction();
+            ScheduleGroup group = getScheduleGroupByTag(groupTag);
+
+            synchronized (m_statementCache) {
+                SQLiteDatabase database = getWritableDatabase();
+                database.beginTransaction();
+                try {
+                    // 1 - delete all schedules in the group
+                    SQLiteStatement statement =
+                            m_statementCache.get(database, DELETE_SCHEDULES_BY_GROUP_TAG);
+                    statement.bindString(1, groupTag);
+                    executeUpdateDelete(statement);
+
+                    // 2 - delete the group
+                    statement = m_statementCache.get(database, DELETE_SCHEDULEGROUP_BY_TAG);
+                    statement.bindString(1, groupTag);
+                    executeUpdateDelete(statement);
+                    database.setTransactionSuccessful();
+                    success = true;
+                } finally {
+                    database.endTransaction();
+                }
+
+                if (success && group != null) {
+                    m_scheduleCache.removeByGroupId(group.getId());
+                    m_scheduleCache.removeGroup(group.getId());
+                }
             }
         }
         return success;
     }
 
+    /**
+     * Description:
+     * Recompute the overall state of every group that has schedules with a single statement.
+     * A group is on if at least one of its schedules is on. Only groups whose overall state
+     * actually changes are written. Groups without schedules are left as they are.
+     *
+     * @return int - the number of groups written
+     */
+    @Override
+    public int updateGroupOverallStates() {
+        synchronized (m_statementCache) {
+            SQLiteStatement statement = m_statementCache.get(getWritableDatabase(),
+                    UPDATE_GROUP_OVERALL_STATES);
+            int count = executeUpdateDelete(statement);
+
+            if (count > 0 && m_scheduleCache.isLoaded()) {
+                m_scheduleCache.loadGroups(getAllScheduleGroups());
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Description:
+     * Return the current state of a group from the schedule cache
+     *
+     * @param groupId - the id of the group
+     * @return ScheduleGroupInfo - the group if found, null otherwise
+     */
+    @Override
+    public ScheduleGroupInfo getScheduleGroupInfo(long groupId) {
+        ensureScheduleCacheLoaded();
+        return m_scheduleCache.getGroup(groupId);
+    }
+
     /**
      * Description:
      * Returns all the groups in the system.
@@ -1017,111 +1038,180 @@ public class SAMSQLiteHelper extends SQLiteOpenHelper {
      */
     public List<ScheduleGroup> getAllScheduleGroups() {
 
-        String[] columns = {SCHEDULEGROUP_ID, SCHEDULEGROUP_TAG, SCHEDULEGROUP_ENABLED_FL,
-                SCHEDULEGROUP_OVERALL_STATE};
-
         SQLiteDatabase database = getReadableDatabase();
-        Cursor cursor = database.query(TABLE_SCHEDULEGROUP, columns, null, null, null, null, null);
-
-        ArrayList<ScheduleGroup> groups = null;
+        Cursor cursor = rawQuery(database, ScheduleGroupRowMapper.SELECT_FROM, null);
 
-        if (cursor.getCount() > 0) {
-            cursor.moveToFirst();
+        List<ScheduleGroup> groups = mapRows(cursor, ScheduleGroupRowMapper.INSTANCE);
 
-            groups = new ArrayList<ScheduleGroup>();
+        cursor.close();
+        return groups;
+    }
 
-            while (!cursor.isAfterLast()) {
+    /**
+     * Description:
+     * Returns the schedule cache, for its hit and miss counters
+     */
+    public ScheduleCache getScheduleCache() {
+        return m_scheduleCache;
+    }
 
-                ScheduleGroup group = new ScheduleGroup(cursor.getString(cursor.getColumnIndex(SCHEDULEGROUP_TAG)),
-                        cursor.getInt(cursor.getColumnIndex(SCHEDULEGROUP_ENABLED_FL)) == 1);
-                group.setId(cursor.getLong(cursor.getColumnIndex(SCHEDULEGROUP_ID)));
-                group.setOverallState(cursor.getString(cursor.getColumnIndex(SCHEDULEGROUP_OVERALL_STATE)));
+    /**
+     * Description:
+     * Loads all schedules into the schedule cache, if they are not loaded already
+     */
+    public void loadScheduleCache() {
+        synchronized (m_scheduleCache) {
+            if (!m_scheduleCache.isLoaded()) {
+                loadScheduleCacheFromDatabase();
+            }
+        }
+    }
 
-                groups.add(group);
-                cursor.moveToNext();
+    /*
+     * Helper method called before every read from the schedule cache. The cache is loaded
+     * from the database on the first read. The lock is held while the table is read, so a
+     * write committed in the meantime is applied to the cache after it is loaded.
+     */
+    private void ensureScheduleCacheLoaded() {
+        synchronized (m_scheduleCache) {
+            if (m_scheduleCache.isLoaded()) {
+                m_scheduleCache.recordHit();
+            } else {
+                m_scheduleCache.recordMiss();
+                loadScheduleCacheFromDatabase();
             }
         }
+    }
+
+    private void loadScheduleCacheFromDatabase() {
+        SQLiteDatabase database = getReadableDatabase();
+        Cursor cursor = rawQuery(database, ScheduleRowMapper.SELECT_FROM, null);
+
+        List<Schedule> schedules = mapRows(cursor, new ScheduleRowMapper());
 
         cursor.close();
-        return groups;
+        m_scheduleCache.load(schedules, getAllScheduleGroups());
     }
 
-    /**
-     * Helper method to populate an ArrayList of schedules given a database cursor
-     *
-     * @param cursor
-     * @return
+    /*
+     * Helper methods that bind and execute the statements shared by the write methods.
+     * They must be called with the statement cache lock held.
      */
-    private List<Schedule> extractSchedulesFromCursor(Cursor cursor) {
-        ArrayList<Schedule> schedules = null;
-
-        if (cursor.getCount() > 0) {
-            cursor.moveToFirst();
-
-            schedules = new ArrayList<Schedule>();
-
-            while (!cursor.isAfterLast()) {
-                Calendar startTime = Calendar.getInstance();
-                startTime.setTimeInMillis(cursor.getLong(cursor.getColumnIndex(SCHEDULE_START_TIME)) * 1000);
-                Schedule schedule = new Schedule(startTime,
-                        cursor.getInt(cursor.getColumnIndex(SCHEDULE_DURATION)),
-                        cursor.getInt(cursor.getColumnIndex(SCHEDULE_REPEAT_TYPE)),
-                        cursor.getString(cursor.getColumnIndex(SCHEDULE_TAG)));
-                schedule.setId(cursor.getLong(cursor.getColumnIndex(SCHEDULE_ID)));
-                schedule.setState(cursor.getString(cursor.getColumnIndex(SCHEDULE_STATE)));
-                schedule.setDisabled(cursor.getInt(cursor.getColumnIndex(SCHEDULE_DISABLE_FL)) == 1);
-                schedule.setGroupId(cursor.getLong(cursor.getColumnIndex(SCHEDULE_GROUP_ID)));
-
-                schedules.add(schedule);
-                cursor.moveToNext();
-            }
+    private long insertSchedule(SQLiteDatabase database, Schedule schedule) {
+        SQLiteStatement statement = m_statementCache.get(database, INSERT_SCHEDULE);
+        statement.bindLong(1, schedule.getStartTimeMillis() / 1000);
+        statement.bindLong(2, schedule.getDuration());
+        statement.bindLong(3, schedule.getRepeatType());
+        bindStringOrNull(statement, 4, schedule.getTag());
+        bindStateCode(statement, 5, schedule.getStateCode());
+        statement.bindLong(6, schedule.isDisabled() ? 1 : 0);
+        if (schedule.getGroupId() != null) {
+            statement.bindLong(7, schedule.getGroupId());
+        } else {
+            statement.bindNull(7);
         }
+        return executeInsert(statement);
+    }
 
-        return schedules;
+    private int updateSchedule(SQLiteDatabase database, Schedule schedule) {
+        SQLiteStatement statement = m_statementCache.get(database, UPDATE_SCHEDULE);
+        statement.bindLong(1, schedule.getStartTimeMillis() / 1000);
+        statement.bindLong(2, schedule.getDuration());
+        bindStateCode(statement, 3, schedule.getStateCode());
+        statement.bindLong(4, schedule.isDisabled() ? 1 : 0);
+        statement.bindLong(5, schedule.getId());
+        return executeUpdateDelete(statement);
+    }
+
+    private long insertEvent(SQLiteDatabase database, Event event) {
+        SQLiteStatement statement = m_statementCache.get(database, INSERT_EVENT);
+        statement.bindLong(1, event.getScheduleID());
+        statement.bindLong(2, event.getAlarmTimeMillis() / 1000);
+        statement.bindLong(3, event.getStateCode());
+        return executeInsert(statement);
+    }
+
+    /*
+     * Helper method to run a write statement that takes a single id
+     */
+    private int executeUpdateDelete(String sql, long id) {
+        synchronized (m_statementCache) {
+            SQLiteStatement statement = m_statementCache.get(getWritableDatabase(), sql);
+            statement.bindLong(1, id);
+            return executeUpdateDelete(statement);
+        }
+    }
+
+    /*
+     * Helper methods to run a compiled write statement and report it to the metrics
+     */
+    private int executeUpdateDelete(SQLiteStatement statement) {
+        int count = statement.executeUpdateDelete();
+        m_metrics.onStatement(count);
+        return count;
+    }
+
+    /*
+     * Like SQLiteDatabase.insert, this returns -1 instead of throwing if the row can't be
+     * inserted.
+     */
+    private long executeInsert(SQLiteStatement statement) {
+        long rowId;
+        try {
+            rowId = statement.executeInsert();
+        } catch (SQLException e) {
+            rowId = -1;
+        }
+        m_metrics.onStatement(rowId != -1 ? 1 : 0);
+        return rowId;
+    }
+
+    /*
+     * Helper method to run a query and report it to the metrics
+     */
+    private Cursor rawQuery(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        m_metrics.onStatement(0);
+        return database.rawQuery(sql, selectionArgs);
+    }
+
+    /*
+     * Helper method to bind a state code. A state that is not computed yet is stored as NULL.
+     */
+    private static void bindStateCode(SQLiteStatement statement, int index, int stateCode) {
+        if (stateCode != StateCode.NONE) {
+            statement.bindLong(index, stateCode);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
     }
 
     /**
-     * Helper method to create a list of ScheduleEvents from a database cursor
+     * Helper method to create a list of objects from a database cursor
      *
-     * @param cursor
-     * @return List<ScheduleEvent>
+     * @param cursor - A cursor produced with the projection of the mapper
+     * @param mapper - The mapper that builds one object per row
+     * @return The list of objects, or null if the cursor is empty
      */
-    private List<ScheduleEvent> extractScheduleEventsFromCursor(Cursor cursor) {
-        ArrayList<ScheduleEvent> scheduleEvents = null;
-
-        if (cursor.getCount() > 0) {
-            cursor.moveToFirst();
-
-            scheduleEvents = new ArrayList<ScheduleEvent>();
-
-            while (!cursor.isAfterLast()) {
-
-                // Create the event
-                Calendar alarmTime = Calendar.getInstance();
-                alarmTime.setTimeInMillis(cursor.getLong(cursor.getColumnIndex(EVENT_ALARM_TIME)) * 1000);
-                Event event = new Event(cursor.getLong(cursor.getColumnIndex(EVENT_SCHEDULE_ID)),
-                        alarmTime,
-                        cursor.getString(cursor.getColumnIndex(EVENT_STATE)));
-                event.setId(cursor.getLong(cursor.getColumnIndex(EVENT_ID)));
-
-                // Create the schedule
-                Calendar startTime = Calendar.getInstance();
-                startTime.setTimeInMillis(cursor.getLong(cursor.getColumnIndex(SCHEDULE_START_TIME)) * 1000);
-                Schedule schedule = new Schedule(startTime,
-                        cursor.getInt(cursor.getColumnIndex(SCHEDULE_DURATION)),
-                        cursor.getInt(cursor.getColumnIndex(SCHEDULE_REPEAT_TYPE)),
-                        cursor.getString(cursor.getColumnIndex(SCHEDULE_TAG)));
-                schedule.setId(cursor.getLong(cursor.getColumnIndex(EVENT_SCHEDULE_ID)));
-                schedule.setState(cursor.getString(cursor.getColumnIndex(SCHEDULE_STATE)));
-                schedule.setGroupId(cursor.getLong(cursor.getColumnIndex(SCHEDULE_GROUP_ID)));
-
-                scheduleEvents.add(new ScheduleEvent(schedule, event));
-
-                cursor.moveToNext();
-            }
+    private static <T> List<T> mapRows(Cursor cursor, RowMapper<T> mapper) {
+        ArrayList<T> rows = null;
+
+        if (cursor.moveToFirst()) {
+            rows = new ArrayList<T>(cursor.getCount());
+
+            do {
+                rows.add(mapper.mapRow(cursor));
+            } while (cursor.moveToNext());
         }
 
-        return scheduleEvents;
+        return rows;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,311 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.database;
+
+import com.scalior.schedulealarmmanager.model.Schedule;
+import com.scalior.schedulealarmmanager.model.ScheduleGroup;
+import com.scalior.schedulealarmmanager.model.ScheduleGroupInfo;
+import com.scalior.schedulealarmmanager.util.LongObjectMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Write-through cache of the schedule table, owned by SAMSQLiteHelper.
+ * Once loaded, the cache holds every schedule, so reads by id, by tag or of all schedules are
+ * answered without SQLite. SAMSQLiteHelper applies each schedule write to the cache after it
+ * has been committed to the database. Until the cache is loaded, writes to it are ignored.
+ *
+ * Schedules are copied on the way in and on the way out, so callers can't change the cached
+ * objects. The cache also keeps one immutable ScheduleGroupInfo per group, and every copy handed
+ * out is attached to the current one. All methods are thread safe.
+ */
+public final class ScheduleCache {
+
+    private static final Comparator<Schedule> BY_ID = new Comparator<Schedule>() {
+        @Override
+        public int compare(Schedule lhs, Schedule rhs) {
+            return lhs.getId() < rhs.getId() ? -1 : (lhs.getId() == rhs.getId() ? 0 : 1);
+        }
+    };
+
+    private final LongObjectMap<Schedule> m_byId;
+    // Tag to ids, each in ascending order
+    private final HashMap<String, long[]> m_idsByTag;
+    private final LongObjectMap<ScheduleGroupInfo> m_groupsById;
+    private boolean m_loaded;
+
+    private long m_hitCount;
+    private long m_missCount;
+
+    ScheduleCache() {
+        m_byId = new LongObjectMap<Schedule>();
+        m_idsByTag = new HashMap<String, long[]>();
+        m_groupsById = new LongObjectMap<ScheduleGroupInfo>();
+        m_loaded = false;
+    }
+
+    /**
+     * Description:
+     *  Returns the number of reads that were answered by the cache
+     */
+    public synchronized long getHitCount() {
+        return m_hitCount;
+    }
+
+    /**
+     * Description:
+     *  Returns the number of reads that had to go to the database
+     */
+    public synchronized long getMissCount() {
+        return m_missCount;
+    }
+
+    synchronized boolean isLoaded() {
+        return m_loaded;
+    }
+
+    /*
+     * Replaces the content of the cache with all the schedules and groups in the database
+     */
+    synchronized void load(List<Schedule> schedules, List<ScheduleGroup> groups) {
+        m_byId.clear();
+        m_idsByTag.clear();
+        if (schedules != null) {
+            for (Schedule schedule : schedules) {
+                putInternal(new Schedule(schedule));
+            }
+        }
+        loadGroups(groups);
+        m_loaded = true;
+    }
+
+    /*
+     * Replaces the cached groups, for instance after their overall states were recomputed
+     */
+    synchronized void loadGroups(List<ScheduleGroup> groups) {
+        m_groupsById.clear();
+        if (groups != null) {
+            for (ScheduleGroup group : groups) {
+                m_groupsById.put(group.getId(), new ScheduleGroupInfo(group));
+            }
+        }
+    }
+
+    /*
+     * Drops the content of the cache. It is loaded again on the next read.
+     */
+    synchronized void invalidate() {
+        m_byId.clear();
+        m_idsByTag.clear();
+        m_groupsById.clear();
+        m_loaded = false;
+    }
+
+    synchronized void recordHit() {
+        m_hitCount++;
+    }
+
+    synchronized void recordMiss() {
+        m_missCount++;
+    }
+
+    /*
+     * Returns a copy of the schedule with the given id, or null if there is none
+     */
+    synchronized Schedule get(long scheduleId) {
+        Schedule schedule = m_byId.get(scheduleId);
+        return schedule != null ? copyOut(schedule) : null;
+    }
+
+    /*
+     * Returns copies of the schedules with the given tag ordered by id, or null if there is none
+     */
+    synchronized List<Schedule> getByTag(String tag) {
+        long[] ids = m_idsByTag.get(tag);
+        if (ids == null) {
+            return null;
+        }
+
+        List<Schedule> schedules = new ArrayList<Schedule>(ids.length);
+        for (long id : ids) {
+            schedules.add(copyOut(m_byId.get(id)));
+        }
+        return schedules;
+    }
+
+    /*
+     * Returns copies of all schedules ordered by id, or null if there is none
+     */
+    synchronized List<Schedule> getAll() {
+        if (m_byId.isEmpty()) {
+            return null;
+        }
+
+        List<Schedule> schedules = new ArrayList<Schedule>(m_byId.size());
+        for (Schedule schedule : m_byId.values()) {
+            schedules.add(copyOut(schedule));
+        }
+        Collections.sort(schedules, BY_ID);
+        return schedules;
+    }
+
+    /*
+     * Adds a schedule that was inserted in the database
+     */
+    synchronized void put(Schedule schedule) {
+        if (m_loaded && schedule.getId() > 0) {
+            remove(schedule.getId());
+            putInternal(new Schedule(schedule));
+        }
+    }
+
+    /*
+     * Applies an update of the fields that SAMSQLiteHelper lets change on an existing schedule:
+     * start time, duration, state and disabled flag
+     */
+    synchronized void update(Schedule schedule) {
+        if (!m_loaded) {
+            return;
+        }
+
+        Schedule cached = m_byId.get(schedule.getId());
+        if (cached != null) {
+            cached.setStartTimeMillis(schedule.getStartTimeMillis());
+            cached.setDuration(schedule.getDuration());
+            cached.setStateCode(schedule.getStateCode());
+            cached.setDisabled(schedule.isDisabled());
+        }
+    }
+
+    synchronized void updateState(long scheduleId, int stateCode) {
+        if (!m_loaded) {
+            return;
+        }
+
+        Schedule cached = m_byId.get(scheduleId);
+        if (cached != null) {
+            cached.setStateCode(stateCode);
+        }
+    }
+
+    synchronized void remove(long scheduleId) {
+        Schedule removed = m_byId.remove(scheduleId);
+        if (removed != null) {
+            removeFromTagIndex(removed.getTag(), scheduleId);
+        }
+    }
+
+    synchronized void removeByTag(String tag) {
+        long[] ids = m_idsByTag.remove(tag);
+        if (ids != null) {
+            for (long id : ids) {
+                m_byId.remove(id);
+            }
+        }
+    }
+
+    /*
+     * Removes the schedules of a group. This visits every cached schedule.
+     */
+    synchronized void removeByGroupId(long groupId) {
+        for (Schedule schedule : m_byId.values()) {
+            Long scheduleGroupId = schedule.getGroupId();
+            if (scheduleGroupId != null && scheduleGroupId == groupId) {
+                remove(schedule.getId());
+            }
+        }
+    }
+
+    /*
+     * Adds or replaces a group that was written to the database
+     */
+    synchronized void putGroup(ScheduleGroupInfo group) {
+        if (m_loaded && group.getId() > 0) {
+            m_groupsById.put(group.getId(), group);
+        }
+    }
+
+    /*
+     * Returns the group with the given id, or null if there is none
+     */
+    synchronized ScheduleGroupInfo getGroup(long groupId) {
+        return m_groupsById.get(groupId);
+    }
+
+    synchronized void removeGroup(long groupId) {
+        m_groupsById.remove(groupId);
+    }
+
+
+    private Schedule copyOut(Schedule schedule) {
+        Schedule copy = new Schedule(schedule);
+        Long groupId = schedule.getGroupId();
+        copy.setGroupInfo(groupId != null ? m_groupsById.get(groupId) : null);
+        return copy;
+    }
+
+    private void putInternal(Schedule schedule) {
+        m_byId.put(schedule.getId(), schedule);
+
+        long[] ids = m_idsByTag.get(schedule.getTag());
+        if (ids == null) {
+            m_idsByTag.put(schedule.getTag(), new long[]{schedule.getId()});
+        } else {
+            int index = Arrays.binarySearch(ids, schedule.getId());
+            if (index < 0) {
+                int insertAt = -index - 1;
+                long[] newIds = new long[ids.length + 1];
+                System.arraycopy(ids, 0, newIds, 0, insertAt);
+                newIds[insertAt] = schedule.getId();
+                System.arraycopy(ids, insertAt, newIds, insertAt + 1, ids.length - insertAt);
+                m_idsByTag.put(schedule.getTag(), newIds);
+            }
+        }
+    }
+
+    private void removeFromTagIndex(String tag, long scheduleId) {
+        long[] ids = m_idsByTag.get(tag);
+        if (ids == null) {
+            return;
+        }
+
+        int index = Arrays.binarySearch(ids, scheduleId);
+        if (index < 0) {
+            return;
+        }
+
+        if (ids.length == 1) {
+            m_idsByTag.remove(tag);
+        } else {
+            long[] newIds = new long[ids.length - 1];
+            System.arraycopy(ids, 0, newIds, 0, index);
+            System.arraycopy(ids, index + 1, newIds, index, ids.length - index - 1);
+            m_idsByTag.put(tag, newIds);
+        }
+    }
+}
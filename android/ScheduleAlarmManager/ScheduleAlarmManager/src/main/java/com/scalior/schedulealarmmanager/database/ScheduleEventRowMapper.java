@@ -0,0 +1,64 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.database;
+
+import android.database.Cursor;
+
+import com.scalior.schedulealarmmanager.model.Event;
+import com.scalior.schedulealarmmanager.model.Schedule;
+import com.scalior.schedulealarmmanager.modelholder.ScheduleEvent;
+
+import static com.scalior.schedulealarmmanager.database.SAMSchema.*;
+
+/**
+ * Row mapper for the event and schedule join, with the schedule's group.
+ * Queries must start with SELECT_FROM and may only append WHERE, ORDER BY and LIMIT clauses.
+ * Use a new mapper for each query.
+ */
+final class ScheduleEventRowMapper implements RowMapper<ScheduleEvent> {
+
+    static final String SELECT_FROM = SELECT_SCHEDULE_EVENTS;
+
+    private static final int COL_EVENT_ID = 0;
+    private static final int COL_ALARM_TIME = 1;
+    private static final int COL_EVENT_STATE = 2;
+    private static final int COL_SCHEDULE = 3;
+
+    private final ScheduleRowMapper m_scheduleMapper;
+
+    ScheduleEventRowMapper() {
+        m_scheduleMapper = new ScheduleRowMapper(COL_SCHEDULE);
+    }
+
+    @Override
+    public ScheduleEvent mapRow(Cursor cursor) {
+        Schedule schedule = m_scheduleMapper.mapRow(cursor);
+
+        Event event = new Event(schedule.getId(),
+                cursor.getLong(COL_ALARM_TIME) * 1000,
+                cursor.getInt(COL_EVENT_STATE));
+        event.setId(cursor.getLong(COL_EVENT_ID));
+
+        return new ScheduleEvent(schedule, event);
+    }
+}
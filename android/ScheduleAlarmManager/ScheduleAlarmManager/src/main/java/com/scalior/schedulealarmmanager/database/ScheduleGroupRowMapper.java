@@ -0,0 +1,57 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.database;
+
+import android.database.Cursor;
+
+import com.scalior.schedulealarmmanager.model.ScheduleGroup;
+
+import static com.scalior.schedulealarmmanager.database.SAMSchema.*;
+
+/**
+ * Row mapper for queries on the schedulegroup table.
+ * Queries must start with SELECT_FROM, so the columns are in the expected order.
+ */
+final class ScheduleGroupRowMapper implements RowMapper<ScheduleGroup> {
+
+    static final String SELECT_FROM = SELECT_SCHEDULEGROUPS;
+
+    private static final int COL_ID = 0;
+    private static final int COL_TAG = 1;
+    private static final int COL_ENABLED_FL = 2;
+    private static final int COL_OVERALL_STATE = 3;
+
+    static final ScheduleGroupRowMapper INSTANCE = new ScheduleGroupRowMapper();
+
+    private ScheduleGroupRowMapper() {
+    }
+
+    @Override
+    public ScheduleGroup mapRow(Cursor cursor) {
+        ScheduleGroup group = new ScheduleGroup(cursor.getString(COL_TAG),
+                cursor.getInt(COL_ENABLED_FL) == 1);
+        group.setId(cursor.getLong(COL_ID));
+        group.setOverallStateCode(ScheduleRowMapper.getStateCode(cursor, COL_OVERALL_STATE));
+        return group;
+    }
+}
@@ -0,0 +1,109 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.database;
+
+import android.database.Cursor;
+
+import com.scalior.schedulealarmmanager.model.Schedule;
+import com.scalior.schedulealarmmanager.model.ScheduleGroupInfo;
+import com.scalior.schedulealarmmanager.model.StateCode;
+import com.scalior.schedulealarmmanager.util.LongObjectMap;
+
+import static com.scalior.schedulealarmmanager.database.SAMSchema.*;
+
+/**
+ * Row mapper for queries on the schedule table joined with its group.
+ * Queries must start with SELECT_FROM and may only append WHERE and ORDER BY clauses.
+ * Queries on other tables can embed SAMSchema.SCHEDULE_JOIN_COLUMNS and SAMSchema.GROUP_JOIN,
+ * and map the schedule part of the row with a mapper created at the offset of those columns.
+ *
+ * Schedules mapped by one mapper share one ScheduleGroupInfo per group, so use a new mapper
+ * for each query.
+ */
+final class ScheduleRowMapper implements RowMapper<Schedule> {
+
+    static final String SELECT_FROM = SELECT_SCHEDULES;
+
+    private static final int COL_ID = 0;
+    private static final int COL_START_TIME = 1;
+    private static final int COL_DURATION = 2;
+    private static final int COL_REPEAT_TYPE = 3;
+    private static final int COL_TAG = 4;
+    private static final int COL_STATE = 5;
+    private static final int COL_DISABLE_FL = 6;
+    private static final int COL_GROUP_ID = 7;
+    private static final int COL_GROUP_TAG = 8;
+    private static final int COL_GROUP_ENABLED_FL = 9;
+    private static final int COL_GROUP_OVERALL_STATE = 10;
+
+    private final int m_offset;
+    private final LongObjectMap<ScheduleGroupInfo> m_groupInfos;
+
+    ScheduleRowMapper() {
+        this(0);
+    }
+
+    /**
+     * @param offset - The position of the first schedule column in the row
+     */
+    ScheduleRowMapper(int offset) {
+        m_offset = offset;
+        m_groupInfos = new LongObjectMap<ScheduleGroupInfo>();
+    }
+
+    @Override
+    public Schedule mapRow(Cursor cursor) {
+        Schedule schedule = new Schedule(cursor.getLong(m_offset + COL_START_TIME) * 1000,
+                cursor.getInt(m_offset + COL_DURATION),
+                cursor.getInt(m_offset + COL_REPEAT_TYPE),
+                cursor.getString(m_offset + COL_TAG));
+        schedule.setId(cursor.getLong(m_offset + COL_ID));
+        schedule.setStateCode(getStateCode(cursor, m_offset + COL_STATE));
+        schedule.setDisabled(cursor.getInt(m_offset + COL_DISABLE_FL) == 1);
+
+        long groupId = cursor.getLong(m_offset + COL_GROUP_ID);
+        schedule.setGroupId(groupId);
+
+        // The group columns are null if the schedule is not in a group
+        if (!cursor.isNull(m_offset + COL_GROUP_TAG)) {
+            ScheduleGroupInfo groupInfo = m_groupInfos.get(groupId);
+            if (groupInfo == null) {
+                groupInfo = new ScheduleGroupInfo(groupId,
+                        cursor.getString(m_offset + COL_GROUP_TAG),
+                        cursor.getInt(m_offset + COL_GROUP_ENABLED_FL) == 1,
+                        getStateCode(cursor, m_offset + COL_GROUP_OVERALL_STATE));
+                m_groupInfos.put(groupId, groupInfo);
+            }
+            schedule.setGroupInfo(groupInfo);
+        }
+
+        return schedule;
+    }
+
+    /*
+     * Helper method to read a state column, which is NULL until a state is computed
+     */
+    static int getStateCode(Cursor cursor, int column) {
+        return cursor.isNull(column) ? StateCode.NONE : cursor.getInt(column);
+    }
+}
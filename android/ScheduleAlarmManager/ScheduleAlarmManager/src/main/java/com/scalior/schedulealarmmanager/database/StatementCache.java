@@ -0,0 +1,81 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+
+/**
+ * Compiled write statements of SAMSQLiteHelper, keyed by their SQL.
+ * Every write in SAMSQLiteHelper is one of a fixed set of parameterized statements, so each one
+ * is compiled once per database connection and only rebound afterwards.
+ *
+ * A compiled statement holds its bindings, so it can't be used by two threads at once.
+ * SAMSQLiteHelper holds the lock of this object for the whole duration of a write, including
+ * its transaction. The lock is therefore always taken before the database connection.
+ */
+final class StatementCache {
+
+    private final HashMap<String, SQLiteStatement> m_statements;
+    private SQLiteDatabase m_database;
+
+    StatementCache() {
+        m_statements = new HashMap<String, SQLiteStatement>();
+        m_database = null;
+    }
+
+    /*
+     * Returns the compiled statement for the SQL, with its bindings cleared.
+     * Must be called with the lock of this object held.
+     */
+    SQLiteStatement get(SQLiteDatabase database, String sql) {
+        if (database != m_database) {
+            // The database was reopened. Statements of the old connection can't be reused.
+            clear();
+            m_database = database;
+        }
+
+        SQLiteStatement statement = m_statements.get(sql);
+        if (statement == null) {
+            statement = database.compileStatement(sql);
+            m_statements.put(sql, statement);
+        } else {
+            statement.clearBindings();
+        }
+        return statement;
+    }
+
+    /*
+     * Releases all compiled statements.
+     * Must be called with the lock of this object held.
+     */
+    void clear() {
+        for (SQLiteStatement statement : m_statements.values()) {
+            statement.close();
+        }
+        m_statements.clear();
+        m_database = null;
+    }
+}
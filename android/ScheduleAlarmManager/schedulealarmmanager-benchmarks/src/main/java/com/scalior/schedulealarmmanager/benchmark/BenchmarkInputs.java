@@ -0,0 +1,69 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.benchmark;
+
+import com.scalior.schedulealarmmanager.RecurrenceUtil;
+
+/**
+ * Inputs shared by the benchmarks. The reference time is fixed so that results
+ * can be compared from one run to the next.
+ */
+final class BenchmarkInputs {
+
+	// 2015-03-15 12:00 UTC
+	static final long NOW_MILLIS = 1426420800000L;
+
+	// Schedules start a quarter hour past an occurrence so that no input lands on a boundary
+	static final long START_OFFSET_MILLIS = 15L * RecurrenceUtil.MINUTE_MS;
+
+	static final int DURATION_MINUTES = 90;
+
+	private BenchmarkInputs() {
+	}
+
+	/*
+	 * Maps the name used in @Param values to a repeat type constant
+	 */
+	static int repeatType(String name) {
+		if ("HOURLY".equals(name)) {
+			return RecurrenceUtil.REPEAT_TYPE_HOURLY;
+		} else if ("DAILY".equals(name)) {
+			return RecurrenceUtil.REPEAT_TYPE_DAILY;
+		} else if ("WEEKLY".equals(name)) {
+			return RecurrenceUtil.REPEAT_TYPE_WEEKLY;
+		} else if ("MONTHLY".equals(name)) {
+			return RecurrenceUtil.REPEAT_TYPE_MONTHLY;
+		} else if ("YEARLY".equals(name)) {
+			return RecurrenceUtil.REPEAT_TYPE_YEARLY;
+		}
+		throw new IllegalArgumentException("Unknown repeat type: " + name);
+	}
+
+	/*
+	 * Returns a start time that is the given number of nominal periods behind NOW_MILLIS
+	 */
+	static long staleStartTime(int repeatType, int periodsBehind) {
+		return NOW_MILLIS - periodsBehind * RecurrenceUtil.getNominalPeriodMillis(repeatType) +
+				START_OFFSET_MILLIS;
+	}
+}
@@ -0,0 +1,604 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.benchmark;
+
+import com.scalior.schedulealarmmanager.ScheduleStore;
+import com.scalior.schedulealarmmanager.model.Event;
+import com.scalior.schedulealarmmanager.model.Schedule;
+import com.scalior.schedulealarmmanager.model.ScheduleGroupInfo;
+import com.scalior.schedulealarmmanager.model.StateCode;
+import com.scalior.schedulealarmmanager.modelholder.ScheduleAndEventsToAdd;
+import com.scalior.schedulealarmmanager.modelholder.ScheduleEvent;
+import com.scalior.schedulealarmmanager.util.LongObjectMap;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+import static com.scalior.schedulealarmmanager.database.SAMSchema.*;
+
+/**
+ * ScheduleStore on the SQLite JDBC driver, so that the persistence of the library can be
+ * measured on a desktop JVM.
+ * It creates the schema defined in SAMSchema and runs the same statements as SAMSQLiteHelper,
+ * in the same transactions, with write-ahead logging and synchronous=FULL as on a device.
+ * The schedule cache of SAMSQLiteHelper is not reproduced, so getScheduleById and
+ * getScheduleGroupInfo read the database.
+ *
+ * The store counts the rows it reads and writes. SQLite doesn't count the rows deleted by a
+ * foreign key cascade, so they are not included.
+ */
+final class JdbcScheduleStore implements ScheduleStore {
+
+	// SAMSQLiteHelper answers this from its schedule cache
+	private static final String QUERY_SCHEDULE_BY_ID = SELECT_SCHEDULES +
+			" WHERE " + TABLE_SCHEDULE + "." + SCHEDULE_ID + " = ?";
+
+	// Positions of the columns in the SAMSchema projections
+	static final int COL_EVENT_ID = 1;
+	static final int COL_EVENT_ALARM_TIME = 2;
+	static final int COL_EVENT_STATE = 3;
+	static final int COL_EVENT_SCHEDULE = 4;
+
+	static final int COL_ID = 0;
+	static final int COL_START_TIME = 1;
+	static final int COL_DURATION = 2;
+	static final int COL_REPEAT_TYPE = 3;
+	static final int COL_TAG = 4;
+	static final int COL_STATE = 5;
+	static final int COL_DISABLE_FL = 6;
+	static final int COL_GROUP_ID = 7;
+	static final int COL_GROUP_TAG = 8;
+	static final int COL_GROUP_ENABLED_FL = 9;
+	static final int COL_GROUP_OVERALL_STATE = 10;
+
+	/*
+	 * Maps one row of a query, for benchmarks that compare ways of mapping the same rows
+	 */
+	interface RowMapper<T> {
+		T mapRow(ResultSet rows) throws SQLException;
+	}
+
+	private final Connection m_connection;
+	private final HashMap<String, PreparedStatement> m_statements;
+
+	private long m_rowsRead;
+	private long m_rowsWritten;
+
+	/*
+	 * Creates the schema in a new database
+	 */
+	JdbcScheduleStore(String path) throws SQLException {
+		this(path, true);
+	}
+
+	/*
+	 * Opens a database. Without createSchema, the database must have been created by another
+	 * store, and this one is a second connection to it.
+	 */
+	JdbcScheduleStore(String path, boolean createSchema) throws SQLException {
+		m_connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+		m_statements = new HashMap<String, PreparedStatement>();
+
+		Statement statement = m_connection.createStatement();
+		try {
+			statement.execute("PRAGMA foreign_keys=ON");
+			statement.execute("PRAGMA journal_mode=WAL");
+			statement.execute("PRAGMA synchronous=FULL");
+			if (!createSchema) {
+				return;
+			}
+
+			statement.execute(TABLE_DBCREATION_CREATE);
+			statement.execute(TABLE_SCHEDULEGROUP_CREATE);
+			statement.execute(TABLE_SCHEDULE_CREATE);
+			statement.execute(TABLE_EVENT_CREATE);
+			statement.execute(INDEX_EVENT_ALARM_TIME_CREATE);
+			statement.execute(INDEX_EVENT_SCHEDULE_ID_CREATE);
+			statement.execute(INDEX_SCHEDULE_GROUP_ID_CREATE);
+			statement.execute(INDEX_SCHEDULE_TAG_CREATE);
+			statement.execute(INDEX_SCHEDULEGROUP_TAG_CREATE);
+			statement.execute("INSERT INTO " + TABLE_DBCREATION + " (" + DBCREATION_UUID +
+					") VALUES ('" + UUID.randomUUID() + "')");
+		} finally {
+			statement.close();
+		}
+	}
+
+	void close() throws SQLException {
+		for (PreparedStatement statement : m_statements.values()) {
+			statement.close();
+		}
+		m_statements.clear();
+		m_connection.close();
+	}
+
+	long getRowsRead() {
+		return m_rowsRead;
+	}
+
+	long getRowsWritten() {
+		return m_rowsWritten;
+	}
+
+	String getSQLiteVersion() {
+		return queryString("SELECT sqlite_version()");
+	}
+
+	long countRows(String table) {
+		return Long.parseLong(queryString("SELECT COUNT(*) FROM " + table));
+	}
+
+	/*
+	 * Adds an enabled group whose overall state is not computed yet
+	 */
+	long addScheduleGroup(String tag) {
+		try {
+			PreparedStatement statement = prepare(INSERT_SCHEDULEGROUP);
+			statement.setString(1, tag);
+			statement.setLong(2, 1);
+			statement.setNull(3, Types.INTEGER);
+			return executeInsert(statement);
+		} catch (SQLException e) {
+			throw failure(e);
+		}
+	}
+
+	/*
+	 * Same as SAMSQLiteHelper.addScheduleAndEvents
+	 */
+	long addScheduleAndEvents(Schedule schedule, List<Event> startAndStopEvents,
+	                          boolean newSchedule) {
+		List<ScheduleAndEventsToAdd> single = new ArrayList<ScheduleAndEventsToAdd>(1);
+		single.add(new ScheduleAndEventsToAdd(schedule, startAndStopEvents, newSchedule));
+		return addMultipleScheduleAndEvents(single) ? single.get(0).m_addedScheduleId : -1;
+	}
+
+	/*
+	 * Same as SAMSQLiteHelper.addMultipleScheduleAndEvents
+	 */
+	boolean addMultipleScheduleAndEvents(List<ScheduleAndEventsToAdd> schedulesAndEventsToAdd) {
+		if (schedulesAndEventsToAdd == null || schedulesAndEventsToAdd.size() == 0) {
+			return false;
+		}
+
+		boolean success = false;
+		try {
+			m_connection.setAutoCommit(false);
+			for (ScheduleAndEventsToAdd scheduleAndEvents : schedulesAndEventsToAdd) {
+				Schedule schedule = scheduleAndEvents.m_schedule;
+				if (scheduleAndEvents.m_newSchedule) {
+					schedule.setId(insertSchedule(schedule));
+				} else {
+					updateSchedule(schedule);
+				}
+				scheduleAndEvents.m_addedScheduleId = schedule.getId();
+
+				for (int i = 0; i < 2; i++) {
+					Event event = scheduleAndEvents.m_events.get(i);
+					event.setScheduleID(schedule.getId());
+					event.setId(insertEvent(event));
+				}
+			}
+			m_connection.commit();
+			success = true;
+		} catch (SQLException e) {
+			throw failure(e);
+		} finally {
+			endTransaction(success);
+		}
+		return true;
+	}
+
+	/*
+	 * Same as SAMSQLiteHelper.deleteSchedulesByGroup. The events of the schedules are deleted
+	 * by the foreign key.
+	 */
+	boolean deleteSchedulesByGroup(String groupTag) {
+		// SAMSQLiteHelper reads the group first, to update its cache afterwards
+		PreparedStatement query = prepare(QUERY_SCHEDULEGROUP_BY_TAG);
+		try {
+			query.setString(1, groupTag);
+			countRows(query.executeQuery());
+		} catch (SQLException e) {
+			throw failure(e);
+		}
+
+		boolean success = false;
+		try {
+			m_connection.setAutoCommit(false);
+			PreparedStatement statement = prepare(DELETE_SCHEDULES_BY_GROUP_TAG);
+			statement.setString(1, groupTag);
+			m_rowsWritten += statement.executeUpdate();
+
+			statement = prepare(DELETE_SCHEDULEGROUP_BY_TAG);
+			statement.setString(1, groupTag);
+			m_rowsWritten += statement.executeUpdate();
+			m_connection.commit();
+			success = true;
+		} catch (SQLException e) {
+			throw failure(e);
+		} finally {
+			endTransaction(success);
+		}
+		return true;
+	}
+
+	/*
+	 * Same as SAMSQLiteHelper.getNextEvent, at a given time instead of the current time
+	 */
+	ScheduleEvent getNextEvent(long nowMillis) {
+		List<ScheduleEvent> scheduleEvents = queryScheduleEvents(QUERY_NEXT_EVENT, nowMillis / 1000);
+		return scheduleEvents != null ? scheduleEvents.get(0) : null;
+	}
+
+	@Override
+	public List<ScheduleEvent> getScheduleEvents() {
+		return queryScheduleEvents(SELECT_SCHEDULE_EVENTS);
+	}
+
+	@Override
+	public List<ScheduleEvent> getExpiredEvents(long cutoffTimeMillis) {
+		return queryScheduleEvents(QUERY_EXPIRED_EVENTS, cutoffTimeMillis / 1000);
+	}
+
+	@Override
+	public List<ScheduleEvent> getScheduleEventsByScheduleIds(long[] scheduleIds) {
+		if (scheduleIds == null || scheduleIds.length == 0) {
+			return null;
+		}
+
+		List<ScheduleEvent> scheduleEvents = null;
+		long[] batchIds = new long[SCHEDULE_ID_BATCH_SIZE];
+		for (int start = 0; start < scheduleIds.length; start += SCHEDULE_ID_BATCH_SIZE) {
+			int last = Math.min(start + SCHEDULE_ID_BATCH_SIZE, scheduleIds.length) - 1;
+			for (int i = 0; i < SCHEDULE_ID_BATCH_SIZE; i++) {
+				batchIds[i] = scheduleIds[Math.min(start + i, last)];
+			}
+
+			List<ScheduleEvent> batch = queryScheduleEvents(QUERY_EVENTS_BY_SCHEDULE_IDS, batchIds);
+			if (batch != null) {
+				if (scheduleEvents == null) {
+					scheduleEvents = batch;
+				} else {
+					scheduleEvents.addAll(batch);
+				}
+			}
+		}
+		return scheduleEvents;
+	}
+
+	@Override
+	public Schedule getScheduleById(long scheduleId) {
+		PreparedStatement statement = prepare(QUERY_SCHEDULE_BY_ID);
+		try {
+			statement.setLong(1, scheduleId);
+			ResultSet rows = statement.executeQuery();
+			try {
+				if (rows.next()) {
+					m_rowsRead++;
+					return mapSchedule(rows, 1, new LongObjectMap<ScheduleGroupInfo>());
+				}
+				return null;
+			} finally {
+				rows.close();
+			}
+		} catch (SQLException e) {
+			throw failure(e);
+		}
+	}
+
+	@Override
+	public ScheduleGroupInfo getScheduleGroupInfo(long groupId) {
+		PreparedStatement statement = prepare(QUERY_SCHEDULEGROUP_BY_ID);
+		try {
+			statement.setLong(1, groupId);
+			ResultSet rows = statement.executeQuery();
+			try {
+				if (rows.next()) {
+					m_rowsRead++;
+					return new ScheduleGroupInfo(rows.getLong(1), rows.getString(2),
+							rows.getInt(3) == 1, getStateCode(rows, 4));
+				}
+				return null;
+			} finally {
+				rows.close();
+			}
+		} catch (SQLException e) {
+			throw failure(e);
+		}
+	}
+
+	@Override
+	public int writeReconciliation(List<Event> events, List<Schedule> schedules) {
+		int eventCount = events != null ? events.size() : 0;
+		int scheduleCount = schedules != null ? schedules.size() : 0;
+		if (eventCount == 0 && scheduleCount == 0) {
+			return 0;
+		}
+
+		int rowsWritten = 0;
+		boolean success = false;
+		try {
+			m_connection.setAutoCommit(false);
+			if (eventCount > 0) {
+				PreparedStatement eventStatement = prepare(UPDATE_EVENT_ALARM_TIME);
+				for (int i = 0; i < eventCount; i++) {
+					Event event = events.get(i);
+					eventStatement.setLong(1, event.getAlarmTimeMillis() / 1000);
+					eventStatement.setLong(2, event.getId());
+					rowsWritten += eventStatement.executeUpdate();
+				}
+			}
+
+			if (scheduleCount > 0) {
+				PreparedStatement scheduleStatement = prepare(UPDATE_SCHEDULE_STATE);
+				for (int i = 0; i < scheduleCount; i++) {
+					Schedule schedule = schedules.get(i);
+					setStateCode(scheduleStatement, 1, schedule.getStateCode());
+					scheduleStatement.setLong(2, schedule.getId());
+					rowsWritten += scheduleStatement.executeUpdate();
+				}
+			}
+			m_connection.commit();
+			success = true;
+		} catch (SQLException e) {
+			throw failure(e);
+		} finally {
+			endTransaction(success);
+		}
+
+		m_rowsWritten += rowsWritten;
+		return rowsWritten;
+	}
+
+	@Override
+	public int updateGroupOverallStates() {
+		try {
+			int count = prepare(UPDATE_GROUP_OVERALL_STATES).executeUpdate();
+			m_rowsWritten += count;
+			return count;
+		} catch (SQLException e) {
+			throw failure(e);
+		}
+	}
+
+
+	private long insertSchedule(Schedule schedule) throws SQLException {
+		PreparedStatement statement = prepare(INSERT_SCHEDULE);
+		statement.setLong(1, schedule.getStartTimeMillis() / 1000);
+		statement.setLong(2, schedule.getDuration());
+		statement.setLong(3, schedule.getRepeatType());
+		statement.setString(4, schedule.getTag());
+		setStateCode(statement, 5, schedule.getStateCode());
+		statement.setLong(6, schedule.isDisabled() ? 1 : 0);
+		if (schedule.getGroupId() != null) {
+			statement.setLong(7, schedule.getGroupId());
+		} else {
+			statement.setNull(7, Types.INTEGER);
+		}
+		return executeInsert(statement);
+	}
+
+	private void updateSchedule(Schedule schedule) throws SQLException {
+		PreparedStatement statement = prepare(UPDATE_SCHEDULE);
+		statement.setLong(1, schedule.getStartTimeMillis() / 1000);
+		statement.setLong(2, schedule.getDuration());
+		setStateCode(statement, 3, schedule.getStateCode());
+		statement.setLong(4, schedule.isDisabled() ? 1 : 0);
+		statement.setLong(5, schedule.getId());
+		m_rowsWritten += statement.executeUpdate();
+	}
+
+	private long insertEvent(Event event) throws SQLException {
+		PreparedStatement statement = prepare(INSERT_EVENT);
+		statement.setLong(1, event.getScheduleID());
+		statement.setLong(2, event.getAlarmTimeMillis() / 1000);
+		statement.setLong(3, event.getStateCode());
+		return executeInsert(statement);
+	}
+
+	private long executeInsert(PreparedStatement statement) throws SQLException {
+		m_rowsWritten += statement.executeUpdate();
+		ResultSet keys = statement.getGeneratedKeys();
+		try {
+			keys.next();
+			return keys.getLong(1);
+		} finally {
+			keys.close();
+		}
+	}
+
+	/*
+	 * Runs a query without parameters and maps its rows with the given mapper. Returns null
+	 * if there are no rows.
+	 */
+	<T> List<T> query(String sql, RowMapper<T> mapper) {
+		PreparedStatement statement = prepare(sql);
+		try {
+			ResultSet rows = statement.executeQuery();
+			try {
+				ArrayList<T> mapped = null;
+				while (rows.next()) {
+					if (mapped == null) {
+						mapped = new ArrayList<T>();
+					}
+					mapped.add(mapper.mapRow(rows));
+				}
+				if (mapped != null) {
+					m_rowsRead += mapped.size();
+				}
+				return mapped;
+			} finally {
+				rows.close();
+			}
+		} catch (SQLException e) {
+			throw failure(e);
+		}
+	}
+
+	private List<ScheduleEvent> queryScheduleEvents(String sql, long... args) {
+		PreparedStatement statement = prepare(sql);
+		try {
+			for (int i = 0; i < args.length; i++) {
+				statement.setLong(i + 1, args[i]);
+			}
+
+			ResultSet rows = statement.executeQuery();
+			try {
+				// Schedules of one query share one ScheduleGroupInfo per group, as with
+				// ScheduleRowMapper
+				LongObjectMap<ScheduleGroupInfo> groupInfos = new LongObjectMap<ScheduleGroupInfo>();
+				ArrayList<ScheduleEvent> scheduleEvents = null;
+				while (rows.next()) {
+					if (scheduleEvents == null) {
+						scheduleEvents = new ArrayList<ScheduleEvent>();
+					}
+					Schedule schedule = mapSchedule(rows, COL_EVENT_SCHEDULE, groupInfos);
+					Event event = new Event(schedule.getId(),
+							rows.getLong(COL_EVENT_ALARM_TIME) * 1000,
+							rows.getInt(COL_EVENT_STATE));
+					event.setId(rows.getLong(COL_EVENT_ID));
+					scheduleEvents.add(new ScheduleEvent(schedule, event));
+				}
+				if (scheduleEvents != null) {
+					m_rowsRead += scheduleEvents.size();
+				}
+				return scheduleEvents;
+			} finally {
+				rows.close();
+			}
+		} catch (SQLException e) {
+			throw failure(e);
+		}
+	}
+
+	private static Schedule mapSchedule(ResultSet rows, int offset,
+	                                    LongObjectMap<ScheduleGroupInfo> groupInfos)
+			throws SQLException {
+		Schedule schedule = new Schedule(rows.getLong(offset + COL_START_TIME) * 1000,
+				rows.getInt(offset + COL_DURATION),
+				rows.getInt(offset + COL_REPEAT_TYPE),
+				rows.getString(offset + COL_TAG));
+		schedule.setId(rows.getLong(offset + COL_ID));
+		schedule.setStateCode(getStateCode(rows, offset + COL_STATE));
+		schedule.setDisabled(rows.getInt(offset + COL_DISABLE_FL) == 1);
+
+		long groupId = rows.getLong(offset + COL_GROUP_ID);
+		schedule.setGroupId(groupId);
+
+		String groupTag = rows.getString(offset + COL_GROUP_TAG);
+		if (groupTag != null) {
+			ScheduleGroupInfo groupInfo = groupInfos.get(groupId);
+			if (groupInfo == null) {
+				groupInfo = new ScheduleGroupInfo(groupId, groupTag,
+						rows.getInt(offset + COL_GROUP_ENABLED_FL) == 1,
+						getStateCode(rows, offset + COL_GROUP_OVERALL_STATE));
+				groupInfos.put(groupId, groupInfo);
+			}
+			schedule.setGroupInfo(groupInfo);
+		}
+		return schedule;
+	}
+
+	private static int getStateCode(ResultSet rows, int column) throws SQLException {
+		int stateCode = rows.getInt(column);
+		return rows.wasNull() ? StateCode.NONE : stateCode;
+	}
+
+	private static void setStateCode(PreparedStatement statement, int index, int stateCode)
+			throws SQLException {
+		if (stateCode != StateCode.NONE) {
+			statement.setLong(index, stateCode);
+		} else {
+			statement.setNull(index, Types.INTEGER);
+		}
+	}
+
+	private void countRows(ResultSet rows) throws SQLException {
+		try {
+			while (rows.next()) {
+				m_rowsRead++;
+			}
+		} finally {
+			rows.close();
+		}
+	}
+
+	private String queryString(String sql) {
+		try {
+			Statement statement = m_connection.createStatement();
+			try {
+				ResultSet rows = statement.executeQuery(sql);
+				rows.next();
+				return rows.getString(1);
+			} finally {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			throw failure(e);
+		}
+	}
+
+	/*
+	 * Returns the prepared statement for the SQL, as SAMSQLiteHelper does with its
+	 * StatementCache
+	 */
+	private PreparedStatement prepare(String sql) {
+		PreparedStatement statement = m_statements.get(sql);
+		try {
+			if (statement == null) {
+				statement = m_connection.prepareStatement(sql);
+				m_statements.put(sql, statement);
+			} else {
+				statement.clearParameters();
+			}
+		} catch (SQLException e) {
+			throw failure(e);
+		}
+		return statement;
+	}
+
+	private void endTransaction(boolean success) {
+		try {
+			if (!success) {
+				m_connection.rollback();
+			}
+			m_connection.setAutoCommit(true);
+		} catch (SQLException e) {
+			throw failure(e);
+		}
+	}
+
+	private static RuntimeException failure(SQLException e) {
+		return new IllegalStateException("SQLite error: " + e.getMessage(), e);
+	}
+}
@@ -0,0 +1,182 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.benchmark;
+
+import com.scalior.schedulealarmmanager.RecurrenceUtil;
+import com.scalior.schedulealarmmanager.model.Schedule;
+import com.scalior.schedulealarmmanager.modelholder.ScheduleAndEventsToAdd;
+import com.scalior.schedulealarmmanager.modelholder.ScheduleEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.scalior.schedulealarmmanager.benchmark.JdbcScheduleStore.*;
+import static com.scalior.schedulealarmmanager.database.SAMSchema.SELECT_SCHEDULE_EVENTS;
+
+/**
+ * Benchmarks of loading all schedule events from SQLite, as a full pass does. Each schedule has
+ * a start and a stop event, so 25000 schedules are 50000 events.
+ *
+ * loadScheduleEvents maps the rows to the model of the library, which holds times as epoch
+ * milliseconds and states as StateCode values. loadCalendarScheduleEvents maps the same rows
+ * the way SAMSQLiteHelper did before: a Calendar for the alarm time and one for the start time
+ * of every row, and the states as strings. Run it with -prof gc to compare the allocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoadBenchmark {
+
+	private static final int GROUP_SIZE = 10;
+	private static final int FILL_BATCH_SIZE = 1000;
+
+	/*
+	 * Rows as they were mapped when the model held Calendar objects and state strings
+	 */
+	private static final class CalendarScheduleEvent {
+		long m_scheduleId;
+		Calendar m_startTime;
+		int m_duration;
+		int m_repeatType;
+		String m_tag;
+		String m_scheduleState;
+		Long m_groupId;
+
+		long m_eventId;
+		Calendar m_alarmTime;
+		String m_eventState;
+	}
+
+	private static final RowMapper<CalendarScheduleEvent> CALENDAR_MAPPER =
+			new RowMapper<CalendarScheduleEvent>() {
+		@Override
+		public CalendarScheduleEvent mapRow(ResultSet rows) throws SQLException {
+			CalendarScheduleEvent scheduleEvent = new CalendarScheduleEvent();
+
+			Calendar alarmTime = Calendar.getInstance();
+			alarmTime.setTimeInMillis(rows.getLong(COL_EVENT_ALARM_TIME) * 1000);
+			scheduleEvent.m_alarmTime = alarmTime;
+			scheduleEvent.m_eventState = rows.getString(COL_EVENT_STATE);
+			scheduleEvent.m_eventId = rows.getLong(COL_EVENT_ID);
+
+			Calendar startTime = Calendar.getInstance();
+			startTime.setTimeInMillis(rows.getLong(COL_EVENT_SCHEDULE + COL_START_TIME) * 1000);
+			scheduleEvent.m_startTime = startTime;
+			scheduleEvent.m_duration = rows.getInt(COL_EVENT_SCHEDULE + COL_DURATION);
+			scheduleEvent.m_repeatType = rows.getInt(COL_EVENT_SCHEDULE + COL_REPEAT_TYPE);
+			scheduleEvent.m_tag = rows.getString(COL_EVENT_SCHEDULE + COL_TAG);
+			scheduleEvent.m_scheduleId = rows.getLong(COL_EVENT_SCHEDULE + COL_ID);
+			scheduleEvent.m_scheduleState = rows.getString(COL_EVENT_SCHEDULE + COL_STATE);
+			scheduleEvent.m_groupId = rows.getLong(COL_EVENT_SCHEDULE + COL_GROUP_ID);
+			return scheduleEvent;
+		}
+	};
+
+	@Param({"25000"})
+	public int schedules;
+
+	private File m_databaseFile;
+	private JdbcScheduleStore m_store;
+
+	@Setup
+	public void setUp() throws Exception {
+		m_databaseFile = File.createTempFile("sam-load", ".db");
+		m_store = new JdbcScheduleStore(m_databaseFile.getPath());
+
+		Random random = new Random(42);
+		List<ScheduleAndEventsToAdd> batch = new ArrayList<ScheduleAndEventsToAdd>();
+		long groupId = 0;
+		for (int i = 0; i < schedules; i++) {
+			if (i % GROUP_SIZE == 0) {
+				groupId = m_store.addScheduleGroup("group" + i / GROUP_SIZE);
+			}
+			Schedule schedule = createSchedule(random, groupId);
+			batch.add(new ScheduleAndEventsToAdd(schedule,
+					RecurrenceUtil.createStartAndStopEvents(schedule.getStartTimeMillis(),
+							schedule.getDuration(), schedule.getRepeatType(),
+							BenchmarkInputs.NOW_MILLIS), true));
+			if (batch.size() >= FILL_BATCH_SIZE) {
+				m_store.addMultipleScheduleAndEvents(batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			m_store.addMultipleScheduleAndEvents(batch);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		m_store.close();
+		for (String suffix : new String[]{"", "-wal", "-shm"}) {
+			new File(m_databaseFile.getPath() + suffix).delete();
+		}
+	}
+
+	@Benchmark
+	public List<ScheduleEvent> loadScheduleEvents() {
+		return m_store.getScheduleEvents();
+	}
+
+	@Benchmark
+	public List<?> loadCalendarScheduleEvents() {
+		return m_store.query(SELECT_SCHEDULE_EVENTS, CALENDAR_MAPPER);
+	}
+
+
+	/*
+	 * Creates a daily or weekly schedule that starts at a random time in the past week, as
+	 * PersistenceBenchmark does
+	 */
+	private static Schedule createSchedule(Random random, long groupId) {
+		int repeatType = random.nextInt(4) == 0 ? RecurrenceUtil.REPEAT_TYPE_WEEKLY :
+				RecurrenceUtil.REPEAT_TYPE_DAILY;
+		long startTimeMillis = BenchmarkInputs.NOW_MILLIS - random.nextInt(RecurrenceUtil.WEEK_MS);
+		Schedule schedule = new Schedule(startTimeMillis, 15 + random.nextInt(240), repeatType,
+				"schedule" + random.nextInt(Integer.MAX_VALUE));
+		schedule.setGroupId(groupId);
+		return schedule;
+	}
+}
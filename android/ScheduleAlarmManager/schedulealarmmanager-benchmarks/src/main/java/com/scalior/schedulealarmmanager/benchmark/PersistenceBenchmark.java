@@ -0,0 +1,517 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.benchmark;
+
+import com.scalior.schedulealarmmanager.AlarmSink;
+import com.scalior.schedulealarmmanager.ReconciliationEngine;
+import com.scalior.schedulealarmmanager.RecurrenceUtil;
+import com.scalior.schedulealarmmanager.model.Event;
+import com.scalior.schedulealarmmanager.model.Schedule;
+import com.scalior.schedulealarmmanager.modelholder.ScheduleAndEventsToAdd;
+import com.scalior.schedulealarmmanager.util.LongHashSet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.scalior.schedulealarmmanager.database.SAMSchema.TABLE_EVENT;
+
+/**
+ * Throughput benchmark of the persistence layer on SQLite, at several database sizes.
+ * Every operation runs against a database file filled with the given number of schedules,
+ * in groups of GROUP_SIZE, each with a start and a stop event.
+ *
+ * For each operation and size it reports the throughput, the median and 99th percentile
+ * latencies and the rows read and written per operation, and it saves them to a JSON file
+ * so that two runs can be compared. getNextEventDuringPass is read on a second connection
+ * while full passes run, to compare with the latency of getNextEvent alone. addSchedules
+ * provisions the given number of schedules into an empty database the way SAManager.addSchedules
+ * does: one transaction for all of them, then one pass.
+ *
+ * Usage: PersistenceBenchmark <result file> [size...]
+ */
+public final class PersistenceBenchmark {
+
+	private static final int[] DEFAULT_SIZES = {100, 1000, 10000, 100000};
+
+	private static final int GROUP_SIZE = 10;
+	private static final int FILL_BATCH_SIZE = 1000;
+
+	// Iterations of operations that touch a few rows, and of operations that visit every
+	// schedule. The latter are capped so that the largest size completes in minutes.
+	private static final int POINT_ITERATIONS = 1000;
+	private static final int WRITE_ITERATIONS = 200;
+	private static final int BATCH_ITERATIONS = 50;
+	private static final int DELETE_ITERATIONS = 100;
+	private static final int PROVISION_ITERATIONS = 3;
+	private static final int SCAN_ROWS_PER_SIZE = 100000;
+	private static final int MIN_SCAN_ITERATIONS = 10;
+	private static final int CONCURRENT_READ_ITERATIONS = 100000;
+
+	private static final String BENCHMARK_GROUP = "benchmark";
+
+	private static final AlarmSink NO_ALARMS = new AlarmSink() {
+		@Override
+		public void setAlarm(long alarmTimeMillis) {
+		}
+
+		@Override
+		public void cancelAlarm() {
+		}
+	};
+
+	private final List<Result> m_results = new ArrayList<Result>();
+	private final Random m_random = new Random(42);
+	private String m_sqliteVersion;
+	private boolean m_warmingUp;
+
+	private PersistenceBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: PersistenceBenchmark <result file> [size...]");
+			System.exit(1);
+		}
+
+		int[] sizes = DEFAULT_SIZES;
+		if (args.length > 1) {
+			sizes = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				sizes[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		PersistenceBenchmark benchmark = new PersistenceBenchmark();
+
+		// A first round warms up the JIT compiler. It is not reported.
+		benchmark.m_warmingUp = true;
+		benchmark.run(DEFAULT_SIZES[0]);
+		benchmark.m_warmingUp = false;
+
+		for (int size : sizes) {
+			benchmark.run(size);
+		}
+		benchmark.writeResults(new File(args[0]));
+	}
+
+	private void run(int size) throws Exception {
+		runProvisioning(size);
+
+		File databaseFile = File.createTempFile("sam-benchmark", ".db");
+		JdbcScheduleStore store = new JdbcScheduleStore(databaseFile.getPath());
+		try {
+			m_sqliteVersion = store.getSQLiteVersion();
+			int groupCount = fill(store, size);
+			long nowMillis = BenchmarkInputs.NOW_MILLIS;
+
+			// Adds go to a group of their own, which is deleted afterwards
+			long benchmarkGroupId = store.addScheduleGroup(BENCHMARK_GROUP);
+
+			Result result = new Result("addScheduleAndEvents", size, WRITE_ITERATIONS);
+			for (int i = 0; i < WRITE_ITERATIONS; i++) {
+				Schedule schedule = createSchedule(benchmarkGroupId);
+				List<Event> events = createEvents(schedule, nowMillis);
+				result.begin(store);
+				store.addScheduleAndEvents(schedule, events, true);
+				result.end(store);
+			}
+			report(result);
+
+			result = new Result("addMultipleScheduleAndEvents", size, BATCH_ITERATIONS);
+			for (int i = 0; i < BATCH_ITERATIONS; i++) {
+				List<ScheduleAndEventsToAdd> batch = createBatch(benchmarkGroupId, GROUP_SIZE, nowMillis);
+				result.begin(store);
+				store.addMultipleScheduleAndEvents(batch);
+				result.end(store);
+			}
+			report(result);
+			store.deleteSchedulesByGroup(BENCHMARK_GROUP);
+
+			int scanIterations = Math.max(MIN_SCAN_ITERATIONS, SCAN_ROWS_PER_SIZE / size);
+			result = new Result("getScheduleEvents", size, scanIterations);
+			for (int i = 0; i < scanIterations; i++) {
+				result.begin(store);
+				store.getScheduleEvents();
+				result.end(store);
+			}
+			report(result);
+
+			result = new Result("getNextEvent", size, POINT_ITERATIONS);
+			for (int i = 0; i < POINT_ITERATIONS; i++) {
+				result.begin(store);
+				store.getNextEvent(nowMillis + m_random.nextInt(RecurrenceUtil.WEEK_MS));
+				result.end(store);
+			}
+			report(result);
+
+			// Full passes, each an hour after the previous one, so every pass advances the
+			// events that expired in the meantime
+			ReconciliationEngine engine = new ReconciliationEngine(store, NO_ALARMS);
+			result = new Result("updateScheduleStates", size, scanIterations);
+			for (int i = 0; i < scanIterations; i++) {
+				nowMillis += RecurrenceUtil.HOUR_MS;
+				result.begin(store);
+				engine.reconcile(null, true, nowMillis);
+				result.end(store);
+			}
+			report(result);
+
+			nowMillis = runPassesWithReader(databaseFile, engine, store, size, scanIterations,
+					nowMillis);
+
+			// The next event of a group used to be a query. It is answered from the upcoming
+			// events kept in memory since the group index was added.
+			result = new Result("getNextAlarmsForGroup", size, POINT_ITERATIONS);
+			for (int i = 0; i < POINT_ITERATIONS; i++) {
+				String groupTag = groupTag(m_random.nextInt(groupCount));
+				result.begin(store);
+				engine.getNextAlarmsForGroup(groupTag, 1);
+				result.end(store);
+			}
+			report(result);
+
+			// Deletes whole groups of the database, so it runs last
+			int deleteIterations = Math.min(DELETE_ITERATIONS, groupCount);
+			result = new Result("deleteSchedulesByGroup", size, deleteIterations);
+			for (int i = 0; i < deleteIterations; i++) {
+				String groupTag = groupTag(i);
+				long eventCount = store.countRows(TABLE_EVENT);
+				result.begin(store);
+				store.deleteSchedulesByGroup(groupTag);
+				result.end(store);
+
+				// The events are deleted by a cascade, which SQLite doesn't count
+				result.addRowsWritten(eventCount - store.countRows(TABLE_EVENT));
+			}
+			report(result);
+		} finally {
+			store.close();
+			deleteDatabase(databaseFile);
+		}
+	}
+
+	/*
+	 * Provisions size schedules into an empty database, each time a new one, as
+	 * SAManager.addSchedules does: the groups are added once, all schedules and their events
+	 * are inserted in one transaction, then one pass reconciles the added schedules.
+	 */
+	private void runProvisioning(int size) throws Exception {
+		Result result = new Result("addSchedules", size, PROVISION_ITERATIONS);
+		for (int i = 0; i < PROVISION_ITERATIONS; i++) {
+			File databaseFile = File.createTempFile("sam-benchmark", ".db");
+			JdbcScheduleStore store = new JdbcScheduleStore(databaseFile.getPath());
+			try {
+				// SAManager.init runs a full pass before any schedule is added
+				ReconciliationEngine engine = new ReconciliationEngine(store, NO_ALARMS);
+				engine.reconcile(null, true, BenchmarkInputs.NOW_MILLIS);
+
+				int groupCount = (size + GROUP_SIZE - 1) / GROUP_SIZE;
+				List<Schedule> schedules = new ArrayList<Schedule>(size);
+				for (int j = 0; j < size; j++) {
+					schedules.add(createSchedule(0));
+				}
+
+				result.begin(store);
+				List<ScheduleAndEventsToAdd> batch = new ArrayList<ScheduleAndEventsToAdd>(size);
+				for (int group = 0; group < groupCount; group++) {
+					long groupId = store.addScheduleGroup(groupTag(group));
+					int last = Math.min((group + 1) * GROUP_SIZE, size);
+					for (int j = group * GROUP_SIZE; j < last; j++) {
+						Schedule schedule = schedules.get(j);
+						schedule.setGroupId(groupId);
+						batch.add(new ScheduleAndEventsToAdd(schedule,
+								createEvents(schedule, BenchmarkInputs.NOW_MILLIS), true));
+					}
+				}
+				store.addMultipleScheduleAndEvents(batch);
+
+				LongHashSet changedSchedules = new LongHashSet();
+				for (ScheduleAndEventsToAdd added : batch) {
+					changedSchedules.add(added.m_addedScheduleId);
+				}
+				engine.reconcile(changedSchedules, false, BenchmarkInputs.NOW_MILLIS);
+				result.end(store);
+			} finally {
+				store.close();
+				deleteDatabase(databaseFile);
+			}
+		}
+		report(result);
+	}
+
+	/*
+	 * Runs full passes while a second connection reads the next event, as the app reads
+	 * while the alarm processor updates the schedule states. Reports the latency of the reads
+	 * and of the passes. Returns the time of the last pass.
+	 */
+	private long runPassesWithReader(File databaseFile, ReconciliationEngine engine,
+	                                 JdbcScheduleStore store, int size, int iterations,
+	                                 final long nowMillis) throws Exception {
+		final JdbcScheduleStore readerStore = new JdbcScheduleStore(databaseFile.getPath(), false);
+		final Result readResult = new Result("getNextEventDuringPass", size,
+				CONCURRENT_READ_ITERATIONS);
+		final AtomicBoolean passesDone = new AtomicBoolean();
+		final AtomicReference<RuntimeException> readFailure = new AtomicReference<RuntimeException>();
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Random random = new Random(7);
+				try {
+					while (!passesDone.get() && !readResult.isFull()) {
+						readResult.begin(readerStore);
+						readerStore.getNextEvent(nowMillis + random.nextInt(RecurrenceUtil.WEEK_MS));
+						readResult.end(readerStore);
+					}
+				} catch (RuntimeException e) {
+					readFailure.set(e);
+				}
+			}
+		});
+
+		long passMillis = nowMillis;
+		try {
+			reader.start();
+			Result passResult = new Result("updateScheduleStatesWithReader", size, iterations);
+			for (int i = 0; i < iterations; i++) {
+				passMillis += RecurrenceUtil.HOUR_MS;
+				passResult.begin(store);
+				engine.reconcile(null, true, passMillis);
+				passResult.end(store);
+			}
+			passesDone.set(true);
+			reader.join();
+			if (readFailure.get() != null) {
+				throw readFailure.get();
+			}
+			report(passResult);
+			report(readResult);
+		} finally {
+			passesDone.set(true);
+			reader.join();
+			readerStore.close();
+		}
+		return passMillis;
+	}
+
+	/*
+	 * Fills the database with size schedules in groups. Returns the number of groups.
+	 */
+	private int fill(JdbcScheduleStore store, int size) {
+		int groupCount = (size + GROUP_SIZE - 1) / GROUP_SIZE;
+		List<ScheduleAndEventsToAdd> batch = new ArrayList<ScheduleAndEventsToAdd>();
+		for (int group = 0; group < groupCount; group++) {
+			long groupId = store.addScheduleGroup(groupTag(group));
+			int count = Math.min(GROUP_SIZE, size - group * GROUP_SIZE);
+			batch.addAll(createBatch(groupId, count, BenchmarkInputs.NOW_MILLIS));
+
+			if (batch.size() >= FILL_BATCH_SIZE) {
+				store.addMultipleScheduleAndEvents(batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			store.addMultipleScheduleAndEvents(batch);
+		}
+		return groupCount;
+	}
+
+	private List<ScheduleAndEventsToAdd> createBatch(long groupId, int count, long nowMillis) {
+		List<ScheduleAndEventsToAdd> batch = new ArrayList<ScheduleAndEventsToAdd>(count);
+		for (int i = 0; i < count; i++) {
+			Schedule schedule = createSchedule(groupId);
+			batch.add(new ScheduleAndEventsToAdd(schedule, createEvents(schedule, nowMillis), true));
+		}
+		return batch;
+	}
+
+	/*
+	 * Creates a daily or weekly schedule that starts at a random time in the past week
+	 */
+	private Schedule createSchedule(long groupId) {
+		int repeatType = m_random.nextInt(4) == 0 ? RecurrenceUtil.REPEAT_TYPE_WEEKLY :
+				RecurrenceUtil.REPEAT_TYPE_DAILY;
+		long startTimeMillis = BenchmarkInputs.NOW_MILLIS - m_random.nextInt(RecurrenceUtil.WEEK_MS);
+		int duration = 15 + m_random.nextInt(240);
+
+		Schedule schedule = new Schedule(startTimeMillis, duration, repeatType,
+				"schedule" + m_random.nextInt(Integer.MAX_VALUE));
+		schedule.setGroupId(groupId);
+		return schedule;
+	}
+
+	private static List<Event> createEvents(Schedule schedule, long nowMillis) {
+		return RecurrenceUtil.createStartAndStopEvents(schedule.getStartTimeMillis(),
+				schedule.getDuration(), schedule.getRepeatType(), nowMillis);
+	}
+
+	private static String groupTag(int index) {
+		return "group" + index;
+	}
+
+	private void report(Result result) {
+		if (!m_warmingUp) {
+			m_results.add(result);
+			System.out.println(result);
+		}
+	}
+
+	private void writeResults(File file) throws IOException {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"date\": \"").append(format.format(new Date())).append("\",\n");
+		json.append("  \"java\": \"").append(System.getProperty("java.version")).append("\",\n");
+		json.append("  \"sqlite\": \"").append(m_sqliteVersion).append("\",\n");
+		json.append("  \"results\": [\n");
+		for (int i = 0; i < m_results.size(); i++) {
+			json.append("    ").append(m_results.get(i).toJson());
+			json.append(i < m_results.size() - 1 ? ",\n" : "\n");
+		}
+		json.append("  ]\n");
+		json.append("}\n");
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Can't create " + parent);
+		}
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(json.toString());
+		} finally {
+			writer.close();
+		}
+		System.out.println("Results saved to " + file);
+	}
+
+	private static void deleteDatabase(File databaseFile) {
+		String path = databaseFile.getPath();
+		for (String suffix : new String[]{"", "-wal", "-shm"}) {
+			File file = new File(path + suffix);
+			if (file.exists() && !file.delete()) {
+				System.err.println("Can't delete " + file);
+			}
+		}
+	}
+
+	/*
+	 * Latencies and row counts of one operation at one size
+	 */
+	private static final class Result {
+		private final String m_operation;
+		private final int m_size;
+		private final long[] m_latencyNanos;
+		private int m_count;
+		private long m_rowsRead;
+		private long m_rowsWritten;
+
+		private long m_startNanos;
+		private long m_startRowsRead;
+		private long m_startRowsWritten;
+
+		Result(String operation, int size, int iterations) {
+			m_operation = operation;
+			m_size = size;
+			m_latencyNanos = new long[iterations];
+		}
+
+		void begin(JdbcScheduleStore store) {
+			m_startRowsRead = store.getRowsRead();
+			m_startRowsWritten = store.getRowsWritten();
+			m_startNanos = System.nanoTime();
+		}
+
+		void end(JdbcScheduleStore store) {
+			m_latencyNanos[m_count++] = System.nanoTime() - m_startNanos;
+			m_rowsRead += store.getRowsRead() - m_startRowsRead;
+			m_rowsWritten += store.getRowsWritten() - m_startRowsWritten;
+		}
+
+		boolean isFull() {
+			return m_count == m_latencyNanos.length;
+		}
+
+		void addRowsWritten(long rows) {
+			m_rowsWritten += rows;
+		}
+
+		double getOpsPerSecond() {
+			long totalNanos = 0;
+			for (int i = 0; i < m_count; i++) {
+				totalNanos += m_latencyNanos[i];
+			}
+			return totalNanos > 0 ? m_count * 1e9 / totalNanos : 0;
+		}
+
+		/*
+		 * Returns a latency percentile in microseconds, by the nearest rank method
+		 */
+		double getPercentileMicros(int percentile) {
+			if (m_count == 0) {
+				return 0;
+			}
+			long[] sorted = Arrays.copyOf(m_latencyNanos, m_count);
+			Arrays.sort(sorted);
+			int rank = (int)Math.ceil(percentile / 100.0 * m_count);
+			return sorted[Math.max(rank, 1) - 1] / 1000.0;
+		}
+
+		double getRowsReadPerOp() {
+			return m_count > 0 ? (double)m_rowsRead / m_count : 0;
+		}
+
+		double getRowsWrittenPerOp() {
+			return m_count > 0 ? (double)m_rowsWritten / m_count : 0;
+		}
+
+		String toJson() {
+			return String.format(Locale.US, "{\"operation\": \"%s\", \"schedules\": %d, " +
+					"\"iterations\": %d, \"opsPerSec\": %.1f, \"p50Micros\": %.1f, " +
+					"\"p99Micros\": %.1f, \"rowsReadPerOp\": %.1f, \"rowsWrittenPerOp\": %.1f}",
+					m_operation, m_size, m_count, getOpsPerSecond(), getPercentileMicros(50),
+					getPercentileMicros(99), getRowsReadPerOp(), getRowsWrittenPerOp());
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%-30s %7d schedules %10.1f ops/s  p50 %10.1f us  " +
+					"p99 %10.1f us  rows read %9.1f  written %9.1f",
+					m_operation, m_size, getOpsPerSecond(), getPercentileMicros(50),
+					getPercentileMicros(99), getRowsReadPerOp(), getRowsWrittenPerOp());
+		}
+	}
+}
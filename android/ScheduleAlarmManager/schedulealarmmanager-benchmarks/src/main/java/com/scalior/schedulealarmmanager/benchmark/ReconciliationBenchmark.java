@@ -0,0 +1,152 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.benchmark;
+
+import com.scalior.schedulealarmmanager.AlarmSink;
+import com.scalior.schedulealarmmanager.MemoryScheduleStore;
+import com.scalior.schedulealarmmanager.NextAlarmSnapshot;
+import com.scalior.schedulealarmmanager.ReconciliationEngine;
+import com.scalior.schedulealarmmanager.RecurrenceUtil;
+import com.scalior.schedulealarmmanager.model.Schedule;
+import com.scalior.schedulealarmmanager.util.LongHashSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of whole reconciliation passes on the in-memory store of the core tests, in groups
+ * of GROUP_SIZE schedules. The schedules are daily or weekly and started during the past week, as in
+ * PersistenceBenchmark. Time moves forward with every pass, so each pass advances the events
+ * that expired since the previous one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReconciliationBenchmark {
+
+	private static final int GROUP_SIZE = 10;
+
+	private static final AlarmSink NO_ALARMS = new AlarmSink() {
+		@Override
+		public void setAlarm(long alarmTimeMillis) {
+		}
+
+		@Override
+		public void cancelAlarm() {
+		}
+	};
+
+	@Param({"100", "1000", "10000"})
+	public int schedules;
+
+	private ReconciliationEngine m_engine;
+	private long[] m_scheduleIds;
+	private final LongHashSet m_changedSchedules = new LongHashSet();
+	private final Random m_random = new Random(42);
+	private long m_nowMillis;
+
+	@Setup
+	public void setUp() {
+		m_nowMillis = BenchmarkInputs.NOW_MILLIS;
+		MemoryScheduleStore store = new MemoryScheduleStore();
+		m_scheduleIds = new long[schedules];
+		long groupId = 0;
+		for (int i = 0; i < schedules; i++) {
+			if (i % GROUP_SIZE == 0) {
+				groupId = store.addGroup("group" + i / GROUP_SIZE);
+			}
+			Schedule schedule = createSchedule();
+			store.addSchedule(schedule, groupId, m_nowMillis);
+			m_scheduleIds[i] = schedule.getId();
+		}
+
+		m_engine = new ReconciliationEngine(store, NO_ALARMS);
+		m_engine.reconcile(null, true, m_nowMillis);
+	}
+
+	/*
+	 * The pass run at startup and when the time or time zone changes, an hour after the last
+	 */
+	@Benchmark
+	public NextAlarmSnapshot fullPass() {
+		m_nowMillis += RecurrenceUtil.HOUR_MS;
+		m_engine.reconcile(null, true, m_nowMillis);
+		return m_engine.getNextAlarmSnapshot();
+	}
+
+	/*
+	 * The pass run when the alarm goes off: only the due events are loaded and advanced
+	 */
+	@Benchmark
+	public NextAlarmSnapshot alarmPass() {
+		long alarmTimeMillis = m_engine.getNextAlarmSnapshot().getNextAlarmTimeMillis();
+		m_nowMillis = Math.max(m_nowMillis, alarmTimeMillis) + RecurrenceUtil.MINUTE_MS;
+		m_engine.reconcile(null, false, m_nowMillis);
+		return m_engine.getNextAlarmSnapshot();
+	}
+
+	/*
+	 * A pass that finds nothing to do: no event is due and no schedule changed. The engine
+	 * and the store allocate nothing for it.
+	 */
+	@Benchmark
+	public NextAlarmSnapshot noChangePass() {
+		m_engine.reconcile(null, false, m_nowMillis);
+		return m_engine.getNextAlarmSnapshot();
+	}
+
+	/*
+	 * The pass run after the app changed a schedule
+	 */
+	@Benchmark
+	public NextAlarmSnapshot changedSchedulePass() {
+		m_changedSchedules.clear();
+		m_changedSchedules.add(m_scheduleIds[m_random.nextInt(m_scheduleIds.length)]);
+		m_engine.reconcile(m_changedSchedules, false, m_nowMillis);
+		return m_engine.getNextAlarmSnapshot();
+	}
+
+
+	private Schedule createSchedule() {
+		int repeatType = m_random.nextInt(4) == 0 ? RecurrenceUtil.REPEAT_TYPE_WEEKLY :
+				RecurrenceUtil.REPEAT_TYPE_DAILY;
+		long startTimeMillis = BenchmarkInputs.NOW_MILLIS - m_random.nextInt(RecurrenceUtil.WEEK_MS);
+		int duration = 15 + m_random.nextInt(240);
+		return new Schedule(startTimeMillis, duration, repeatType, "schedule" + m_random.nextInt());
+	}
+}
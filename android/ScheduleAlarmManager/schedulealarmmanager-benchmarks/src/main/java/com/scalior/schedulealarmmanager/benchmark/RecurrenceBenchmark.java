@@ -0,0 +1,100 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.benchmark;
+
+import com.scalior.schedulealarmmanager.RecurrenceUtil;
+import com.scalior.schedulealarmmanager.model.Event;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the recurrence arithmetic that runs when a schedule is added or updated
+ * and on every pass that advances an event.
+ *
+ * periodsBehind is how far the start time lags the reference time: 1 is the usual case of an
+ * event that just expired, 10000 is a schedule whose start time was never moved forward.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecurrenceBenchmark {
+
+	@Param({"HOURLY", "DAILY", "WEEKLY", "MONTHLY", "YEARLY"})
+	public String repeatType;
+
+	@Param({"1", "10000"})
+	public int periodsBehind;
+
+	private int m_repeatType;
+	private long m_startTimeMillis;
+	private long m_endTimeMillis;
+	private long m_nowMillis;
+
+	@Setup
+	public void setUp() {
+		m_repeatType = BenchmarkInputs.repeatType(repeatType);
+		m_nowMillis = BenchmarkInputs.NOW_MILLIS;
+
+		// The start has moved to the current interval but the end was left behind
+		m_startTimeMillis = RecurrenceUtil.getNextOccurrence(
+				BenchmarkInputs.staleStartTime(m_repeatType, periodsBehind), m_repeatType,
+				m_nowMillis);
+		m_endTimeMillis = BenchmarkInputs.staleStartTime(m_repeatType, periodsBehind) +
+				BenchmarkInputs.DURATION_MINUTES * RecurrenceUtil.MINUTE_MS;
+	}
+
+	@Benchmark
+	public long getNextOccurrence() {
+		return RecurrenceUtil.getNextOccurrence(
+				BenchmarkInputs.staleStartTime(m_repeatType, periodsBehind), m_repeatType,
+				m_nowMillis);
+	}
+
+	@Benchmark
+	public List<Event> createStartAndStopEvents() {
+		return RecurrenceUtil.createStartAndStopEvents(
+				BenchmarkInputs.staleStartTime(m_repeatType, periodsBehind),
+				BenchmarkInputs.DURATION_MINUTES, m_repeatType, m_nowMillis);
+	}
+
+	@Benchmark
+	public int getDurationMinutes() {
+		return RecurrenceUtil.getDurationMinutes(m_startTimeMillis, m_endTimeMillis, m_repeatType);
+	}
+}
@@ -0,0 +1,86 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.benchmark;
+
+import com.scalior.schedulealarmmanager.ReconciliationEngine;
+import com.scalior.schedulealarmmanager.RecurrenceUtil;
+import com.scalior.schedulealarmmanager.model.Event;
+import com.scalior.schedulealarmmanager.model.StateCode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the state computation done for every event visited by a reconciliation pass.
+ * The events are at their next occurrence, as they are after the pass advanced them.
+ * A start event is the expensive case since it steps back one interval on a calendar.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StateBenchmark {
+
+	@Param({"HOURLY", "DAILY", "WEEKLY", "MONTHLY", "YEARLY"})
+	public String repeatType;
+
+	@Param({"ON", "OFF"})
+	public String eventState;
+
+	private int m_repeatType;
+	private long m_nowMillis;
+	private Event m_event;
+
+	@Setup
+	public void setUp() {
+		m_repeatType = BenchmarkInputs.repeatType(repeatType);
+		m_nowMillis = BenchmarkInputs.NOW_MILLIS;
+
+		long startTimeMillis = BenchmarkInputs.staleStartTime(m_repeatType, 1);
+		int stateCode = StateCode.fromString(eventState);
+		if (stateCode == StateCode.OFF) {
+			startTimeMillis += BenchmarkInputs.DURATION_MINUTES * RecurrenceUtil.MINUTE_MS;
+		}
+		m_event = new Event(1, RecurrenceUtil.getNextOccurrence(startTimeMillis, m_repeatType,
+				m_nowMillis), stateCode);
+	}
+
+	@Benchmark
+	public int getCurrentStateCode() {
+		return ReconciliationEngine.getCurrentStateCode(m_event, m_repeatType,
+				BenchmarkInputs.DURATION_MINUTES, m_nowMillis);
+	}
+}
@@ -0,0 +1,240 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+import com.scalior.schedulealarmmanager.modelholder.ScheduleEvent;
+import com.scalior.schedulealarmmanager.util.LongObjectMap;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An indexed min-heap of events ordered by alarm time, then by event id.
+ * Events are indexed by event id so that a rescheduled event can be moved in place or removed
+ * in O(log n).
+ *
+ * The alarm time is captured when an event is offered, so later changes to the event object
+ * have no effect on the ordering until the event is offered again.
+ */
+class EventHeap {
+
+	private static class Entry {
+		ScheduleEvent m_scheduleEvent;
+		long m_alarmTimeMillis;
+		int m_position;
+
+		Entry(ScheduleEvent scheduleEvent, long alarmTimeMillis) {
+			m_scheduleEvent = scheduleEvent;
+			m_alarmTimeMillis = alarmTimeMillis;
+		}
+
+		long getEventId() {
+			return m_scheduleEvent.getEvent().getId();
+		}
+	}
+
+	private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry lhs, Entry rhs) {
+			return isBefore(lhs, rhs) ? -1 : (isBefore(rhs, lhs) ? 1 : 0);
+		}
+	};
+
+	private final ArrayList<Entry> m_heap;
+	private final LongObjectMap<Entry> m_byEventId;
+
+	EventHeap() {
+		m_heap = new ArrayList<Entry>();
+		m_byEventId = new LongObjectMap<Entry>();
+	}
+
+	/**
+	 * Description:
+	 *  Adds an event to the heap, or moves it if an event with the same id is already in it.
+	 *  Runs in O(log n).
+	 */
+	void offer(ScheduleEvent scheduleEvent) {
+		long alarmTimeMillis = scheduleEvent.getEvent().getAlarmTimeMillis();
+		Entry entry = m_byEventId.get(scheduleEvent.getEvent().getId());
+
+		if (entry != null) {
+			entry.m_scheduleEvent = scheduleEvent;
+			long previousAlarmTimeMillis = entry.m_alarmTimeMillis;
+			entry.m_alarmTimeMillis = alarmTimeMillis;
+			if (alarmTimeMillis < previousAlarmTimeMillis) {
+				siftUp(entry.m_position);
+			} else {
+				siftDown(entry.m_position);
+			}
+			return;
+		}
+
+		entry = new Entry(scheduleEvent, alarmTimeMillis);
+		m_byEventId.put(entry.getEventId(), entry);
+		entry.m_position = m_heap.size();
+		m_heap.add(entry);
+		siftUp(entry.m_position);
+	}
+
+	/**
+	 * Description:
+	 *  Removes the event with the given id. Runs in O(log n).
+	 *  @return true if the event was in the heap
+	 */
+	boolean remove(long eventId) {
+		Entry entry = m_byEventId.remove(eventId);
+		if (entry == null) {
+			return false;
+		}
+		removeAt(entry.m_position);
+		return true;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the event with the earliest alarm time, or null if the heap is empty.
+	 */
+	ScheduleEvent peek() {
+		return m_heap.isEmpty() ? null : m_heap.get(0).m_scheduleEvent;
+	}
+
+	/**
+	 * Description:
+	 *  Returns up to count events in order of alarm time, without removing them.
+	 *  Only the part of the heap above the returned events is visited, so this runs in
+	 *  O(count log count) whatever the size of the heap.
+	 */
+	List<ScheduleEvent> peek(int count) {
+		int resultSize = Math.min(count, m_heap.size());
+		List<ScheduleEvent> scheduleEvents = new ArrayList<ScheduleEvent>(Math.max(resultSize, 0));
+		if (resultSize <= 0) {
+			return scheduleEvents;
+		}
+
+		// The next event in order is always the root, or a child of an event already returned
+		PriorityQueue<Entry> frontier = new PriorityQueue<Entry>(2 * resultSize, ENTRY_ORDER);
+		frontier.add(m_heap.get(0));
+		while (scheduleEvents.size() < resultSize) {
+			Entry entry = frontier.poll();
+			scheduleEvents.add(entry.m_scheduleEvent);
+
+			int childPosition = 2 * entry.m_position + 1;
+			if (childPosition < m_heap.size()) {
+				frontier.add(m_heap.get(childPosition));
+			}
+			if (childPosition + 1 < m_heap.size()) {
+				frontier.add(m_heap.get(childPosition + 1));
+			}
+		}
+		return scheduleEvents;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the schedule ids of the events in the heap. A schedule with several events
+	 *  appears several times.
+	 */
+	long[] getScheduleIds() {
+		long[] scheduleIds = new long[m_heap.size()];
+		for (int i = 0; i < scheduleIds.length; i++) {
+			scheduleIds[i] = m_heap.get(i).m_scheduleEvent.getScheduleId();
+		}
+		return scheduleIds;
+	}
+
+	void clear() {
+		m_heap.clear();
+		m_byEventId.clear();
+	}
+
+	int size() {
+		return m_heap.size();
+	}
+
+	boolean isEmpty() {
+		return m_heap.isEmpty();
+	}
+
+
+	private void removeAt(int position) {
+		int lastPosition = m_heap.size() - 1;
+		Entry last = m_heap.remove(lastPosition);
+		if (position == lastPosition) {
+			return;
+		}
+
+		last.m_position = position;
+		m_heap.set(position, last);
+		siftDown(position);
+		siftUp(last.m_position);
+	}
+
+	private void siftUp(int position) {
+		Entry entry = m_heap.get(position);
+		while (position > 0) {
+			int parentPosition = (position - 1) >>> 1;
+			Entry parent = m_heap.get(parentPosition);
+			if (!isBefore(entry, parent)) {
+				break;
+			}
+			parent.m_position = position;
+			m_heap.set(position, parent);
+			position = parentPosition;
+		}
+		entry.m_position = position;
+		m_heap.set(position, entry);
+	}
+
+	private void siftDown(int position) {
+		Entry entry = m_heap.get(position);
+		int size = m_heap.size();
+		while (true) {
+			int childPosition = 2 * position + 1;
+			if (childPosition >= size) {
+				break;
+			}
+			Entry child = m_heap.get(childPosition);
+			if (childPosition + 1 < size && isBefore(m_heap.get(childPosition + 1), child)) {
+				childPosition++;
+				child = m_heap.get(childPosition);
+			}
+			if (!isBefore(child, entry)) {
+				break;
+			}
+			child.m_position = position;
+			m_heap.set(position, child);
+			position = childPosition;
+		}
+		entry.m_position = position;
+		m_heap.set(position, entry);
+	}
+
+	private static boolean isBefore(Entry a, Entry b) {
+		if (a.m_alarmTimeMillis != b.m_alarmTimeMillis) {
+			return a.m_alarmTimeMillis < b.m_alarmTimeMillis;
+		}
+		return a.getEventId() < b.getEventId();
+	}
+}
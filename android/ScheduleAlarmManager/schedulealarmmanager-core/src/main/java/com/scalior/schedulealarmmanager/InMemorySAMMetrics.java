@@ -0,0 +1,236 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+import com.scalior.schedulealarmmanager.util.Histogram;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SAMMetrics that keeps totals and histograms in memory, to be read or dumped by the
+ * application, for instance into a bug report or an analytics event.
+ * Recording doesn't allocate. All methods are thread safe.
+ */
+public class InMemorySAMMetrics implements SAMMetrics {
+	private final AtomicLong m_passCount;
+	private final AtomicLong m_fullPassCount;
+	private final AtomicLong m_eventsScanned;
+	private final AtomicLong m_eventsAdvanced;
+	private final AtomicLong m_schedulesChanged;
+	private final AtomicLong m_groupsWritten;
+	private final AtomicLong m_statementCount;
+	private final AtomicLong m_rowsWritten;
+	private final AtomicLong m_callbackCount;
+	private final AtomicLong m_alarmsArmed;
+	private final AtomicLong m_alarmsCancelled;
+
+	private final Histogram m_passDurations;
+	private final Histogram m_eventsScannedPerPass;
+	private final Histogram m_callbackDurations;
+
+	public InMemorySAMMetrics() {
+		m_passCount = new AtomicLong();
+		m_fullPassCount = new AtomicLong();
+		m_eventsScanned = new AtomicLong();
+		m_eventsAdvanced = new AtomicLong();
+		m_schedulesChanged = new AtomicLong();
+		m_groupsWritten = new AtomicLong();
+		m_statementCount = new AtomicLong();
+		m_rowsWritten = new AtomicLong();
+		m_callbackCount = new AtomicLong();
+		m_alarmsArmed = new AtomicLong();
+		m_alarmsCancelled = new AtomicLong();
+
+		m_passDurations = new Histogram();
+		m_eventsScannedPerPass = new Histogram();
+		m_callbackDurations = new Histogram();
+	}
+
+	@Override
+	public void onPass(boolean fullPass, long durationNanos, int eventsScanned,
+	                   int eventsAdvanced, int schedulesChanged, int groupsWritten) {
+		m_passCount.incrementAndGet();
+		if (fullPass) {
+			m_fullPassCount.incrementAndGet();
+		}
+		m_eventsScanned.addAndGet(eventsScanned);
+		m_eventsAdvanced.addAndGet(eventsAdvanced);
+		m_schedulesChanged.addAndGet(schedulesChanged);
+		m_groupsWritten.addAndGet(groupsWritten);
+		m_passDurations.record(durationNanos);
+		m_eventsScannedPerPass.record(eventsScanned);
+	}
+
+	@Override
+	public void onStatement(int rowsWritten) {
+		m_statementCount.incrementAndGet();
+		if (rowsWritten > 0) {
+			m_rowsWritten.addAndGet(rowsWritten);
+		}
+	}
+
+	@Override
+	public void onCallback(long durationNanos, int schedules) {
+		m_callbackCount.incrementAndGet();
+		m_callbackDurations.record(durationNanos);
+	}
+
+	@Override
+	public void onAlarmArmed(long alarmTimeMillis) {
+		m_alarmsArmed.incrementAndGet();
+	}
+
+	@Override
+	public void onAlarmCancelled() {
+		m_alarmsCancelled.incrementAndGet();
+	}
+
+	public long getPassCount() {
+		return m_passCount.get();
+	}
+
+	public long getFullPassCount() {
+		return m_fullPassCount.get();
+	}
+
+	public long getEventsScanned() {
+		return m_eventsScanned.get();
+	}
+
+	public long getEventsAdvanced() {
+		return m_eventsAdvanced.get();
+	}
+
+	public long getSchedulesChanged() {
+		return m_schedulesChanged.get();
+	}
+
+	public long getGroupsWritten() {
+		return m_groupsWritten.get();
+	}
+
+	public long getStatementCount() {
+		return m_statementCount.get();
+	}
+
+	public long getRowsWritten() {
+		return m_rowsWritten.get();
+	}
+
+	public long getCallbackCount() {
+		return m_callbackCount.get();
+	}
+
+	public long getAlarmsArmed() {
+		return m_alarmsArmed.get();
+	}
+
+	public long getAlarmsCancelled() {
+		return m_alarmsCancelled.get();
+	}
+
+	/**
+	 * Description:
+	 *  Returns the durations of the passes in nanoseconds
+	 */
+	public Histogram getPassDurations() {
+		return m_passDurations;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the number of events visited by each pass
+	 */
+	public Histogram getEventsScannedPerPass() {
+		return m_eventsScannedPerPass;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the time spent in the callbacks of the application in nanoseconds
+	 */
+	public Histogram getCallbackDurations() {
+		return m_callbackDurations;
+	}
+
+	/**
+	 * Description:
+	 *  Sets every total and histogram back to zero. Values recorded while this runs may be
+	 *  partly cleared.
+	 */
+	public void reset() {
+		m_passCount.set(0);
+		m_fullPassCount.set(0);
+		m_eventsScanned.set(0);
+		m_eventsAdvanced.set(0);
+		m_schedulesChanged.set(0);
+		m_groupsWritten.set(0);
+		m_statementCount.set(0);
+		m_rowsWritten.set(0);
+		m_callbackCount.set(0);
+		m_alarmsArmed.set(0);
+		m_alarmsCancelled.set(0);
+
+		m_passDurations.clear();
+		m_eventsScannedPerPass.clear();
+		m_callbackDurations.clear();
+	}
+
+	/**
+	 * Description:
+	 *  Returns a human readable summary of the metrics, one line per metric
+	 */
+	public String dump() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format(Locale.US, "passes: %d (%d full)\n",
+				getPassCount(), getFullPassCount()));
+		builder.append("pass duration: ").append(formatDurations(m_passDurations)).append('\n');
+		builder.append(String.format(Locale.US,
+				"events scanned: %d (p50 <= %d, p99 <= %d, max %d per pass)\n",
+				getEventsScanned(), m_eventsScannedPerPass.getPercentile(50),
+				m_eventsScannedPerPass.getPercentile(99), m_eventsScannedPerPass.getMax()));
+		builder.append(String.format(Locale.US, "events advanced: %d\n", getEventsAdvanced()));
+		builder.append(String.format(Locale.US, "schedules changed: %d\n", getSchedulesChanged()));
+		builder.append(String.format(Locale.US, "groups written: %d\n", getGroupsWritten()));
+		builder.append(String.format(Locale.US, "sql statements: %d\n", getStatementCount()));
+		builder.append(String.format(Locale.US, "rows written: %d\n", getRowsWritten()));
+		builder.append(String.format(Locale.US, "callbacks: %d\n", getCallbackCount()));
+		builder.append("callback duration: ").append(formatDurations(m_callbackDurations))
+				.append('\n');
+		builder.append(String.format(Locale.US, "alarms armed: %d, cancelled: %d\n",
+				getAlarmsArmed(), getAlarmsCancelled()));
+		return builder.toString();
+	}
+
+	@Override
+	public String toString() {
+		return dump();
+	}
+
+	private static String formatDurations(Histogram durations) {
+		return String.format(Locale.US, "mean %.3f ms, p50 <= %.3f ms, p99 <= %.3f ms, max %.3f ms",
+				durations.getMean() / 1e6, durations.getPercentile(50) / 1e6,
+				durations.getPercentile(99) / 1e6, durations.getMax() / 1e6);
+	}
+}
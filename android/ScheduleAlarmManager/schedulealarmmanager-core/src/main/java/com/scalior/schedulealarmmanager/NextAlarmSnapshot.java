@@ -0,0 +1,119 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The next alarm, overall and for each group, as of the end of the last reconciliation pass.
+ * A new snapshot is published after every pass that changes one of these alarms. Snapshots are
+ * immutable, so all the values read from one snapshot are consistent with each other, and the
+ * alarms that did not change are shared with the previous snapshot. Reading a snapshot is O(1),
+ * never allocates and never accesses the database.
+ *
+ * An alarm in a snapshot may already be in the past if it has gone off and the pass that handles
+ * it has not run yet.
+ */
+public final class NextAlarmSnapshot {
+
+	public static final long NO_ALARM = -1;
+
+	static final NextAlarmSnapshot EMPTY =
+			new NextAlarmSnapshot(null, Collections.<String, UpcomingAlarm>emptyMap());
+
+	private final UpcomingAlarm m_nextAlarm;
+	private final Map<String, UpcomingAlarm> m_nextAlarmByGroupTag;
+
+	/*
+	 * The map is owned by the snapshot from now on and must not be changed by the caller.
+	 * It may be shared with later snapshots.
+	 */
+	NextAlarmSnapshot(UpcomingAlarm nextAlarm, Map<String, UpcomingAlarm> nextAlarmByGroupTag) {
+		m_nextAlarm = nextAlarm;
+		m_nextAlarmByGroupTag = nextAlarmByGroupTag;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the next alarm across all schedules, or null if there is none
+	 */
+	public UpcomingAlarm getNextAlarm() {
+		return m_nextAlarm;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the next alarm of the schedules in a group, or null if there is none.
+	 *  @param groupTag - The group tag. If null, the next alarm across all schedules is returned.
+	 */
+	public UpcomingAlarm getNextAlarm(String groupTag) {
+		if (groupTag == null) {
+			return m_nextAlarm;
+		}
+		return m_nextAlarmByGroupTag.get(groupTag);
+	}
+
+	/**
+	 * Description:
+	 *  Returns the earliest of the next alarms of several groups, or null if none of them has one.
+	 *  Runs in O(number of groups given).
+	 *  @param groupTags - The group tags. Tags of unknown groups are ignored.
+	 */
+	public UpcomingAlarm getNextAlarmForGroups(String... groupTags) {
+		UpcomingAlarm earliest = null;
+		for (String groupTag : groupTags) {
+			UpcomingAlarm nextAlarm = groupTag != null ? m_nextAlarmByGroupTag.get(groupTag) : null;
+			if (nextAlarm != null && (earliest == null ||
+					nextAlarm.getAlarmTimeMillis() < earliest.getAlarmTimeMillis())) {
+				earliest = nextAlarm;
+			}
+		}
+		return earliest;
+	}
+
+	/*
+	 * Returns the next alarm of each group, keyed by group tag. The map must not be changed.
+	 */
+	Map<String, UpcomingAlarm> getNextAlarmByGroupTag() {
+		return m_nextAlarmByGroupTag;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the time of the next alarm across all schedules, or NO_ALARM if there is none
+	 */
+	public long getNextAlarmTimeMillis() {
+		return m_nextAlarm != null ? m_nextAlarm.getAlarmTimeMillis() : NO_ALARM;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the time of the next alarm of the schedules in a group, or NO_ALARM if there is none
+	 *  @param groupTag - The group tag. If null, the next alarm across all schedules is used.
+	 */
+	public long getNextAlarmTimeMillis(String groupTag) {
+		UpcomingAlarm nextAlarm = getNextAlarm(groupTag);
+		return nextAlarm != null ? nextAlarm.getAlarmTimeMillis() : NO_ALARM;
+	}
+}
@@ -0,0 +1,477 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+import com.scalior.schedulealarmmanager.model.Event;
+import com.scalior.schedulealarmmanager.model.Schedule;
+import com.scalior.schedulealarmmanager.model.ScheduleGroupInfo;
+import com.scalior.schedulealarmmanager.model.StateCode;
+import com.scalior.schedulealarmmanager.modelholder.ScheduleEvent;
+import com.scalior.schedulealarmmanager.util.LongHashSet;
+import com.scalior.schedulealarmmanager.util.LongObjectMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The reconciliation engine: it advances the events that are due, recomputes the states of
+ * the schedules they belong to, writes the outcome back to a ScheduleStore and hands the
+ * next alarm to an AlarmSink.
+ * It keeps the upcoming events in memory, so a pass only loads the events that are due and
+ * the events of the schedules that changed.
+ *
+ * Concurrency model:
+ *  Passes, the methods that change the upcoming events and the methods that read them must be
+ *  called one at a time. The Android library calls them with the AlarmProcessingUtil lock held.
+ *  The next alarm snapshot is published through an atomic reference, so it can be read from
+ *  any thread.
+ */
+public class ReconciliationEngine {
+	private final ScheduleStore m_store;
+	private final AlarmSink m_alarmSink;
+
+	private final UpcomingEventQueue m_eventQueue;
+	private boolean m_eventQueueLoaded;
+
+	private final AtomicReference<NextAlarmSnapshot> m_nextAlarmSnapshot;
+	private volatile int m_lastPassRowsWritten;
+	private volatile SAMMetrics m_metrics;
+
+	// Working sets of a pass. They are cleared and reused by every pass.
+	private final LongObjectMap<Schedule> m_changedScheduleMap;
+	private final LongHashSet m_unchangedScheduleIds;
+	private final List<Event> m_eventsToWrite;
+	private final List<Schedule> m_schedulesToWrite;
+	private final List<ScheduleEvent> m_eventsToReconcile;
+
+	public ReconciliationEngine(ScheduleStore store, AlarmSink alarmSink) {
+		m_store = store;
+		m_alarmSink = alarmSink;
+		m_eventQueue = new UpcomingEventQueue();
+		m_eventQueueLoaded = false;
+		m_nextAlarmSnapshot = new AtomicReference<NextAlarmSnapshot>(NextAlarmSnapshot.EMPTY);
+		m_metrics = SAMMetrics.NONE;
+
+		m_changedScheduleMap = new LongObjectMap<Schedule>();
+		m_unchangedScheduleIds = new LongHashSet();
+		m_eventsToWrite = new ArrayList<Event>();
+		m_schedulesToWrite = new ArrayList<Schedule>();
+		m_eventsToReconcile = new ArrayList<ScheduleEvent>();
+	}
+
+	/**
+	 * Description:
+	 *  Runs a reconciliation pass, either over all events or incrementally over the events
+	 *  that are due and the events of the changed schedules. A schedule only changes state
+	 *  when one of its events is due, so no other schedule is affected.
+	 *  @param changedSchedules - The ids of schedules that changed outside of expired events.
+	 *                            They are reported as changed even if their state is the same.
+	 *  @param fullPass - If true, all events are visited and the upcoming events are rebuilt
+	 *  @param nowMillis - The time of the pass, in milliseconds since the epoch
+	 */
+	public void reconcile(LongHashSet changedSchedules, boolean fullPass, long nowMillis) {
+		SAMMetrics metrics = m_metrics;
+		long startNanos = metrics != SAMMetrics.NONE ? System.nanoTime() : 0;
+
+		// The working sets are reused, so a pass that changes nothing doesn't allocate them
+		LongObjectMap<Schedule> scheduleChangedMap = m_changedScheduleMap;
+		LongHashSet scheduleNotChangedIds = m_unchangedScheduleIds;
+		scheduleChangedMap.clear();
+		scheduleNotChangedIds.clear();
+
+		// Rows to write back at the end of the pass
+		List<Event> eventsToWrite = m_eventsToWrite;
+		List<Schedule> schedulesToWrite = m_schedulesToWrite;
+		eventsToWrite.clear();
+		schedulesToWrite.clear();
+
+		// A full pass rebuilds the queue of upcoming events. An incremental pass drops the
+		// events of the changed schedules, then queues whatever it loads for them.
+		if (fullPass) {
+			m_eventQueue.clear();
+		} else if (changedSchedules != null && !changedSchedules.isEmpty()) {
+			for (long scheduleId : changedSchedules.toArray()) {
+				m_eventQueue.removeSchedule(scheduleId);
+			}
+		}
+
+		List<ScheduleEvent> scheduleEvents = fullPass ?
+				m_store.getScheduleEvents() :
+				getEventsToReconcile(nowMillis, changedSchedules);
+		int eventsScanned = scheduleEvents != null ? scheduleEvents.size() : 0;
+		if (scheduleEvents != null) {
+			for (ScheduleEvent scheduleEvent : scheduleEvents) {
+				long scheduleId = scheduleEvent.getScheduleId();
+				boolean forceNotify = (changedSchedules != null &&
+						changedSchedules.contains(scheduleId));
+
+				// Update any expired events
+				Event event = scheduleEvent.getEvent();
+				if (event.getAlarmTimeMillis() <= nowMillis) {
+					event.setAlarmTimeMillis(RecurrenceUtil.getNextOccurrence(event.getAlarmTimeMillis(),
+							scheduleEvent.getRepeatType(), nowMillis));
+					eventsToWrite.add(event);
+				}
+
+				// If we have previously visited this schedule and its state
+				// wasn't changed, skip it
+				if (!scheduleNotChangedIds.contains(scheduleId)) {
+					Schedule changedSchedule = scheduleChangedMap.get(scheduleId);
+					if (changedSchedule != null) {
+						// The other events of the schedule loaded by this pass carry its
+						// previous state, so they share the schedule that was updated
+						scheduleEvent.setSchedule(changedSchedule);
+					} else {
+						int prevState = scheduleEvent.getScheduleStateCode();
+						int currState = getCurrentStateCode(event,
+								scheduleEvent.getRepeatType(),
+								scheduleEvent.getDuration(),
+								nowMillis);
+
+						if (!forceNotify && currState == prevState) {
+							scheduleNotChangedIds.add(scheduleId);
+						} else {
+							scheduleEvent.getSchedule().setStateCode(currState);
+							schedulesToWrite.add(scheduleEvent.getSchedule());
+							scheduleChangedMap.put(scheduleId, scheduleEvent.getSchedule());
+						}
+					}
+				}
+
+				// Queuing the event also hands its schedule to the queued events that
+				// were not loaded by this pass
+				m_eventQueue.offer(scheduleEvent);
+			}
+		}
+
+		int rowsWritten = m_store.writeReconciliation(eventsToWrite, schedulesToWrite);
+
+		// Final check that all the schedules marked as changed into this method are also
+		// reported as changed
+		if (changedSchedules != null && !changedSchedules.isEmpty()) {
+			for (long scheduleId : changedSchedules.toArray()) {
+				if (!scheduleChangedMap.containsKey(scheduleId)) {
+					Schedule schedule = m_store.getScheduleById(scheduleId);
+					if (schedule != null) {
+						scheduleChangedMap.put(scheduleId, schedule);
+					}
+				}
+			}
+		}
+
+		// Update groups with their current schedule state. The changed schedules were loaded
+		// before, so they are given the new state of their group.
+		int groupsWritten = m_store.updateGroupOverallStates();
+		if (groupsWritten > 0) {
+			attachCurrentGroupInfo(scheduleChangedMap);
+		}
+		rowsWritten += groupsWritten;
+		m_lastPassRowsWritten = rowsWritten;
+
+		m_eventQueueLoaded = true;
+		ScheduleEvent nextScheduleEvent = m_eventQueue.peek();
+		if (nextScheduleEvent != null) {
+			m_alarmSink.setAlarm(nextScheduleEvent.getEvent().getAlarmTimeMillis());
+			metrics.onAlarmArmed(nextScheduleEvent.getEvent().getAlarmTimeMillis());
+		} else {
+			m_alarmSink.cancelAlarm();
+			metrics.onAlarmCancelled();
+		}
+		NextAlarmSnapshot nextAlarmSnapshot = createNextAlarmSnapshot(nextScheduleEvent,
+				groupsWritten > 0);
+		if (nextAlarmSnapshot != m_nextAlarmSnapshot.get()) {
+			m_nextAlarmSnapshot.set(nextAlarmSnapshot);
+		}
+
+		if (metrics != SAMMetrics.NONE) {
+			metrics.onPass(fullPass, System.nanoTime() - startNanos, eventsScanned,
+					eventsToWrite.size(), scheduleChangedMap.size(), groupsWritten);
+		}
+	}
+
+	/**
+	 * Description:
+	 *  Sets the listener told about each pass and the alarms it arms
+	 *  @param metrics - The listener, or null for SAMMetrics.NONE
+	 */
+	public void setMetrics(SAMMetrics metrics) {
+		m_metrics = metrics != null ? metrics : SAMMetrics.NONE;
+	}
+
+	public SAMMetrics getMetrics() {
+		return m_metrics;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the schedules changed by the last pass, ordered by id.
+	 *  Call this before the next pass starts.
+	 */
+	public ScheduleStateBatch getChangedSchedules() {
+		return ScheduleStateBatch.of(m_changedScheduleMap);
+	}
+
+	/**
+	 * Description:
+	 *  Returns true once a pass has loaded the upcoming events. Until then, passes should be
+	 *  full passes.
+	 */
+	public boolean isEventQueueLoaded() {
+		return m_eventQueueLoaded;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the number of event, schedule and group rows written back by the last pass.
+	 */
+	public int getLastPassRowsWritten() {
+		return m_lastPassRowsWritten;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the next alarm overall and for each group, as of the end of the last pass.
+	 *  This can be called from any thread.
+	 */
+	public NextAlarmSnapshot getNextAlarmSnapshot() {
+		return m_nextAlarmSnapshot.get();
+	}
+
+	/**
+	 * Description:
+	 *  Returns the next alarms of a group in order, as of the end of the last pass.
+	 *  With a count of 1 or less, the alarm is read from the next alarm snapshot, so this can be
+	 *  called from any thread. A larger count reads the upcoming events, so it must be called
+	 *  one at a time with the passes.
+	 *  @param groupTag - The tag of the group
+	 *  @param count - The maximum number of alarms to return
+	 *  @return The alarms. The list is empty if the group has no upcoming alarm.
+	 */
+	public List<UpcomingAlarm> getNextAlarmsForGroup(String groupTag, int count) {
+		if (count <= 1) {
+			List<UpcomingAlarm> upcomingAlarms = new ArrayList<UpcomingAlarm>(1);
+			UpcomingAlarm nextAlarm = count == 1 && groupTag != null ?
+					m_nextAlarmSnapshot.get().getNextAlarm(groupTag) : null;
+			if (nextAlarm != null) {
+				upcomingAlarms.add(nextAlarm);
+			}
+			return upcomingAlarms;
+		}
+
+		List<ScheduleEvent> scheduleEvents = m_eventQueue.peek(groupTag, count);
+		List<UpcomingAlarm> upcomingAlarms = new ArrayList<UpcomingAlarm>(scheduleEvents.size());
+		for (ScheduleEvent scheduleEvent : scheduleEvents) {
+			upcomingAlarms.add(toUpcomingAlarm(scheduleEvent, null));
+		}
+		return upcomingAlarms;
+	}
+
+	/**
+	 * Description:
+	 *  Drops the upcoming events of a schedule whose events have been deleted.
+	 *  Call this before the next pass.
+	 *  @param scheduleId - The id of the schedule
+	 */
+	public void discardScheduleEvents(long scheduleId) {
+		m_eventQueue.removeSchedule(scheduleId);
+	}
+
+	/**
+	 * Description:
+	 *  Drops the upcoming events of all schedules in a group whose events have been deleted.
+	 *  Call this before the next pass.
+	 *  @param groupId - The id of the group
+	 */
+	public void discardGroupEvents(long groupId) {
+		m_eventQueue.removeGroup(groupId);
+	}
+
+	/**
+	 * Description:
+	 *  Computes the state of a schedule at a given time from one of its events.
+	 *  A stop event means the schedule is on if the stop is less than a duration away.
+	 *  A start event means the schedule is on if the previous start is less than a duration ago.
+	 *  @param event - An upcoming event of the schedule
+	 *  @param repeatType - The repeat type of the schedule
+	 *  @param duration - The duration of the schedule in minutes
+	 *  @param nowMillis - The time, in milliseconds since the epoch
+	 *  @return StateCode.ON or StateCode.OFF
+	 */
+	public static int getCurrentStateCode(Event event, int repeatType, int duration, long nowMillis) {
+		int currState = StateCode.ON; // Assume on
+
+		if (event.getStateCode() == StateCode.OFF) {
+			long diff = event.getAlarmTimeMillis() - nowMillis;
+
+			if (diff <= 0 || diff > duration * (long) RecurrenceUtil.MINUTE_MS) {
+				currState = StateCode.OFF;
+			}
+		} else if (event.getStateCode() == StateCode.ON) {
+			// Subtract a repeat interval to get the previous start time,
+			// then compare with duration
+			long prevStartTimeMillis = RecurrenceUtil.getPreviousOccurrence(
+					event.getAlarmTimeMillis(), repeatType);
+
+			if ((nowMillis - prevStartTimeMillis) >= duration * (long) RecurrenceUtil.MINUTE_MS) {
+				currState = StateCode.OFF;
+			}
+		}
+
+		return currState;
+	}
+
+
+	/*
+	 * Helper method to load the events visited by an incremental pass: the events that are
+	 * due, and all events of the changed schedules. Returns null if there are none.
+	 * Without changed schedules, the list from the store is returned as is. Otherwise the
+	 * events are gathered in a list that is reused by every pass.
+	 */
+	private List<ScheduleEvent> getEventsToReconcile(long nowMillis, LongHashSet changedSchedules) {
+		List<ScheduleEvent> expiredEvents = m_store.getExpiredEvents(nowMillis);
+		if (changedSchedules == null || changedSchedules.isEmpty()) {
+			return expiredEvents;
+		}
+
+		List<ScheduleEvent> scheduleEvents = m_eventsToReconcile;
+		scheduleEvents.clear();
+		if (expiredEvents != null) {
+			for (ScheduleEvent expiredEvent : expiredEvents) {
+				// Events of changed schedules are loaded below
+				if (!changedSchedules.contains(expiredEvent.getScheduleId())) {
+					scheduleEvents.add(expiredEvent);
+				}
+			}
+		}
+
+		List<ScheduleEvent> changedEvents =
+				m_store.getScheduleEventsByScheduleIds(changedSchedules.toArray());
+		if (changedEvents != null) {
+			scheduleEvents.addAll(changedEvents);
+		}
+
+		return scheduleEvents;
+	}
+
+	/*
+	 * Helper method to give schedules the current state of their group
+	 */
+	private void attachCurrentGroupInfo(LongObjectMap<Schedule> schedules) {
+		for (Schedule schedule : schedules.values()) {
+			Long groupId = schedule.getGroupId();
+			if (groupId != null) {
+				schedule.setGroupInfo(m_store.getScheduleGroupInfo(groupId));
+			}
+		}
+	}
+
+	/*
+	 * Helper method to capture the next alarm overall and for each group from the event queue.
+	 * Only the groups whose events changed are visited, unless the queue was rebuilt or the
+	 * group states changed. Alarms that hold the same values are taken from the previous
+	 * snapshot, and the previous snapshot is returned if nothing changed.
+	 */
+	private NextAlarmSnapshot createNextAlarmSnapshot(ScheduleEvent nextScheduleEvent,
+	                                                  boolean groupStatesChanged) {
+		NextAlarmSnapshot previousSnapshot = m_nextAlarmSnapshot.get();
+
+		// The next alarms only change with the queued events or the states of the groups
+		if (!m_eventQueue.hasChanged() && !groupStatesChanged) {
+			return previousSnapshot;
+		}
+
+		UpcomingAlarm nextAlarm = toUpcomingAlarm(nextScheduleEvent,
+				previousSnapshot.getNextAlarm());
+
+		Map<String, UpcomingAlarm> previousAlarms = previousSnapshot.getNextAlarmByGroupTag();
+		Map<String, UpcomingAlarm> nextAlarms = previousAlarms;
+		if (m_eventQueue.haveAllGroupsChanged() || groupStatesChanged) {
+			for (String groupTag : m_eventQueue.getGroupTags()) {
+				nextAlarms = updateGroupAlarm(groupTag, previousAlarms, nextAlarms);
+			}
+			for (String groupTag : previousAlarms.keySet()) {
+				if (!m_eventQueue.getGroupTags().contains(groupTag)) {
+					nextAlarms = updateGroupAlarm(groupTag, previousAlarms, nextAlarms);
+				}
+			}
+		} else {
+			for (String groupTag : m_eventQueue.getChangedGroupTags()) {
+				nextAlarms = updateGroupAlarm(groupTag, previousAlarms, nextAlarms);
+			}
+		}
+		m_eventQueue.clearChangedGroups();
+
+		if (nextAlarm == previousSnapshot.getNextAlarm() && nextAlarms == previousAlarms) {
+			return previousSnapshot;
+		} else if (nextAlarm == null && nextAlarms.isEmpty()) {
+			return NextAlarmSnapshot.EMPTY;
+		}
+		return new NextAlarmSnapshot(nextAlarm, nextAlarms);
+	}
+
+	/*
+	 * Helper method to bring the next alarm of a group up to date. The map of the previous
+	 * snapshot is copied the first time an alarm differs from it.
+	 * @return The map of the next snapshot
+	 */
+	private Map<String, UpcomingAlarm> updateGroupAlarm(String groupTag,
+	                                                    Map<String, UpcomingAlarm> previousAlarms,
+	                                                    Map<String, UpcomingAlarm> nextAlarms) {
+		UpcomingAlarm previousAlarm = previousAlarms.get(groupTag);
+		UpcomingAlarm nextAlarm = toUpcomingAlarm(m_eventQueue.peek(groupTag), previousAlarm);
+		if (nextAlarm == previousAlarm) {
+			return nextAlarms;
+		}
+
+		if (nextAlarms == previousAlarms) {
+			nextAlarms = new HashMap<String, UpcomingAlarm>(previousAlarms);
+		}
+		if (nextAlarm != null) {
+			nextAlarms.put(groupTag, nextAlarm);
+		} else {
+			nextAlarms.remove(groupTag);
+		}
+		return nextAlarms;
+	}
+
+	/*
+	 * Helper method to create the alarm of a queued event with the current state of its group,
+	 * or to reuse a previous alarm that holds the same values
+	 */
+	private UpcomingAlarm toUpcomingAlarm(ScheduleEvent scheduleEvent, UpcomingAlarm previousAlarm) {
+		if (scheduleEvent == null) {
+			return null;
+		}
+
+		Long groupId = scheduleEvent.getSchedule().getGroupId();
+		ScheduleGroupInfo groupInfo = groupId != null ?
+				m_store.getScheduleGroupInfo(groupId) : null;
+		if (previousAlarm != null && previousAlarm.isSameAs(scheduleEvent, groupInfo)) {
+			return previousAlarm;
+		}
+		return UpcomingAlarm.fromScheduleEvent(scheduleEvent, groupInfo);
+	}
+}
@@ -0,0 +1,313 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+import com.scalior.schedulealarmmanager.model.Event;
+import com.scalior.schedulealarmmanager.model.StateCode;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * Recurrence engine shared by the alarm processor and the schedule manager.
+ * All computations jump straight to the requested occurrence, so the cost does not
+ * depend on how far in the past the reference time is.
+ *
+ * Hourly repeats are plain epoch arithmetic. Daily and weekly repeats are estimated with
+ * epoch arithmetic and then applied in a single Calendar operation so that the wall-clock
+ * time is preserved across daylight saving changes. Monthly and yearly repeats use
+ * month arithmetic, with the day of month clamped to the length of the target month.
+ */
+public final class RecurrenceUtil {
+
+	// Repeat types. SAManager exposes the same values.
+	public static final int REPEAT_TYPE_HOURLY      = 1;
+	public static final int REPEAT_TYPE_DAILY       = 2;
+	public static final int REPEAT_TYPE_WEEKLY      = 3;
+	public static final int REPEAT_TYPE_MONTHLY     = 4;
+	public static final int REPEAT_TYPE_YEARLY      = 5;
+	public static final int REPEAT_TYPE_NONE        = 6;
+
+	// Time constants in milliseconds
+	public static final int SECOND_MS       = 1000;
+	public static final int MINUTE_MS       = 60 * SECOND_MS;
+	public static final int HOUR_MS         = 60 * MINUTE_MS;
+	public static final int DAY_MS          = 24 * HOUR_MS;
+	public static final int WEEK_MS         =  7 * DAY_MS;
+
+	private RecurrenceUtil() {
+	}
+
+	/**
+	 * Description:
+	 *  Computes the first occurrence of a repeating time that is at or after a reference time.
+	 *  If the start time is already at or after the reference time, it is returned unchanged.
+	 *
+	 *  @param startTimeMillis - A known occurrence, in milliseconds since the epoch
+	 *  @param repeatType - One of the repeat type constants
+	 *  @param nowMillis - The reference time, in milliseconds since the epoch
+	 *  @return The next occurrence in milliseconds since the epoch
+	 */
+	public static long getNextOccurrence(long startTimeMillis, int repeatType, long nowMillis) {
+		if (startTimeMillis >= nowMillis) {
+			return startTimeMillis;
+		}
+
+		long behindMillis = nowMillis - startTimeMillis;
+
+		switch (repeatType) {
+			case REPEAT_TYPE_HOURLY:
+				return startTimeMillis + ceilDiv(behindMillis, HOUR_MS) *
+						HOUR_MS;
+
+			case REPEAT_TYPE_DAILY:
+				return nextByDays(startTimeMillis, 1, behindMillis, nowMillis);
+
+			case REPEAT_TYPE_WEEKLY:
+				return nextByDays(startTimeMillis, 7, behindMillis, nowMillis);
+
+			case REPEAT_TYPE_MONTHLY:
+				return nextByMonths(startTimeMillis, 1, nowMillis);
+
+			case REPEAT_TYPE_YEARLY:
+				return nextByMonths(startTimeMillis, 12, nowMillis);
+
+			default:
+				// Non repeating schedules don't move
+				return startTimeMillis;
+		}
+	}
+
+	/**
+	 * Description:
+	 *  Computes the occurrence that comes one repeat interval before a given time.
+	 *
+	 *  @param timeMillis - An occurrence, in milliseconds since the epoch
+	 *  @param repeatType - One of the repeat type constants
+	 *  @return The previous occurrence in milliseconds since the epoch
+	 */
+	public static long getPreviousOccurrence(long timeMillis, int repeatType) {
+		switch (repeatType) {
+			case REPEAT_TYPE_HOURLY:
+				return timeMillis - HOUR_MS;
+			case REPEAT_TYPE_DAILY:
+				return addToCalendar(timeMillis, Calendar.DAY_OF_MONTH, -1);
+			case REPEAT_TYPE_WEEKLY:
+				return addToCalendar(timeMillis, Calendar.DAY_OF_MONTH, -7);
+			case REPEAT_TYPE_MONTHLY:
+				return addToCalendar(timeMillis, Calendar.MONTH, -1);
+			case REPEAT_TYPE_YEARLY:
+				return addToCalendar(timeMillis, Calendar.YEAR, -1);
+			default:
+				return timeMillis;
+		}
+	}
+
+	/**
+	 * Description:
+	 *  Returns the nominal length of a repeat interval in milliseconds.
+	 *  Months are counted as 30 days and years as 365 days.
+	 *
+	 *  @param repeatType - One of the repeat type constants
+	 *  @return The length of the interval, or 0 if the repeat type is not recognized
+	 */
+	public static long getNominalPeriodMillis(int repeatType) {
+		switch (repeatType) {
+			case REPEAT_TYPE_HOURLY:
+				return HOUR_MS;
+			case REPEAT_TYPE_DAILY:
+				return DAY_MS;
+			case REPEAT_TYPE_WEEKLY:
+				return WEEK_MS;
+			case REPEAT_TYPE_MONTHLY:
+				return 30L * DAY_MS;
+			case REPEAT_TYPE_YEARLY:
+				return 365L * DAY_MS;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Description:
+	 *  Folds a duration into a single repeat interval.
+	 *  A duration longer than the interval is reduced to the range (0, period],
+	 *  a negative duration is raised to the range [0, period).
+	 *
+	 *  @param durationMillis - The duration to fold
+	 *  @param periodMillis - The length of the repeat interval. Must be positive.
+	 *  @return The folded duration in milliseconds
+	 */
+	public static long foldIntoPeriod(long durationMillis, long periodMillis) {
+		if (durationMillis > periodMillis) {
+			long folded = durationMillis % periodMillis;
+			return folded == 0 ? periodMillis : folded;
+		} else if (durationMillis < 0) {
+			long folded = durationMillis % periodMillis;
+			return folded < 0 ? folded + periodMillis : folded;
+		}
+		return durationMillis;
+	}
+
+	/**
+	 * Description:
+	 *  Computes the duration of a schedule in minutes from its start and end times.
+	 *  The difference is folded into one repeat interval, so an end time that is still in
+	 *  a past interval gives a positive duration.
+	 *
+	 *  @param startTimeMillis - The start of the schedule
+	 *  @param endTimeMillis - The end of the schedule
+	 *  @param repeatType - One of the repeat type constants. Monthly and above are not accurate.
+	 *  @return The duration in minutes, or 0 if the repeat type is not recognized
+	 */
+	public static int getDurationMinutes(long startTimeMillis, long endTimeMillis, int repeatType) {
+		long periodMillis = getNominalPeriodMillis(repeatType);
+		if (periodMillis <= 0) {
+			return 0;
+		}
+
+		long durationMillis = foldIntoPeriod(endTimeMillis - startTimeMillis, periodMillis);
+		return (int)(durationMillis / MINUTE_MS);
+	}
+
+	/**
+	 * Description:
+	 *  Creates the start and stop events of a schedule, each at its first occurrence at or
+	 *  after a reference time. The events are not attached to a schedule yet.
+	 *
+	 *  @param startTimeMillis - The start time of the schedule
+	 *  @param duration - The duration of the schedule in minutes
+	 *  @param repeatType - One of the repeat type constants
+	 *  @param nowMillis - The reference time, in milliseconds since the epoch
+	 *  @return The start event followed by the stop event
+	 */
+	public static List<Event> createStartAndStopEvents(long startTimeMillis, int duration,
+	                                                   int repeatType, long nowMillis) {
+		// Adjust the start and stop times to the next occurrence if they happen in the past
+		long adjustedStartTimeMillis = getNextOccurrence(startTimeMillis, repeatType, nowMillis);
+		long adjustedStopTimeMillis = getNextOccurrence(
+				startTimeMillis + duration * (long) MINUTE_MS, repeatType, nowMillis);
+
+		List<Event> events = new ArrayList<Event>(2);
+		events.add(new Event(0, adjustedStartTimeMillis, StateCode.ON));
+		events.add(new Event(0, adjustedStopTimeMillis, StateCode.OFF));
+		return events;
+	}
+
+	/**
+	 * Description:
+	 *  Returns true if schedules can be created with a repeat type
+	 */
+	public static boolean isRepeatTypeValid(int repeatType) {
+		switch (repeatType) {
+			case REPEAT_TYPE_HOURLY:
+			case REPEAT_TYPE_DAILY:
+			case REPEAT_TYPE_WEEKLY:
+			case REPEAT_TYPE_MONTHLY:
+			case REPEAT_TYPE_YEARLY:
+				return true;
+			case REPEAT_TYPE_NONE:
+				// This has not yet been implemented
+			default:
+				return false;
+		}
+	}
+
+
+	/*
+	 * Helper method for daily and weekly repeats. The number of periods is estimated from
+	 * the elapsed milliseconds, then corrected by at most a step in either direction to
+	 * account for daylight saving changes in between.
+	 */
+	private static long nextByDays(long startTimeMillis, int daysPerPeriod, long behindMillis,
+	                               long nowMillis) {
+		long periodMillis = (long)daysPerPeriod * DAY_MS;
+		int periods = (int)ceilDiv(behindMillis, periodMillis);
+
+		Calendar scratch = Calendar.getInstance();
+		long candidate = addToCalendar(scratch, startTimeMillis, Calendar.DAY_OF_MONTH,
+				periods * daysPerPeriod);
+		while (candidate < nowMillis) {
+			periods++;
+			candidate = addToCalendar(scratch, startTimeMillis, Calendar.DAY_OF_MONTH,
+					periods * daysPerPeriod);
+		}
+		while (periods > 1) {
+			long previous = addToCalendar(scratch, startTimeMillis, Calendar.DAY_OF_MONTH,
+					(periods - 1) * daysPerPeriod);
+			if (previous < nowMillis) {
+				break;
+			}
+			periods--;
+			candidate = previous;
+		}
+
+		return candidate;
+	}
+
+	/*
+	 * Helper method for monthly and yearly repeats. The number of periods is derived from
+	 * the difference in calendar months, so at most one correction step is needed.
+	 * Years count down in the BC era, so a start time before 1 AD is first moved into 1 AD by
+	 * whole years, which are whole periods of both repeat types. A GregorianCalendar is used
+	 * whatever the default locale, so that years and eras are numbered the same way.
+	 */
+	private static long nextByMonths(long startTimeMillis, int monthsPerPeriod, long nowMillis) {
+		Calendar scratch = new GregorianCalendar();
+		scratch.setTimeInMillis(startTimeMillis);
+		if (scratch.get(Calendar.ERA) == GregorianCalendar.BC) {
+			startTimeMillis = addToCalendar(scratch, startTimeMillis, Calendar.YEAR,
+					scratch.get(Calendar.YEAR));
+		}
+		int startMonths = scratch.get(Calendar.YEAR) * 12 + scratch.get(Calendar.MONTH);
+		scratch.setTimeInMillis(nowMillis);
+		int nowMonths = scratch.get(Calendar.YEAR) * 12 + scratch.get(Calendar.MONTH);
+
+		int periods = Math.max(1, (nowMonths - startMonths) / monthsPerPeriod);
+		long candidate = addToCalendar(scratch, startTimeMillis, Calendar.MONTH,
+				periods * monthsPerPeriod);
+		while (candidate < nowMillis) {
+			periods++;
+			candidate = addToCalendar(scratch, startTimeMillis, Calendar.MONTH,
+					periods * monthsPerPeriod);
+		}
+
+		return candidate;
+	}
+
+	private static long addToCalendar(long timeMillis, int field, int amount) {
+		return addToCalendar(Calendar.getInstance(), timeMillis, field, amount);
+	}
+
+	private static long addToCalendar(Calendar scratch, long timeMillis, int field, int amount) {
+		scratch.setTimeInMillis(timeMillis);
+		scratch.add(field, amount);
+		return scratch.getTimeInMillis();
+	}
+
+	private static long ceilDiv(long dividend, long divisor) {
+		return (dividend + divisor - 1) / divisor;
+	}
+}
@@ -0,0 +1,99 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+/**
+ * Listener for the cost of the work done by the library: reconciliation passes, database
+ * statements, callbacks and alarms. Set one with SAManager.setMetrics.
+ *
+ * Methods are called on the thread that does the work, often with locks of the library held.
+ * They must return quickly and must not call into the library. Statements are reported from
+ * every thread that accesses the database, so implementations must be thread safe.
+ * NONE, the default, does nothing, and the library skips its timing calls while it is set.
+ */
+public interface SAMMetrics {
+
+	SAMMetrics NONE = new SAMMetrics() {
+		@Override
+		public void onPass(boolean fullPass, long durationNanos, int eventsScanned,
+		                   int eventsAdvanced, int schedulesChanged, int groupsWritten) {
+		}
+
+		@Override
+		public void onStatement(int rowsWritten) {
+		}
+
+		@Override
+		public void onCallback(long durationNanos, int schedules) {
+		}
+
+		@Override
+		public void onAlarmArmed(long alarmTimeMillis) {
+		}
+
+		@Override
+		public void onAlarmCancelled() {
+		}
+	};
+
+	/**
+	 * Description:
+	 *  Called at the end of each reconciliation pass
+	 *  @param fullPass - True if the pass visited all events
+	 *  @param durationNanos - The duration of the pass, including its database reads and writes
+	 *  @param eventsScanned - The number of events visited by the pass
+	 *  @param eventsAdvanced - The number of expired events moved to their next occurrence
+	 *  @param schedulesChanged - The number of schedules reported as changed
+	 *  @param groupsWritten - The number of groups whose overall state was written
+	 */
+	void onPass(boolean fullPass, long durationNanos, int eventsScanned, int eventsAdvanced,
+	            int schedulesChanged, int groupsWritten);
+
+	/**
+	 * Description:
+	 *  Called after each SQL statement run by the library, other than schema changes
+	 *  @param rowsWritten - The number of rows inserted, updated or deleted. 0 for queries.
+	 */
+	void onStatement(int rowsWritten);
+
+	/**
+	 * Description:
+	 *  Called after the callbacks of the application were told about changed schedules
+	 *  @param durationNanos - The time spent in SAMCallback and SAMBatchCallback
+	 *  @param schedules - The number of changed schedules they were given
+	 */
+	void onCallback(long durationNanos, int schedules);
+
+	/**
+	 * Description:
+	 *  Called when the alarm for the next event is armed
+	 *  @param alarmTimeMillis - The alarm time in milliseconds since the epoch
+	 */
+	void onAlarmArmed(long alarmTimeMillis);
+
+	/**
+	 * Description:
+	 *  Called when the alarm is cancelled because there is no upcoming event
+	 */
+	void onAlarmCancelled();
+}
@@ -0,0 +1,79 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+import java.util.Calendar;
+
+/**
+ * Describes a schedule to add with SAManager.addSchedules().
+ * The parameters have the same meaning as those of SAManager.addSchedule(). Instances are
+ * immutable, so one spec can be reused or shared between threads.
+ */
+public final class ScheduleSpec {
+	private final long m_startTimeMillis;
+	private final int m_duration;
+	private final int m_repeatType;
+	private final String m_tag;
+	private final String m_groupTag;
+
+	/**
+	 * @param startTime - When the schedule starts. It can't be more than 24 hours in the past.
+	 *                    Only the time is kept, so the Calendar can be reused afterwards.
+	 * @param duration - The duration of the schedule in minutes
+	 * @param repeatType - One of the SAManager repeat type constants
+	 * @param tag - A user specific tag identifying the schedule
+	 * @param groupTag - A user specific tag identifying the group that this schedule belongs to.
+	 *                   This can be null.
+	 */
+	public ScheduleSpec(Calendar startTime, int duration, int repeatType, String tag,
+	                    String groupTag) {
+		m_startTimeMillis = startTime.getTimeInMillis();
+		m_duration = duration;
+		m_repeatType = repeatType;
+		m_tag = tag;
+		m_groupTag = groupTag;
+	}
+
+	/**
+	 * The start time in milliseconds since the epoch
+	 */
+	public long getStartTimeMillis() {
+		return m_startTimeMillis;
+	}
+
+	public int getDuration() {
+		return m_duration;
+	}
+
+	public int getRepeatType() {
+		return m_repeatType;
+	}
+
+	public String getTag() {
+		return m_tag;
+	}
+
+	public String getGroupTag() {
+		return m_groupTag;
+	}
+}
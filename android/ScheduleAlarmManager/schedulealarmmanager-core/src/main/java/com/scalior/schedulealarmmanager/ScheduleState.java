@@ -24,8 +24,6 @@
  */
 package com.scalior.schedulealarmmanager;
 
-import android.content.Context;
-
 import java.util.Calendar;
 
 /**
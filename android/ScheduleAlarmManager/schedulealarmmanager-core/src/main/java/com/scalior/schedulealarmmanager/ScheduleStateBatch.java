@@ -0,0 +1,128 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+import com.scalior.schedulealarmmanager.model.Schedule;
+import com.scalior.schedulealarmmanager.model.StateCode;
+import com.scalior.schedulealarmmanager.util.LongObjectMap;
+
+import java.util.Arrays;
+
+/**
+ * The schedules changed by one update of the schedule states.
+ * Ids, state codes and copies of the schedules are kept in parallel arrays ordered by schedule
+ * id. The batch is captured when it is built, so later passes don't change what it holds.
+ */
+public final class ScheduleStateBatch {
+	static final ScheduleStateBatch EMPTY = new ScheduleStateBatch(new long[0], new int[0],
+			new Schedule[0]);
+
+	private final long[] m_scheduleIds;
+	private final int[] m_stateCodes;
+	private final Schedule[] m_schedules;
+
+	private ScheduleStateBatch(long[] scheduleIds, int[] stateCodes, Schedule[] schedules) {
+		m_scheduleIds = scheduleIds;
+		m_stateCodes = stateCodes;
+		m_schedules = schedules;
+	}
+
+	/**
+	 * Description:
+	 *  Creates a batch from the schedules changed by a pass, keyed by schedule id.
+	 *  The schedules are copied, with their state and the state of their group at the end
+	 *  of the pass.
+	 */
+	static ScheduleStateBatch of(LongObjectMap<Schedule> changedSchedules) {
+		if (changedSchedules.isEmpty()) {
+			return EMPTY;
+		}
+
+		long[] scheduleIds = changedSchedules.keys();
+		Arrays.sort(scheduleIds);
+		int[] stateCodes = new int[scheduleIds.length];
+		Schedule[] schedules = new Schedule[scheduleIds.length];
+		for (int i = 0; i < scheduleIds.length; i++) {
+			schedules[i] = new Schedule(changedSchedules.get(scheduleIds[i]));
+			stateCodes[i] = schedules[i].getStateCode();
+		}
+		return new ScheduleStateBatch(scheduleIds, stateCodes, schedules);
+	}
+
+	public int size() {
+		return m_scheduleIds.length;
+	}
+
+	public boolean isEmpty() {
+		return m_scheduleIds.length == 0;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the id of the schedule at an index, from 0 to size() - 1
+	 */
+	public long getScheduleId(int index) {
+		return m_scheduleIds[index];
+	}
+
+	/**
+	 * Description:
+	 *  Returns the state of the schedule at an index, SAManager.STATE_ON or SAManager.STATE_OFF
+	 */
+	public String getState(int index) {
+		return StateCode.toString(m_stateCodes[index]);
+	}
+
+	/**
+	 * Description:
+	 *  Returns the state of the schedule at an index as a StateCode
+	 */
+	public int getStateCode(int index) {
+		return m_stateCodes[index];
+	}
+
+	/**
+	 * Description:
+	 *  Returns the schedule at an index, as it was at the end of the pass
+	 */
+	public ScheduleState getScheduleState(int index) {
+		return m_schedules[index];
+	}
+
+	/**
+	 * Description:
+	 *  Returns the index of a schedule in this batch, or -1 if it didn't change
+	 */
+	public int indexOf(long scheduleId) {
+		int index = Arrays.binarySearch(m_scheduleIds, scheduleId);
+		return index >= 0 ? index : -1;
+	}
+
+	/**
+	 * Description:
+	 *  Returns a copy of the ids of the schedules in this batch, in ascending order
+	 */
+	public long[] getScheduleIds() {
+		return m_scheduleIds.clone();
+	}
+}
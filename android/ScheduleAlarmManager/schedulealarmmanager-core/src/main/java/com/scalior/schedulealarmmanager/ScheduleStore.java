@@ -0,0 +1,84 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+import com.scalior.schedulealarmmanager.model.Event;
+import com.scalior.schedulealarmmanager.model.Schedule;
+import com.scalior.schedulealarmmanager.model.ScheduleGroupInfo;
+import com.scalior.schedulealarmmanager.modelholder.ScheduleEvent;
+
+import java.util.List;
+
+/**
+ * Storage used by the ReconciliationEngine to read schedules and events and to write back
+ * the outcome of a pass. On Android, this is SAMSQLiteHelper.
+ * Returned objects belong to the caller, which may modify them.
+ */
+public interface ScheduleStore {
+	/**
+	 * Description:
+	 *  Returns all events joined with their schedules, or null if there are none
+	 */
+	List<ScheduleEvent> getScheduleEvents();
+
+	/**
+	 * Description:
+	 *  Returns the events that are due at a given time, joined with their schedules, or null
+	 *  if there are none
+	 *  @param cutoffTimeMillis - All events at or before this time are returned
+	 */
+	List<ScheduleEvent> getExpiredEvents(long cutoffTimeMillis);
+
+	/**
+	 * Description:
+	 *  Returns all events of the given schedules, joined with their schedules, or null if
+	 *  there are none
+	 */
+	List<ScheduleEvent> getScheduleEventsByScheduleIds(long[] scheduleIds);
+
+	/**
+	 * Description:
+	 *  Returns a schedule, or null if it doesn't exist
+	 */
+	Schedule getScheduleById(long scheduleId);
+
+	/**
+	 * Description:
+	 *  Returns the current state of a group, or null if it doesn't exist
+	 */
+	ScheduleGroupInfo getScheduleGroupInfo(long groupId);
+
+	/**
+	 * Description:
+	 *  Writes back the new alarm times of events and the new states of schedules, at once.
+	 *  @return The number of rows written
+	 */
+	int writeReconciliation(List<Event> events, List<Schedule> schedules);
+
+	/**
+	 * Description:
+	 *  Recomputes the overall state of the groups from the states of their schedules.
+	 *  @return The number of groups whose overall state changed
+	 */
+	int updateGroupOverallStates();
+}
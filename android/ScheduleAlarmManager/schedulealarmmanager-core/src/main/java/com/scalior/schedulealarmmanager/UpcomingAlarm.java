@@ -0,0 +1,105 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+import com.scalior.schedulealarmmanager.model.Schedule;
+import com.scalior.schedulealarmmanager.model.ScheduleGroupInfo;
+import com.scalior.schedulealarmmanager.model.StateCode;
+import com.scalior.schedulealarmmanager.modelholder.ScheduleEvent;
+
+import java.util.Calendar;
+
+/**
+ * An upcoming alarm: the schedule it belongs to, when it goes off, and the state the schedule
+ * turns to at that time. Instances are immutable and never access the database.
+ */
+public final class UpcomingAlarm {
+	private final Schedule m_schedule;
+	private final long m_alarmTimeMillis;
+	private final int m_eventStateCode;
+
+	private UpcomingAlarm(Schedule schedule, long alarmTimeMillis, int eventStateCode) {
+		m_schedule = schedule;
+		m_alarmTimeMillis = alarmTimeMillis;
+		m_eventStateCode = eventStateCode;
+	}
+
+	/*
+	 * Creates an alarm from a queued event. The schedule is copied, so the alarm doesn't
+	 * change if the event is reused, and it is attached to the given state of its group.
+	 */
+	static UpcomingAlarm fromScheduleEvent(ScheduleEvent scheduleEvent, ScheduleGroupInfo groupInfo) {
+		Schedule schedule = new Schedule(scheduleEvent.getSchedule());
+		schedule.setGroupInfo(groupInfo);
+		return new UpcomingAlarm(schedule, scheduleEvent.getEvent().getAlarmTimeMillis(),
+				scheduleEvent.getEvent().getStateCode());
+	}
+
+	/*
+	 * Returns true if an alarm created from a queued event and group state would hold the same
+	 * values as this one, so this one can be published again instead.
+	 */
+	boolean isSameAs(ScheduleEvent scheduleEvent, ScheduleGroupInfo groupInfo) {
+		Schedule schedule = scheduleEvent.getSchedule();
+		return m_alarmTimeMillis == scheduleEvent.getEvent().getAlarmTimeMillis() &&
+				m_eventStateCode == scheduleEvent.getEvent().getStateCode() &&
+				m_schedule.getId() == schedule.getId() &&
+				m_schedule.getStartTimeMillis() == schedule.getStartTimeMillis() &&
+				m_schedule.getDuration() == schedule.getDuration() &&
+				m_schedule.getRepeatType() == schedule.getRepeatType() &&
+				m_schedule.getStateCode() == schedule.getStateCode() &&
+				m_schedule.isDisabled() == schedule.isDisabled() &&
+				equals(m_schedule.getTag(), schedule.getTag()) &&
+				equals(m_schedule.getGroupId(), schedule.getGroupId()) &&
+				equals(m_schedule.getGroupInfo(), groupInfo);
+	}
+
+	public ScheduleState getSchedule() {
+		return m_schedule;
+	}
+
+	public long getAlarmTimeMillis() {
+		return m_alarmTimeMillis;
+	}
+
+	/**
+	 * A new Calendar is built on every call, so callers are free to modify it.
+	 */
+	public Calendar getAlarmTime() {
+		Calendar alarmTime = Calendar.getInstance();
+		alarmTime.setTimeInMillis(m_alarmTimeMillis);
+		return alarmTime;
+	}
+
+	/**
+	 * The state of the schedule once the alarm goes off: SAManager.STATE_ON or STATE_OFF
+	 */
+	public String getEventState() {
+		return StateCode.toString(m_eventStateCode);
+	}
+
+
+	private static boolean equals(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
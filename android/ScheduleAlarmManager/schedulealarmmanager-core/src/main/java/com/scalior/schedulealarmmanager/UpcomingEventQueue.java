@@ -0,0 +1,273 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+import com.scalior.schedulealarmmanager.modelholder.ScheduleEvent;
+import com.scalior.schedulealarmmanager.util.LongObjectMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The queue of upcoming events, as a min-heap of all events keyed by alarm time, plus one heap
+ * per group for the events of the schedules in that group.
+ * Events are indexed by schedule id so that all events of a schedule can be dropped when the
+ * schedule changes. Every change is applied to the overall heap and to the heap of the group,
+ * in O(log n), so the next events of a group are known without visiting other groups.
+ *
+ * The queued events of a schedule share one Schedule object: the one offered last. A pass that
+ * reloads a single event of a schedule therefore also refreshes the schedule of its other events.
+ *
+ * The queue records whether events were offered or removed, and the groups they belong to, so
+ * that the next event of the other groups is known not to have changed.
+ *
+ * The alarm time is captured when an event is offered, so later changes to the event object
+ * have no effect on the ordering until the event is offered again.
+ */
+class UpcomingEventQueue {
+
+	// The queued events of one schedule, and the group they are indexed under
+	private static class QueuedSchedule {
+		final long m_groupId;
+		final String m_groupTag;
+		final ArrayList<ScheduleEvent> m_scheduleEvents;
+
+		QueuedSchedule(long groupId, String groupTag) {
+			m_groupId = groupId;
+			m_groupTag = groupTag;
+			m_scheduleEvents = new ArrayList<ScheduleEvent>(2);
+		}
+	}
+
+	private final EventHeap m_heap;
+	private final LongObjectMap<QueuedSchedule> m_bySchedule;
+	private final LongObjectMap<EventHeap> m_heapsByGroupId;
+	private final HashMap<String, Long> m_groupIdsByTag;
+
+	private final HashSet<String> m_changedGroupTags;
+	private boolean m_allGroupsChanged;
+	private boolean m_changed;
+
+	UpcomingEventQueue() {
+		m_heap = new EventHeap();
+		m_bySchedule = new LongObjectMap<QueuedSchedule>();
+		m_heapsByGroupId = new LongObjectMap<EventHeap>();
+		m_groupIdsByTag = new HashMap<String, Long>();
+		m_changedGroupTags = new HashSet<String>();
+		m_allGroupsChanged = false;
+		m_changed = false;
+	}
+
+	/**
+	 * Description:
+	 *  Adds an event to the queue, or moves it if an event with the same id is already queued.
+	 *  The other queued events of the schedule are given the schedule of this event.
+	 *  Runs in O(log n).
+	 */
+	void offer(ScheduleEvent scheduleEvent) {
+		long scheduleId = scheduleEvent.getScheduleId();
+		long eventId = scheduleEvent.getEvent().getId();
+
+		QueuedSchedule queuedSchedule = m_bySchedule.get(scheduleId);
+		if (queuedSchedule == null) {
+			// A schedule is indexed under its group if the group was loaded with it
+			Long groupId = scheduleEvent.getSchedule().getGroupId();
+			String groupTag = scheduleEvent.getSchedule().getGroupTag();
+			if (groupId != null && groupTag != null) {
+				queuedSchedule = new QueuedSchedule(groupId, groupTag);
+			} else {
+				queuedSchedule = new QueuedSchedule(0, null);
+			}
+			m_bySchedule.put(scheduleId, queuedSchedule);
+		}
+		boolean replaced = false;
+		ArrayList<ScheduleEvent> queuedEvents = queuedSchedule.m_scheduleEvents;
+		for (int i = 0; i < queuedEvents.size(); i++) {
+			if (queuedEvents.get(i).getEvent().getId() == eventId) {
+				queuedEvents.set(i, scheduleEvent);
+				replaced = true;
+			} else {
+				queuedEvents.get(i).setSchedule(scheduleEvent.getSchedule());
+			}
+		}
+		if (!replaced) {
+			queuedEvents.add(scheduleEvent);
+		}
+
+		m_heap.offer(scheduleEvent);
+		m_changed = true;
+
+		if (queuedSchedule.m_groupTag != null) {
+			EventHeap groupHeap = m_heapsByGroupId.get(queuedSchedule.m_groupId);
+			if (groupHeap == null) {
+				groupHeap = new EventHeap();
+				m_heapsByGroupId.put(queuedSchedule.m_groupId, groupHeap);
+				m_groupIdsByTag.put(queuedSchedule.m_groupTag, queuedSchedule.m_groupId);
+			}
+			groupHeap.offer(scheduleEvent);
+			m_changedGroupTags.add(queuedSchedule.m_groupTag);
+		}
+	}
+
+	/**
+	 * Description:
+	 *  Returns the event with the earliest alarm time, or null if the queue is empty.
+	 */
+	ScheduleEvent peek() {
+		return m_heap.peek();
+	}
+
+	/**
+	 * Description:
+	 *  Returns up to count events of a group in order of alarm time.
+	 *  Runs in O(count log count).
+	 *  @param groupTag - The tag of the group
+	 *  @param count - The maximum number of events to return
+	 */
+	List<ScheduleEvent> peek(String groupTag, int count) {
+		Long groupId = m_groupIdsByTag.get(groupTag);
+		EventHeap groupHeap = groupId != null ? m_heapsByGroupId.get(groupId) : null;
+		if (groupHeap == null) {
+			return new ArrayList<ScheduleEvent>(0);
+		}
+		return groupHeap.peek(count);
+	}
+
+	/**
+	 * Description:
+	 *  Returns the event of a group with the earliest alarm time, or null if the group has no
+	 *  queued event
+	 */
+	ScheduleEvent peek(String groupTag) {
+		Long groupId = m_groupIdsByTag.get(groupTag);
+		return groupId != null ? m_heapsByGroupId.get(groupId).peek() : null;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the tags of the groups that have queued events
+	 */
+	Set<String> getGroupTags() {
+		return m_groupIdsByTag.keySet();
+	}
+
+	/**
+	 * Description:
+	 *  Returns true if events were offered or removed, or the queue was cleared, since the
+	 *  last call to clearChangedGroups
+	 */
+	boolean hasChanged() {
+		return m_changed;
+	}
+
+	/**
+	 * Description:
+	 *  Returns true if the queue was cleared since the last call to clearChangedGroups, so
+	 *  that any group may have changed
+	 */
+	boolean haveAllGroupsChanged() {
+		return m_allGroupsChanged;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the tags of the groups whose events were offered or removed since the last
+	 *  call to clearChangedGroups. Groups whose last event was removed are included.
+	 */
+	Set<String> getChangedGroupTags() {
+		return m_changedGroupTags;
+	}
+
+	void clearChangedGroups() {
+		m_changedGroupTags.clear();
+		m_allGroupsChanged = false;
+		m_changed = false;
+	}
+
+	/**
+	 * Description:
+	 *  Removes all queued events that belong to a schedule
+	 */
+	void removeSchedule(long scheduleId) {
+		QueuedSchedule queuedSchedule = m_bySchedule.remove(scheduleId);
+		if (queuedSchedule == null) {
+			return;
+		}
+		m_changed = true;
+
+		EventHeap groupHeap = queuedSchedule.m_groupTag != null ?
+				m_heapsByGroupId.get(queuedSchedule.m_groupId) : null;
+		for (ScheduleEvent scheduleEvent : queuedSchedule.m_scheduleEvents) {
+			long eventId = scheduleEvent.getEvent().getId();
+			m_heap.remove(eventId);
+			if (groupHeap != null) {
+				groupHeap.remove(eventId);
+			}
+		}
+
+		if (groupHeap != null) {
+			m_changedGroupTags.add(queuedSchedule.m_groupTag);
+			if (groupHeap.isEmpty()) {
+				m_heapsByGroupId.remove(queuedSchedule.m_groupId);
+				m_groupIdsByTag.remove(queuedSchedule.m_groupTag);
+			}
+		}
+	}
+
+	/**
+	 * Description:
+	 *  Removes all queued events whose schedule belongs to a group.
+	 *  Only the events of the group are visited.
+	 */
+	void removeGroup(long groupId) {
+		EventHeap groupHeap = m_heapsByGroupId.get(groupId);
+		if (groupHeap == null) {
+			return;
+		}
+
+		for (long scheduleId : groupHeap.getScheduleIds()) {
+			removeSchedule(scheduleId);
+		}
+	}
+
+	void clear() {
+		m_heap.clear();
+		m_bySchedule.clear();
+		m_heapsByGroupId.clear();
+		m_groupIdsByTag.clear();
+		m_changedGroupTags.clear();
+		m_allGroupsChanged = true;
+		m_changed = true;
+	}
+
+	int size() {
+		return m_heap.size();
+	}
+
+	boolean isEmpty() {
+		return m_heap.isEmpty();
+	}
+}
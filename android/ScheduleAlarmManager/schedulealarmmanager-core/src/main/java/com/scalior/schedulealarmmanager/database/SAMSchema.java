@@ -0,0 +1,236 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.database;
+
+import com.scalior.schedulealarmmanager.model.StateCode;
+
+/**
+ * Schema of the schedule database and the SQL of every statement run against it.
+ * SAMSQLiteHelper creates the database and runs the statements. They are kept apart from it,
+ * with no dependency on Android, so that the same SQL can be run on a desktop JVM.
+ * Times are stored in seconds since the epoch and states as StateCode values.
+ */
+public final class SAMSchema {
+
+    // Tables:
+    //		Database Creation ID:
+    //			This serves as a unique device id for the client. It is based on the database
+    //			such that the database re-creation represents a new client configuration
+    public static final String TABLE_DBCREATION = "dbcreation";
+    public static final String DBCREATION_UUID = "uuid";
+    public static final String TABLE_DBCREATION_CREATE = "create table " +
+            TABLE_DBCREATION + " (" +
+            DBCREATION_UUID + " text not null);";
+
+    //		Schedule group
+    public static final String TABLE_SCHEDULEGROUP = "schedulegroup";
+    public static final String SCHEDULEGROUP_ID = "_id";
+    public static final String SCHEDULEGROUP_TAG = "tag";
+    public static final String SCHEDULEGROUP_ENABLED_FL = "enabled";
+    public static final String SCHEDULEGROUP_OVERALL_STATE = "overallstate";
+    public static final String TABLE_SCHEDULEGROUP_CREATE = "create table " +
+            TABLE_SCHEDULEGROUP + " (" +
+            SCHEDULEGROUP_ID + " integer primary key autoincrement, " +
+            SCHEDULEGROUP_TAG + " text not null, " +
+            SCHEDULEGROUP_ENABLED_FL + " boolean not null, " +
+            SCHEDULEGROUP_OVERALL_STATE + " integer );";
+
+    //		Schedule
+    public static final String TABLE_SCHEDULE = "schedule";
+    public static final String SCHEDULE_ID = "_id";
+    public static final String SCHEDULE_START_TIME = "starttime";
+    public static final String SCHEDULE_REPEAT_TYPE = "repeattype";
+    public static final String SCHEDULE_DURATION = "duration";
+    public static final String SCHEDULE_TAG = "tag";
+    public static final String SCHEDULE_STATE = "schedule_state";
+    public static final String SCHEDULE_DISABLE_FL = "disabled";
+    public static final String SCHEDULE_GROUP_ID = "groupid";
+    public static final String TABLE_SCHEDULE_CREATE = "create table " +
+            TABLE_SCHEDULE + " (" +
+            SCHEDULE_ID + " integer primary key autoincrement, " +
+            SCHEDULE_START_TIME + " datetime not null, " +
+            SCHEDULE_REPEAT_TYPE + " integer not null, " +
+            SCHEDULE_DURATION + " integer not null, " +
+            SCHEDULE_TAG + " text not null, " +
+            SCHEDULE_STATE + " integer, " +
+            SCHEDULE_DISABLE_FL + " boolean, " +
+            SCHEDULE_GROUP_ID + " integer);";
+
+    //		Event
+    public static final String TABLE_EVENT = "event";
+    public static final String EVENT_ID = "_id";
+    public static final String EVENT_SCHEDULE_ID = "scheduleid";
+    public static final String EVENT_ALARM_TIME = "alarmtime";
+    public static final String EVENT_STATE = "state";
+    public static final String TABLE_EVENT_CREATE = "create table " +
+            TABLE_EVENT + " (" +
+            EVENT_ID + " integer primary key autoincrement, " +
+            EVENT_SCHEDULE_ID + " integer references " + TABLE_SCHEDULE + " on delete cascade, " +
+            EVENT_ALARM_TIME + " datetime not null, " +
+            EVENT_STATE + " integer not null);";
+
+    // Indexes:
+    //		Added in database version 7
+    public static final String INDEX_EVENT_ALARM_TIME_CREATE = "create index if not exists " +
+            "event_alarmtime_idx on " + TABLE_EVENT + " (" + EVENT_ALARM_TIME + ");";
+    public static final String INDEX_EVENT_SCHEDULE_ID_CREATE = "create index if not exists " +
+            "event_scheduleid_idx on " + TABLE_EVENT + " (" + EVENT_SCHEDULE_ID + ");";
+    public static final String INDEX_SCHEDULE_GROUP_ID_CREATE = "create index if not exists " +
+            "schedule_groupid_idx on " + TABLE_SCHEDULE + " (" + SCHEDULE_GROUP_ID + ");";
+    public static final String INDEX_SCHEDULE_TAG_CREATE = "create index if not exists " +
+            "schedule_tag_idx on " + TABLE_SCHEDULE + " (" + SCHEDULE_TAG + ");";
+    public static final String INDEX_SCHEDULEGROUP_TAG_CREATE = "create index if not exists " +
+            "schedulegroup_tag_idx on " + TABLE_SCHEDULEGROUP + " (" + SCHEDULEGROUP_TAG + ");";
+
+    // Projections:
+    //		Rows are read by position, so queries must start with one of these and may only
+    //		append WHERE, ORDER BY and LIMIT clauses.
+    //		A schedule row is the schedule joined with its group. An event row is the event
+    //		followed by the columns of its schedule row.
+    public static final String GROUP_ALIAS = "grp";
+    public static final String SCHEDULE_JOIN_COLUMNS =
+            TABLE_SCHEDULE + "." + SCHEDULE_ID + ", " +
+            TABLE_SCHEDULE + "." + SCHEDULE_START_TIME + ", " +
+            TABLE_SCHEDULE + "." + SCHEDULE_DURATION + ", " +
+            TABLE_SCHEDULE + "." + SCHEDULE_REPEAT_TYPE + ", " +
+            TABLE_SCHEDULE + "." + SCHEDULE_TAG + ", " +
+            TABLE_SCHEDULE + "." + SCHEDULE_STATE + ", " +
+            TABLE_SCHEDULE + "." + SCHEDULE_DISABLE_FL + ", " +
+            TABLE_SCHEDULE + "." + SCHEDULE_GROUP_ID + ", " +
+            GROUP_ALIAS + "." + SCHEDULEGROUP_TAG + ", " +
+            GROUP_ALIAS + "." + SCHEDULEGROUP_ENABLED_FL + ", " +
+            GROUP_ALIAS + "." + SCHEDULEGROUP_OVERALL_STATE;
+    public static final String GROUP_JOIN = " LEFT JOIN " + TABLE_SCHEDULEGROUP + " AS " + GROUP_ALIAS +
+            " ON " + TABLE_SCHEDULE + "." + SCHEDULE_GROUP_ID + " = " + GROUP_ALIAS + "." + SCHEDULEGROUP_ID;
+    public static final String SELECT_SCHEDULES = "SELECT " + SCHEDULE_JOIN_COLUMNS + " FROM " +
+            TABLE_SCHEDULE + GROUP_JOIN;
+    public static final String SELECT_SCHEDULE_EVENTS = "SELECT " +
+            TABLE_EVENT + "." + EVENT_ID + ", " +
+            TABLE_EVENT + "." + EVENT_ALARM_TIME + ", " +
+            TABLE_EVENT + "." + EVENT_STATE + ", " +
+            SCHEDULE_JOIN_COLUMNS +
+            " FROM " + TABLE_EVENT + " INNER JOIN " + TABLE_SCHEDULE +
+            " ON " + TABLE_EVENT + "." + EVENT_SCHEDULE_ID + " = " + TABLE_SCHEDULE + "." + SCHEDULE_ID +
+            GROUP_JOIN;
+    public static final String SELECT_SCHEDULEGROUPS = "SELECT " + SCHEDULEGROUP_ID + ", " +
+            SCHEDULEGROUP_TAG + ", " + SCHEDULEGROUP_ENABLED_FL + ", " + SCHEDULEGROUP_OVERALL_STATE +
+            " FROM " + TABLE_SCHEDULEGROUP;
+
+    // Statements:
+    //		Every query and write is a fixed parameterized statement. Values are always bound,
+    //		never concatenated into the SQL, so SQLite parses and plans each statement once per
+    //		connection and reuses it afterwards.
+    //		SAMSQLiteHelper runs queries through the prepared statement cache of the connection
+    //		and compiles writes once into its StatementCache.
+    public static final String QUERY_EXPIRED_EVENTS = SELECT_SCHEDULE_EVENTS +
+            " WHERE " + EVENT_ALARM_TIME + " <= ?";
+    public static final String QUERY_NEXT_EVENT = SELECT_SCHEDULE_EVENTS +
+            " WHERE " + EVENT_ALARM_TIME + " >= ?" +
+            " ORDER BY " + EVENT_ALARM_TIME + " LIMIT 1";
+    // Schedule ids are looked up in batches of a fixed size, so the statement never changes.
+    // A short batch is padded by repeating its last id.
+    public static final int SCHEDULE_ID_BATCH_SIZE = 32;
+    public static final String QUERY_EVENTS_BY_SCHEDULE_IDS = SELECT_SCHEDULE_EVENTS +
+            " WHERE " + EVENT_SCHEDULE_ID + " IN (" + placeholders(SCHEDULE_ID_BATCH_SIZE) + ")";
+    public static final String QUERY_SCHEDULES_BY_GROUP_ID = SELECT_SCHEDULES +
+            " WHERE " + TABLE_SCHEDULE + "." + SCHEDULE_GROUP_ID + " = ?";
+    public static final String QUERY_SCHEDULE_FOR_UPDATE = "SELECT " + SCHEDULE_REPEAT_TYPE +
+            ", " + SCHEDULE_TAG + " FROM " + TABLE_SCHEDULE + " WHERE " + SCHEDULE_ID + " = ?";
+    public static final String QUERY_SCHEDULEGROUP_BY_ID = SELECT_SCHEDULEGROUPS +
+            " WHERE " + SCHEDULEGROUP_ID + " = ?";
+    public static final String QUERY_SCHEDULEGROUP_BY_TAG = SELECT_SCHEDULEGROUPS +
+            " WHERE " + SCHEDULEGROUP_TAG + " = ?";
+
+    public static final String INSERT_EVENT = "INSERT INTO " + TABLE_EVENT + " (" +
+            EVENT_SCHEDULE_ID + ", " + EVENT_ALARM_TIME + ", " + EVENT_STATE + ") VALUES (?, ?, ?)";
+    public static final String UPDATE_EVENT_ALARM_TIME = "UPDATE " + TABLE_EVENT +
+            " SET " + EVENT_ALARM_TIME + " = ? WHERE " + EVENT_ID + " = ?";
+    public static final String DELETE_EVENT = "DELETE FROM " + TABLE_EVENT +
+            " WHERE " + EVENT_ID + " = ?";
+    public static final String DELETE_EVENTS_BY_SCHEDULE_ID = "DELETE FROM " + TABLE_EVENT +
+            " WHERE " + EVENT_SCHEDULE_ID + " = ?";
+    public static final String DELETE_EVENTS_BY_GROUP_ID = "DELETE FROM " + TABLE_EVENT +
+            " WHERE " + EVENT_SCHEDULE_ID + " IN (SELECT " + SCHEDULE_ID + " FROM " + TABLE_SCHEDULE +
+            " WHERE " + SCHEDULE_GROUP_ID + " = ?)";
+
+    public static final String INSERT_SCHEDULE = "INSERT INTO " + TABLE_SCHEDULE + " (" +
+            SCHEDULE_START_TIME + ", " + SCHEDULE_DURATION + ", " + SCHEDULE_REPEAT_TYPE + ", " +
+            SCHEDULE_TAG + ", " + SCHEDULE_STATE + ", " + SCHEDULE_DISABLE_FL + ", " +
+            SCHEDULE_GROUP_ID + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+    public static final String UPDATE_SCHEDULE = "UPDATE " + TABLE_SCHEDULE +
+            " SET " + SCHEDULE_START_TIME + " = ?, " + SCHEDULE_DURATION + " = ?, " +
+            SCHEDULE_STATE + " = ?, " + SCHEDULE_DISABLE_FL + " = ?" +
+            " WHERE " + SCHEDULE_ID + " = ?";
+    public static final String UPDATE_SCHEDULE_STATE = "UPDATE " + TABLE_SCHEDULE +
+            " SET " + SCHEDULE_STATE + " = ? WHERE " + SCHEDULE_ID + " = ?";
+    public static final String DELETE_SCHEDULE = "DELETE FROM " + TABLE_SCHEDULE +
+            " WHERE " + SCHEDULE_ID + " = ?";
+    public static final String DELETE_SCHEDULES_BY_TAG = "DELETE FROM " + TABLE_SCHEDULE +
+            " WHERE " + SCHEDULE_TAG + " = ?";
+    public static final String DELETE_SCHEDULES_BY_GROUP_TAG = "DELETE FROM " + TABLE_SCHEDULE +
+            " WHERE " + SCHEDULE_GROUP_ID + " IN (SELECT " + SCHEDULEGROUP_ID +
+            " FROM " + TABLE_SCHEDULEGROUP + " WHERE " + SCHEDULEGROUP_TAG + " = ?)";
+
+    public static final String INSERT_SCHEDULEGROUP = "INSERT INTO " + TABLE_SCHEDULEGROUP + " (" +
+            SCHEDULEGROUP_TAG + ", " + SCHEDULEGROUP_ENABLED_FL + ", " + SCHEDULEGROUP_OVERALL_STATE +
+            ") VALUES (?, ?, ?)";
+    public static final String UPDATE_SCHEDULEGROUP = "UPDATE " + TABLE_SCHEDULEGROUP +
+            " SET " + SCHEDULEGROUP_ENABLED_FL + " = ?, " + SCHEDULEGROUP_OVERALL_STATE + " = ?" +
+            " WHERE " + SCHEDULEGROUP_ID + " = ?";
+    public static final String DELETE_SCHEDULEGROUP = "DELETE FROM " + TABLE_SCHEDULEGROUP +
+            " WHERE " + SCHEDULEGROUP_ID + " = ?";
+    public static final String DELETE_SCHEDULEGROUP_BY_TAG = "DELETE FROM " + TABLE_SCHEDULEGROUP +
+            " WHERE " + SCHEDULEGROUP_TAG + " = ?";
+
+    // A group is on if at least one of its schedules is on. Groups without schedules, and groups
+    // whose overall state doesn't change, are not written.
+    public static final String GROUP_HAS_SCHEDULES = "EXISTS (SELECT 1 FROM " + TABLE_SCHEDULE +
+            " WHERE " + TABLE_SCHEDULE + "." + SCHEDULE_GROUP_ID + " = " +
+            TABLE_SCHEDULEGROUP + "." + SCHEDULEGROUP_ID + ")";
+    public static final String GROUP_COMPUTED_STATE = "(CASE WHEN EXISTS (SELECT 1 FROM " +
+            TABLE_SCHEDULE + " WHERE " + TABLE_SCHEDULE + "." + SCHEDULE_GROUP_ID + " = " +
+            TABLE_SCHEDULEGROUP + "." + SCHEDULEGROUP_ID +
+            " AND " + TABLE_SCHEDULE + "." + SCHEDULE_STATE + " = " + StateCode.ON + ")" +
+            " THEN " + StateCode.ON + " ELSE " + StateCode.OFF + " END)";
+    public static final String UPDATE_GROUP_OVERALL_STATES = "UPDATE " + TABLE_SCHEDULEGROUP +
+            " SET " + SCHEDULEGROUP_OVERALL_STATE + " = " + GROUP_COMPUTED_STATE +
+            " WHERE " + GROUP_HAS_SCHEDULES +
+            " AND " + SCHEDULEGROUP_OVERALL_STATE + " IS NOT " + GROUP_COMPUTED_STATE;
+
+    private SAMSchema() {
+    }
+
+    /*
+     * Helper method to build a list of count parameter placeholders
+     */
+    private static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder(count * 3);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append('?');
+        }
+        return builder.toString();
+    }
+}
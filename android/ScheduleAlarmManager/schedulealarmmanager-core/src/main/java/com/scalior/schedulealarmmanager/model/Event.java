@@ -24,7 +24,6 @@
  */
 package com.scalior.schedulealarmmanager.model;
 
-import java.util.Calendar;
 /*
  * This holds an event.
  * An event is one of the outcomes of a schedules. For now, it represents either the beginning
@@ -33,13 +32,20 @@ import java.util.Calendar;
 public class Event {
     private long m_id;
     private long m_scheduleID;
-    private Calendar m_alarmTime;
-    private String m_state;
+    private long m_alarmTimeMillis;
+    private int m_stateCode;
 
-    public Event(long scheduleID, Calendar alarmTime, String state) {
+    public Event(long scheduleID, long alarmTimeMillis, String state) {
+        this(scheduleID, alarmTimeMillis, StateCode.fromString(state));
+    }
+
+    /**
+     * @param stateCode - The state the schedule turns to at the alarm time, as a StateCode
+     */
+    public Event(long scheduleID, long alarmTimeMillis, int stateCode) {
         m_scheduleID = scheduleID;
-        m_alarmTime = alarmTime;
-        m_state = state;
+        m_alarmTimeMillis = alarmTimeMillis;
+        m_stateCode = stateCode;
         m_id = 0;
     }
 
@@ -59,19 +65,33 @@ public class Event {
         m_scheduleID = scheduleID;
     }
 
-    public Calendar getAlarmTime() {
-        return m_alarmTime;
+    /**
+     * The alarm time in milliseconds since the epoch
+     */
+    public long getAlarmTimeMillis() {
+        return m_alarmTimeMillis;
     }
 
-    public void setAlarmTime(Calendar alarmTime) {
-        m_alarmTime = alarmTime;
+    public void setAlarmTimeMillis(long alarmTimeMillis) {
+        m_alarmTimeMillis = alarmTimeMillis;
     }
 
     public String getState() {
-        return m_state;
+        return StateCode.toString(m_stateCode);
     }
 
     public void setState(String state) {
-        m_state = state;
+        m_stateCode = StateCode.fromString(state);
+    }
+
+    /**
+     * The state as a StateCode
+     */
+    public int getStateCode() {
+        return m_stateCode;
+    }
+
+    public void setStateCode(int stateCode) {
+        m_stateCode = stateCode;
     }
 }
@@ -25,10 +25,7 @@
 
 package com.scalior.schedulealarmmanager.model;
 
-import android.content.Context;
-
 import com.scalior.schedulealarmmanager.ScheduleState;
-import com.scalior.schedulealarmmanager.database.SAMSQLiteHelper;
 
 import java.util.Calendar;
 
@@ -37,26 +34,42 @@ import java.util.Calendar;
  */
 public class Schedule implements ScheduleState {
     private long m_id;
-    private Calendar m_startTime;
+    private long m_startTimeMillis;
     private int m_duration; // In seconds
     private int m_repeatType;
     private String m_tag;
-    private String m_state;
+    private int m_stateCode;
 	private boolean m_disabled;
 	private Long m_groupId;
-	private ScheduleGroup m_group;
+	private ScheduleGroupInfo m_groupInfo;
 
-    public Schedule(Calendar startTime, int duration, int repeatType, String tag) {
-        m_startTime = startTime;
+    public Schedule(long startTimeMillis, int duration, int repeatType, String tag) {
+        m_startTimeMillis = startTimeMillis;
         m_duration = duration;
         m_repeatType = repeatType;
         m_tag = tag;
         m_id = 0;
+	    m_stateCode = StateCode.NONE;
 	    m_disabled = false;
 	    m_groupId = null;
-	    m_group = null;
+	    m_groupInfo = null;
     }
 
+	/**
+	 * Copy constructor
+	 */
+	public Schedule(Schedule other) {
+		m_id = other.m_id;
+		m_startTimeMillis = other.m_startTimeMillis;
+		m_duration = other.m_duration;
+		m_repeatType = other.m_repeatType;
+		m_tag = other.m_tag;
+		m_stateCode = other.m_stateCode;
+		m_disabled = other.m_disabled;
+		m_groupId = other.m_groupId;
+		m_groupInfo = other.m_groupInfo;
+	}
+
 
 	// Implementing the ScheduleState interface
 	@Override
@@ -64,9 +77,15 @@ public class Schedule implements ScheduleState {
 		return m_id;
 	}
 
+	/**
+	 * The start time is kept in milliseconds since the epoch. A new Calendar is built on
+	 * every call, so callers are free to modify it.
+	 */
 	@Override
 	public Calendar getStartTime() {
-		return m_startTime;
+		Calendar startTime = Calendar.getInstance();
+		startTime.setTimeInMillis(m_startTimeMillis);
+		return startTime;
 	}
 
 	@Override
@@ -86,7 +105,7 @@ public class Schedule implements ScheduleState {
 
 	@Override
 	public String getState() {
-		return m_state;
+		return StateCode.toString(m_stateCode);
 	}
 
 	@Override
@@ -96,16 +115,16 @@ public class Schedule implements ScheduleState {
 
 	@Override
 	public String getGroupTag() {
-		if (getGroup() != null) {
-			return getGroup().getTag();
+		if (m_groupInfo != null) {
+			return m_groupInfo.getTag();
 		}
 		return null;
 	}
 
 	@Override
 	public boolean isGroupEnabled() {
-		if (getGroup() != null) {
-			return getGroup().isEnabled();
+		if (m_groupInfo != null) {
+			return m_groupInfo.isEnabled();
 		}
 
 		// If a group is not found, this is not part of a group so return true
@@ -114,8 +133,8 @@ public class Schedule implements ScheduleState {
 
 	@Override
 	public String getGroupState() {
-		if (getGroup() != null) {
-			return getGroup().getOverallState();
+		if (m_groupInfo != null) {
+			return m_groupInfo.getOverallState();
 		}
 		return null;
 	}
@@ -125,6 +144,10 @@ public class Schedule implements ScheduleState {
         return m_id;
     }
 
+	public long getStartTimeMillis() {
+		return m_startTimeMillis;
+	}
+
 	public Long getGroupId() {
 		return m_groupId;
 	}
@@ -133,8 +156,8 @@ public class Schedule implements ScheduleState {
         m_id = id;
     }
 
-     public void setStartTime(Calendar startTime) {
-        m_startTime = startTime;
+    public void setStartTimeMillis(long startTimeMillis) {
+        m_startTimeMillis = startTimeMillis;
     }
 
     public void setDuration(int duration) {
@@ -150,9 +173,20 @@ public class Schedule implements ScheduleState {
     }
 
     public void setState(String state) {
-	    m_state = state;
+	    m_stateCode = StateCode.fromString(state);
     }
 
+	/**
+	 * The state as a StateCode
+	 */
+	public int getStateCode() {
+		return m_stateCode;
+	}
+
+	public void setStateCode(int stateCode) {
+		m_stateCode = stateCode;
+	}
+
 	public void setDisabled(boolean disabled) {
 		m_disabled = disabled;
 	}
@@ -161,13 +195,15 @@ public class Schedule implements ScheduleState {
 		m_groupId = groupId;
 	}
 
-	private ScheduleGroup getGroup() {
-		// For this call, the precondition is that the SAManager class has been initialized.
-		// That being the case, the SAMSQLiteHelper singleton has also been created and it hold
-		// a valid context object. Passing in null to get an instance will be fine here.
-		if (m_group == null && m_groupId != null && m_groupId > 0) {
-			m_group = SAMSQLiteHelper.getInstance(null).getScheduleGroupById(m_groupId);
-		}
-		return m_group;
+	/**
+	 * The group this schedule belongs to, as it was when the schedule was loaded.
+	 * This is null if the schedule is not part of a group.
+	 */
+	public ScheduleGroupInfo getGroupInfo() {
+		return m_groupInfo;
+	}
+
+	public void setGroupInfo(ScheduleGroupInfo groupInfo) {
+		m_groupInfo = groupInfo;
 	}
 }
@@ -7,12 +7,13 @@ public class ScheduleGroup {
 	private long m_id;
 	private String m_tag;
 	private boolean m_enabled;
-	private String m_overallState;
+	private int m_overallStateCode;
 
 
 	public ScheduleGroup(String tag, boolean enabled) {
 		m_tag = tag;
 		m_enabled = enabled;
+		m_overallStateCode = StateCode.NONE;
 	}
 
 
@@ -42,11 +43,22 @@ public class ScheduleGroup {
 	}
 
 	public void setOverallState(String overallState) {
-		m_overallState = overallState;
+		m_overallStateCode = StateCode.fromString(overallState);
 	}
 
 	public String getOverallState() {
-		return m_overallState;
+		return StateCode.toString(m_overallStateCode);
+	}
+
+	/**
+	 * The overall state as a StateCode
+	 */
+	public int getOverallStateCode() {
+		return m_overallStateCode;
+	}
+
+	public void setOverallStateCode(int overallStateCode) {
+		m_overallStateCode = overallStateCode;
 	}
 
 }
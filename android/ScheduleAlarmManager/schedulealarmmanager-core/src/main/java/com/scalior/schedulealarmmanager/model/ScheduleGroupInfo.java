@@ -0,0 +1,89 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.model;
+
+/**
+ * Immutable snapshot of a schedule group, attached to the schedules that belong to it.
+ * Schedules loaded together share one instance per group, and reading it never touches
+ * the database.
+ */
+public final class ScheduleGroupInfo {
+	private final long m_id;
+	private final String m_tag;
+	private final boolean m_enabled;
+	private final int m_overallStateCode;
+
+	/**
+	 * @param overallStateCode - The overall state of the group, as a StateCode
+	 */
+	public ScheduleGroupInfo(long id, String tag, boolean enabled, int overallStateCode) {
+		m_id = id;
+		m_tag = tag;
+		m_enabled = enabled;
+		m_overallStateCode = overallStateCode;
+	}
+
+	public ScheduleGroupInfo(ScheduleGroup group) {
+		this(group.getId(), group.getTag(), group.isEnabled(), group.getOverallStateCode());
+	}
+
+	public long getId() {
+		return m_id;
+	}
+
+	public String getTag() {
+		return m_tag;
+	}
+
+	public boolean isEnabled() {
+		return m_enabled;
+	}
+
+	public String getOverallState() {
+		return StateCode.toString(m_overallStateCode);
+	}
+
+	public int getOverallStateCode() {
+		return m_overallStateCode;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof ScheduleGroupInfo)) {
+			return false;
+		}
+
+		ScheduleGroupInfo other = (ScheduleGroupInfo)o;
+		return m_id == other.m_id && m_enabled == other.m_enabled &&
+				m_overallStateCode == other.m_overallStateCode &&
+				(m_tag == null ? other.m_tag == null : m_tag.equals(other.m_tag));
+	}
+
+	@Override
+	public int hashCode() {
+		return (int)(m_id ^ (m_id >>> 32));
+	}
+}
@@ -0,0 +1,71 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.model;
+
+/**
+ * Integer codes for the state of schedules, events and groups.
+ * States are stored and compared as these codes. The strings SAManager.STATE_ON and
+ * SAManager.STATE_OFF remain the public view of the same states.
+ */
+public final class StateCode {
+	// No state has been computed yet. Stored as NULL.
+	public static final int NONE = -1;
+	public static final int OFF = 0;
+	public static final int ON = 1;
+
+	public static final String ON_NAME = "ON";
+	public static final String OFF_NAME = "OFF";
+
+	private StateCode() {
+	}
+
+	/**
+	 * Description:
+	 *  Returns the code of a state string. A null state is NONE.
+	 */
+	public static int fromString(String state) {
+		if (state == null) {
+			return NONE;
+		} else if (ON_NAME.equals(state)) {
+			return ON;
+		} else if (OFF_NAME.equals(state)) {
+			return OFF;
+		}
+		throw new IllegalArgumentException("Unknown state: " + state);
+	}
+
+	/**
+	 * Description:
+	 *  Returns the string of a state code. NONE is null.
+	 */
+	public static String toString(int stateCode) {
+		switch (stateCode) {
+			case ON:
+				return ON_NAME;
+			case OFF:
+				return OFF_NAME;
+			default:
+				return null;
+		}
+	}
+}
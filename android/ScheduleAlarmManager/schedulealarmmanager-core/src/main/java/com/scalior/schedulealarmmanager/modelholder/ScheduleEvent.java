@@ -24,7 +24,7 @@
  */
 package com.scalior.schedulealarmmanager.modelholder;
 
-import com.scalior.schedulealarmmanager.SAManager;
+import com.scalior.schedulealarmmanager.RecurrenceUtil;
 import com.scalior.schedulealarmmanager.model.Event;
 import com.scalior.schedulealarmmanager.model.Schedule;
 
@@ -50,6 +50,10 @@ public class ScheduleEvent {
         return m_schedule.getStartTime();
     }
 
+    public long getStartTimeMillis() {
+        return m_schedule.getStartTimeMillis();
+    }
+
     public String getTag() {
         return m_schedule.getTag();
     }
@@ -70,10 +74,14 @@ public class ScheduleEvent {
 		return m_schedule.getState();
 	}
 
+	public int getScheduleStateCode() {
+		return m_schedule.getStateCode();
+	}
+
 	public boolean willRepeat() {
         // Enhancement. Logic can be more complicated in case we implement schedules that repeat
         // for a specific number of times e.g. 5 times.
-        return m_schedule.getRepeatType() != SAManager.REPEAT_TYPE_NONE;
+        return m_schedule.getRepeatType() != RecurrenceUtil.REPEAT_TYPE_NONE;
     }
 
     public Event getEvent() {
@@ -83,4 +91,8 @@ public class ScheduleEvent {
     public Schedule getSchedule() {
         return m_schedule;
     }
+
+    public void setSchedule(Schedule schedule) {
+        m_schedule = schedule;
+    }
 }
@@ -0,0 +1,107 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.util;
+
+/**
+ * Histogram of non-negative long values, such as durations in nanoseconds.
+ * Values are counted in power of two buckets: bucket 0 holds 0 and bucket i holds the values
+ * from 2^(i-1) to 2^i - 1. Percentiles are reported as the upper bound of their bucket, so
+ * they are at most twice the exact value. Recording a value doesn't allocate.
+ * All methods are thread safe.
+ */
+public final class Histogram {
+	private static final int BUCKET_COUNT = 64;
+
+	private final long[] m_buckets;
+	private long m_count;
+	private long m_sum;
+	private long m_max;
+
+	public Histogram() {
+		m_buckets = new long[BUCKET_COUNT];
+	}
+
+	/**
+	 * Description:
+	 *  Records a value. Negative values are recorded as 0.
+	 */
+	public synchronized void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		m_buckets[BUCKET_COUNT - Long.numberOfLeadingZeros(value)]++;
+		m_count++;
+		m_sum += value;
+		if (value > m_max) {
+			m_max = value;
+		}
+	}
+
+	public synchronized long getCount() {
+		return m_count;
+	}
+
+	public synchronized long getSum() {
+		return m_sum;
+	}
+
+	public synchronized long getMax() {
+		return m_max;
+	}
+
+	public synchronized double getMean() {
+		return m_count > 0 ? (double)m_sum / m_count : 0;
+	}
+
+	/**
+	 * Description:
+	 *  Returns an upper bound of a percentile of the recorded values
+	 *  @param percentile - The percentile, from 0 to 100
+	 *  @return The upper bound, never more than the largest value, or 0 if nothing was recorded
+	 */
+	public synchronized long getPercentile(double percentile) {
+		if (m_count == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100 * m_count));
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+			seen += m_buckets[bucket];
+			if (seen >= rank) {
+				long upperBound = bucket == 0 ? 0 : (1L << bucket) - 1;
+				return Math.min(upperBound, m_max);
+			}
+		}
+		return m_max;
+	}
+
+	public synchronized void clear() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			m_buckets[i] = 0;
+		}
+		m_count = 0;
+		m_sum = 0;
+		m_max = 0;
+	}
+}
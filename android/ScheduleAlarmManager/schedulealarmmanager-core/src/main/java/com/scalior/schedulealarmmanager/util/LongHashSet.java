@@ -0,0 +1,204 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.util;
+
+import java.util.Arrays;
+
+/**
+ * A hash set of primitive long values.
+ * Values are not boxed: they are kept in a long array and looked up with open addressing and
+ * linear probing. Clearing the set keeps its table, so a set that is reused does not allocate
+ * once it has grown to its working size.
+ * This class is not thread safe.
+ */
+public class LongHashSet {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private long[] m_values;
+	private boolean[] m_used;
+	private int m_size;
+	private int m_mask;
+
+	public LongHashSet() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize - The number of values the set should hold without growing
+	 */
+	public LongHashSet(int expectedSize) {
+		allocate(tableSizeFor(expectedSize));
+	}
+
+	public boolean contains(long value) {
+		return findSlot(value) >= 0;
+	}
+
+	/**
+	 * Description:
+	 *  Adds a value to the set.
+	 *  @return true if the value was added, false if it was already in the set
+	 */
+	public boolean add(long value) {
+		int slot = hash(value) & m_mask;
+		while (m_used[slot]) {
+			if (m_values[slot] == value) {
+				return false;
+			}
+			slot = (slot + 1) & m_mask;
+		}
+
+		m_values[slot] = value;
+		m_used[slot] = true;
+		m_size++;
+
+		// Keep the load factor at or below one half
+		if (m_size * 2 > m_used.length) {
+			rehash(m_used.length * 2);
+		}
+		return true;
+	}
+
+	/**
+	 * Description:
+	 *  Adds all the values of another set to this one.
+	 */
+	public void addAll(LongHashSet other) {
+		for (int slot = 0; slot < other.m_used.length; slot++) {
+			if (other.m_used[slot]) {
+				add(other.m_values[slot]);
+			}
+		}
+	}
+
+	/**
+	 * Description:
+	 *  Removes a value from the set.
+	 *  @return true if the value was in the set
+	 */
+	public boolean remove(long value) {
+		int slot = findSlot(value);
+		if (slot < 0) {
+			return false;
+		}
+
+		m_used[slot] = false;
+		m_size--;
+
+		// Shift back the values that follow in the same probe sequence, so that lookups
+		// never stop early at the slot that was just freed
+		int freeSlot = slot;
+		int nextSlot = (slot + 1) & m_mask;
+		while (m_used[nextSlot]) {
+			int homeSlot = hash(m_values[nextSlot]) & m_mask;
+			if (((nextSlot - homeSlot) & m_mask) >= ((nextSlot - freeSlot) & m_mask)) {
+				m_values[freeSlot] = m_values[nextSlot];
+				m_used[freeSlot] = true;
+				m_used[nextSlot] = false;
+				freeSlot = nextSlot;
+			}
+			nextSlot = (nextSlot + 1) & m_mask;
+		}
+
+		return true;
+	}
+
+	public int size() {
+		return m_size;
+	}
+
+	public boolean isEmpty() {
+		return m_size == 0;
+	}
+
+	public void clear() {
+		if (m_size > 0) {
+			Arrays.fill(m_used, false);
+			m_size = 0;
+		}
+	}
+
+	/**
+	 * Description:
+	 *  Returns the values in the set, in no particular order
+	 */
+	public long[] toArray() {
+		long[] values = new long[m_size];
+		int index = 0;
+		for (int slot = 0; slot < m_used.length; slot++) {
+			if (m_used[slot]) {
+				values[index++] = m_values[slot];
+			}
+		}
+		return values;
+	}
+
+
+	private int findSlot(long value) {
+		int slot = hash(value) & m_mask;
+		while (m_used[slot]) {
+			if (m_values[slot] == value) {
+				return slot;
+			}
+			slot = (slot + 1) & m_mask;
+		}
+		return -1;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldValues = m_values;
+		boolean[] oldUsed = m_used;
+
+		allocate(capacity);
+		for (int i = 0; i < oldUsed.length; i++) {
+			if (oldUsed[i]) {
+				int slot = hash(oldValues[i]) & m_mask;
+				while (m_used[slot]) {
+					slot = (slot + 1) & m_mask;
+				}
+				m_values[slot] = oldValues[i];
+				m_used[slot] = true;
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		m_values = new long[capacity];
+		m_used = new boolean[capacity];
+		m_mask = capacity - 1;
+	}
+
+	private static int tableSizeFor(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static int hash(long value) {
+		// Spread sequential ids over the table
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,227 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A hash map from primitive long keys to objects.
+ * Keys are not boxed: they are kept in a long array and looked up with open addressing and
+ * linear probing. Null values are not allowed.
+ * This class is not thread safe.
+ */
+public class LongObjectMap<V> {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private long[] m_keys;
+	private Object[] m_values;
+	private int m_size;
+	private int m_mask;
+
+	public LongObjectMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize - The number of entries the map should hold without growing
+	 */
+	public LongObjectMap(int expectedSize) {
+		allocate(tableSizeFor(expectedSize));
+	}
+
+	/**
+	 * Description:
+	 *  Returns the value for a key, or null if the key is not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int slot = findSlot(key);
+		return slot >= 0 ? (V)m_values[slot] : null;
+	}
+
+	public boolean containsKey(long key) {
+		return findSlot(key) >= 0;
+	}
+
+	/**
+	 * Description:
+	 *  Maps a key to a value.
+	 *  @return The value previously mapped to the key, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Null values are not allowed");
+		}
+
+		int slot = hash(key) & m_mask;
+		while (m_values[slot] != null) {
+			if (m_keys[slot] == key) {
+				V previous = (V)m_values[slot];
+				m_values[slot] = value;
+				return previous;
+			}
+			slot = (slot + 1) & m_mask;
+		}
+
+		m_keys[slot] = key;
+		m_values[slot] = value;
+		m_size++;
+
+		// Keep the load factor at or below one half
+		if (m_size * 2 > m_values.length) {
+			rehash(m_values.length * 2);
+		}
+		return null;
+	}
+
+	/**
+	 * Description:
+	 *  Removes a key from the map.
+	 *  @return The value that was mapped to the key, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int slot = findSlot(key);
+		if (slot < 0) {
+			return null;
+		}
+
+		V previous = (V)m_values[slot];
+		m_values[slot] = null;
+		m_size--;
+
+		// Shift back the entries that follow in the same probe sequence, so that lookups
+		// never stop early at the slot that was just freed
+		int freeSlot = slot;
+		int nextSlot = (slot + 1) & m_mask;
+		while (m_values[nextSlot] != null) {
+			int homeSlot = hash(m_keys[nextSlot]) & m_mask;
+			if (((nextSlot - homeSlot) & m_mask) >= ((nextSlot - freeSlot) & m_mask)) {
+				m_keys[freeSlot] = m_keys[nextSlot];
+				m_values[freeSlot] = m_values[nextSlot];
+				m_values[nextSlot] = null;
+				freeSlot = nextSlot;
+			}
+			nextSlot = (nextSlot + 1) & m_mask;
+		}
+
+		return previous;
+	}
+
+	public int size() {
+		return m_size;
+	}
+
+	public boolean isEmpty() {
+		return m_size == 0;
+	}
+
+	public void clear() {
+		if (m_size > 0) {
+			Arrays.fill(m_values, null);
+			m_size = 0;
+		}
+	}
+
+	/**
+	 * Description:
+	 *  Returns the keys in the map, in no particular order
+	 */
+	public long[] keys() {
+		long[] keys = new long[m_size];
+		int index = 0;
+		for (int slot = 0; slot < m_values.length; slot++) {
+			if (m_values[slot] != null) {
+				keys[index++] = m_keys[slot];
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Description:
+	 *  Returns the values in the map, in no particular order
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> values() {
+		List<V> values = new ArrayList<V>(m_size);
+		for (Object value : m_values) {
+			if (value != null) {
+				values.add((V)value);
+			}
+		}
+		return values;
+	}
+
+
+	private int findSlot(long key) {
+		int slot = hash(key) & m_mask;
+		while (m_values[slot] != null) {
+			if (m_keys[slot] == key) {
+				return slot;
+			}
+			slot = (slot + 1) & m_mask;
+		}
+		return -1;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = m_keys;
+		Object[] oldValues = m_values;
+
+		allocate(capacity);
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = hash(oldKeys[i]) & m_mask;
+				while (m_values[slot] != null) {
+					slot = (slot + 1) & m_mask;
+				}
+				m_keys[slot] = oldKeys[i];
+				m_values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		m_keys = new long[capacity];
+		m_values = new Object[capacity];
+		m_mask = capacity - 1;
+	}
+
+	private static int tableSizeFor(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static int hash(long key) {
+		// Spread sequential ids over the table
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+}
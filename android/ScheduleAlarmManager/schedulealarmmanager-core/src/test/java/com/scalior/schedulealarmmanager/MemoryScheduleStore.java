@@ -0,0 +1,299 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+import com.scalior.schedulealarmmanager.model.Event;
+import com.scalior.schedulealarmmanager.model.Schedule;
+import com.scalior.schedulealarmmanager.model.ScheduleGroup;
+import com.scalior.schedulealarmmanager.model.ScheduleGroupInfo;
+import com.scalior.schedulealarmmanager.model.StateCode;
+import com.scalior.schedulealarmmanager.modelholder.ScheduleEvent;
+import com.scalior.schedulealarmmanager.util.LongObjectMap;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A ScheduleStore kept in memory, for the tests and the benchmarks of the reconciliation engine.
+ * As with SAMSQLiteHelper, every read returns new objects, and the schedules returned by one
+ * read share one ScheduleGroupInfo per group. All methods are thread safe.
+ * Events are indexed by alarm time and by schedule, and only the groups whose schedules
+ * changed are recomputed, so each call costs about what the engine asks of it.
+ */
+public class MemoryScheduleStore implements ScheduleStore {
+
+	private static final Comparator<Event> BY_ALARM_TIME = new Comparator<Event>() {
+		@Override
+		public int compare(Event lhs, Event rhs) {
+			if (lhs.getAlarmTimeMillis() != rhs.getAlarmTimeMillis()) {
+				return lhs.getAlarmTimeMillis() < rhs.getAlarmTimeMillis() ? -1 : 1;
+			}
+			return lhs.getId() < rhs.getId() ? -1 : (lhs.getId() == rhs.getId() ? 0 : 1);
+		}
+	};
+
+	private final HashMap<Long, Schedule> m_schedules = new HashMap<Long, Schedule>();
+	private final HashMap<Long, ScheduleGroup> m_groups = new HashMap<Long, ScheduleGroup>();
+	private final HashMap<Long, List<Schedule>> m_schedulesByGroup =
+			new HashMap<Long, List<Schedule>>();
+	private final TreeMap<Long, Event> m_events = new TreeMap<Long, Event>();
+	private final HashMap<Long, List<Event>> m_eventsBySchedule = new HashMap<Long, List<Event>>();
+	private final TreeSet<Event> m_eventsByAlarmTime = new TreeSet<Event>(BY_ALARM_TIME);
+	private final HashSet<Long> m_changedGroupIds = new HashSet<Long>();
+	private long m_lastId;
+
+	/**
+	 * Description:
+	 *  Adds an enabled group whose overall state is not computed yet
+	 *  @return The id of the group
+	 */
+	public synchronized long addGroup(String tag) {
+		ScheduleGroup group = new ScheduleGroup(tag, true);
+		group.setId(++m_lastId);
+		m_groups.put(group.getId(), group);
+		m_schedulesByGroup.put(group.getId(), new ArrayList<Schedule>());
+		return group.getId();
+	}
+
+	/**
+	 * Description:
+	 *  Adds a schedule with its start and stop events at their first occurrence at or after
+	 *  a time. The ids are set on the schedule and the events.
+	 *  @param groupId - The group of the schedule, or null
+	 *  @return The events
+	 */
+	public synchronized List<Event> addSchedule(Schedule schedule, Long groupId, long nowMillis) {
+		schedule.setId(++m_lastId);
+		schedule.setGroupId(groupId);
+		Schedule stored = new Schedule(schedule);
+		m_schedules.put(stored.getId(), stored);
+		if (groupId != null) {
+			m_schedulesByGroup.get(groupId).add(stored);
+			m_changedGroupIds.add(groupId);
+		}
+
+		List<Event> events = RecurrenceUtil.createStartAndStopEvents(
+				schedule.getStartTimeMillis(), schedule.getDuration(), schedule.getRepeatType(),
+				nowMillis);
+		List<Event> storedEvents = new ArrayList<Event>(events.size());
+		for (Event event : events) {
+			event.setId(++m_lastId);
+			event.setScheduleID(schedule.getId());
+			Event storedEvent = copy(event);
+			m_events.put(storedEvent.getId(), storedEvent);
+			m_eventsByAlarmTime.add(storedEvent);
+			storedEvents.add(storedEvent);
+		}
+		m_eventsBySchedule.put(stored.getId(), storedEvents);
+		return events;
+	}
+
+	/**
+	 * Description:
+	 *  Deletes a schedule and its events
+	 *  @return true if the schedule existed
+	 */
+	public synchronized boolean deleteSchedule(long scheduleId) {
+		Schedule schedule = m_schedules.remove(scheduleId);
+		if (schedule == null) {
+			return false;
+		}
+
+		Long groupId = schedule.getGroupId();
+		if (groupId != null) {
+			m_schedulesByGroup.get(groupId).remove(schedule);
+			m_changedGroupIds.add(groupId);
+		}
+		deleteEvents(scheduleId);
+		return true;
+	}
+
+	/**
+	 * Description:
+	 *  Disables a schedule as SAManager does: its events are deleted and it is turned off
+	 *  @return true if the schedule existed
+	 */
+	public synchronized boolean disableSchedule(long scheduleId) {
+		Schedule schedule = m_schedules.get(scheduleId);
+		if (schedule == null) {
+			return false;
+		}
+
+		deleteEvents(scheduleId);
+		schedule.setStateCode(StateCode.OFF);
+		schedule.setDisabled(true);
+		if (schedule.getGroupId() != null) {
+			m_changedGroupIds.add(schedule.getGroupId());
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized List<ScheduleEvent> getScheduleEvents() {
+		List<ScheduleEvent> scheduleEvents = join(m_events.values());
+		return scheduleEvents.isEmpty() ? null : scheduleEvents;
+	}
+
+	@Override
+	public synchronized List<ScheduleEvent> getExpiredEvents(long cutoffTimeMillis) {
+		// Like the SQLite store, nothing is allocated when no event is due
+		if (m_eventsByAlarmTime.isEmpty() ||
+				m_eventsByAlarmTime.first().getAlarmTimeMillis() > cutoffTimeMillis) {
+			return null;
+		}
+
+		List<Event> expired = new ArrayList<Event>();
+		for (Event event : m_eventsByAlarmTime) {
+			if (event.getAlarmTimeMillis() > cutoffTimeMillis) {
+				break;
+			}
+			expired.add(event);
+		}
+		return join(expired);
+	}
+
+	@Override
+	public synchronized List<ScheduleEvent> getScheduleEventsByScheduleIds(long[] scheduleIds) {
+		List<Event> events = new ArrayList<Event>();
+		for (long scheduleId : scheduleIds) {
+			List<Event> scheduleEvents = m_eventsBySchedule.get(scheduleId);
+			if (scheduleEvents != null) {
+				events.addAll(scheduleEvents);
+			}
+		}
+		return events.isEmpty() ? null : join(events);
+	}
+
+	@Override
+	public synchronized Schedule getScheduleById(long scheduleId) {
+		Schedule schedule = m_schedules.get(scheduleId);
+		return schedule != null ? copy(schedule, new LongObjectMap<ScheduleGroupInfo>()) : null;
+	}
+
+	@Override
+	public synchronized ScheduleGroupInfo getScheduleGroupInfo(long groupId) {
+		ScheduleGroup group = m_groups.get(groupId);
+		return group != null ? new ScheduleGroupInfo(group) : null;
+	}
+
+	@Override
+	public synchronized int writeReconciliation(List<Event> events, List<Schedule> schedules) {
+		int rowsWritten = 0;
+		for (Event event : events) {
+			Event stored = m_events.get(event.getId());
+			if (stored != null) {
+				m_eventsByAlarmTime.remove(stored);
+				stored.setAlarmTimeMillis(event.getAlarmTimeMillis());
+				m_eventsByAlarmTime.add(stored);
+				rowsWritten++;
+			}
+		}
+		for (Schedule schedule : schedules) {
+			Schedule stored = m_schedules.get(schedule.getId());
+			if (stored != null) {
+				stored.setStateCode(schedule.getStateCode());
+				if (stored.getGroupId() != null) {
+					m_changedGroupIds.add(stored.getGroupId());
+				}
+				rowsWritten++;
+			}
+		}
+		return rowsWritten;
+	}
+
+	@Override
+	public synchronized int updateGroupOverallStates() {
+		int groupsWritten = 0;
+		for (Long groupId : m_changedGroupIds) {
+			List<Schedule> schedules = m_schedulesByGroup.get(groupId);
+
+			// Groups without schedules are left as they are
+			if (schedules.isEmpty()) {
+				continue;
+			}
+
+			int overallStateCode = StateCode.OFF;
+			for (Schedule schedule : schedules) {
+				if (schedule.getStateCode() == StateCode.ON) {
+					overallStateCode = StateCode.ON;
+					break;
+				}
+			}
+
+			ScheduleGroup group = m_groups.get(groupId);
+			if (overallStateCode != group.getOverallStateCode()) {
+				group.setOverallStateCode(overallStateCode);
+				groupsWritten++;
+			}
+		}
+		m_changedGroupIds.clear();
+		return groupsWritten;
+	}
+
+
+	private void deleteEvents(long scheduleId) {
+		List<Event> events = m_eventsBySchedule.remove(scheduleId);
+		if (events != null) {
+			for (Event event : events) {
+				m_events.remove(event.getId());
+				m_eventsByAlarmTime.remove(event);
+			}
+		}
+	}
+
+	private List<ScheduleEvent> join(Iterable<Event> events) {
+		LongObjectMap<ScheduleGroupInfo> groupInfos = new LongObjectMap<ScheduleGroupInfo>();
+		List<ScheduleEvent> scheduleEvents = new ArrayList<ScheduleEvent>();
+		for (Event event : events) {
+			scheduleEvents.add(new ScheduleEvent(copy(m_schedules.get(event.getScheduleID()),
+					groupInfos), copy(event)));
+		}
+		return scheduleEvents;
+	}
+
+	private Schedule copy(Schedule schedule, LongObjectMap<ScheduleGroupInfo> groupInfos) {
+		Schedule copy = new Schedule(schedule);
+		Long groupId = schedule.getGroupId();
+		if (groupId != null) {
+			ScheduleGroupInfo groupInfo = groupInfos.get(groupId);
+			if (groupInfo == null) {
+				groupInfo = new ScheduleGroupInfo(m_groups.get(groupId));
+				groupInfos.put(groupId, groupInfo);
+			}
+			copy.setGroupInfo(groupInfo);
+		}
+		return copy;
+	}
+
+	private static Event copy(Event event) {
+		Event copy = new Event(event.getScheduleID(), event.getAlarmTimeMillis(),
+				event.getStateCode());
+		copy.setId(event.getId());
+		return copy;
+	}
+}
@@ -0,0 +1,296 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+import com.scalior.schedulealarmmanager.model.Schedule;
+import com.scalior.schedulealarmmanager.model.StateCode;
+import com.scalior.schedulealarmmanager.util.LongHashSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.scalior.schedulealarmmanager.RecurrenceUtilTest.time;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress test of the reconciliation engine.
+ * Writer threads add, disable and delete schedules and run passes one at a time, as
+ * AlarmProcessingUtil does with its lock. Reader threads read the next alarms at the same time
+ * without the lock. At the end, the engine must agree with a new engine loaded from the store.
+ */
+public class ReconciliationEngineStressTest {
+
+	private static final String[] GROUP_TAGS = {"porch", "hall", "garden", "garage"};
+	private static final int[] REPEAT_TYPES = {RecurrenceUtil.REPEAT_TYPE_HOURLY,
+			RecurrenceUtil.REPEAT_TYPE_DAILY, RecurrenceUtil.REPEAT_TYPE_WEEKLY};
+
+	private static final int WRITER_COUNT = 4;
+	private static final int READER_COUNT = 4;
+	private static final int OPERATIONS_PER_WRITER = 400;
+
+	private TimeZone m_defaultTimeZone;
+
+	// Guarded by m_writerLock
+	private final Object m_writerLock = new Object();
+	private MemoryScheduleStore m_store;
+	private ReconciliationEngineTest.RecordingAlarmSink m_alarmSink;
+	private ReconciliationEngine m_engine;
+	private long[] m_groupIds;
+	private List<Long> m_scheduleIds;
+	private long m_nowMillis;
+
+	private final AtomicReference<Throwable> m_failure = new AtomicReference<Throwable>();
+	private volatile boolean m_writersDone;
+
+	@Before
+	public void setUp() {
+		m_defaultTimeZone = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+
+		m_nowMillis = time(2015, Calendar.MARCH, 1, 12, 0);
+		m_store = new MemoryScheduleStore();
+		m_alarmSink = new ReconciliationEngineTest.RecordingAlarmSink();
+		m_engine = new ReconciliationEngine(m_store, m_alarmSink);
+		m_groupIds = new long[GROUP_TAGS.length];
+		for (int i = 0; i < GROUP_TAGS.length; i++) {
+			m_groupIds[i] = m_store.addGroup(GROUP_TAGS[i]);
+		}
+		m_scheduleIds = new ArrayList<Long>();
+	}
+
+	@After
+	public void tearDown() {
+		TimeZone.setDefault(m_defaultTimeZone);
+	}
+
+	@Test
+	public void concurrentReadersSeeConsistentSnapshotsWhileSchedulesChange() throws Exception {
+		m_engine.reconcile(null, true, m_nowMillis);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> writers = new ArrayList<Thread>();
+		for (int i = 0; i < WRITER_COUNT; i++) {
+			final long seed = i;
+			writers.add(startThread(start, new Runnable() {
+				@Override
+				public void run() {
+					Random random = new Random(seed);
+					for (int operation = 0; operation < OPERATIONS_PER_WRITER; operation++) {
+						synchronized (m_writerLock) {
+							write(random);
+						}
+					}
+				}
+			}));
+		}
+
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int i = 0; i < READER_COUNT; i++) {
+			final boolean readsQueue = i == 0;
+			readers.add(startThread(start, new Runnable() {
+				@Override
+				public void run() {
+					while (!m_writersDone) {
+						checkSnapshot(m_engine.getNextAlarmSnapshot());
+						for (String groupTag : GROUP_TAGS) {
+							checkGroupAlarms(groupTag, m_engine.getNextAlarmsForGroup(groupTag, 1),
+									1);
+							if (readsQueue) {
+								synchronized (m_writerLock) {
+									checkGroupAlarms(groupTag,
+											m_engine.getNextAlarmsForGroup(groupTag, 3), 3);
+								}
+							}
+						}
+					}
+				}
+			}));
+		}
+
+		start.countDown();
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		m_writersDone = true;
+		for (Thread reader : readers) {
+			reader.join();
+		}
+
+		Throwable failure = m_failure.get();
+		if (failure != null) {
+			throw new AssertionError(failure);
+		}
+
+		// The engine must agree with one that loads everything from the store
+		m_engine.reconcile(null, false, m_nowMillis);
+		ReconciliationEngineTest.RecordingAlarmSink freshAlarmSink =
+				new ReconciliationEngineTest.RecordingAlarmSink();
+		ReconciliationEngine freshEngine = new ReconciliationEngine(m_store, freshAlarmSink);
+		freshEngine.reconcile(null, true, m_nowMillis);
+
+		NextAlarmSnapshot snapshot = m_engine.getNextAlarmSnapshot();
+		NextAlarmSnapshot freshSnapshot = freshEngine.getNextAlarmSnapshot();
+		assertTrue(freshSnapshot.getNextAlarmTimeMillis() != NextAlarmSnapshot.NO_ALARM);
+		assertEquals(freshSnapshot.getNextAlarmTimeMillis(), snapshot.getNextAlarmTimeMillis());
+		assertEquals(freshAlarmSink.m_alarmTimeMillis, m_alarmSink.m_alarmTimeMillis);
+		for (String groupTag : GROUP_TAGS) {
+			assertEquals(freshSnapshot.getNextAlarmTimeMillis(groupTag),
+					snapshot.getNextAlarmTimeMillis(groupTag));
+			UpcomingAlarm freshAlarm = freshSnapshot.getNextAlarm(groupTag);
+			if (freshAlarm != null) {
+				UpcomingAlarm alarm = snapshot.getNextAlarm(groupTag);
+				assertEquals(freshAlarm.getSchedule().getState(), alarm.getSchedule().getState());
+				assertEquals(freshAlarm.getSchedule().getGroupState(),
+						alarm.getSchedule().getGroupState());
+			}
+		}
+	}
+
+
+	/*
+	 * Runs one random change followed by its pass, as SAManager does. Called with m_writerLock
+	 * held.
+	 */
+	private void write(Random random) {
+		int operation = random.nextInt(10);
+		if (operation < 4 || m_scheduleIds.isEmpty()) {
+			long startMillis = m_nowMillis + (random.nextInt(48 * 60) - 24 * 60) *
+					RecurrenceUtil.MINUTE_MS;
+			Schedule schedule = new Schedule(startMillis, 1 + random.nextInt(50),
+					REPEAT_TYPES[random.nextInt(REPEAT_TYPES.length)], "schedule");
+			int group = random.nextInt(GROUP_TAGS.length + 1);
+			m_store.addSchedule(schedule, group < GROUP_TAGS.length ? m_groupIds[group] : null,
+					m_nowMillis);
+			m_scheduleIds.add(schedule.getId());
+			m_engine.reconcile(changed(schedule.getId()), false, m_nowMillis);
+		} else if (operation < 5) {
+			long scheduleId = m_scheduleIds.get(random.nextInt(m_scheduleIds.size()));
+			m_store.disableSchedule(scheduleId);
+			m_engine.reconcile(changed(scheduleId), false, m_nowMillis);
+		} else if (operation < 6) {
+			long scheduleId = m_scheduleIds.remove(random.nextInt(m_scheduleIds.size()));
+			m_store.deleteSchedule(scheduleId);
+			m_engine.discardScheduleEvents(scheduleId);
+			m_engine.reconcile(null, false, m_nowMillis);
+		} else if (operation < 9) {
+			// Time passes and the due events fire
+			m_nowMillis += (1 + random.nextInt(30)) * RecurrenceUtil.MINUTE_MS;
+			m_engine.reconcile(null, false, m_nowMillis);
+		} else {
+			m_engine.reconcile(null, true, m_nowMillis);
+		}
+	}
+
+	private static LongHashSet changed(long scheduleId) {
+		LongHashSet changedSchedules = new LongHashSet();
+		changedSchedules.add(scheduleId);
+		return changedSchedules;
+	}
+
+	/*
+	 * The next alarm of a snapshot is the earliest of the next alarms of its groups
+	 */
+	private static void checkSnapshot(NextAlarmSnapshot snapshot) {
+		UpcomingAlarm nextAlarm = snapshot.getNextAlarm();
+		if (nextAlarm == null) {
+			assertEquals(NextAlarmSnapshot.NO_ALARM, snapshot.getNextAlarmTimeMillis());
+		} else {
+			assertEquals(nextAlarm.getAlarmTimeMillis(), snapshot.getNextAlarmTimeMillis());
+			checkAlarm(nextAlarm);
+		}
+
+		for (String groupTag : GROUP_TAGS) {
+			UpcomingAlarm groupAlarm = snapshot.getNextAlarm(groupTag);
+			if (groupAlarm != null) {
+				assertNotNull(nextAlarm);
+				assertTrue(groupAlarm.getAlarmTimeMillis() >= nextAlarm.getAlarmTimeMillis());
+				assertEquals(groupTag, groupAlarm.getSchedule().getGroupTag());
+				checkAlarm(groupAlarm);
+			}
+		}
+
+		UpcomingAlarm groupsAlarm = snapshot.getNextAlarmForGroups(GROUP_TAGS);
+		if (groupsAlarm == null) {
+			for (String groupTag : GROUP_TAGS) {
+				assertNull(snapshot.getNextAlarm(groupTag));
+			}
+		} else {
+			for (String groupTag : GROUP_TAGS) {
+				long groupAlarmMillis = snapshot.getNextAlarmTimeMillis(groupTag);
+				assertTrue(groupAlarmMillis == NextAlarmSnapshot.NO_ALARM ||
+						groupAlarmMillis >= groupsAlarm.getAlarmTimeMillis());
+			}
+		}
+	}
+
+	private static void checkGroupAlarms(String groupTag, List<UpcomingAlarm> alarms, int count) {
+		assertTrue(alarms.size() <= count);
+		long previousMillis = Long.MIN_VALUE;
+		for (UpcomingAlarm alarm : alarms) {
+			assertEquals(groupTag, alarm.getSchedule().getGroupTag());
+			assertTrue(alarm.getAlarmTimeMillis() >= previousMillis);
+			previousMillis = alarm.getAlarmTimeMillis();
+			checkAlarm(alarm);
+		}
+	}
+
+	/*
+	 * Every queued schedule has had its state computed by a pass
+	 */
+	private static void checkAlarm(UpcomingAlarm alarm) {
+		assertNotNull(alarm.getSchedule().getState());
+		assertNotNull(alarm.getEventState());
+		assertTrue(!alarm.getSchedule().isDisabled());
+		if (alarm.getSchedule().getGroupTag() != null) {
+			assertNotNull(alarm.getSchedule().getGroupState());
+		}
+	}
+
+	private Thread startThread(final CountDownLatch start, final Runnable body) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					start.await();
+					body.run();
+				} catch (Throwable t) {
+					m_failure.compareAndSet(null, t);
+				}
+			}
+		});
+		thread.start();
+		return thread;
+	}
+}
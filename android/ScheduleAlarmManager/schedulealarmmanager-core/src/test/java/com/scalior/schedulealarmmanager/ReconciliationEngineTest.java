@@ -0,0 +1,305 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+import com.scalior.schedulealarmmanager.model.Event;
+import com.scalior.schedulealarmmanager.model.Schedule;
+import com.scalior.schedulealarmmanager.model.StateCode;
+import com.scalior.schedulealarmmanager.util.LongHashSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import static com.scalior.schedulealarmmanager.RecurrenceUtilTest.FORTY_DAYS_MINUTES;
+import static com.scalior.schedulealarmmanager.RecurrenceUtilTest.time;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests of the reconciliation engine
+ */
+public class ReconciliationEngineTest {
+
+	// An alarm sink that keeps the last alarm armed
+	static class RecordingAlarmSink implements AlarmSink {
+		volatile long m_alarmTimeMillis = NextAlarmSnapshot.NO_ALARM;
+
+		@Override
+		public void setAlarm(long alarmTimeMillis) {
+			m_alarmTimeMillis = alarmTimeMillis;
+		}
+
+		@Override
+		public void cancelAlarm() {
+			m_alarmTimeMillis = NextAlarmSnapshot.NO_ALARM;
+		}
+	}
+
+	private TimeZone m_defaultTimeZone;
+	private long m_nowMillis;
+
+	@Before
+	public void setUp() {
+		m_defaultTimeZone = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+		m_nowMillis = time(2015, Calendar.MARCH, 15, 12, 0);
+	}
+
+	@After
+	public void tearDown() {
+		TimeZone.setDefault(m_defaultTimeZone);
+	}
+
+	@Test
+	public void stopEventWithinDurationMeansOn() {
+		Event stop = new Event(1, m_nowMillis + 30 * RecurrenceUtil.MINUTE_MS, StateCode.OFF);
+
+		assertEquals(StateCode.ON, ReconciliationEngine.getCurrentStateCode(stop,
+				RecurrenceUtil.REPEAT_TYPE_DAILY, 60, m_nowMillis));
+	}
+
+	@Test
+	public void stopEventFurtherThanDurationMeansOff() {
+		Event stop = new Event(1, m_nowMillis + 90 * RecurrenceUtil.MINUTE_MS, StateCode.OFF);
+
+		assertEquals(StateCode.OFF, ReconciliationEngine.getCurrentStateCode(stop,
+				RecurrenceUtil.REPEAT_TYPE_DAILY, 60, m_nowMillis));
+	}
+
+	@Test
+	public void stopEventDueNowMeansOff() {
+		Event stop = new Event(1, m_nowMillis, StateCode.OFF);
+
+		assertEquals(StateCode.OFF, ReconciliationEngine.getCurrentStateCode(stop,
+				RecurrenceUtil.REPEAT_TYPE_DAILY, 60, m_nowMillis));
+	}
+
+	@Test
+	public void startEventWhosePreviousOccurrenceIsWithinDurationMeansOn() {
+		// The previous start was an hour ago
+		Event start = new Event(1, m_nowMillis + 23 * RecurrenceUtil.HOUR_MS, StateCode.ON);
+
+		assertEquals(StateCode.ON, ReconciliationEngine.getCurrentStateCode(start,
+				RecurrenceUtil.REPEAT_TYPE_DAILY, 120, m_nowMillis));
+	}
+
+	@Test
+	public void startEventWhosePreviousOccurrenceIsOlderThanDurationMeansOff() {
+		// The previous start was 22 hours ago
+		Event start = new Event(1, m_nowMillis + 2 * RecurrenceUtil.HOUR_MS, StateCode.ON);
+
+		assertEquals(StateCode.OFF, ReconciliationEngine.getCurrentStateCode(start,
+				RecurrenceUtil.REPEAT_TYPE_DAILY, 60, m_nowMillis));
+	}
+
+	@Test
+	public void startEventExactlyOneDurationAfterPreviousOccurrenceMeansOff() {
+		Event start = new Event(1, m_nowMillis + 23 * RecurrenceUtil.HOUR_MS, StateCode.ON);
+
+		assertEquals(StateCode.OFF, ReconciliationEngine.getCurrentStateCode(start,
+				RecurrenceUtil.REPEAT_TYPE_DAILY, 60, m_nowMillis));
+	}
+
+	@Test
+	public void startEventOfMonthlyScheduleUsesCalendarMonths() {
+		// The previous start was on January 28th at noon, 13 days ago
+		long now = time(2015, Calendar.FEBRUARY, 10, 12, 0);
+		Event start = new Event(1, time(2015, Calendar.FEBRUARY, 28, 12, 0), StateCode.ON);
+
+		assertEquals(StateCode.ON, ReconciliationEngine.getCurrentStateCode(start,
+				RecurrenceUtil.REPEAT_TYPE_MONTHLY, 13 * 24 * 60 + 1, now));
+		assertEquals(StateCode.OFF, ReconciliationEngine.getCurrentStateCode(start,
+				RecurrenceUtil.REPEAT_TYPE_MONTHLY, 13 * 24 * 60, now));
+	}
+
+	@Test
+	public void startEventAcrossDaylightSavingTimeUsesWallClockDays() {
+		// The previous start was March 7th at 13:00 EST. The clocks went forward since, so that
+		// was 22 hours ago, not 23 hours.
+		long now = time(2015, Calendar.MARCH, 8, 12, 0);
+		Event start = new Event(1, time(2015, Calendar.MARCH, 14, 13, 0), StateCode.ON);
+
+		assertEquals(StateCode.ON, ReconciliationEngine.getCurrentStateCode(start,
+				RecurrenceUtil.REPEAT_TYPE_WEEKLY, 22 * 60 + 1, now));
+		assertEquals(StateCode.OFF, ReconciliationEngine.getCurrentStateCode(start,
+				RecurrenceUtil.REPEAT_TYPE_WEEKLY, 22 * 60, now));
+	}
+
+	@Test
+	public void scheduleLongerThanTheIntRangeOfMilliseconds() {
+		Event stop = new Event(1, m_nowMillis + 39L * RecurrenceUtil.DAY_MS, StateCode.OFF);
+		Event start = new Event(1, time(2016, Calendar.FEBRUARY, 4, 12, 0), StateCode.ON);
+
+		// The stop is 39 days away, and the previous start was on February 4th, 39 days ago
+		assertEquals(StateCode.ON, ReconciliationEngine.getCurrentStateCode(stop,
+				RecurrenceUtil.REPEAT_TYPE_YEARLY, FORTY_DAYS_MINUTES, m_nowMillis));
+		assertEquals(StateCode.ON, ReconciliationEngine.getCurrentStateCode(start,
+				RecurrenceUtil.REPEAT_TYPE_YEARLY, FORTY_DAYS_MINUTES, m_nowMillis));
+	}
+
+	@Test
+	public void queuedEventSeesTheStateSetWhenAnotherEventOfItsScheduleGoesOff() {
+		MemoryScheduleStore store = new MemoryScheduleStore();
+		long start = m_nowMillis + RecurrenceUtil.HOUR_MS;
+		store.addSchedule(new Schedule(start, 60, RecurrenceUtil.REPEAT_TYPE_DAILY, "heater"),
+				null, m_nowMillis);
+		ReconciliationEngine engine = new ReconciliationEngine(store, new RecordingAlarmSink());
+
+		engine.reconcile(null, true, m_nowMillis);
+		assertEquals(StateCode.OFF_NAME,
+				engine.getNextAlarmSnapshot().getNextAlarm().getSchedule().getState());
+
+		// The start event goes off. Only it is loaded by this pass, the stop event stays queued.
+		engine.reconcile(null, false, start + RecurrenceUtil.MINUTE_MS);
+
+		UpcomingAlarm nextAlarm = engine.getNextAlarmSnapshot().getNextAlarm();
+		assertEquals(start + RecurrenceUtil.HOUR_MS, nextAlarm.getAlarmTimeMillis());
+		assertEquals(StateCode.OFF_NAME, nextAlarm.getEventState());
+		assertEquals(StateCode.ON_NAME, nextAlarm.getSchedule().getState());
+	}
+
+	@Test
+	public void eventsOfAScheduleLoadedByOnePassShareItsNewState() {
+		MemoryScheduleStore store = new MemoryScheduleStore();
+		long groupId = store.addGroup("lights");
+		long start = m_nowMillis - 30 * RecurrenceUtil.MINUTE_MS;
+		Schedule schedule = new Schedule(start, 60, RecurrenceUtil.REPEAT_TYPE_DAILY, "porch");
+		store.addSchedule(schedule, groupId, m_nowMillis);
+		ReconciliationEngine engine = new ReconciliationEngine(store, new RecordingAlarmSink());
+
+		LongHashSet changedSchedules = new LongHashSet();
+		changedSchedules.add(schedule.getId());
+		engine.reconcile(changedSchedules, false, m_nowMillis);
+
+		List<UpcomingAlarm> alarms = engine.getNextAlarmsForGroup("lights", 2);
+		assertEquals(2, alarms.size());
+		assertEquals(StateCode.ON_NAME, alarms.get(0).getSchedule().getState());
+		assertEquals(StateCode.ON_NAME, alarms.get(1).getSchedule().getState());
+	}
+
+	@Test
+	public void changedSchedulesCarryTheOverallStateOfTheirGroupAfterThePass() {
+		MemoryScheduleStore store = new MemoryScheduleStore();
+		long groupId = store.addGroup("lights");
+		long start = m_nowMillis - 30 * RecurrenceUtil.MINUTE_MS;
+		store.addSchedule(new Schedule(start, 60, RecurrenceUtil.REPEAT_TYPE_DAILY, "porch"),
+				groupId, m_nowMillis);
+		ReconciliationEngine engine = new ReconciliationEngine(store, new RecordingAlarmSink());
+
+		// The schedule turns on, and the group with it
+		engine.reconcile(null, true, m_nowMillis);
+
+		ScheduleStateBatch changedSchedules = engine.getChangedSchedules();
+		assertEquals(1, changedSchedules.size());
+		assertEquals(StateCode.ON_NAME, changedSchedules.getState(0));
+		assertEquals(StateCode.ON_NAME, changedSchedules.getScheduleState(0).getGroupState());
+	}
+
+	@Test
+	public void changedSchedulesKeepTheirStateAfterLaterPasses() {
+		MemoryScheduleStore store = new MemoryScheduleStore();
+		long groupId = store.addGroup("lights");
+		long start = m_nowMillis - 30 * RecurrenceUtil.MINUTE_MS;
+		store.addSchedule(new Schedule(start, 60, RecurrenceUtil.REPEAT_TYPE_DAILY, "porch"),
+				groupId, m_nowMillis);
+		ReconciliationEngine engine = new ReconciliationEngine(store, new RecordingAlarmSink());
+		engine.reconcile(null, true, m_nowMillis);
+		ScheduleStateBatch changedSchedules = engine.getChangedSchedules();
+
+		// The schedule and its group turn off before the batch is read
+		engine.reconcile(null, false, start + 61 * RecurrenceUtil.MINUTE_MS);
+		assertEquals(StateCode.OFF_NAME, engine.getChangedSchedules().getState(0));
+
+		ScheduleState scheduleState = changedSchedules.getScheduleState(0);
+		assertEquals(StateCode.ON_NAME, scheduleState.getState());
+		assertEquals(StateCode.ON_NAME, scheduleState.getGroupState());
+		assertEquals(start, scheduleState.getStartTime().getTimeInMillis());
+	}
+
+	@Test
+	public void snapshotShowsTheCurrentStateOfTheGroupOfAnUnchangedSchedule() {
+		MemoryScheduleStore store = new MemoryScheduleStore();
+		long groupId = store.addGroup("lights");
+		long porchStart = m_nowMillis + RecurrenceUtil.HOUR_MS;
+		long hallStart = porchStart + 30 * RecurrenceUtil.MINUTE_MS;
+		store.addSchedule(new Schedule(porchStart, 120, RecurrenceUtil.REPEAT_TYPE_DAILY, "porch"),
+				groupId, m_nowMillis);
+		store.addSchedule(new Schedule(hallStart, 60, RecurrenceUtil.REPEAT_TYPE_DAILY, "hall"),
+				groupId, m_nowMillis);
+		ReconciliationEngine engine = new ReconciliationEngine(store, new RecordingAlarmSink());
+		engine.reconcile(null, true, m_nowMillis);
+
+		// The porch turns on, and the group with it. The hall is next and isn't reloaded.
+		engine.reconcile(null, false, porchStart + RecurrenceUtil.MINUTE_MS);
+
+		NextAlarmSnapshot snapshot = engine.getNextAlarmSnapshot();
+		assertEquals(hallStart, snapshot.getNextAlarmTimeMillis("lights"));
+		assertEquals(StateCode.ON_NAME, snapshot.getNextAlarm("lights").getSchedule().getGroupState());
+		assertEquals(StateCode.ON_NAME, snapshot.getNextAlarm().getSchedule().getGroupState());
+		assertEquals(StateCode.ON_NAME,
+				engine.getNextAlarmsForGroup("lights", 1).get(0).getSchedule().getGroupState());
+	}
+
+	@Test
+	public void passThatChangesNoAlarmKeepsTheSnapshot() {
+		MemoryScheduleStore store = new MemoryScheduleStore();
+		long groupId = store.addGroup("lights");
+		store.addSchedule(new Schedule(m_nowMillis + RecurrenceUtil.HOUR_MS, 60,
+				RecurrenceUtil.REPEAT_TYPE_DAILY, "porch"), groupId, m_nowMillis);
+		ReconciliationEngine engine = new ReconciliationEngine(store, new RecordingAlarmSink());
+		engine.reconcile(null, true, m_nowMillis);
+		NextAlarmSnapshot snapshot = engine.getNextAlarmSnapshot();
+
+		engine.reconcile(null, false, m_nowMillis + RecurrenceUtil.MINUTE_MS);
+
+		assertSame(snapshot, engine.getNextAlarmSnapshot());
+	}
+
+	@Test
+	public void snapshotKeepsTheAlarmsOfGroupsThatDidNotChange() {
+		MemoryScheduleStore store = new MemoryScheduleStore();
+		long lightsId = store.addGroup("lights");
+		long heatingId = store.addGroup("heating");
+		long porchStart = m_nowMillis + RecurrenceUtil.HOUR_MS;
+		store.addSchedule(new Schedule(porchStart, 60, RecurrenceUtil.REPEAT_TYPE_DAILY, "porch"),
+				lightsId, m_nowMillis);
+		store.addSchedule(new Schedule(m_nowMillis + 3 * RecurrenceUtil.HOUR_MS, 60,
+				RecurrenceUtil.REPEAT_TYPE_DAILY, "boiler"), heatingId, m_nowMillis);
+		ReconciliationEngine engine = new ReconciliationEngine(store, new RecordingAlarmSink());
+		engine.reconcile(null, true, m_nowMillis);
+		NextAlarmSnapshot snapshot = engine.getNextAlarmSnapshot();
+
+		engine.reconcile(null, false, porchStart + RecurrenceUtil.MINUTE_MS);
+
+		NextAlarmSnapshot nextSnapshot = engine.getNextAlarmSnapshot();
+		assertNotSame(snapshot, nextSnapshot);
+		assertEquals(porchStart + RecurrenceUtil.HOUR_MS, nextSnapshot.getNextAlarmTimeMillis("lights"));
+		assertSame(snapshot.getNextAlarm("heating"), nextSnapshot.getNextAlarm("heating"));
+	}
+}
@@ -0,0 +1,316 @@
+/* The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Scalior, Inc
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.scalior.schedulealarmmanager;
+
+import com.scalior.schedulealarmmanager.model.Event;
+import com.scalior.schedulealarmmanager.model.StateCode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests of the recurrence computations. They run in a time zone with daylight saving
+ * time, so that the wall-clock behaviour of daily and longer repeats is checked.
+ */
+public class RecurrenceUtilTest {
+
+	// A duration whose length in milliseconds doesn't fit in an int
+	static final int FORTY_DAYS_MINUTES = 40 * 24 * 60;
+
+	private TimeZone m_defaultTimeZone;
+
+	@Before
+	public void setUp() {
+		m_defaultTimeZone = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+	}
+
+	@After
+	public void tearDown() {
+		TimeZone.setDefault(m_defaultTimeZone);
+	}
+
+	@Test
+	public void startTimeInTheFutureIsReturnedUnchanged() {
+		long start = time(2015, Calendar.MARCH, 20, 9, 0);
+		long now = time(2015, Calendar.MARCH, 15, 9, 0);
+
+		for (int repeatType = RecurrenceUtil.REPEAT_TYPE_HOURLY;
+		     repeatType <= RecurrenceUtil.REPEAT_TYPE_NONE; repeatType++) {
+			assertEquals(start, RecurrenceUtil.getNextOccurrence(start, repeatType, now));
+		}
+	}
+
+	@Test
+	public void occurrenceAtTheReferenceTimeIsReturned() {
+		long start = time(2015, Calendar.MARCH, 15, 10, 30);
+
+		assertEquals(time(2015, Calendar.MARCH, 15, 13, 30), RecurrenceUtil.getNextOccurrence(
+				start, RecurrenceUtil.REPEAT_TYPE_HOURLY, time(2015, Calendar.MARCH, 15, 13, 30)));
+		assertEquals(time(2015, Calendar.MARCH, 18, 10, 30), RecurrenceUtil.getNextOccurrence(
+				start, RecurrenceUtil.REPEAT_TYPE_DAILY, time(2015, Calendar.MARCH, 18, 10, 30)));
+	}
+
+	@Test
+	public void hourly() {
+		long start = time(2015, Calendar.MARCH, 15, 10, 30);
+		long now = time(2015, Calendar.MARCH, 15, 13, 0);
+
+		assertEquals(time(2015, Calendar.MARCH, 15, 13, 30),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_HOURLY, now));
+	}
+
+	@Test
+	public void hourlyCountsElapsedHoursAcrossDaylightSavingTime() {
+		// 00:30 EST is 05:30 UTC and 04:00 EDT is 08:00 UTC, so the next hour is 08:30 UTC
+		long start = time(2015, Calendar.MARCH, 8, 0, 30);
+		long now = time(2015, Calendar.MARCH, 8, 4, 0);
+
+		assertEquals(time(2015, Calendar.MARCH, 8, 4, 30),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_HOURLY, now));
+	}
+
+	@Test
+	public void daily() {
+		long start = time(2015, Calendar.MARCH, 10, 8, 0);
+		long now = time(2015, Calendar.MARCH, 15, 9, 0);
+
+		assertEquals(time(2015, Calendar.MARCH, 16, 8, 0),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_DAILY, now));
+	}
+
+	@Test
+	public void dailyKeepsWallClockTimeWhenDaylightSavingTimeStarts() {
+		long start = time(2015, Calendar.MARCH, 1, 8, 0);
+		long now = time(2015, Calendar.MARCH, 10, 7, 0);
+
+		assertEquals(time(2015, Calendar.MARCH, 10, 8, 0),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_DAILY, now));
+	}
+
+	@Test
+	public void dailyKeepsWallClockTimeWhenDaylightSavingTimeEnds() {
+		long start = time(2015, Calendar.OCTOBER, 25, 8, 0);
+		long now = time(2015, Calendar.NOVEMBER, 3, 12, 0);
+
+		assertEquals(time(2015, Calendar.NOVEMBER, 4, 8, 0),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_DAILY, now));
+	}
+
+	@Test
+	public void dailyJustBeforeTheWallClockTimeOnTheDayDaylightSavingTimeStarts() {
+		// The day of the change is 23 hours long, so elapsed time alone would overshoot
+		long start = time(2015, Calendar.MARCH, 7, 8, 0);
+		long now = time(2015, Calendar.MARCH, 8, 7, 59);
+
+		assertEquals(time(2015, Calendar.MARCH, 8, 8, 0),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_DAILY, now));
+	}
+
+	@Test
+	public void weekly() {
+		long start = time(2015, Calendar.MARCH, 2, 18, 0);
+		long now = time(2015, Calendar.MARCH, 18, 12, 0);
+
+		assertEquals(time(2015, Calendar.MARCH, 23, 18, 0),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_WEEKLY, now));
+	}
+
+	@Test
+	public void weeklyKeepsWallClockTimeAcrossDaylightSavingTime() {
+		long start = time(2015, Calendar.FEBRUARY, 23, 18, 0);
+		long now = time(2015, Calendar.MARCH, 16, 18, 30);
+
+		assertEquals(time(2015, Calendar.MARCH, 23, 18, 0),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_WEEKLY, now));
+	}
+
+	@Test
+	public void monthly() {
+		long start = time(2015, Calendar.JANUARY, 15, 9, 0);
+		long now = time(2015, Calendar.MARCH, 20, 9, 0);
+
+		assertEquals(time(2015, Calendar.APRIL, 15, 9, 0),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_MONTHLY, now));
+	}
+
+	@Test
+	public void monthlyClampsTheDayToTheEndOfShorterMonths() {
+		long start = time(2015, Calendar.JANUARY, 31, 9, 0);
+
+		assertEquals(time(2015, Calendar.FEBRUARY, 28, 9, 0), RecurrenceUtil.getNextOccurrence(
+				start, RecurrenceUtil.REPEAT_TYPE_MONTHLY, time(2015, Calendar.FEBRUARY, 10, 0, 0)));
+		assertEquals(time(2015, Calendar.APRIL, 30, 9, 0), RecurrenceUtil.getNextOccurrence(
+				start, RecurrenceUtil.REPEAT_TYPE_MONTHLY, time(2015, Calendar.APRIL, 1, 0, 0)));
+		assertEquals(time(2016, Calendar.FEBRUARY, 29, 9, 0), RecurrenceUtil.getNextOccurrence(
+				start, RecurrenceUtil.REPEAT_TYPE_MONTHLY, time(2016, Calendar.FEBRUARY, 1, 0, 0)));
+	}
+
+	@Test
+	public void monthlyReturnsToTheStartDayAfterAShorterMonth() {
+		// Every occurrence is computed from the start time, so a clamped February doesn't
+		// move the following occurrences to the 28th
+		long start = time(2015, Calendar.JANUARY, 31, 9, 0);
+		long now = time(2015, Calendar.MARCH, 1, 0, 0);
+
+		assertEquals(time(2015, Calendar.MARCH, 31, 9, 0),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_MONTHLY, now));
+	}
+
+	@Test
+	public void monthlyLaterInTheMonthThanTheReferenceTime() {
+		long start = time(2015, Calendar.JANUARY, 20, 9, 0);
+		long now = time(2015, Calendar.MARCH, 25, 9, 0);
+
+		assertEquals(time(2015, Calendar.APRIL, 20, 9, 0),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_MONTHLY, now));
+	}
+
+	@Test
+	public void monthlyKeepsWallClockTimeAcrossDaylightSavingTime() {
+		long start = time(2015, Calendar.JANUARY, 10, 7, 15);
+		long now = time(2015, Calendar.JULY, 1, 0, 0);
+
+		assertEquals(time(2015, Calendar.JULY, 10, 7, 15),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_MONTHLY, now));
+	}
+
+	@Test
+	public void yearly() {
+		long start = time(2010, Calendar.JUNE, 1, 12, 0);
+		long now = time(2015, Calendar.MARCH, 15, 9, 0);
+
+		assertEquals(time(2015, Calendar.JUNE, 1, 12, 0),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_YEARLY, now));
+	}
+
+	@Test
+	public void yearlyClampsFebruaryTwentyNinthOutsideLeapYears() {
+		long start = time(2012, Calendar.FEBRUARY, 29, 9, 0);
+
+		assertEquals(time(2013, Calendar.FEBRUARY, 28, 9, 0), RecurrenceUtil.getNextOccurrence(
+				start, RecurrenceUtil.REPEAT_TYPE_YEARLY, time(2013, Calendar.JANUARY, 1, 0, 0)));
+		assertEquals(time(2016, Calendar.FEBRUARY, 29, 9, 0), RecurrenceUtil.getNextOccurrence(
+				start, RecurrenceUtil.REPEAT_TYPE_YEARLY, time(2015, Calendar.JUNE, 1, 0, 0)));
+	}
+
+	@Test
+	public void yearlyFromAStartTimeBeforeOneAD() {
+		long start = addYears(time(2015, Calendar.JUNE, 1, 12, 0), -10000);
+		long now = time(2015, Calendar.MARCH, 15, 9, 0);
+
+		assertEquals(time(2015, Calendar.JUNE, 1, 12, 0),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_YEARLY, now));
+	}
+
+	@Test
+	public void monthlyFromAStartTimeBeforeOneAD() {
+		long start = addYears(time(2015, Calendar.JANUARY, 20, 9, 0), -10000);
+		long now = time(2015, Calendar.MARCH, 25, 9, 0);
+
+		assertEquals(time(2015, Calendar.APRIL, 20, 9, 0),
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_MONTHLY, now));
+	}
+
+	@Test
+	public void nonRepeatingScheduleDoesNotMove() {
+		long start = time(2015, Calendar.MARCH, 1, 9, 0);
+		long now = time(2015, Calendar.MARCH, 15, 9, 0);
+
+		assertEquals(start,
+				RecurrenceUtil.getNextOccurrence(start, RecurrenceUtil.REPEAT_TYPE_NONE, now));
+	}
+
+	@Test
+	public void previousOccurrence() {
+		long time = time(2015, Calendar.MARCH, 31, 9, 0);
+
+		assertEquals(time(2015, Calendar.MARCH, 31, 8, 0),
+				RecurrenceUtil.getPreviousOccurrence(time, RecurrenceUtil.REPEAT_TYPE_HOURLY));
+		assertEquals(time(2015, Calendar.MARCH, 30, 9, 0),
+				RecurrenceUtil.getPreviousOccurrence(time, RecurrenceUtil.REPEAT_TYPE_DAILY));
+		assertEquals(time(2015, Calendar.MARCH, 24, 9, 0),
+				RecurrenceUtil.getPreviousOccurrence(time, RecurrenceUtil.REPEAT_TYPE_WEEKLY));
+		assertEquals(time(2015, Calendar.FEBRUARY, 28, 9, 0),
+				RecurrenceUtil.getPreviousOccurrence(time, RecurrenceUtil.REPEAT_TYPE_MONTHLY));
+		assertEquals(time(2014, Calendar.MARCH, 31, 9, 0),
+				RecurrenceUtil.getPreviousOccurrence(time, RecurrenceUtil.REPEAT_TYPE_YEARLY));
+	}
+
+	@Test
+	public void durationIsFoldedIntoOneRepeatInterval() {
+		long start = time(2015, Calendar.MARCH, 15, 22, 0);
+
+		assertEquals(120, RecurrenceUtil.getDurationMinutes(start,
+				time(2015, Calendar.MARCH, 16, 0, 0), RecurrenceUtil.REPEAT_TYPE_DAILY));
+		// An end time before the start time ends in the next interval
+		assertEquals(22 * 60, RecurrenceUtil.getDurationMinutes(start,
+				time(2015, Calendar.MARCH, 15, 20, 0), RecurrenceUtil.REPEAT_TYPE_DAILY));
+		assertEquals(0, RecurrenceUtil.getDurationMinutes(start,
+				time(2015, Calendar.MARCH, 16, 0, 0), RecurrenceUtil.REPEAT_TYPE_NONE));
+	}
+
+	@Test
+	public void durationLongerThanTheIntRangeOfMilliseconds() {
+		long start = time(2015, Calendar.MARCH, 20, 9, 0);
+
+		assertEquals(FORTY_DAYS_MINUTES, RecurrenceUtil.getDurationMinutes(start,
+				time(2015, Calendar.APRIL, 29, 9, 0), RecurrenceUtil.REPEAT_TYPE_YEARLY));
+	}
+
+	@Test
+	public void stopEventOfScheduleLongerThanTheIntRangeOfMilliseconds() {
+		long start = time(2015, Calendar.MARCH, 20, 9, 0);
+		long now = time(2015, Calendar.MARCH, 15, 9, 0);
+
+		List<Event> events = RecurrenceUtil.createStartAndStopEvents(start, FORTY_DAYS_MINUTES,
+				RecurrenceUtil.REPEAT_TYPE_YEARLY, now);
+
+		assertEquals(start, events.get(0).getAlarmTimeMillis());
+		assertEquals(StateCode.ON, events.get(0).getStateCode());
+		assertEquals(time(2015, Calendar.APRIL, 29, 9, 0), events.get(1).getAlarmTimeMillis());
+		assertEquals(StateCode.OFF, events.get(1).getStateCode());
+	}
+
+
+	static long time(int year, int month, int day, int hour, int minute) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month, day, hour, minute);
+		return calendar.getTimeInMillis();
+	}
+
+	private static long addYears(long timeMillis, int years) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(timeMillis);
+		calendar.add(Calendar.YEAR, years);
+		return calendar.getTimeInMillis();
+	}
+}